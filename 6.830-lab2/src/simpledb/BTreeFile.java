@@ -0,0 +1,674 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+/**
+ * BTreeFile is a DbFile that stores its tuples in the leaves of a B+ tree
+ * on one of their fields, an int or a string, so that lookups and range
+ * scans on that field read a path from the root and the leaves in the
+ * range rather than the whole table. Tables are listed in a catalog file
+ * with the "btree" table option; the tree is on the primary key.
+ * <p>
+ * Page 0 is a {@link BTreeRootPtrPage} pointing at the root and the first
+ * {@link BTreeHeaderPage}; the other pages are header pages,
+ * {@link BTreeInternalPage}s and {@link BTreeLeafPage}s. All pages have the
+ * buffer pool's page size and are read, locked and dirtied through the
+ * buffer pool, so updates take part in two-phase locking, NO STEAL and the
+ * log like those of a HeapFile. Internal pages don't point at their
+ * parents; inserts and deletes remember the path they came down by and
+ * split, redistribute or merge the pages on it. Pages freed by merges are
+ * reused before the file grows.
+ * <p>
+ * Like PaxFile, BTreeFile takes page-level locks only and doesn't support
+ * record-level locking.
+ *
+ * @see IndexPredicate
+ */
+public class BTreeFile implements DbFile {
+
+    private final File f;
+    private final TupleDesc td;
+    private final int keyField;
+    // see HeapFile.channel
+    private volatile FileChannel channel;
+
+    /** One step of a descent: an internal page and the child taken. */
+    private static class Step {
+        final BTreePageId pid;
+        final int child;
+
+        Step(BTreePageId pid, int child) {
+            this.pid = pid;
+            this.child = child;
+        }
+    }
+
+    /**
+     * Constructs a B+ tree file backed by the specified file.
+     *
+     * @param f the file that stores the on-disk backing store for this file
+     * @param keyField the field the tree is on
+     * @param td the schema of the table
+     */
+    public BTreeFile(File f, int keyField, TupleDesc td) {
+        this.f = f;
+        this.keyField = keyField;
+        this.td = td;
+    }
+
+    private FileChannel getChannel() throws IOException {
+        FileChannel fc = channel;
+        if (fc == null) {
+            synchronized (this) {
+                fc = channel;
+                if (fc == null) {
+                    fc = new RandomAccessFile(f, "rw").getChannel();
+                    channel = fc;
+                }
+            }
+        }
+        return fc;
+    }
+
+    /**
+     * Closes the channel backing this BTreeFile, if it has been opened.
+     * The channel is reopened on the next read or write.
+     */
+    public synchronized void close() {
+        if (channel == null) return;
+        try {
+            channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        channel = null;
+    }
+
+    /**
+     * Returns the File backing this BTreeFile on disk.
+     */
+    public File getFile() {
+        return f;
+    }
+
+    /**
+     * Returns an ID uniquely identifying this BTreeFile, the hash code of
+     * the absolute file name, as for a HeapFile.
+     */
+    public int getId() {
+        return f.getAbsoluteFile().hashCode();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /** @return the index of the field the tree is on */
+    public int keyField() {
+        return keyField;
+    }
+
+    /**
+     * Compares two keys of the same type.
+     *
+     * @return a negative number, zero or a positive number as a is less
+     *   than, equal to or greater than b
+     */
+    static int compareKeys(Field a, Field b) {
+        if (a instanceof IntField)
+            return Integer.compare(((IntField) a).getValue(), ((IntField) b).getValue());
+        return ((StringField) a).getValue().compareTo(((StringField) b).getValue());
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        if (!(pid instanceof BTreePageId))
+            throw new IllegalArgumentException("not a B+ tree page: " + pid);
+        int pgno = pid.pageNumber();
+        long offset = (long) pgno * BufferPool.getPageSize();
+        ByteBuffer buf = ByteBuffer.allocate(BufferPool.getPageSize());
+        try {
+            FileChannel fc = getChannel();
+            while (buf.hasRemaining()) {
+                int n = fc.read(buf, offset + buf.position());
+                if (n < 0) break;
+            }
+            if (buf.position() == 0)
+                throw new IllegalArgumentException("page " + pgno + " does not exist");
+            return BTreePage.create((BTreePageId) pid, buf.array());
+        } catch (IOException e) {
+            throw new IllegalArgumentException("IOException", e);
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(BufferPool.getPageSize());
+        page.getPageData(buf);
+        buf.flip();
+        write(page.getId().pageNumber(), buf);
+    }
+
+    private void write(int pgno, ByteBuffer buf) throws IOException {
+        long offset = (long) pgno * BufferPool.getPageSize();
+        FileChannel fc = getChannel();
+        while (buf.hasRemaining()) {
+            fc.write(buf, offset + buf.position());
+        }
+    }
+
+    /**
+     * Returns the number of pages in this BTreeFile, header and free pages
+     * included.
+     */
+    public int numPages() {
+        return (int) (f.length() / BufferPool.getPageSize());
+    }
+
+    /**
+     * Estimates the number of pages a lookup reads on its way down to a
+     * leaf, leaf included, from the size of the file and the fan-out of
+     * internal pages, without reading any page.
+     */
+    public int estimateHeight() {
+        int pages = Math.max(1, numPages() - 2);
+        int fanout = BTreeInternalPage.capacity(td.getFieldType(keyField)) + 1;
+        int height = 1;
+        for (long reach = 1; reach < pages; reach *= fanout)
+            height++;
+        return height;
+    }
+
+    private void checkPageLocking() throws DbException {
+        if (Database.getBufferPool().isRecordLocking())
+            throw new DbException("BTreeFile " + f + " doesn't support record-level locking");
+    }
+
+    private BTreePageId rootPtrId() {
+        return new BTreePageId(getId(), 0, BTreePageId.ROOT_PTR);
+    }
+
+    /**
+     * Writes the root pointer page and the first header page of an empty
+     * tree if the file has no pages yet.
+     */
+    private synchronized void initialize() throws IOException {
+        if (numPages() > 0) return;
+        BTreeRootPtrPage rootPtr = new BTreeRootPtrPage(rootPtrId(),
+                BTreePage.createEmptyPageData(BTreePageId.ROOT_PTR));
+        rootPtr.setHeaderPgno(1);
+        BTreeHeaderPage header = new BTreeHeaderPage(new BTreePageId(getId(), 1, BTreePageId.HEADER),
+                BTreePage.createEmptyPageData(BTreePageId.HEADER));
+        header.setUsed(0, true);
+        header.setUsed(1, true);
+        writePage(rootPtr);
+        writePage(header);
+    }
+
+    /**
+     * Fetches a page through the buffer pool. A page fetched for writing is
+     * marked dirty and added to dirtied right away, so that the pool can't
+     * evict it while it is being changed.
+     */
+    private BTreePage getPage(TransactionId tid, BTreePageId pid, Permissions perm,
+            Map<PageId, Page> dirtied) throws DbException, TransactionAbortedException {
+        BTreePage page = (BTreePage) Database.getBufferPool().getPage(tid, pid, perm);
+        if (perm == Permissions.READ_WRITE) {
+            page.markDirty(true, tid);
+            dirtied.put(pid, page);
+        }
+        return page;
+    }
+
+    /**
+     * Descends from the root to the leftmost leaf that may hold key, or to
+     * the first leaf if key is null, adding the internal pages passed and
+     * the children taken to path if it isn't null.
+     *
+     * @return the leaf, locked for reading, or null if the tree is empty
+     */
+    private BTreeLeafPage findLeaf(TransactionId tid, Field key, ArrayList<Step> path)
+            throws DbException, TransactionAbortedException {
+        BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) getPage(tid, rootPtrId(), Permissions.READ_ONLY, null);
+        BTreePageId id = rootPtr.getRootId();
+        if (id == null) return null;
+        while (id.pgcateg() == BTreePageId.INTERNAL) {
+            BTreeInternalPage page = (BTreeInternalPage) getPage(tid, id, Permissions.READ_ONLY, null);
+            int i = page.findChild(key);
+            if (path != null) path.add(new Step(id, i));
+            id = page.getChildId(i);
+        }
+        return (BTreeLeafPage) getPage(tid, id, Permissions.READ_ONLY, null);
+    }
+
+    /**
+     * Moves path on to the leaf after the one it leads to.
+     *
+     * @return that leaf, locked for reading, or null if there is none
+     */
+    private BTreeLeafPage nextLeaf(TransactionId tid, ArrayList<Step> path)
+            throws DbException, TransactionAbortedException {
+        while (!path.isEmpty()) {
+            Step s = path.remove(path.size() - 1);
+            BTreeInternalPage page = (BTreeInternalPage) getPage(tid, s.pid, Permissions.READ_ONLY, null);
+            if (s.child < page.getNumKeys()) {
+                path.add(new Step(s.pid, s.child + 1));
+                BTreePageId id = page.getChildId(s.child + 1);
+                while (id.pgcateg() == BTreePageId.INTERNAL) {
+                    path.add(new Step(id, 0));
+                    id = ((BTreeInternalPage) getPage(tid, id, Permissions.READ_ONLY, null)).getChildId(0);
+                }
+                return (BTreeLeafPage) getPage(tid, id, Permissions.READ_ONLY, null);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Takes a free page, or a new one at the end of the file, and makes it
+     * an empty page of the given kind.
+     *
+     * @return the page, locked for writing
+     */
+    private BTreePage allocatePage(TransactionId tid, int category, Map<PageId, Page> dirtied)
+            throws DbException, IOException, TransactionAbortedException {
+        BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) getPage(tid, rootPtrId(), Permissions.READ_ONLY, null);
+        int capacity = BTreeHeaderPage.capacity();
+        BTreePageId hid = rootPtr.getHeaderId();
+        for (int h = 0; ; h++) {
+            BTreeHeaderPage header = (BTreeHeaderPage) getPage(tid, hid, Permissions.READ_WRITE, dirtied);
+            int i = header.firstFree();
+            if (i >= 0) {
+                header.setUsed(i, true);
+                return claimPage(tid, h * capacity + i, category, dirtied);
+            }
+            if (header.getNext() == 0) {
+                // every page this header covers is in use, so the file ends
+                // here and the next header is the first page after it
+                int pgno = (h + 1) * capacity;
+                BTreeHeaderPage next = (BTreeHeaderPage) claimPage(tid, pgno, BTreePageId.HEADER, dirtied);
+                next.setUsed(0, true);
+                header.setNext(pgno);
+            }
+            hid = new BTreePageId(getId(), header.getNext(), BTreePageId.HEADER);
+        }
+    }
+
+    /** Makes page pgno, which the caller has marked in use, an empty page of the given kind. */
+    private BTreePage claimPage(TransactionId tid, int pgno, int category, Map<PageId, Page> dirtied)
+            throws DbException, IOException, TransactionAbortedException {
+        BTreePageId pid = new BTreePageId(getId(), pgno, category);
+        synchronized (this) {
+            // as in HeapFile, a new page is written empty and then read
+            // through the buffer pool, which locks it
+            if (pgno >= numPages())
+                write(pgno, ByteBuffer.wrap(BTreePage.createEmptyPageData(category)));
+        }
+        BufferPool bufpool = Database.getBufferPool();
+        BTreePage page = (BTreePage) bufpool.getPage(tid, pid, Permissions.READ_WRITE);
+        if (page.getId().pgcateg() != category) {
+            // a freed page is cached as its old kind; it is garbage now
+            bufpool.discardPage(pid);
+            page = (BTreePage) bufpool.getPage(tid, pid, Permissions.READ_WRITE);
+        }
+        // a freed page of the same kind still holds its old contents
+        page.clear();
+        page.markDirty(true, tid);
+        dirtied.put(pid, page);
+        return page;
+    }
+
+    /** Marks page pgno free in its header page. */
+    private void freePage(TransactionId tid, int pgno, Map<PageId, Page> dirtied)
+            throws DbException, TransactionAbortedException {
+        BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) getPage(tid, rootPtrId(), Permissions.READ_ONLY, null);
+        int capacity = BTreeHeaderPage.capacity();
+        BTreePageId hid = rootPtr.getHeaderId();
+        for (int h = 0; h < pgno / capacity; h++) {
+            int next = ((BTreeHeaderPage) getPage(tid, hid, Permissions.READ_ONLY, null)).getNext();
+            hid = new BTreePageId(getId(), next, BTreePageId.HEADER);
+        }
+        ((BTreeHeaderPage) getPage(tid, hid, Permissions.READ_WRITE, dirtied)).setUsed(pgno % capacity, false);
+    }
+
+    private void setRoot(TransactionId tid, BTreePageId root, Map<PageId, Page> dirtied)
+            throws DbException, TransactionAbortedException {
+        ((BTreeRootPtrPage) getPage(tid, rootPtrId(), Permissions.READ_WRITE, dirtied)).setRootId(root);
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        checkPageLocking();
+        if (!td.equals(t.getTupleDesc())) throw new DbException("can't fit tupledesc");
+        initialize();
+        LinkedHashMap<PageId, Page> dirtied = new LinkedHashMap<PageId, Page>();
+        ArrayList<Step> path = new ArrayList<Step>();
+        BTreeLeafPage leaf = findLeaf(tid, t.getField(keyField), path);
+        if (leaf == null) {
+            leaf = (BTreeLeafPage) allocatePage(tid, BTreePageId.LEAF, dirtied);
+            setRoot(tid, leaf.getId(), dirtied);
+        } else {
+            leaf = (BTreeLeafPage) getPage(tid, leaf.getId(), Permissions.READ_WRITE, dirtied);
+        }
+        int slot = leaf.insertTuple(t);
+        if (leaf.getNumTuples() > BTreeLeafPage.capacity(td)) {
+            BTreeLeafPage right = (BTreeLeafPage) allocatePage(tid, BTreePageId.LEAF, dirtied);
+            int half = leaf.getNumTuples() / 2;
+            leaf.moveTuples(half, right);
+            right.setRightSibling(leaf.getRightSibling());
+            leaf.setRightSibling(right.getId().pageNumber());
+            insertIntoParent(tid, path, leaf.getId(), right.getKey(0), right.getId().pageNumber(), dirtied);
+            if (slot >= half) {
+                leaf = right;
+                slot -= half;
+            }
+        }
+        t.setRecordId(new RecordId(leaf.getId(), slot));
+        return new ArrayList<Page>(dirtied.values());
+    }
+
+    /**
+     * Adds the page right, split off from the page left, to the parent at
+     * the end of path, splitting the parent in turn if it overflows. If
+     * path is empty, left was the root, and a new root is made above both.
+     *
+     * @param sep the smallest key in right
+     */
+    private void insertIntoParent(TransactionId tid, ArrayList<Step> path, BTreePageId left,
+            Field sep, int right, Map<PageId, Page> dirtied)
+            throws DbException, IOException, TransactionAbortedException {
+        if (path.isEmpty()) {
+            BTreeInternalPage root = (BTreeInternalPage) allocatePage(tid, BTreePageId.INTERNAL, dirtied);
+            root.init(left.pgcateg(), left.pageNumber());
+            root.keys.add(sep);
+            root.children.add(right);
+            setRoot(tid, root.getId(), dirtied);
+            return;
+        }
+        Step s = path.remove(path.size() - 1);
+        BTreeInternalPage parent = (BTreeInternalPage) getPage(tid, s.pid, Permissions.READ_WRITE, dirtied);
+        parent.keys.add(s.child, sep);
+        parent.children.add(s.child + 1, right);
+        if (parent.getNumKeys() <= BTreeInternalPage.capacity(sep.getType())) return;
+
+        // the middle key moves up; the keys right of it go to a new page
+        BTreeInternalPage sibling = (BTreeInternalPage) allocatePage(tid, BTreePageId.INTERNAL, dirtied);
+        int mid = parent.getNumKeys() / 2;
+        Field up = parent.keys.get(mid);
+        List<Field> movedKeys = parent.keys.subList(mid + 1, parent.keys.size());
+        List<Integer> movedChildren = parent.children.subList(mid + 1, parent.children.size());
+        sibling.init(parent.getChildCategory(), movedChildren.get(0));
+        sibling.children.addAll(movedChildren.subList(1, movedChildren.size()));
+        sibling.keys.addAll(movedKeys);
+        movedChildren.clear();
+        parent.keys.subList(mid, parent.keys.size()).clear();
+        insertIntoParent(tid, path, parent.getId(), up, sibling.getId().pageNumber(), dirtied);
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> insertTuples(TransactionId tid, Iterator<Tuple> tuples)
+            throws DbException, IOException, TransactionAbortedException {
+        LinkedHashSet<Page> modified = new LinkedHashSet<Page>();
+        while (tuples.hasNext())
+            modified.addAll(insertTuple(tid, tuples.next()));
+        return new ArrayList<Page>(modified);
+    }
+
+    private boolean sameFields(Tuple a, Tuple b) {
+        for (int j = 0; j < td.numFields(); j++)
+            if (!a.getField(j).equals(b.getField(j))) return false;
+        return true;
+    }
+
+    /**
+     * Deletes a tuple with the fields of t. The tuple is found by its key,
+     * since the tuple number of its RecordId changes as others are
+     * inserted and deleted. Pages other than the returned leaf that the
+     * delete changes are marked dirty here.
+     */
+    public Page deleteTuple(TransactionId tid, Tuple t) throws DbException,
+            TransactionAbortedException {
+        checkPageLocking();
+        RecordId rid = t.getRecordId();
+        if (rid == null || rid.getPageId().getTableId() != getId()) throw new DbException("not a same table");
+        if (numPages() == 0) throw new DbException("tuple not found");
+        Field key = t.getField(keyField);
+        ArrayList<Step> path = new ArrayList<Step>();
+        // equal keys may go on for several leaves
+        for (BTreeLeafPage leaf = findLeaf(tid, key, path); leaf != null; leaf = nextLeaf(tid, path)) {
+            for (int i = leaf.findFirst(key); i < leaf.getNumTuples(); i++) {
+                if (compareKeys(leaf.getKey(i), key) > 0) throw new DbException("tuple not found");
+                if (!sameFields(leaf.getTuple(i), t)) continue;
+                LinkedHashMap<PageId, Page> dirtied = new LinkedHashMap<PageId, Page>();
+                leaf = (BTreeLeafPage) getPage(tid, leaf.getId(), Permissions.READ_WRITE, dirtied);
+                leaf.deleteTuple(i);
+                if (!path.isEmpty() && leaf.getNumTuples() < BTreeLeafPage.capacity(td) / 2) {
+                    try {
+                        rebalanceLeaf(tid, path, leaf, dirtied);
+                    } catch (IOException e) {
+                        throw new DbException("rebalancing after delete failed: " + e.getMessage());
+                    }
+                }
+                return leaf;
+            }
+        }
+        throw new DbException("tuple not found");
+    }
+
+    /**
+     * Refills leaf, which is under half full, from a sibling with tuples to
+     * spare, or merges it with a sibling.
+     */
+    private void rebalanceLeaf(TransactionId tid, ArrayList<Step> path, BTreeLeafPage leaf,
+            Map<PageId, Page> dirtied) throws DbException, IOException, TransactionAbortedException {
+        int min = BTreeLeafPage.capacity(td) / 2;
+        Step s = path.remove(path.size() - 1);
+        int i = s.child;
+        BTreeInternalPage parent = (BTreeInternalPage) getPage(tid, s.pid, Permissions.READ_WRITE, dirtied);
+        BTreeLeafPage left = i > 0
+                ? (BTreeLeafPage) getPage(tid, parent.getChildId(i - 1), Permissions.READ_WRITE, dirtied) : null;
+        if (left != null && left.getNumTuples() > min) {
+            leaf.insertTuple(0, left.deleteTuple(left.getNumTuples() - 1));
+            parent.keys.set(i - 1, leaf.getKey(0));
+            return;
+        }
+        BTreeLeafPage right = i < parent.getNumKeys()
+                ? (BTreeLeafPage) getPage(tid, parent.getChildId(i + 1), Permissions.READ_WRITE, dirtied) : null;
+        if (right != null && right.getNumTuples() > min) {
+            leaf.insertTuple(leaf.getNumTuples(), right.deleteTuple(0));
+            parent.keys.set(i, right.getKey(0));
+            return;
+        }
+        if (left != null) {
+            leaf.moveTuples(0, left);
+            left.setRightSibling(leaf.getRightSibling());
+            removeEntry(parent, i - 1);
+            freePage(tid, leaf.getId().pageNumber(), dirtied);
+        } else {
+            right.moveTuples(0, leaf);
+            leaf.setRightSibling(right.getRightSibling());
+            removeEntry(parent, i);
+            freePage(tid, right.getId().pageNumber(), dirtied);
+        }
+        rebalanceInternal(tid, path, parent, dirtied);
+    }
+
+    /** Removes key k and the child to its right from page. */
+    private static void removeEntry(BTreeInternalPage page, int k) {
+        page.keys.remove(k);
+        page.children.remove(k + 1);
+    }
+
+    /**
+     * Refills page, which has lost an entry, from a sibling through the
+     * parent if it is under half full, or merges it with a sibling. A root
+     * left with a single child is replaced by that child.
+     */
+    private void rebalanceInternal(TransactionId tid, ArrayList<Step> path, BTreeInternalPage page,
+            Map<PageId, Page> dirtied) throws DbException, IOException, TransactionAbortedException {
+        if (path.isEmpty()) {
+            if (page.getNumKeys() == 0) {
+                setRoot(tid, page.getChildId(0), dirtied);
+                freePage(tid, page.getId().pageNumber(), dirtied);
+            }
+            return;
+        }
+        int min = BTreeInternalPage.capacity(td.getFieldType(keyField)) / 2;
+        if (page.getNumKeys() >= min) return;
+        Step s = path.remove(path.size() - 1);
+        int i = s.child;
+        BTreeInternalPage parent = (BTreeInternalPage) getPage(tid, s.pid, Permissions.READ_WRITE, dirtied);
+        BTreeInternalPage left = i > 0
+                ? (BTreeInternalPage) getPage(tid, parent.getChildId(i - 1), Permissions.READ_WRITE, dirtied) : null;
+        if (left != null && left.getNumKeys() > min) {
+            // rotate the last entry of left through the parent
+            page.keys.add(0, parent.keys.get(i - 1));
+            page.children.add(0, left.children.remove(left.children.size() - 1));
+            parent.keys.set(i - 1, left.keys.remove(left.keys.size() - 1));
+            return;
+        }
+        BTreeInternalPage right = i < parent.getNumKeys()
+                ? (BTreeInternalPage) getPage(tid, parent.getChildId(i + 1), Permissions.READ_WRITE, dirtied) : null;
+        if (right != null && right.getNumKeys() > min) {
+            page.keys.add(parent.keys.get(i));
+            page.children.add(right.children.remove(0));
+            parent.keys.set(i, right.keys.remove(0));
+            return;
+        }
+        // the separator comes down between the merged entries
+        if (left != null) {
+            left.keys.add(parent.keys.get(i - 1));
+            left.keys.addAll(page.keys);
+            left.children.addAll(page.children);
+            removeEntry(parent, i - 1);
+            freePage(tid, page.getId().pageNumber(), dirtied);
+        } else {
+            page.keys.add(parent.keys.get(i));
+            page.keys.addAll(right.keys);
+            page.children.addAll(right.children);
+            removeEntry(parent, i);
+            freePage(tid, right.getId().pageNumber(), dirtied);
+        }
+        rebalanceInternal(tid, path, parent, dirtied);
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid) {
+        return new BTreeFileIterator(tid, null);
+    }
+
+    /**
+     * Returns an iterator over the tuples whose keys pass ipred, in key
+     * order. Equality and lower bounds start at the first leaf that may
+     * hold a match, and equality and upper bounds stop at the first key
+     * past the range; LIKE and NOT_EQUALS read every leaf.
+     */
+    public DbFileIterator indexIterator(TransactionId tid, IndexPredicate ipred) {
+        return new BTreeFileIterator(tid, ipred);
+    }
+
+    /**
+     * @return an IndexPredicate for the first of predicates on the key
+     *   that an index scan can narrow down, or null if there is none
+     */
+    public IndexPredicate indexPredicate(List<Predicate> predicates) {
+        for (Predicate p : predicates) {
+            if (p.getField() != keyField) continue;
+            if (p.getOp() == Predicate.Op.LIKE || p.getOp() == Predicate.Op.NOT_EQUALS) continue;
+            return new IndexPredicate(p.getOp(), p.getOperand());
+        }
+        return null;
+    }
+
+    /** Walks the leaves from left to right, like HeapFile's iterator walks pages. */
+    private class BTreeFileIterator extends AbstractDbFileIterator {
+
+        private final TransactionId tid;
+        private final IndexPredicate ipred;
+        private BufferPool bufpool;
+        private Tuple[] tuples;
+        private int next;
+        private int rightSibling;
+
+        BTreeFileIterator(TransactionId tid, IndexPredicate ipred) {
+            this.tid = tid;
+            this.ipred = ipred;
+        }
+
+        @Override
+        public void open() throws DbException, TransactionAbortedException {
+            bufpool = Database.getBufferPool();
+            tuples = null;
+            rightSibling = 0;
+            if (numPages() == 0) return;
+            Field start = null;
+            if (ipred != null && (ipred.getOp() == Predicate.Op.EQUALS
+                    || ipred.getOp() == Predicate.Op.GREATER_THAN
+                    || ipred.getOp() == Predicate.Op.GREATER_THAN_OR_EQ))
+                start = ipred.getField();
+            BTreeLeafPage leaf = findLeaf(tid, start, null);
+            if (leaf == null) return;
+            load(leaf);
+            next = start == null ? 0 : leaf.findFirst(start);
+        }
+
+        private void load(BTreeLeafPage leaf) {
+            tuples = leaf.tuples();
+            rightSibling = leaf.getRightSibling();
+            next = 0;
+        }
+
+        /** @return true if no key after key, in key order, can pass ipred */
+        private boolean pastEnd(Field key) {
+            switch (ipred.getOp()) {
+            case EQUALS:
+            case LESS_THAN_OR_EQ:
+                return compareKeys(key, ipred.getField()) > 0;
+            case LESS_THAN:
+                return compareKeys(key, ipred.getField()) >= 0;
+            default:
+                return false;
+            }
+        }
+
+        @Override
+        protected Tuple readNext() throws DbException, TransactionAbortedException {
+            if (bufpool == null) return null;
+            while (tuples != null) {
+                while (next < tuples.length) {
+                    Tuple t = tuples[next++];
+                    if (ipred == null || ipred.filter(t.getField(keyField))) return t;
+                    if (pastEnd(t.getField(keyField))) {
+                        tuples = null;
+                        return null;
+                    }
+                }
+                if (rightSibling == 0) {
+                    tuples = null;
+                } else {
+                    BTreePageId pid = new BTreePageId(getId(), rightSibling, BTreePageId.LEAF);
+                    load((BTreeLeafPage) bufpool.getPage(tid, pid, Permissions.READ_ONLY));
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public void rewind() throws DbException, TransactionAbortedException {
+            if (bufpool == null) throw new IllegalStateException("iterator is not open");
+            close();
+            open();
+        }
+
+        @Override
+        public void close() {
+            super.close();
+            bufpool = null;
+            tuples = null;
+        }
+    }
+}
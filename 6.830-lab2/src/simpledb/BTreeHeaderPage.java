@@ -0,0 +1,81 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * BTreeHeaderPage keeps track of which pages of a BTreeFile are in use.
+ * The header pages form a chain; the n-th one has a bit for each of the
+ * {@link #capacity()} pages starting at page n * capacity(), set if the
+ * page is in use. Pages freed by merges are cleared here and handed out
+ * again before the file grows.
+ *
+ * @see BTreeFile
+ */
+public class BTreeHeaderPage extends BTreePage {
+
+    /** Size of the header of the page: kind and next header page. */
+    static final int HEADER_SIZE = 5;
+
+    private int next;
+    private final byte[] bitmap = new byte[BufferPool.getPageSize() - HEADER_SIZE];
+
+    /**
+     * Create a BTreeHeaderPage from a set of bytes of data read from disk:
+     * after the kind byte, the number of the next header page (0 if this
+     * is the last) and the bitmap.
+     */
+    public BTreeHeaderPage(BTreePageId id, byte[] data) throws IOException {
+        super(id, data);
+        ByteBuffer buf = body(data, BTreePageId.HEADER);
+        if (buf != null) {
+            next = buf.getInt();
+            buf.get(bitmap);
+        }
+    }
+
+    @Override
+    void writeBody(ByteBuffer out) {
+        out.putInt(next).put(bitmap);
+    }
+
+    @Override
+    synchronized void clear() {
+        next = 0;
+        Arrays.fill(bitmap, (byte) 0);
+    }
+
+    /** @return the number of pages one header page keeps track of */
+    public static int capacity() {
+        return (BufferPool.getPageSize() - HEADER_SIZE) * 8;
+    }
+
+    /** @return the number of the next header page, or 0 if this is the last */
+    public synchronized int getNext() {
+        return next;
+    }
+
+    public synchronized void setNext(int pgno) {
+        next = pgno;
+    }
+
+    /** @return true if the i-th page this header keeps track of is in use */
+    public synchronized boolean isUsed(int i) {
+        return (bitmap[i / 8] & (1 << (i % 8))) != 0;
+    }
+
+    public synchronized void setUsed(int i, boolean used) {
+        if (used) bitmap[i / 8] |= (byte) (1 << (i % 8));
+        else bitmap[i / 8] &= (byte) ~(1 << (i % 8));
+    }
+
+    /** @return the index of the first unused page, or -1 if all are in use */
+    public synchronized int firstFree() {
+        for (int b = 0; b < bitmap.length; b++) {
+            if (bitmap[b] == (byte) 0xff) continue;
+            return b * 8 + Integer.numberOfTrailingZeros(~bitmap[b] & 0xff);
+        }
+        return -1;
+    }
+}
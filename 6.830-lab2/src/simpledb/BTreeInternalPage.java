@@ -0,0 +1,120 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.text.ParseException;
+import java.util.*;
+
+/**
+ * BTreeInternalPage stores n keys and n + 1 child page numbers of a
+ * BTreeFile. The keys in the subtree of child i are not less than key
+ * i - 1 and not greater than key i. All children of a page are of the same
+ * kind, leaves or internal pages.
+ * <p>
+ * After the kind byte, an internal page holds the kind of its children
+ * (a byte), the number of keys, the first child, and then each key
+ * followed by the child to its right.
+ *
+ * @see BTreeFile
+ */
+public class BTreeInternalPage extends BTreePage {
+
+    /** Size of the header of the page: kind, child kind, key count. */
+    static final int HEADER_SIZE = 6;
+
+    private final Type keyType;
+    private int childCategory;
+    // BTreeFile edits these directly while splitting and merging
+    final ArrayList<Field> keys = new ArrayList<Field>();
+    final ArrayList<Integer> children = new ArrayList<Integer>();
+
+    /**
+     * Create a BTreeInternalPage from a set of bytes of data read from
+     * disk; see the class comment for the format.
+     */
+    public BTreeInternalPage(BTreePageId id, byte[] data) throws IOException {
+        super(id, data);
+        BTreeFile file = (BTreeFile) Database.getCatalog().getDatabaseFile(id.getTableId());
+        this.keyType = file.getTupleDesc().getFieldType(file.keyField());
+        ByteBuffer buf = body(data, BTreePageId.INTERNAL);
+        if (buf == null) return;
+        childCategory = buf.get();
+        int n = buf.getInt();
+        if (n < 0 || n > capacity(keyType))
+            throw new IOException("internal page " + id.pageNumber() + " claims " + n + " keys");
+        try {
+            children.add(buf.getInt());
+            for (int i = 0; i < n; i++) {
+                keys.add(keyType.parse(buf));
+                children.add(buf.getInt());
+            }
+        } catch (ParseException e) {
+            throw new IOException("internal page " + id.pageNumber() + ": " + e.getMessage());
+        }
+    }
+
+    @Override
+    void writeBody(ByteBuffer out) {
+        out.put((byte) childCategory).putInt(keys.size());
+        if (children.isEmpty()) return;
+        out.putInt(children.get(0));
+        for (int i = 0; i < keys.size(); i++) {
+            keys.get(i).serialize(out);
+            out.putInt(children.get(i + 1));
+        }
+    }
+
+    @Override
+    synchronized void clear() {
+        childCategory = 0;
+        keys.clear();
+        children.clear();
+    }
+
+    /** @return the number of keys an internal page with keys of keyType holds */
+    public static int capacity(Type keyType) {
+        return (BufferPool.getPageSize() - HEADER_SIZE - 4) / (keyType.getLen() + 4);
+    }
+
+    /** Makes this page a root with the single child pgno of the given kind. */
+    synchronized void init(int childCategory, int pgno) {
+        this.childCategory = childCategory;
+        keys.clear();
+        children.clear();
+        children.add(pgno);
+    }
+
+    /** @return the number of keys on this page */
+    public synchronized int getNumKeys() {
+        return keys.size();
+    }
+
+    /** @return the kind of the children of this page, LEAF or INTERNAL */
+    public synchronized int getChildCategory() {
+        return childCategory;
+    }
+
+    synchronized void setChildCategory(int category) {
+        childCategory = category;
+    }
+
+    /** @return the id of the i-th child */
+    public synchronized BTreePageId getChildId(int i) {
+        return new BTreePageId(pid.getTableId(), children.get(i), childCategory);
+    }
+
+    /**
+     * @return the index of the leftmost child whose subtree may hold key,
+     *   or of the first child if key is null
+     */
+    public synchronized int findChild(Field key) {
+        if (key == null) return 0;
+        int lo = 0, hi = keys.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (BTreeFile.compareKeys(keys.get(mid), key) < 0) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+}
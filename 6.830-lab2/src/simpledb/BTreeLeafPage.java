@@ -0,0 +1,167 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.text.ParseException;
+import java.util.*;
+
+/**
+ * BTreeLeafPage stores tuples of a BTreeFile, sorted by key. Leaves are
+ * linked to their right sibling, so range scans walk from leaf to leaf
+ * without going back to the internal pages.
+ * <p>
+ * After the kind byte, a leaf holds the number of its right sibling (0 if
+ * it is the last leaf), the number of tuples, and the tuples, serialized
+ * as in a HeapPage. Since tuples move when others are inserted before them,
+ * the tuple number of a RecordId is only a hint; BTreeFile finds tuples to
+ * delete by key.
+ *
+ * @see BTreeFile
+ */
+public class BTreeLeafPage extends BTreePage {
+
+    /** Size of the header of the page: kind, right sibling, tuple count. */
+    static final int HEADER_SIZE = 9;
+
+    final TupleDesc td;
+    private final int keyField;
+    private int rightSibling;
+    private final ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+
+    /**
+     * Create a BTreeLeafPage from a set of bytes of data read from disk;
+     * see the class comment for the format.
+     */
+    public BTreeLeafPage(BTreePageId id, byte[] data) throws IOException {
+        super(id, data);
+        BTreeFile file = (BTreeFile) Database.getCatalog().getDatabaseFile(id.getTableId());
+        this.td = file.getTupleDesc();
+        this.keyField = file.keyField();
+        ByteBuffer buf = body(data, BTreePageId.LEAF);
+        if (buf == null) return;
+        rightSibling = buf.getInt();
+        int n = buf.getInt();
+        if (n < 0 || n > capacity(td))
+            throw new IOException("leaf " + id.pageNumber() + " claims " + n + " tuples");
+        try {
+            for (int i = 0; i < n; i++) {
+                Tuple t = new Tuple(td);
+                for (int j = 0; j < td.numFields(); j++)
+                    t.setField(j, td.getFieldType(j).parse(buf));
+                tuples.add(t);
+            }
+        } catch (ParseException e) {
+            throw new IOException("leaf " + id.pageNumber() + ": " + e.getMessage());
+        }
+    }
+
+    @Override
+    void writeBody(ByteBuffer out) {
+        out.putInt(rightSibling).putInt(tuples.size());
+        for (Tuple t : tuples)
+            for (int j = 0; j < td.numFields(); j++)
+                t.getField(j).serialize(out);
+    }
+
+    @Override
+    synchronized void clear() {
+        rightSibling = 0;
+        tuples.clear();
+    }
+
+    /** @return the number of tuples a leaf of a table with schema td holds */
+    public static int capacity(TupleDesc td) {
+        return (BufferPool.getPageSize() - HEADER_SIZE) / td.getSize();
+    }
+
+    /** @return the number of tuples on this page */
+    public synchronized int getNumTuples() {
+        return tuples.size();
+    }
+
+    /** @return the key of the i-th tuple */
+    public synchronized Field getKey(int i) {
+        return tuples.get(i).getField(keyField);
+    }
+
+    /** @return the number of the right sibling, or 0 if this is the last leaf */
+    public synchronized int getRightSibling() {
+        return rightSibling;
+    }
+
+    public synchronized void setRightSibling(int pgno) {
+        rightSibling = pgno;
+    }
+
+    /**
+     * @return the index of the first tuple whose key is not less than key,
+     *   or the number of tuples if there is none
+     */
+    public synchronized int findFirst(Field key) {
+        int lo = 0, hi = tuples.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (BTreeFile.compareKeys(getKey(mid), key) < 0) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    /**
+     * Inserts t after the tuples with keys not greater than its own. The
+     * page may go over capacity; BTreeFile then splits it.
+     *
+     * @return the index t was inserted at
+     */
+    public synchronized int insertTuple(Tuple t) {
+        Field key = t.getField(keyField);
+        int lo = 0, hi = tuples.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (BTreeFile.compareKeys(getKey(mid), key) <= 0) lo = mid + 1;
+            else hi = mid;
+        }
+        tuples.add(lo, t);
+        return lo;
+    }
+
+    /** Inserts t at index i, which must keep the tuples sorted. */
+    synchronized void insertTuple(int i, Tuple t) {
+        tuples.add(i, t);
+    }
+
+    /** Removes and returns the i-th tuple. */
+    public synchronized Tuple deleteTuple(int i) {
+        return tuples.remove(i);
+    }
+
+    /**
+     * Moves the tuples from index from on to the end of dest, for splits
+     * and merges.
+     */
+    synchronized void moveTuples(int from, BTreeLeafPage dest) {
+        List<Tuple> moved = tuples.subList(from, tuples.size());
+        synchronized (dest) {
+            dest.tuples.addAll(moved);
+        }
+        moved.clear();
+    }
+
+    /**
+     * @return the tuples of this page in key order, with their RecordIds
+     *   set. The array doesn't change when the page does.
+     */
+    public synchronized Tuple[] tuples() {
+        Tuple[] copy = tuples.toArray(new Tuple[tuples.size()]);
+        for (int i = 0; i < copy.length; i++)
+            copy[i].setRecordId(new RecordId(pid, i));
+        return copy;
+    }
+
+    /** @return the i-th tuple, with its RecordId set */
+    synchronized Tuple getTuple(int i) {
+        Tuple t = tuples.get(i);
+        t.setRecordId(new RecordId(pid, i));
+        return t;
+    }
+}
@@ -0,0 +1,137 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ * BTreePage holds what the pages of a BTreeFile have in common: the dirty
+ * flag, the before image, and the kind byte every page starts with. The
+ * kind is that of the page's BTreePageId. A page whose kind byte is another
+ * kind's, as when a page freed by a merge is reused, reads as an empty page
+ * of its id's kind.
+ *
+ * @see BTreeFile
+ */
+public abstract class BTreePage implements Page {
+
+    final BTreePageId pid;
+
+    private byte[] oldData;
+    private final Object oldDataLock = new Object();
+    private boolean dirty;
+    private TransactionId dirby;
+
+    BTreePage(BTreePageId pid, byte[] data) {
+        this.pid = pid;
+        this.oldData = data;
+    }
+
+    /**
+     * Parses data as a page of the kind pid names.
+     */
+    static BTreePage create(BTreePageId pid, byte[] data) throws IOException {
+        switch (pid.pgcateg()) {
+        case BTreePageId.ROOT_PTR:
+            return new BTreeRootPtrPage(pid, data);
+        case BTreePageId.INTERNAL:
+            return new BTreeInternalPage(pid, data);
+        case BTreePageId.LEAF:
+            return new BTreeLeafPage(pid, data);
+        case BTreePageId.HEADER:
+            return new BTreeHeaderPage(pid, data);
+        default:
+            throw new IOException("unknown B+ tree page kind " + pid.pgcateg());
+        }
+    }
+
+    /**
+     * @return the data of an empty page of the given kind
+     */
+    public static byte[] createEmptyPageData(int category) {
+        byte[] data = new byte[BufferPool.getPageSize()];
+        data[0] = (byte) category;
+        return data;
+    }
+
+    /**
+     * @return a buffer positioned after the kind byte of data, or null if
+     *   data holds a page of another kind
+     */
+    static ByteBuffer body(byte[] data, int category) {
+        if (data[0] != category) return null;
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        buf.position(1);
+        return buf;
+    }
+
+    /** Return a view of this page before it was modified
+        -- used by recovery */
+    public BTreePage getBeforeImage(){
+        try {
+            byte[] oldDataRef = null;
+            synchronized(oldDataLock)
+            {
+                oldDataRef = oldData;
+            }
+            return create(pid, oldDataRef);
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        byte[] data = getPageData();
+        synchronized(oldDataLock)
+        {
+        oldData = data;
+        }
+    }
+
+    /**
+     * @return the PageId associated with this page.
+     */
+    public BTreePageId getId() {
+        return pid;
+    }
+
+    public byte[] getPageData() {
+        byte[] page = new byte[BufferPool.getPageSize()];
+        getPageData(ByteBuffer.wrap(page));
+        return page;
+    }
+
+    // see Page.java for javadocs
+    public synchronized void getPageData(ByteBuffer out) {
+        int end = out.position() + BufferPool.getPageSize();
+        out.put((byte) pid.pgcateg());
+        writeBody(out);
+        // the buffer may be reused, so the rest is cleared explicitly
+        out.put(new byte[end - out.position()]);
+    }
+
+    /** Writes what follows the kind byte of this page into out. */
+    abstract void writeBody(ByteBuffer out);
+
+    /** Makes this an empty page, as when a freed page is reused. */
+    abstract void clear();
+
+    /**
+     * Marks this page as dirty/not dirty and record that transaction
+     * that did the dirtying
+     */
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirty = dirty;
+        this.dirby = tid;
+    }
+
+    /**
+     * Returns the tid of the transaction that last dirtied this page, or null if the page is not dirty
+     */
+    public TransactionId isDirty() {
+        if (dirty) return dirby;
+        else return null;
+    }
+}
@@ -0,0 +1,77 @@
+package simpledb;
+
+/**
+ * Unique identifier for the pages of a BTreeFile. Besides the table and
+ * page number it carries the kind of page, which tells BTreeFile.readPage
+ * which class to parse the page as.
+ * <p>
+ * The kind isn't part of the identity: a page freed by a merge may be
+ * reused as another kind, and must still map to the same buffer pool frame
+ * and the same lock.
+ */
+public class BTreePageId implements PageId {
+
+    public static final int ROOT_PTR = 0;
+    public static final int INTERNAL = 1;
+    public static final int LEAF = 2;
+    public static final int HEADER = 3;
+
+    private final int tableId;
+    private final int pgNo;
+    private final int category;
+
+    /**
+     * Constructor. Create a page id structure for a specific page of a
+     * specific B+ tree.
+     *
+     * @param tableId The table that is being referenced
+     * @param pgNo The page number in that table.
+     * @param category The kind of page: ROOT_PTR, INTERNAL, LEAF or HEADER
+     */
+    public BTreePageId(int tableId, int pgNo, int category) {
+        this.tableId = tableId;
+        this.pgNo = pgNo;
+        this.category = category;
+    }
+
+    /** @return the table associated with this PageId */
+    public int getTableId() {
+        return tableId;
+    }
+
+    /**
+     * @return the page number in the table getTableId() associated with
+     *   this PageId
+     */
+    public int pageNumber() {
+        return pgNo;
+    }
+
+    /** @return the kind of page: ROOT_PTR, INTERNAL, LEAF or HEADER */
+    public int pgcateg() {
+        return category;
+    }
+
+    public int hashCode() {
+        return tableId * 31 + pgNo;
+    }
+
+    public boolean equals(Object o) {
+        if (o == null || o.getClass() != getClass()) return false;
+        BTreePageId other = (BTreePageId) o;
+        return other.tableId == tableId && other.pgNo == pgNo;
+    }
+
+    @Override
+    public String toString() {
+        return tableId + ":" + pgNo + "/" + category;
+    }
+
+    /**
+     *  Return a representation of this object as an array of
+     *  integers, for writing to disk: the table, page number and kind.
+     */
+    public int[] serialize() {
+        return new int[] { tableId, pgNo, category };
+    }
+}
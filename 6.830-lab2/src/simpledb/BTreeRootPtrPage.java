@@ -0,0 +1,66 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ * BTreeRootPtrPage is page 0 of a BTreeFile. It holds the number and kind
+ * of the root page, 0 while the tree is empty, and the number of the first
+ * header page.
+ *
+ * @see BTreeFile
+ */
+public class BTreeRootPtrPage extends BTreePage {
+
+    private int root;
+    private int rootCategory;
+    private int header;
+
+    /**
+     * Create a BTreeRootPtrPage from a set of bytes of data read from disk:
+     * after the kind byte, the root page number, the root kind (a byte) and
+     * the first header page number.
+     */
+    public BTreeRootPtrPage(BTreePageId id, byte[] data) throws IOException {
+        super(id, data);
+        ByteBuffer buf = body(data, BTreePageId.ROOT_PTR);
+        if (buf != null) {
+            root = buf.getInt();
+            rootCategory = buf.get();
+            header = buf.getInt();
+        }
+    }
+
+    @Override
+    void writeBody(ByteBuffer out) {
+        out.putInt(root).put((byte) rootCategory).putInt(header);
+    }
+
+    @Override
+    synchronized void clear() {
+        root = 0;
+        rootCategory = 0;
+        header = 0;
+    }
+
+    /** @return the id of the root page, or null if the tree is empty */
+    public synchronized BTreePageId getRootId() {
+        if (root == 0) return null;
+        return new BTreePageId(pid.getTableId(), root, rootCategory);
+    }
+
+    /** Makes the page id names the root of the tree. */
+    public synchronized void setRootId(BTreePageId id) {
+        root = id.pageNumber();
+        rootCategory = id.pgcateg();
+    }
+
+    /** @return the id of the first header page */
+    public synchronized BTreePageId getHeaderId() {
+        return new BTreePageId(pid.getTableId(), header, BTreePageId.HEADER);
+    }
+
+    synchronized void setHeaderPgno(int pgno) {
+        header = pgno;
+    }
+}
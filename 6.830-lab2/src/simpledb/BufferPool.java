@@ -3,7 +3,16 @@ package simpledb;
 import java.io.*;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from
@@ -12,7 +21,16 @@ import java.util.concurrent.ConcurrentHashMap;
  * <p>
  * The BufferPool is also responsible for locking;  when a transaction fetches
  * a page, BufferPool checks that the transaction has the appropriate
- * locks to read/write the page.
+ * locks to read/write the page. Locking is strict two-phase, at page
+ * granularity by default or at record granularity if turned on with
+ * {@link #setRecordLocking}; see {@link LockManager}.
+ * <p>
+ * A hit takes no lock shared with other threads: the page table is a
+ * ConcurrentHashMap, policies record hits without blocking, and the
+ * counters are striped. Concurrent misses on the same page are collapsed
+ * into one read (single flight) and misses on different pages read from
+ * disk in parallel; only reserving a frame, evicting, and publishing the
+ * read page synchronize on the pool.
  * 
  * @Threadsafe, all fields are final
  */
@@ -25,17 +43,183 @@ public class BufferPool {
     constructor instead. */
     public static final int DEFAULT_PAGES = 50;
 
+    /** Largest number of frames given to the ring of one sequential scan.
+     * @see ScanRing */
+    public static final int SCAN_RING_PAGES = 16;
+
+    private final int numPages;
+    private final ConcurrentHashMap<PageId,Page> bufferbool;
+    private final EvictionPolicy policy;
+    // pages brought in through a ScanRing; these aren't tracked by policy
+    private final Set<PageId> ringPages =
+            Collections.newSetFromMap(new ConcurrentHashMap<PageId, Boolean>());
+    // reads in flight; other threads missing on the same page wait for these
+    private final ConcurrentHashMap<PageId, FutureTask<Page>> loading =
+            new ConcurrentHashMap<PageId, FutureTask<Page>>();
+    // frames promised to reads in flight, guarded by this
+    private int reserved = 0;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    private final LockManager lockManager = new LockManager();
+    private volatile boolean recordLocking = false;
+    // record changes of each running transaction, undone if it aborts
+    // under record locking
+    private final ConcurrentHashMap<TransactionId, ArrayList<Undo>> undoLog =
+            new ConcurrentHashMap<TransactionId, ArrayList<Undo>>();
+    // pages each running transaction appended to a file without going
+    // through the pool (see HeapFile.insertTuples), emptied if it aborts;
+    // these are the only pages written before their transaction commits
+    private final ConcurrentHashMap<TransactionId, Set<PageId>> appended =
+            new ConcurrentHashMap<TransactionId, Set<PageId>>();
+
+    /** One tuple inserted or deleted by a transaction. */
+    private static class Undo {
+        final boolean inserted;
+        final Tuple tuple;
+        final RecordId rid;
+
+        Undo(boolean inserted, Tuple tuple, RecordId rid) {
+            this.inserted = inserted;
+            this.tuple = tuple;
+            this.rid = rid;
+        }
+    }
+
+    // null when read-ahead is turned off
+    private volatile ReadAhead readAhead = new ReadAhead(this);
+
     /**
-     * Creates a BufferPool that caches up to numPages pages.
+     * Creates a BufferPool that caches up to numPages pages, evicting
+     * least recently used pages first.
      *
      * @param numPages maximum number of pages in this buffer pool.
      */
-    private int pages;
-    private ConcurrentHashMap<PageId,Page> bufferbool;
     public BufferPool(int numPages) {
+        this(numPages, new LRUEvictionPolicy());
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param policy decides which page to evict when the pool is full.
+     */
+    public BufferPool(int numPages, EvictionPolicy policy) {
         // some code goes here
-        bufferbool = new ConcurrentHashMap<>();
-        pages = 0;
+        this.numPages = numPages;
+        this.bufferbool = new ConcurrentHashMap<>();
+        this.policy = policy;
+    }
+
+    /**
+     * Creates the eviction policy with the given name for a pool of
+     * numPages pages.
+     *
+     * @param name one of "lru", "clock" or "2q" (case insensitive)
+     * @throws IllegalArgumentException if the name is unknown
+     */
+    public static EvictionPolicy newEvictionPolicy(String name, int numPages) {
+        String n = name.trim().toLowerCase();
+        if (n.equals("lru"))
+            return new LRUEvictionPolicy();
+        else if (n.equals("clock"))
+            return new ClockEvictionPolicy();
+        else if (n.equals("2q"))
+            return new TwoQEvictionPolicy(numPages);
+        throw new IllegalArgumentException("Unknown eviction policy " + name);
+    }
+
+    /** @return the maximum number of pages this buffer pool caches. */
+    public int getNumPages() {
+        return numPages;
+    }
+
+    /**
+     * Creates a ring for one sequential scan. The ring gets an eighth of
+     * the pool, but at least one and at most {@link #SCAN_RING_PAGES} frames.
+     */
+    public ScanRing newScanRing() {
+        return new ScanRing(Math.max(1, Math.min(SCAN_RING_PAGES, numPages / 8)));
+    }
+
+    /** @return the number of getPage calls served from the pool */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /** @return the number of getPage calls that had to read the page from disk */
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /** @return the fraction of getPage calls served from the pool, or 0 if
+     * there haven't been any */
+    public double getHitRatio() {
+        long h = hits.sum(), total = h + misses.sum();
+        return total == 0 ? 0.0 : (double) h / total;
+    }
+
+    /**
+     * Turns asynchronous read-ahead of sequentially accessed pages on or
+     * off. It is on by default.
+     *
+     * @see ReadAhead
+     */
+    public void setReadAheadEnabled(boolean enabled) {
+        if (enabled && readAhead == null)
+            readAhead = new ReadAhead(this);
+        else if (!enabled)
+            readAhead = null;
+    }
+
+    /** @return the read-ahead engine with its prefetch counters, or null
+     * if read-ahead is turned off */
+    public ReadAhead getReadAhead() {
+        return readAhead;
+    }
+
+    /** @return the lock manager that grants this pool's page locks */
+    public LockManager getLockManager() {
+        return lockManager;
+    }
+
+    /**
+     * Switches between page-level locking (the default) and record-level
+     * locking. With record locking on, getPage takes intention locks on the
+     * table and page for READ_WRITE, so several transactions can change
+     * different tuples of one page at once; HeapFile takes exclusive locks
+     * on the individual records it inserts or deletes. READ_ONLY access
+     * still locks the whole page shared.
+     * <p>
+     * A page may then carry changes of several running transactions. A
+     * commit writes the pages it changed to disk including the others'
+     * changes, and an abort undoes its own tuple changes in place, instead
+     * of dropping the page, and writes the page back. Recovery from the
+     * page-level log doesn't know about this, so record locking is meant
+     * for workloads where throughput matters more than crash recovery.
+     * <p>
+     * Only change this while no transactions are running.
+     */
+    public void setRecordLocking(boolean enabled) {
+        recordLocking = enabled;
+    }
+
+    /** @return true if record-level locking is on */
+    public boolean isRecordLocking() {
+        return recordLocking;
+    }
+
+    /** @return true if pid is currently cached in this pool */
+    boolean isCached(PageId pid) {
+        return bufferbool.containsKey(pid);
+    }
+
+    /** Resets the hit and miss counters to zero. */
+    public void resetStats() {
+        hits.reset();
+        misses.reset();
     }
     
     public static int getPageSize() {
@@ -60,12 +244,182 @@ public class BufferPool {
     public  Page getPage(TransactionId tid, PageId pid, Permissions perm)
         throws TransactionAbortedException, DbException {
         // some code goes here
-        if (bufferbool.containsKey(pid)) return bufferbool.get(pid);
-        else {
-            bufferbool.put(pid,Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid));
-            return bufferbool.get(pid);
+        return getPage(tid, pid, perm, null);
+    }
+
+    /**
+     * Retrieve the specified page on behalf of a sequential scan. Works like
+     * {@link #getPage(TransactionId, PageId, Permissions)}, except that a
+     * page that isn't cached is read into one of the frames of ring rather
+     * than into the main pool.
+     *
+     * @param ring the scan's ring, or null to use the main pool
+     * @see ScanRing
+     */
+    public  Page getPage(TransactionId tid, PageId pid, Permissions perm, final ScanRing ring)
+        throws TransactionAbortedException, DbException {
+        // a null tid (some tests and tools read outside any transaction) takes no locks
+        if (tid != null) {
+            if (recordLocking) {
+                boolean write = perm == Permissions.READ_WRITE;
+                lockManager.acquire(tid, LockManager.tableResource(pid.getTableId()),
+                        write ? LockManager.LockMode.IX : LockManager.LockMode.IS);
+                lockManager.acquire(tid, pid, write ? LockManager.LockMode.IX : LockManager.LockMode.S);
+            } else {
+                lockManager.acquire(tid, pid, perm);
+            }
         }
+        Page page = bufferbool.get(pid);
+        if (page != null) {
+            hits.increment();
+            touch(pid, ring);
+            return page;
+        }
+        final PageId fpid = pid;
+        FutureTask<Page> load = new FutureTask<Page>(new Callable<Page>() {
+            public Page call() throws DbException {
+                return loadPage(tid, fpid, ring);
+            }
+        });
+        FutureTask<Page> inflight = loading.putIfAbsent(pid, load);
+        if (inflight == null) {
+            try {
+                load.run();
+            } finally {
+                loading.remove(pid, load);
+            }
+            return await(load);
+        }
+        page = await(inflight);
+        hits.increment();
+        touch(pid, ring);
+        return page;
+    }
 
+    /**
+     * Reads pid into the pool unless it got there since the caller missed.
+     * Only the thread that won the single-flight race for pid calls this.
+     */
+    private Page loadPage(TransactionId tid, PageId pid, ScanRing ring) throws DbException {
+        Page page = bufferbool.get(pid);
+        if (page != null) {
+            hits.increment();
+            touch(pid, ring);
+            return page;
+        }
+        misses.increment();
+        ReadAhead ra = readAhead;
+        if (ra != null) ra.accessed(tid, pid);
+        reserveFrame(pid, ring);
+        boolean published = false;
+        try {
+            DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
+            page = ra != null ? ra.readPage(file, pid) : file.readPage(pid);
+            synchronized (this) {
+                // published before the load is removed from loading, so a
+                // miss always finds the page in one place or the other
+                bufferbool.put(pid, page);
+                if (ring != null)
+                    ringPages.add(pid);
+                else
+                    policy.pageAdded(pid);
+                reserved--;
+                published = true;
+                notifyAll();
+            }
+            return page;
+        } finally {
+            if (!published) {
+                synchronized (this) {
+                    reserved--;
+                    notifyAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * Makes room for one more page, recycling a frame of ring if given, and
+     * reserves it for a read in flight. Waits if the pool is full only of
+     * pages still being read.
+     */
+    private synchronized void reserveFrame(PageId pid, ScanRing ring) throws DbException {
+        if (ring != null) {
+            // recycle the ring's next frame if the scan still owns it
+            PageId old = ring.replaceNext(pid);
+            if (old != null && ringPages.contains(old)) {
+                Page oldPage = bufferbool.get(old);
+                if (oldPage != null && oldPage.isDirty() == null) {
+                    bufferbool.remove(old);
+                    ringPages.remove(old);
+                }
+            }
+        }
+        while (bufferbool.size() + reserved >= numPages) {
+            if (evictCleanPage()) continue;
+            if (reserved == 0)
+                throw new DbException("cannot evict: all " + bufferbool.size() + " buffer pool pages are dirty");
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new DbException("interrupted while waiting for a free buffer pool frame");
+            }
+        }
+        reserved++;
+    }
+
+    /** Waits for a single-flight load and rethrows whatever it threw. */
+    private static Page await(FutureTask<Page> load) throws DbException {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return load.get();
+                } catch (InterruptedException e) {
+                    // the loading thread is doing the I/O; don't abandon it
+                    interrupted = true;
+                }
+            }
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof DbException) throw (DbException) cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw new DbException(cause.toString());
+        } finally {
+            if (interrupted) Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Records a hit on a cached page. A ring page hit without a ring is
+     * promoted into the main pool.
+     */
+    private void touch(PageId pid, ScanRing ring) {
+        // contains() first: it doesn't lock, remove() may lock a bin
+        if (ring == null && ringPages.contains(pid) && ringPages.remove(pid))
+            policy.pageAdded(pid);
+        else if (!ringPages.contains(pid))
+            policy.pageAccessed(pid);
+    }
+
+    /**
+     * Puts a page that was modified outside of getPage (e.g. one newly
+     * created by a DbFile) into the pool, replacing any cached copy.
+     */
+    private synchronized void cachePage(Page page) throws DbException {
+        PageId pid = page.getId();
+        ReadAhead ra = readAhead;
+        if (ra != null) ra.discard(pid);
+        if (bufferbool.containsKey(pid)) {
+            bufferbool.put(pid, page);
+            touch(pid, null);
+            return;
+        }
+        if (bufferbool.size() + reserved >= numPages) evictPage();
+        bufferbool.put(pid, page);
+        policy.pageAdded(pid);
     }
 
     /**
@@ -80,6 +434,7 @@ public class BufferPool {
     public  void releasePage(TransactionId tid, PageId pid) {
         // some code goes here
         // not necessary for lab1|lab2
+        lockManager.release(tid, pid);
     }
 
     /**
@@ -90,13 +445,14 @@ public class BufferPool {
     public void transactionComplete(TransactionId tid) throws IOException {
         // some code goes here
         // not necessary for lab1|lab2
+        transactionComplete(tid, true);
     }
 
     /** Return true if the specified transaction has a lock on the specified page */
     public boolean holdsLock(TransactionId tid, PageId p) {
         // some code goes here
         // not necessary for lab1|lab2
-        return false;
+        return lockManager.holdsLock(tid, p);
     }
 
     /**
@@ -110,6 +466,119 @@ public class BufferPool {
         throws IOException {
         // some code goes here
         // not necessary for lab1|lab2
+        try {
+            if (commit) {
+                flushPages(tid);
+            } else if (recordLocking) {
+                rollbackRecords(tid);
+            } else {
+                // NO STEAL: the disk still has the before image of every
+                // page tid dirtied, so dropping the cached copy rolls it back
+                for (PageId pid : lockManager.lockedPages(tid)) {
+                    Page page = bufferbool.get(pid);
+                    if (page != null && tid.equals(page.isDirty()))
+                        discardPage(pid);
+                }
+            }
+            if (!commit) emptyAppendedPages(tid);
+        } finally {
+            undoLog.remove(tid);
+            appended.remove(tid);
+            ReadAhead ra = readAhead;
+            if (ra != null) ra.transactionComplete(tid);
+            lockManager.releaseAll(tid);
+        }
+    }
+
+    /**
+     * Undoes the tuple changes of tid, newest first, in the pages they were
+     * made in, and writes those pages back. Other transactions' changes to
+     * the same pages are left alone.
+     */
+    private void rollbackRecords(TransactionId tid) throws IOException {
+        ArrayList<Undo> undos = undoLog.get(tid);
+        if (undos == null) return;
+        Set<PageId> touched = new HashSet<PageId>();
+        try {
+            for (int i = undos.size() - 1; i >= 0; i--) {
+                Undo u = undos.get(i);
+                PageId pid = u.rid.getPageId();
+                HeapPage page = (HeapPage) getPage(tid, pid, Permissions.READ_WRITE);
+                if (u.inserted)
+                    page.deleteTuple(u.tuple);
+                else
+                    page.insertTuple(u.tuple, u.rid.tupleno());
+                page.markDirty(true, tid);
+                touched.add(pid);
+            }
+        } catch (DbException e) {
+            throw new IOException("rollback of transaction " + tid.getId() + " failed: " + e.getMessage());
+        } catch (TransactionAbortedException e) {
+            throw new IOException("rollback of transaction " + tid.getId() + " was aborted");
+        }
+        for (PageId pid : touched) {
+            flushPage(pid);
+            Page page = bufferbool.get(pid);
+            if (page != null) page.setBeforeImage();
+        }
+    }
+
+    /**
+     * Writes the pages tid appended directly to disk back as empty pages.
+     * Only tid could lock them, so they hold nothing but its tuples.
+     */
+    private void emptyAppendedPages(TransactionId tid) throws IOException {
+        Set<PageId> pids = appended.get(tid);
+        if (pids == null) return;
+        for (PageId pid : pids) {
+            discardPage(pid);
+            DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
+            file.writePage(new HeapPage((HeapPageId) pid, HeapPage.createEmptyPageData()));
+            ReadAhead ra = readAhead;
+            if (ra != null) ra.discard(pid);
+        }
+    }
+
+    /**
+     * Takes the table lock getPage would take for READ_WRITE before tid
+     * appends pages to table tableid without going through the pool. It may
+     * wait, so it must be called before the file is locked for the append.
+     */
+    void lockTableForAppend(TransactionId tid, int tableid)
+        throws TransactionAbortedException {
+        if (recordLocking)
+            lockManager.acquire(tid, LockManager.tableResource(tableid),
+                    LockManager.LockMode.IX);
+    }
+
+    /**
+     * Locks pid, a page tid is about to append to its file without going
+     * through the pool, and remembers it so that an abort of tid can empty
+     * it again. The table must already be locked by lockTableForAppend; no
+     * other transaction can see pid yet, so this doesn't wait.
+     */
+    void lockAppendedPage(TransactionId tid, PageId pid)
+        throws TransactionAbortedException {
+        lockManager.acquire(tid, pid, LockManager.LockMode.X);
+        Set<PageId> pids = appended.get(tid);
+        if (pids == null) {
+            Set<PageId> fresh = Collections.newSetFromMap(new ConcurrentHashMap<PageId, Boolean>());
+            pids = appended.putIfAbsent(tid, fresh);
+            if (pids == null) pids = fresh;
+        }
+        pids.add(pid);
+    }
+
+    private void logUndo(TransactionId tid, Undo undo) {
+        ArrayList<Undo> undos = undoLog.get(tid);
+        if (undos == null) {
+            ArrayList<Undo> fresh = new ArrayList<Undo>();
+            undos = undoLog.putIfAbsent(tid, fresh);
+            if (undos == null) undos = fresh;
+        }
+        synchronized (undos) {
+            undos.add(undo);
+        }
     }
 
     /**
@@ -130,6 +599,62 @@ public class BufferPool {
         throws DbException, IOException, TransactionAbortedException {
         // some code goes here
         // not necessary for lab1
+        DbFile file = Database.getCatalog().getDatabaseFile(tableId);
+        for (Page page : file.insertTuple(tid, t)) {
+            page.markDirty(true, tid);
+            cachePage(page);
+        }
+        if (recordLocking) logUndo(tid, new Undo(true, t, t.getRecordId()));
+    }
+
+    /**
+     * Add all of tuples to the specified table on behalf of transaction
+     * tid. Works like calling insertTuple for each of them, but pages are
+     * looked up, locked and marked dirty once for all the tuples they take,
+     * and new pages are appended to the file in large writes; see
+     * {@link DbFile#insertTuples}.
+     *
+     * @param tid the transaction adding the tuples
+     * @param tableId the table to add the tuples to
+     * @param tuples the tuples to add
+     * @return the number of tuples added
+     */
+    public int insertTuples(final TransactionId tid, int tableId, final Iterator<Tuple> tuples)
+        throws DbException, IOException, TransactionAbortedException {
+        DbFile file = Database.getCatalog().getDatabaseFile(tableId);
+        final ArrayList<Tuple> inserted = new ArrayList<Tuple>();
+        final int[] count = new int[1];
+        final boolean undo = recordLocking && tid != null;
+        Iterator<Tuple> counting = new Iterator<Tuple>() {
+            public boolean hasNext() {
+                return tuples.hasNext();
+            }
+
+            public Tuple next() {
+                Tuple t = tuples.next();
+                count[0]++;
+                if (undo) inserted.add(t);
+                return t;
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+        for (Page page : file.insertTuples(tid, counting)) {
+            page.markDirty(true, tid);
+            cachePage(page);
+        }
+        if (undo) {
+            // tuples on appended pages are undone by emptying the pages
+            Set<PageId> direct = appended.get(tid);
+            for (Tuple t : inserted) {
+                RecordId rid = t.getRecordId();
+                if (direct == null || !direct.contains(rid.getPageId()))
+                    logUndo(tid, new Undo(true, t, rid));
+            }
+        }
+        return count[0];
     }
 
     /**
@@ -149,6 +674,12 @@ public class BufferPool {
         throws DbException, TransactionAbortedException {
         // some code goes here
         // not necessary for lab1
+        RecordId rid = t.getRecordId();
+        DbFile file = Database.getCatalog().getDatabaseFile(rid.getPageId().getTableId());
+        Page page = file.deleteTuple(tid, t);
+        page.markDirty(true, tid);
+        cachePage(page);
+        if (recordLocking) logUndo(tid, new Undo(false, t, rid));
     }
 
     /**
@@ -159,7 +690,9 @@ public class BufferPool {
     public synchronized void flushAllPages() throws IOException {
         // some code goes here
         // not necessary for lab1
-
+        for (PageId pid : bufferbool.keySet()) {
+            flushPage(pid);
+        }
     }
 
     /** Remove the specific page id from the buffer pool.
@@ -170,6 +703,19 @@ public class BufferPool {
     public synchronized void discardPage(PageId pid) {
         // some code goes here
         // only necessary for lab5
+        ReadAhead ra = readAhead;
+        if (ra != null) ra.discard(pid);
+        if (bufferbool.remove(pid) == null) return;
+        if (!ringPages.remove(pid)) policy.pageRemoved(pid);
+        // the dropped copy may have had a different number of free slots
+        // than the one on disk
+        try {
+            DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
+            if (file instanceof HeapFile && ((HeapFile) file).getFreeSpaceMap() != null)
+                ((HeapFile) file).getFreeSpaceMap().forget(pid.pageNumber());
+        } catch (NoSuchElementException e) {
+            // the table is gone, and its map with it
+        }
     }
 
     /**
@@ -179,6 +725,12 @@ public class BufferPool {
     private synchronized  void flushPage(PageId pid) throws IOException {
         // some code goes here
         // not necessary for lab1
+        Page page = bufferbool.get(pid);
+        if (page == null || page.isDirty() == null) return;
+        Database.getCatalog().getDatabaseFile(pid.getTableId()).writePage(page);
+        page.markDirty(false, null);
+        ReadAhead ra = readAhead;
+        if (ra != null) ra.discard(pid);
     }
 
     /** Write all pages of the specified transaction to disk.
@@ -186,15 +738,52 @@ public class BufferPool {
     public synchronized  void flushPages(TransactionId tid) throws IOException {
         // some code goes here
         // not necessary for lab1|lab2
+        // only pages tid has locked can carry its changes; under record
+        // locking the page may have been dirtied last by someone else
+        for (PageId pid : lockManager.lockedPages(tid)) {
+            Page page = bufferbool.get(pid);
+            if (page == null || page.isDirty() == null) continue;
+            LockManager.LockMode mode = lockManager.lockMode(tid, pid);
+            if (tid.equals(page.isDirty()) || (mode != null && mode.covers(LockManager.LockMode.IX))) {
+                flushPage(pid);
+                page.setBeforeImage();
+            }
+        }
     }
 
     /**
-     * Discards a page from the buffer pool.
-     * Flushes the page to disk to ensure dirty pages are updated on disk.
+     * Discards a page from the buffer pool. Pages held by scan rings go
+     * first; otherwise the eviction policy chooses. Dirty pages are never
+     * evicted (NO STEAL), so an evicted page never needs to be written back.
+     *
+     * @throws DbException if every page in the pool is dirty
      */
     private synchronized  void evictPage() throws DbException {
         // some code goes here
         // not necessary for lab1
+        if (!evictCleanPage())
+            throw new DbException("cannot evict: all " + bufferbool.size() + " buffer pool pages are dirty");
+    }
+
+    /** Evicts one clean page, as {@link #evictPage}, returning false if there is none. */
+    private synchronized boolean evictCleanPage() {
+        for (PageId pid : ringPages) {
+            Page page = bufferbool.get(pid);
+            if (page != null && page.isDirty() == null) {
+                bufferbool.remove(pid);
+                ringPages.remove(pid);
+                return true;
+            }
+        }
+        PageId victim = policy.chooseVictim(new EvictionPolicy.Evictable() {
+            public boolean canEvict(PageId pid) {
+                Page page = bufferbool.get(pid);
+                return page != null && page.isDirty() == null;
+            }
+        });
+        if (victim == null) return false;
+        bufferbool.remove(victim);
+        return true;
     }
 
 }
@@ -151,15 +151,24 @@ public class Catalog {
         return null;
     }
     
-    /** Delete all tables from the catalog */
+    /** Delete all tables from the catalog, closing any files they hold open */
     public void clear() {
         // some code goes here
+        for (CataItem item: cataItems){
+            item.getfile().close();
+        }
         cataItems = null;
         cataItems = new ArrayList<>();
     }
     
     /**
      * Reads the schema from a file and creates the appropriate tables in the database.
+     * Each line has the form <code>name (field type [pk], ...) [mapped|pax|slotted|compressed|btree]</code>;
+     * tables marked <code>mapped</code> are opened as memory-mapped, read-only
+     * heap files, tables marked <code>pax</code> as PaxFiles, tables
+     * marked <code>slotted</code> as SlottedFiles and tables marked
+     * <code>compressed</code> as CompressedHeapFiles. Tables marked
+     * <code>btree</code> are opened as BTreeFiles on their primary key.
      * @param catalogFile
      */
     public void loadSchema(String catalogFile) {
@@ -197,10 +206,47 @@ public class Catalog {
                         }
                     }
                 }
+                //optional table options follow the field list, e.g. "name (f int) mapped"
+                boolean mapped = false;
+                boolean pax = false;
+                boolean slotted = false;
+                boolean compressed = false;
+                boolean btree = false;
+                String options = line.substring(line.indexOf(")") + 1).trim();
+                if (options.toLowerCase().equals("mapped"))
+                    mapped = true;
+                else if (options.toLowerCase().equals("pax"))
+                    pax = true;
+                else if (options.toLowerCase().equals("slotted"))
+                    slotted = true;
+                else if (options.toLowerCase().equals("compressed"))
+                    compressed = true;
+                else if (options.toLowerCase().equals("btree"))
+                    btree = true;
+                else if (!options.isEmpty()) {
+                    System.out.println("Unknown table option " + options);
+                    System.exit(0);
+                }
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
+                File dataFile = new File(baseFolder+"/"+name + ".dat");
+                DbFile tabHf;
+                if (pax)
+                    tabHf = new PaxFile(dataFile, t);
+                else if (slotted)
+                    tabHf = new SlottedFile(dataFile, t);
+                else if (compressed)
+                    tabHf = new CompressedHeapFile(dataFile, t);
+                else if (btree) {
+                    if (!names.contains(primaryKey)) {
+                        System.out.println("btree table " + name + " needs a primary key");
+                        System.exit(0);
+                    }
+                    tabHf = new BTreeFile(dataFile, names.indexOf(primaryKey), t);
+                }
+                else
+                    tabHf = new HeapFile(dataFile, t, mapped);
                 addTable(tabHf,name,primaryKey);
                 System.out.println("Added table : " + name + " with schema " + t);
             }
@@ -0,0 +1,77 @@
+package simpledb;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The CLOCK approximation of LRU. Pages sit in a ring of frames, each with a
+ * reference bit that is set on access. The clock hand sweeps the ring,
+ * clearing set bits and evicting the first evictable page whose bit is
+ * already clear. Setting a reference bit takes no lock.
+ */
+public class ClockEvictionPolicy implements EvictionPolicy {
+
+    private static class Frame {
+        final PageId pid;
+        final int index;
+        volatile boolean referenced = true;
+
+        Frame(PageId pid, int index) {
+            this.pid = pid;
+            this.index = index;
+        }
+    }
+
+    // the ring and free list are guarded by this; frameOf is read without it
+    private final ArrayList<Frame> ring = new ArrayList<Frame>();
+    private final ConcurrentHashMap<PageId, Frame> frameOf = new ConcurrentHashMap<PageId, Frame>();
+    private final ArrayDeque<Integer> freeFrames = new ArrayDeque<Integer>();
+    private int hand = 0;
+
+    public synchronized void pageAdded(PageId pid) {
+        if (frameOf.containsKey(pid)) {
+            pageAccessed(pid);
+            return;
+        }
+        Integer index = freeFrames.poll();
+        Frame frame;
+        if (index == null) {
+            frame = new Frame(pid, ring.size());
+            ring.add(frame);
+        } else {
+            frame = new Frame(pid, index);
+            ring.set(index, frame);
+        }
+        frameOf.put(pid, frame);
+    }
+
+    public void pageAccessed(PageId pid) {
+        Frame frame = frameOf.get(pid);
+        if (frame != null) frame.referenced = true;
+    }
+
+    public synchronized void pageRemoved(PageId pid) {
+        Frame frame = frameOf.remove(pid);
+        if (frame == null) return;
+        ring.set(frame.index, null);
+        freeFrames.add(frame.index);
+    }
+
+    public synchronized PageId chooseVictim(Evictable evictable) {
+        if (ring.isEmpty()) return null;
+        // two full sweeps: the first may only clear reference bits
+        for (int i = 0; i < 2 * ring.size(); i++) {
+            Frame frame = ring.get(hand);
+            hand = (hand + 1) % ring.size();
+            if (frame == null) continue;
+            if (frame.referenced) {
+                frame.referenced = false;
+            } else if (evictable.canEvict(frame.pid)) {
+                pageRemoved(frame.pid);
+                return frame.pid;
+            }
+        }
+        return null;
+    }
+}
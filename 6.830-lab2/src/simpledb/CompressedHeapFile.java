@@ -0,0 +1,201 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+/**
+ * CompressedHeapFile is a read-only HeapFile whose pages are stored
+ * compressed by a {@link PageCodec}. A page is decompressed when it is read
+ * into the buffer pool, so the frames hold ordinary HeapPages and
+ * everything above readPage, predicate pushdown included, works as for a
+ * HeapFile. Scans of tables with few distinct strings or narrow int ranges
+ * read a fraction of the bytes, in exchange for the decoding work.
+ * <p>
+ * The file starts with a header: the magic number, the page size the
+ * pages were written with, the number of pages, and the offset of each
+ * compressed page, followed by one more offset marking the end of the
+ * last. Files are made from a heap file with {@link #compress} and listed
+ * in a catalog file with the "compressed" table option.
+ *
+ * @see PageCodec
+ */
+public class CompressedHeapFile extends HeapFile {
+
+    private static final int MAGIC = 0x43484631; // "CHF1"
+    private static final int HEADER_SIZE = 12;
+
+    private final File f;
+    private final PageCodec codec;
+    private volatile FileChannel channel;
+    // start of each page, and the end of the last; read on first use
+    private volatile long[] offsets;
+
+    /**
+     * Opens a compressed heap file.
+     *
+     * @param f the file written by {@link #compress}
+     * @param td the schema of the table
+     */
+    public CompressedHeapFile(File f, TupleDesc td) {
+        super(f, td, true);
+        this.f = f;
+        this.codec = new PageCodec(td);
+    }
+
+    /**
+     * Writes a compressed copy of a heap file.
+     *
+     * @param heapFile a heap file written with the current page size
+     * @param td the schema of the table in heapFile
+     * @param out the file to write the compressed copy to
+     */
+    public static void compress(File heapFile, TupleDesc td, File out) throws IOException {
+        int pagesize = BufferPool.getPageSize();
+        int numPages = (int) (heapFile.length() / pagesize);
+        PageCodec codec = new PageCodec(td);
+        long[] offsets = new long[numPages + 1];
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(heapFile)));
+        RandomAccessFile raf = new RandomAccessFile(out, "rw");
+        try {
+            raf.setLength(0);
+            // the directory is filled in once the page sizes are known
+            raf.seek(HEADER_SIZE + 8L * offsets.length);
+            byte[] page = new byte[pagesize];
+            for (int i = 0; i < numPages; i++) {
+                in.readFully(page);
+                offsets[i] = raf.getFilePointer();
+                raf.write(codec.compress(page));
+            }
+            offsets[numPages] = raf.getFilePointer();
+            raf.seek(0);
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE + 8 * offsets.length);
+            header.putInt(MAGIC).putInt(pagesize).putInt(numPages);
+            for (long off : offsets)
+                header.putLong(off);
+            raf.write(header.array());
+        } finally {
+            in.close();
+            raf.close();
+        }
+    }
+
+    private FileChannel getChannel() throws IOException {
+        FileChannel fc = channel;
+        if (fc == null) {
+            synchronized (this) {
+                fc = channel;
+                if (fc == null) {
+                    fc = new RandomAccessFile(f, "r").getChannel();
+                    channel = fc;
+                }
+            }
+        }
+        return fc;
+    }
+
+    private static void readFully(FileChannel fc, ByteBuffer buf, long offset) throws IOException {
+        while (buf.hasRemaining()) {
+            if (fc.read(buf, offset + buf.position()) < 0)
+                throw new EOFException("compressed heap file is truncated");
+        }
+    }
+
+    private long[] getOffsets() throws IOException {
+        long[] offs = offsets;
+        if (offs == null) {
+            synchronized (this) {
+                offs = offsets;
+                if (offs == null) {
+                    FileChannel fc = getChannel();
+                    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                    readFully(fc, header, 0);
+                    header.flip();
+                    if (header.getInt() != MAGIC)
+                        throw new IOException(f + " is not a compressed heap file");
+                    int pagesize = header.getInt();
+                    if (pagesize != BufferPool.getPageSize())
+                        throw new IOException(f + " was written with " + pagesize + " byte pages");
+                    ByteBuffer dir = ByteBuffer.allocate(8 * (header.getInt() + 1));
+                    readFully(fc, dir, HEADER_SIZE);
+                    dir.flip();
+                    offs = new long[dir.remaining() / 8];
+                    dir.asLongBuffer().get(offs);
+                    offsets = offs;
+                }
+            }
+        }
+        return offs;
+    }
+
+    /**
+     * Closes the channel backing this file, if it has been opened. The
+     * channel is reopened on the next read.
+     */
+    @Override
+    public synchronized void close() {
+        super.close();
+        offsets = null;
+        if (channel == null) return;
+        try {
+            channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        channel = null;
+    }
+
+    // see DbFile.java for javadocs
+    @Override
+    public Page readPage(PageId pid) {
+        int pgno = pid.pageNumber();
+        try {
+            long[] offs = getOffsets();
+            if (pgno < 0 || pgno >= offs.length - 1)
+                throw new IllegalArgumentException("page " + pgno + " does not exist");
+            ByteBuffer buf = ByteBuffer.allocate((int) (offs[pgno + 1] - offs[pgno]));
+            readFully(getChannel(), buf, offs[pgno]);
+            byte[] data = codec.decompress(buf.array(), 0, buf.capacity());
+            return new HeapPage(new HeapPageId(pid.getTableId(), pgno), data);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("IOException", e);
+        }
+    }
+
+    // see DbFile.java for javadocs
+    @Override
+    public void writePage(Page page) throws IOException {
+        throw new IOException("CompressedHeapFile " + f + " is read-only");
+    }
+
+    /**
+     * Returns the number of pages in this file.
+     */
+    @Override
+    public int numPages() {
+        try {
+            return getOffsets().length - 1;
+        } catch (IOException e) {
+            throw new IllegalArgumentException("IOException", e);
+        }
+    }
+
+    // see DbFile.java for javadocs
+    @Override
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t) throws DbException {
+        throw new DbException("CompressedHeapFile " + f + " is read-only");
+    }
+
+    // see DbFile.java for javadocs
+    @Override
+    public ArrayList<Page> insertTuples(TransactionId tid, Iterator<Tuple> tuples) throws DbException {
+        throw new DbException("CompressedHeapFile " + f + " is read-only");
+    }
+
+    // see DbFile.java for javadocs
+    @Override
+    public Page deleteTuple(TransactionId tid, Tuple t) throws DbException {
+        throw new DbException("CompressedHeapFile " + f + " is read-only");
+    }
+}
@@ -21,9 +21,28 @@ public class Database {
     private final static String LOGFILENAME = "log";
     private final LogFile _logfile;
 
+    /** System property giving the number of buffer pool pages to allocate
+     * at startup; defaults to {@link BufferPool#DEFAULT_PAGES}. */
+    public final static String BUFFER_POOL_PAGES_PROPERTY = "simpledb.bufferpool.pages";
+    /** System property naming the buffer pool eviction policy to use at
+     * startup ("lru", "clock" or "2q"); defaults to lru.
+     * @see BufferPool#newEvictionPolicy */
+    public final static String EVICTION_POLICY_PROPERTY = "simpledb.bufferpool.policy";
+    /** System property that turns buffer pool read-ahead off when set to
+     * false; it is on by default.
+     * @see ReadAhead */
+    public final static String READ_AHEAD_PROPERTY = "simpledb.bufferpool.readahead";
+    /** System property that turns on record-level locking when set to
+     * true; pages are locked as a whole by default.
+     * @see BufferPool#setRecordLocking */
+    public final static String RECORD_LOCKING_PROPERTY = "simpledb.bufferpool.recordlocking";
+
     private Database() {
         _catalog = new Catalog();
-        _bufferpool = new BufferPool(BufferPool.DEFAULT_PAGES);
+        int pages = Integer.getInteger(BUFFER_POOL_PAGES_PROPERTY, BufferPool.DEFAULT_PAGES);
+        _bufferpool = new BufferPool(pages, defaultEvictionPolicy(pages));
+        _bufferpool.setReadAheadEnabled(readAheadEnabled());
+        _bufferpool.setRecordLocking(Boolean.getBoolean(RECORD_LOCKING_PROPERTY));
         LogFile tmp = null;
         try {
             tmp = new LogFile(new File(LOGFILENAME));
@@ -50,16 +69,37 @@ public class Database {
         return _instance.get()._catalog;
     }
 
+    /** Returns the eviction policy named by {@link #EVICTION_POLICY_PROPERTY} */
+    private static EvictionPolicy defaultEvictionPolicy(int pages) {
+        return BufferPool.newEvictionPolicy(System.getProperty(EVICTION_POLICY_PROPERTY, "lru"), pages);
+    }
+
+    /** Returns false if read-ahead was turned off with {@link #READ_AHEAD_PROPERTY} */
+    private static boolean readAheadEnabled() {
+        return Boolean.parseBoolean(System.getProperty(READ_AHEAD_PROPERTY, "true"));
+    }
+
     /**
      * Method used for testing -- create a new instance of the buffer pool and
      * return it
      */
     public static BufferPool resetBufferPool(int pages) {
+        return resetBufferPool(pages, defaultEvictionPolicy(pages));
+    }
+
+    /**
+     * Method used for testing -- create a new instance of the buffer pool
+     * with the given eviction policy and return it
+     */
+    public static BufferPool resetBufferPool(int pages, EvictionPolicy policy) {
         java.lang.reflect.Field bufferPoolF=null;
         try {
             bufferPoolF = Database.class.getDeclaredField("_bufferpool");
             bufferPoolF.setAccessible(true);
-            bufferPoolF.set(_instance.get(), new BufferPool(pages));
+            BufferPool pool = new BufferPool(pages, policy);
+            pool.setReadAheadEnabled(readAheadEnabled());
+            pool.setRecordLocking(Boolean.getBoolean(RECORD_LOCKING_PROPERTY));
+            bufferPoolF.set(_instance.get(), pool);
         } catch (NoSuchFieldException e) {
             e.printStackTrace();
         } catch (SecurityException e) {
@@ -43,6 +43,25 @@ public interface DbFile {
     public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
         throws DbException, IOException, TransactionAbortedException;
 
+    /**
+     * Inserts all of the specified tuples to the file on behalf of
+     * transaction, like calling {@link #insertTuple} for each of them, but
+     * filling a whole page per page lookup and lock. Pages appended to the
+     * file may be written directly rather than returned, before the
+     * transaction commits; they are locked for the transaction all the
+     * same, and logged before they are written.
+     *
+     * @param tid The transaction performing the update
+     * @param tuples The tuples to add.  Each tuple should be updated to
+     *          reflect where it is now stored in this file.
+     * @return An ArrayList contain the pages that were modified and not
+     *          yet written
+     * @throws DbException if the tuples cannot be added
+     * @throws IOException if the needed file can't be read/written
+     */
+    public ArrayList<Page> insertTuples(TransactionId tid, Iterator<Tuple> tuples)
+        throws DbException, IOException, TransactionAbortedException;
+
     /**
      * Removes the specifed tuple from the file on behalf of the specified
      * transaction.
@@ -64,6 +83,12 @@ public interface DbFile {
      */
     public DbFileIterator iterator(TransactionId tid);
 
+    /**
+     * Returns the number of pages in this DbFile, all of which a scan of it
+     * reads.
+     */
+    public int numPages();
+
     /**
      * Returns a unique ID used to identify this DbFile in the Catalog. This id
      * can be used to look up the table via {@link Catalog#getDatabaseFile} and
@@ -79,6 +104,12 @@ public interface DbFile {
      */
     public int getId();
     
+    /**
+     * Releases any file handles this DbFile holds open. The DbFile may be
+     * used again afterwards, reopening them as needed.
+     */
+    public void close();
+
     /**
      * Returns the TupleDesc of the table stored in this DbFile.
      * @return TupleDesc of this DbFile.
@@ -0,0 +1,41 @@
+package simpledb;
+
+/**
+ * EvictionPolicy decides which page BufferPool evicts when it is full.
+ * BufferPool tells the policy about every page it caches, reads and drops;
+ * the policy only tracks page ids and never touches the pages themselves.
+ * <p>
+ * Implementations must be thread safe, since BufferPool calls
+ * {@link #pageAccessed} on cache hits without holding any lock of its own.
+ *
+ * @see BufferPool
+ */
+public interface EvictionPolicy {
+
+    /**
+     * Tells the policy whether a page may be evicted right now, e.g. because
+     * it is clean. Pages that can't be evicted stay where they are.
+     */
+    public interface Evictable {
+        public boolean canEvict(PageId pid);
+    }
+
+    /** Called when pid is brought into the buffer pool. */
+    public void pageAdded(PageId pid);
+
+    /** Called on every buffer pool hit on pid. */
+    public void pageAccessed(PageId pid);
+
+    /** Called when pid is dropped from the buffer pool for any reason other
+     * than being returned by {@link #chooseVictim}. */
+    public void pageRemoved(PageId pid);
+
+    /**
+     * Picks the next page to evict among those for which
+     * evictable.canEvict returns true. The returned page is no longer
+     * tracked by the policy.
+     *
+     * @return the page to evict, or null if no tracked page can be evicted
+     */
+    public PageId chooseVictim(Evictable evictable);
+}
@@ -0,0 +1,248 @@
+package simpledb;
+import java.util.*;
+
+/**
+ * ExternalSort is an operator that sorts the tuples of its child in
+ * ascending order of one field, holding at most a given number of pages of
+ * tuples in memory. Unlike OrderBy, it works on inputs of any size.
+ * <p>
+ * If the child fits in memory, it is sorted there. Otherwise open reads it
+ * in memory-sized runs, sorts each one and writes it to a
+ * {@link SpillFile}. The runs are then merged, {@link #fanIn()} at a time,
+ * until few enough are left to merge while the tuples are returned.
+ */
+public class ExternalSort extends Operator {
+    private final DbIterator child;
+    private final int field;
+    private final long memoryBytes;
+    private final int fanIn;
+    private final Comparator<Tuple> comparator;
+
+    // the sorted child if it fit in memory, else null
+    private ArrayList<Tuple> sorted;
+    private Iterator<Tuple> it;
+    // the runs left after the merge passes, merged by next
+    private ArrayList<SpillFile> runs;
+    private Merge merge;
+
+    private int initialRuns;
+    private int mergePasses;
+    private long spilledTuples;
+    private long spilledBytes;
+
+    /**
+     * Creates a new ExternalSort node over the tuples from the iterator.
+     *
+     * @param field the field to sort on
+     * @param child the tuples to sort
+     * @param memoryPages the number of pages of tuples the sort may hold in
+     *   memory
+     */
+    public ExternalSort(final int field, DbIterator child, int memoryPages) {
+        if (memoryPages <= 0)
+            throw new IllegalArgumentException("memory budget must be positive");
+        this.child = child;
+        this.field = field;
+        this.memoryBytes = (long) memoryPages * BufferPool.getPageSize();
+        // each run being merged is read through a buffer of about two pages
+        this.fanIn = Math.max(2, memoryPages / 2);
+        this.comparator = new Comparator<Tuple>() {
+            public int compare(Tuple a, Tuple b) {
+                Field x = a.getField(field), y = b.getField(field);
+                if (x.compare(Predicate.Op.EQUALS, y)) return 0;
+                return x.compare(Predicate.Op.LESS_THAN, y) ? -1 : 1;
+            }
+        };
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    /** @return the field the tuples are sorted on */
+    public int getField() {
+        return field;
+    }
+
+    /** @return the number of runs merged at a time */
+    public int fanIn() {
+        return fanIn;
+    }
+
+    /** @return the number of sorted runs written, 0 if the child fit in memory */
+    public int getInitialRuns() {
+        return initialRuns;
+    }
+
+    /** @return the number of merge passes that wrote their output to disk */
+    public int getMergePasses() {
+        return mergePasses;
+    }
+
+    /** @return the number of tuples written to disk, by all passes */
+    public long getSpilledTuples() {
+        return spilledTuples;
+    }
+
+    /** @return the number of bytes written to disk, by all passes */
+    public long getSpilledBytes() {
+        return spilledBytes;
+    }
+
+    public void open()
+        throws DbException, NoSuchElementException, TransactionAbortedException {
+        initialRuns = 0;
+        mergePasses = 0;
+        spilledTuples = 0;
+        spilledBytes = 0;
+        child.open();
+        long size = child.getTupleDesc().getSize();
+        ArrayList<Tuple> run = new ArrayList<Tuple>();
+        ArrayList<SpillFile> written = new ArrayList<SpillFile>();
+        long used = 0;
+        while (child.hasNext()) {
+            run.add(child.next());
+            used += size;
+            if (used > memoryBytes) {
+                written.add(writeRun(run));
+                run.clear();
+                used = 0;
+            }
+        }
+        if (written.isEmpty()) {
+            Collections.sort(run, comparator);
+            sorted = run;
+            it = sorted.iterator();
+            return;
+        }
+        if (!run.isEmpty())
+            written.add(writeRun(run));
+        run = null;
+        initialRuns = written.size();
+
+        while (written.size() > fanIn) {
+            ArrayList<SpillFile> next = new ArrayList<SpillFile>();
+            for (int i = 0; i < written.size(); i += fanIn) {
+                List<SpillFile> group = written.subList(i, Math.min(i + fanIn, written.size()));
+                SpillFile out = new SpillFile(getTupleDesc());
+                Merge m = new Merge(group);
+                Tuple t;
+                while ((t = m.next()) != null)
+                    spill(out, t);
+                m.close();
+                for (SpillFile f : group)
+                    f.delete();
+                next.add(out);
+            }
+            written = next;
+            mergePasses++;
+        }
+        runs = written;
+        merge = new Merge(runs);
+    }
+
+    private SpillFile writeRun(ArrayList<Tuple> run) throws DbException {
+        Collections.sort(run, comparator);
+        SpillFile f = new SpillFile(getTupleDesc());
+        for (Tuple t : run)
+            spill(f, t);
+        return f;
+    }
+
+    private void spill(SpillFile f, Tuple t) throws DbException {
+        f.add(t);
+        spilledTuples++;
+        spilledBytes += getTupleDesc().getSize();
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+        sorted = null;
+        it = null;
+        if (merge != null) merge.close();
+        merge = null;
+        if (runs != null)
+            for (SpillFile f : runs)
+                f.delete();
+        runs = null;
+    }
+
+    /**
+     * Starts over from the first tuple, without reading the child again.
+     */
+    public void rewind() throws DbException, TransactionAbortedException {
+        if (sorted != null) {
+            it = sorted.iterator();
+            return;
+        }
+        merge.close();
+        merge = new Merge(runs);
+    }
+
+    /**
+     * Operator.fetchNext implementation.
+     * Returns tuples from the child operator in order
+     *
+     * @return The next tuple in the ordering, or null if there are no more tuples
+     */
+    protected Tuple fetchNext()
+        throws NoSuchElementException, TransactionAbortedException, DbException {
+        if (it != null)
+            return it.hasNext() ? it.next() : null;
+        return merge == null ? null : merge.next();
+    }
+
+    /** Merges sorted runs, keeping the next tuple of each in a heap. */
+    private class Merge {
+        private final ArrayList<DbIterator> readers = new ArrayList<DbIterator>();
+        private final PriorityQueue<Head> heap;
+
+        Merge(List<SpillFile> runs) throws DbException {
+            heap = new PriorityQueue<Head>(Math.max(1, runs.size()), new Comparator<Head>() {
+                public int compare(Head a, Head b) {
+                    int c = comparator.compare(a.t, b.t);
+                    // ties go to the earlier run, so the sort is stable
+                    return c != 0 ? c : a.run - b.run;
+                }
+            });
+            for (SpillFile f : runs) {
+                DbIterator r = f.iterator();
+                readers.add(r);
+                try {
+                    r.open();
+                    if (r.hasNext()) heap.add(new Head(r.next(), readers.size() - 1));
+                } catch (TransactionAbortedException e) {
+                    throw new DbException("spill files are not transactional");
+                }
+            }
+        }
+
+        Tuple next() throws DbException {
+            Head h = heap.poll();
+            if (h == null) return null;
+            DbIterator r = readers.get(h.run);
+            try {
+                if (r.hasNext()) heap.add(new Head(r.next(), h.run));
+            } catch (TransactionAbortedException e) {
+                throw new DbException("spill files are not transactional");
+            }
+            return h.t;
+        }
+
+        void close() {
+            for (DbIterator r : readers)
+                r.close();
+        }
+    }
+
+    private static class Head {
+        final Tuple t;
+        final int run;
+
+        Head(Tuple t, int run) {
+            this.t = t;
+            this.run = run;
+        }
+    }
+}
@@ -14,6 +14,14 @@ public interface Field extends Serializable{
      */
     void serialize(DataOutputStream dos) throws IOException;
 
+    /**
+     * Write the bytes representing this field to the specified buffer, at
+     * its current position, in the same format as
+     * {@link #serialize(DataOutputStream)}.
+     * @param buf The buffer to write to.
+     */
+    void serialize(java.nio.ByteBuffer buf);
+
     /**
      * Compare the value of this field object to the passed in value.
      * @param op The operator
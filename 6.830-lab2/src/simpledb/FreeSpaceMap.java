@@ -0,0 +1,167 @@
+package simpledb;
+
+import java.io.*;
+import java.util.BitSet;
+
+/**
+ * FreeSpaceMap remembers how many free slots each page of a HeapFile has,
+ * so that an insert can go straight to a page with room instead of reading
+ * every page of the file in turn.
+ * <p>
+ * Each entry exists twice. The in-memory entry follows the cached page:
+ * HeapPage updates it whenever a slot is filled or freed. The persistent
+ * entry follows the page on disk: HeapFile rewrites it whenever it writes
+ * the page. It is kept in a sidecar file next to the heap file
+ * ("&lt;file&gt;.fsm"), one byte per page after a short header, so a file
+ * reopened later doesn't have to be scanned to find its free space again.
+ * A heap file in the temporary directory is taken to be a scratch table,
+ * like those the tests make with File.createTempFile, and its sidecar is
+ * deleted when the JVM exits.
+ * <p>
+ * Entries are hints. A page listed as having room may turn out to be full,
+ * and a page without a known entry (e.g. one appended by another tool) is
+ * treated as possibly having room until it is read.
+ */
+public class FreeSpaceMap {
+
+    /** Entry value for a page whose free space isn't known. */
+    static final int UNKNOWN = 0xff;
+    /** Largest free slot count stored exactly; larger counts are stored as this. */
+    static final int MAX_COUNT = 0xfe;
+
+    private static final int MAGIC = 0x46534d31; // "FSM1"
+    private static final int HEADER_SIZE = 4;
+
+    private final File file;
+    private boolean loaded = false;
+    private byte[] counts = new byte[0];
+    // pages known to have no free slot
+    private final BitSet full = new BitSet();
+    // the sidecar, opened on the first write
+    private RandomAccessFile raf;
+
+    /**
+     * @param file the sidecar file; it is read on first use if it exists
+     *   and created on the first write otherwise
+     */
+    public FreeSpaceMap(File file) {
+        this.file = file;
+    }
+
+    /** @return the sidecar file used for the free space map of heapFile */
+    public static File sidecarFor(File heapFile) {
+        return new File(heapFile.getPath() + ".fsm");
+    }
+
+    private void load() {
+        if (loaded) return;
+        loaded = true;
+        if (!file.exists()) return;
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try {
+                if (file.length() < HEADER_SIZE || in.readInt() != MAGIC) {
+                    System.err.println("Ignoring invalid free space map " + file);
+                    return;
+                }
+                byte[] stored = new byte[(int) (file.length() - HEADER_SIZE)];
+                in.readFully(stored);
+                for (int i = 0; i < stored.length; i++)
+                    set(i, stored[i] & 0xff);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            // it's only a hint; start over without it
+            System.err.println("Could not read free space map " + file + ": " + e);
+        }
+    }
+
+    private void set(int pgno, int value) {
+        if (pgno >= counts.length) {
+            byte[] grown = new byte[Math.max(pgno + 1, counts.length * 2)];
+            System.arraycopy(counts, 0, grown, 0, counts.length);
+            for (int i = counts.length; i < grown.length; i++)
+                grown[i] = (byte) UNKNOWN;
+            counts = grown;
+        }
+        counts[pgno] = (byte) value;
+        full.set(pgno, value == 0);
+    }
+
+    private static int entry(int freeSlots) {
+        return Math.min(freeSlots, MAX_COUNT);
+    }
+
+    /** Records that the cached copy of page pgno has freeSlots free slots. */
+    public synchronized void update(int pgno, int freeSlots) {
+        load();
+        set(pgno, entry(freeSlots));
+    }
+
+    /** Marks the free space of page pgno as unknown, e.g. because its cached copy was dropped. */
+    public synchronized void forget(int pgno) {
+        load();
+        set(pgno, UNKNOWN);
+    }
+
+    /**
+     * @return the recorded number of free slots of page pgno (at most
+     *   {@link #MAX_COUNT}), or -1 if it isn't known
+     */
+    public synchronized int getFreeSlots(int pgno) {
+        load();
+        if (pgno >= counts.length || (counts[pgno] & 0xff) == UNKNOWN) return -1;
+        return counts[pgno] & 0xff;
+    }
+
+    /**
+     * @return the first page at or after from that may have a free slot;
+     *   this may be past the end of the file
+     */
+    public synchronized int nextPageWithRoom(int from) {
+        load();
+        return full.nextClearBit(from);
+    }
+
+    /**
+     * Stores that page pgno has freeSlots free slots on disk.
+     */
+    public synchronized void persist(int pgno, int freeSlots) throws IOException {
+        load();
+        if (raf == null) {
+            if (inTempDirectory(file)) file.deleteOnExit();
+            raf = new RandomAccessFile(file, "rw");
+            if (raf.length() < HEADER_SIZE) {
+                raf.seek(0);
+                raf.writeInt(MAGIC);
+            }
+        }
+        // pages in between that were never written stay unknown
+        long end = raf.length();
+        long pos = HEADER_SIZE + (long) pgno;
+        if (pos > end) {
+            raf.seek(end);
+            for (long i = end; i < pos; i++)
+                raf.write(UNKNOWN);
+        }
+        raf.seek(pos);
+        raf.write(entry(freeSlots));
+    }
+
+    private static boolean inTempDirectory(File f) {
+        File dir = f.getAbsoluteFile().getParentFile();
+        return dir != null && dir.equals(new File(System.getProperty("java.io.tmpdir")).getAbsoluteFile());
+    }
+
+    /** Closes the sidecar file, if it was opened. */
+    public synchronized void close() {
+        if (raf == null) return;
+        try {
+            raf.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        raf = null;
+    }
+}
@@ -0,0 +1,401 @@
+package simpledb;
+import java.util.*;
+
+/**
+ * HashJoin implements an equality join by building a hash table on the join
+ * field of one child and probing it with the tuples of the other, so each
+ * probe tuple is compared only with the tuples that share its key rather
+ * than with the whole of the other input.
+ * <p>
+ * The operator does not know the sizes of its children in advance, so open
+ * reads them a tuple at a time in turn until one runs out; that one is the
+ * smaller and becomes the build side. The tuples already read from the
+ * other child are probed first, and the rest of it is streamed.
+ * <p>
+ * If both children outgrow the memory budget before either runs out, the
+ * join becomes a hybrid hash join on the left child. Both children are split
+ * into {@link #PARTITIONS} partitions by a hash of the join field. Build
+ * partitions stay in memory until the budget is used up, and then the
+ * largest resident one is written to a {@link SpillFile}. Probe tuples of
+ * resident partitions are joined at once, and the others are written to
+ * disk too. Each pair of spilled partitions is then joined by another
+ * HashJoin, hashing with a different seed, so a partition that still
+ * doesn't fit is split again. After {@link #MAX_LEVEL} such passes the keys
+ * of a partition are mostly equal, and the pair is joined by Join instead.
+ * <p>
+ * Like Join, the output tuples are the left tuple followed by the right
+ * tuple, whichever side the hash table is built on.
+ *
+ * @see Join
+ */
+public class HashJoin extends Operator {
+    /** Default memory budget of a hash join, in pages. */
+    public static final int DEFAULT_MEMORY_PAGES = 1024;
+    /** Number of partitions the inputs are split into when they don't fit. */
+    static final int PARTITIONS = 16;
+    /** Number of partitioning passes before spilled partitions are nested-loop joined. */
+    static final int MAX_LEVEL = 3;
+
+    private final JoinPredicate p;
+    private final DbIterator child1;
+    private final DbIterator child2;
+    private final TupleDesc td;
+    private final long memoryBytes;
+    private final int level;
+
+    private boolean buildLeft;
+    private DbIterator probe;
+    private int probeField;
+    // probe tuples read while finding the smaller child
+    private Iterator<Tuple> buffered;
+    private Tuple probeTuple;
+    private ArrayList<Tuple> matches;
+    private int nextMatch;
+
+    // a single table when the build side fits, else one per partition,
+    // null for the partitions that were spilled
+    private HashMap<Field, ArrayList<Tuple>>[] tables;
+    private long[] residentBytes;
+    private SpillFile[] buildSpills;
+    private SpillFile[] probeSpills;
+    // the join of the spilled partition nextSpill - 1
+    private DbIterator spilledJoin;
+    private int nextSpill;
+
+    private int partitions;
+    private int spilledPartitions;
+    private long spilledTuples;
+    private long spilledBytes;
+    private int levels;
+
+    /**
+     * Constructor.  Accepts two children to join and the equality
+     * predicate to join them on, with the default memory budget.
+     *
+     * @param p The predicate to use to join the children; its operator
+     *   must be Predicate.Op.EQUALS
+     * @param child1 Iterator for the left relation to join
+     * @param child2 Iterator for the right relation to join
+     */
+    public HashJoin(JoinPredicate p, DbIterator child1, DbIterator child2) {
+        this(p, child1, child2, DEFAULT_MEMORY_PAGES);
+    }
+
+    /**
+     * Constructor.  Accepts two children to join, the equality predicate to
+     * join them on, and the number of pages of tuples the join may hold in
+     * memory.
+     */
+    public HashJoin(JoinPredicate p, DbIterator child1, DbIterator child2, int memoryPages) {
+        this(p, child1, child2, (long) memoryPages * BufferPool.getPageSize(), 0);
+    }
+
+    private HashJoin(JoinPredicate p, DbIterator child1, DbIterator child2, long memoryBytes, int level) {
+        if (p.getOperator() != Predicate.Op.EQUALS)
+            throw new IllegalArgumentException("hash join needs an equality predicate, not " + p.getOperator());
+        if (memoryBytes <= 0)
+            throw new IllegalArgumentException("memory budget must be positive");
+        this.p = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.memoryBytes = memoryBytes;
+        this.level = level;
+        td = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /** @return true if the hash table was built on the left child */
+    public boolean builtOnLeft() {
+        return buildLeft;
+    }
+
+    /** @return the number of partitions made, by this join and the joins of its spilled partitions */
+    public int getPartitions() {
+        return partitions;
+    }
+
+    /** @return the number of partitions written to disk */
+    public int getSpilledPartitions() {
+        return spilledPartitions;
+    }
+
+    /** @return the number of tuples written to disk, build and probe sides together */
+    public long getSpilledTuples() {
+        return spilledTuples;
+    }
+
+    /** @return the number of bytes written to disk */
+    public long getSpilledBytes() {
+        return spilledBytes;
+    }
+
+    /** @return the number of partitioning passes made, 0 if the build side fit in memory */
+    public int getLevels() {
+        return levels;
+    }
+
+    /**
+     * @return a description of how the join ran, for -explain: the join
+     *   fields and how much of the input was spilled to disk
+     */
+    public String explain() {
+        String s = "HashJoin(" + child1.getTupleDesc().getFieldName(p.getField1()) + " = "
+                + child2.getTupleDesc().getFieldName(p.getField2()) + "): ";
+        if (levels == 0)
+            return s + "in memory, built on the " + (buildLeft ? "left" : "right");
+        return s + partitions + " partitions in " + levels + " levels, " + spilledPartitions
+                + " spilled, " + spilledTuples + " tuples (" + (spilledBytes / 1024) + " KB) written to disk";
+    }
+
+    public void open()
+        throws DbException, NoSuchElementException, TransactionAbortedException {
+        partitions = 0;
+        spilledPartitions = 0;
+        spilledTuples = 0;
+        spilledBytes = 0;
+        levels = 0;
+        child1.open();
+        child2.open();
+        ArrayList<Tuple> left = new ArrayList<Tuple>();
+        ArrayList<Tuple> right = new ArrayList<Tuple>();
+        long size1 = child1.getTupleDesc().getSize();
+        long size2 = child2.getTupleDesc().getSize();
+        long used = 0;
+        boolean fits = true;
+        while (true) {
+            if (!child1.hasNext()) {
+                buildLeft = true;
+                break;
+            }
+            left.add(child1.next());
+            if (!child2.hasNext()) {
+                buildLeft = false;
+                break;
+            }
+            right.add(child2.next());
+            used += size1 + size2;
+            if (used > memoryBytes) {
+                buildLeft = true;
+                fits = false;
+                break;
+            }
+        }
+
+        int buildField = buildLeft ? p.getField1() : p.getField2();
+        probe = buildLeft ? child2 : child1;
+        probeField = buildLeft ? p.getField2() : p.getField1();
+        buffered = (buildLeft ? right : left).iterator();
+        matches = null;
+        spilledJoin = null;
+        nextSpill = 0;
+        if (fits) {
+            tables = newTables(1);
+            for (Tuple t : buildLeft ? left : right)
+                add(tables[0], t.getField(buildField), t);
+            return;
+        }
+
+        // hybrid hash join: partition the left child, spilling as needed
+        levels = 1;
+        partitions = PARTITIONS;
+        tables = newTables(PARTITIONS);
+        residentBytes = new long[PARTITIONS];
+        buildSpills = new SpillFile[PARTITIONS];
+        probeSpills = new SpillFile[PARTITIONS];
+        long resident = 0;
+        Iterator<Tuple> rest = left.iterator();
+        while (true) {
+            Tuple t;
+            if (rest.hasNext()) t = rest.next();
+            else if (child1.hasNext()) t = child1.next();
+            else break;
+            Field key = t.getField(buildField);
+            int i = partition(key);
+            if (tables[i] == null) {
+                spill(buildSpills[i], t);
+                continue;
+            }
+            add(tables[i], key, t);
+            residentBytes[i] += size1;
+            resident += size1;
+            while (resident > memoryBytes)
+                resident -= spillLargest();
+        }
+        left = null;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static HashMap<Field, ArrayList<Tuple>>[] newTables(int n) {
+        HashMap<Field, ArrayList<Tuple>>[] tables = new HashMap[n];
+        for (int i = 0; i < n; i++)
+            tables[i] = new HashMap<Field, ArrayList<Tuple>>();
+        return tables;
+    }
+
+    private static void add(HashMap<Field, ArrayList<Tuple>> table, Field key, Tuple t) {
+        ArrayList<Tuple> bucket = table.get(key);
+        if (bucket == null) {
+            bucket = new ArrayList<Tuple>();
+            table.put(key, bucket);
+        }
+        bucket.add(t);
+    }
+
+    /**
+     * Writes the largest resident build partition to disk.
+     *
+     * @return the number of bytes of memory freed
+     */
+    private long spillLargest() throws DbException {
+        int largest = -1;
+        for (int i = 0; i < PARTITIONS; i++)
+            if (tables[i] != null && (largest < 0 || residentBytes[i] > residentBytes[largest]))
+                largest = i;
+        SpillFile spill = new SpillFile(child1.getTupleDesc());
+        for (ArrayList<Tuple> bucket : tables[largest].values())
+            for (Tuple t : bucket)
+                spill(spill, t);
+        buildSpills[largest] = spill;
+        tables[largest] = null;
+        spilledPartitions++;
+        long freed = residentBytes[largest];
+        residentBytes[largest] = 0;
+        return freed;
+    }
+
+    private void spill(SpillFile f, Tuple t) throws DbException {
+        f.add(t);
+        spilledTuples++;
+        spilledBytes += t.getTupleDesc().getSize();
+    }
+
+    /**
+     * @return the partition of key. The hash is mixed with the level, so
+     *   the keys of one partition spread over all partitions a level down.
+     */
+    private int partition(Field key) {
+        int h = key.hashCode() + level * 0x9e3779b9;
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return (h & 0x7fffffff) % PARTITIONS;
+    }
+
+    public void close() {
+        super.close();
+        child1.close();
+        child2.close();
+        if (spilledJoin != null) spilledJoin.close();
+        deleteSpills();
+        tables = null;
+        probe = null;
+        buffered = null;
+        matches = null;
+        spilledJoin = null;
+    }
+
+    private void deleteSpills() {
+        if (buildSpills == null) return;
+        for (int i = 0; i < PARTITIONS; i++) {
+            if (buildSpills[i] != null) buildSpills[i].delete();
+            if (probeSpills[i] != null) probeSpills[i].delete();
+        }
+        buildSpills = null;
+        probeSpills = null;
+    }
+
+    /**
+     * Rewinds only the probe side if the build side fit in memory; else the
+     * join starts over.
+     */
+    public void rewind() throws DbException, TransactionAbortedException {
+        if (buildSpills != null) {
+            close();
+            open();
+            return;
+        }
+        probe.rewind();
+        buffered = Collections.<Tuple>emptyList().iterator();
+        matches = null;
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples: the next match of the current probe tuple, or else the
+     * first match of the next probe tuple that has any. Once the probe side
+     * is exhausted, the spilled partitions are joined.
+     *
+     * @return The next matching tuple.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (matches == null || nextMatch == matches.size()) {
+            if (buffered.hasNext())
+                probeTuple = buffered.next();
+            else if (probe.hasNext())
+                probeTuple = probe.next();
+            else
+                return fetchSpilled();
+            Field key = probeTuple.getField(probeField);
+            int i = tables.length == 1 ? 0 : partition(key);
+            if (tables[i] == null) {
+                if (probeSpills[i] == null)
+                    probeSpills[i] = new SpillFile(child2.getTupleDesc());
+                spill(probeSpills[i], probeTuple);
+                matches = null;
+                continue;
+            }
+            matches = tables[i].get(key);
+            nextMatch = 0;
+        }
+        Tuple match = matches.get(nextMatch++);
+        return buildLeft ? merge(match, probeTuple) : merge(probeTuple, match);
+    }
+
+    /** @return the next tuple of the joins of the spilled partitions, or null */
+    private Tuple fetchSpilled() throws TransactionAbortedException, DbException {
+        if (buildSpills == null) return null;
+        while (spilledJoin == null || !spilledJoin.hasNext()) {
+            if (spilledJoin != null) {
+                spilledJoin.close();
+                if (spilledJoin instanceof HashJoin) {
+                    HashJoin sub = (HashJoin) spilledJoin;
+                    partitions += sub.partitions;
+                    spilledPartitions += sub.spilledPartitions;
+                    spilledTuples += sub.spilledTuples;
+                    spilledBytes += sub.spilledBytes;
+                    levels = Math.max(levels, sub.levels + 1);
+                }
+                buildSpills[nextSpill - 1].delete();
+                probeSpills[nextSpill - 1].delete();
+                spilledJoin = null;
+            }
+            while (nextSpill < PARTITIONS && (buildSpills[nextSpill] == null || probeSpills[nextSpill] == null))
+                nextSpill++;
+            if (nextSpill == PARTITIONS) return null;
+            SpillFile build = buildSpills[nextSpill];
+            SpillFile probeSpill = probeSpills[nextSpill];
+            nextSpill++;
+            if (level + 1 < MAX_LEVEL)
+                spilledJoin = new HashJoin(p, build.iterator(), probeSpill.iterator(), memoryBytes, level + 1);
+            else
+                spilledJoin = new Join(p, build.iterator(), probeSpill.iterator());
+            spilledJoin.open();
+        }
+        return spilledJoin.next();
+    }
+
+    private Tuple merge(Tuple t1, Tuple t2) {
+        Tuple t = new Tuple(td);
+        int n1 = t1.getTupleDesc().numFields();
+        for (int i = 0; i < n1; i++)
+            t.setField(i, t1.getField(i));
+        for (int i = 0; i < t2.getTupleDesc().numFields(); i++)
+            t.setField(n1 + i, t2.getField(i));
+        return t;
+    }
+}
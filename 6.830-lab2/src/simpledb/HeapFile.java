@@ -1,6 +1,9 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.*;
 
 /**
@@ -24,11 +27,101 @@ public class HeapFile implements DbFile {
      */
     private File f;
     private TupleDesc td;
+    // opened lazily and shared by all readers; positioned reads/writes on a
+    // FileChannel don't touch the channel position, so they are thread safe
+    private volatile FileChannel channel;
+
+    /**
+     * Size of one mapped segment in mapped mode. A single MappedByteBuffer
+     * can't address more than 2GB, so larger files are mapped as several
+     * segments. This is a multiple of the page size, so a page never spans
+     * two segments.
+     */
+    static final long MAP_SEGMENT_SIZE = 1L << 30;
+
+    private final boolean mapped;
+    private MappedByteBuffer[] segments = new MappedByteBuffer[0];
+
+    // null in mapped mode, where nothing is ever inserted
+    private final FreeSpaceMap freeSpace;
+
+    // one page-sized direct buffer per thread that pages are read into and
+    // serialized into for writing, so that neither needs a fresh array nor
+    // a copy through the channel's own temporary direct buffer
+    private static final ThreadLocal<ByteBuffer> pageBuffer = new ThreadLocal<ByteBuffer>() {
+        protected ByteBuffer initialValue() {
+            return ByteBuffer.allocateDirect(BufferPool.getPageSize());
+        }
+    };
 
     public HeapFile(File f, TupleDesc td) {
+        this(f, td, false);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file.
+     *
+     * @param f
+     * the file that stores the on-disk backing store for this heap
+     * file.
+     * @param mapped
+     * if true, the file is memory-mapped read-only and pages are parsed
+     * straight out of the mapping. Such files reject writes.
+     */
+    public HeapFile(File f, TupleDesc td, boolean mapped) {
         // some code goes here
         this.f = f;
         this.td = td;
+        this.mapped = mapped;
+        this.freeSpace = mapped ? null : new FreeSpaceMap(FreeSpaceMap.sidecarFor(f));
+    }
+
+    /**
+     * @return true if this file was opened in memory-mapped read-only mode.
+     */
+    public boolean isMapped() {
+        return mapped;
+    }
+
+    /**
+     * @return the map insertTuple uses to find pages with free slots, or
+     *   null if this file is mapped read-only
+     */
+    public FreeSpaceMap getFreeSpaceMap() {
+        return freeSpace;
+    }
+
+    /**
+     * Returns the channel backing this HeapFile, opening it on first use.
+     */
+    private FileChannel getChannel() throws IOException {
+        FileChannel fc = channel;
+        if (fc == null) {
+            synchronized (this) {
+                fc = channel;
+                if (fc == null) {
+                    fc = new RandomAccessFile(f, mapped ? "r" : "rw").getChannel();
+                    channel = fc;
+                }
+            }
+        }
+        return fc;
+    }
+
+    /**
+     * Closes the channel backing this HeapFile, if it has been opened. The
+     * channel is reopened on the next read or write.
+     */
+    public synchronized void close() {
+        segments = new MappedByteBuffer[0];
+        if (freeSpace != null) freeSpace.close();
+        if (channel == null) return;
+        try {
+            channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        channel = null;
     }
 
     /**
@@ -71,35 +164,86 @@ public class HeapFile implements DbFile {
         int tableid = pid.getTableId();
         int pgno = pid.pageNumber();
         int pagesize = BufferPool.getPageSize();
-        int offset = pgno * pagesize;
-        byte[] rawdata = HeapPage.createEmptyPageData();
+        long offset = (long) pgno * pagesize;
+        if (mapped) {
+            try {
+                return new HeapPage(new HeapPageId(tableid, pgno), mappedPage(offset));
+            } catch (IOException e) {
+                throw new IllegalArgumentException("IOException", e);
+            }
+        }
+        ByteBuffer buf = pageBuffer.get();
+        buf.clear();
         try {
-            InputStream in = new FileInputStream(f);
-            in.skip(offset);
-            in.read(rawdata);
-            return new HeapPage(new HeapPageId(tableid, pgno), rawdata);
-        } catch (FileNotFoundException e) {
-            throw  new IllegalArgumentException("FileNotFoundException");
-        } catch( IOException e)
-        { throw new IllegalArgumentException("IOException");}
+            FileChannel fc = getChannel();
+            while (buf.hasRemaining()) {
+                int n = fc.read(buf, offset + buf.position());
+                if (n < 0) break;
+            }
+            if (buf.position() == 0)
+                throw new IllegalArgumentException("page " + pgno + " does not exist");
+            // a short last page reads as if padded with zeroes
+            while (buf.hasRemaining())
+                buf.put((byte) 0);
+            buf.flip();
+            HeapPage page = new HeapPage(new HeapPageId(tableid, pgno), buf);
+            freeSpace.update(pgno, page.getNumEmptySlots());
+            page.setFreeSpaceMap(freeSpace);
+            return page;
+        } catch (IOException e) {
+            throw new IllegalArgumentException("IOException", e);
+        }
     }
 
 
+    /**
+     * Returns a view of the page starting at offset in the mapped file,
+     * mapping the segment that contains it on first use.
+     */
+    private ByteBuffer mappedPage(long offset) throws IOException {
+        int pagesize = BufferPool.getPageSize();
+        int seg = (int) (offset / MAP_SEGMENT_SIZE);
+        MappedByteBuffer segment;
+        synchronized (this) {
+            if (seg >= segments.length)
+                segments = Arrays.copyOf(segments, seg + 1);
+            segment = segments[seg];
+            if (segment == null) {
+                FileChannel fc = getChannel();
+                long start = seg * MAP_SEGMENT_SIZE;
+                long len = Math.min(MAP_SEGMENT_SIZE, fc.size() - start);
+                if (len <= 0)
+                    throw new IllegalArgumentException("page at offset " + offset + " does not exist");
+                segment = fc.map(FileChannel.MapMode.READ_ONLY, start, len);
+                segments[seg] = segment;
+            }
+        }
+        int pos = (int) (offset % MAP_SEGMENT_SIZE);
+        if (pos + pagesize > segment.capacity())
+            throw new IllegalArgumentException("page at offset " + offset + " does not exist");
+        // duplicate so concurrent readers don't share a position
+        ByteBuffer view = segment.duplicate();
+        view.position(pos);
+        view.limit(pos + pagesize);
+        return view.slice();
+    }
+
     // see DbFile.java for javadocs
     public void writePage(Page page) throws IOException {
         // some code goes here
         // not necessary for lab1
+        if (mapped) throw new IOException("HeapFile " + f + " is mapped read-only");
         int pagesize = BufferPool.getPageSize();
-        int offset = page.getId().pageNumber()*pagesize;
-        byte[] rawdata = page.getPageData();
-        try {
-            OutputStream out = new FileOutputStream(f,true);
-            out.write(rawdata);
-        } catch (FileNotFoundException e) {
-            throw new IllegalArgumentException("FileNotFoundException");
-        } catch (IOException e){
-            throw new IllegalArgumentException("IOException");
+        long offset = (long) page.getId().pageNumber() * pagesize;
+        ByteBuffer buf = pageBuffer.get();
+        buf.clear();
+        page.getPageData(buf);
+        buf.flip();
+        FileChannel fc = getChannel();
+        while (buf.hasRemaining()) {
+            fc.write(buf, offset + buf.position());
         }
+        freeSpace.persist(page.getId().pageNumber(), ((HeapPage) page).getNumEmptySlots());
     }
 
     /**
@@ -115,36 +259,202 @@ public class HeapFile implements DbFile {
     // see DbFile.java for javadocs
     public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
             throws DbException, IOException, TransactionAbortedException {
+        if (mapped) throw new DbException("HeapFile " + f + " is mapped read-only");
         ArrayList<Page> modified = new ArrayList<>();
+        BufferPool bufpool = Database.getBufferPool();
+        boolean recordLocking = bufpool.isRecordLocking();
         int numpages = numPages();
         HeapPage currentpage;
-        for (int i = 0;i<numpages;i++){
+        // visit only pages the free space map says may have room
+        for (int i = freeSpace.nextPageWithRoom(0); i<numpages; i = freeSpace.nextPageWithRoom(i+1)){
             HeapPageId pid = new HeapPageId(getId(),i);
-            currentpage = (HeapPage) Database.getBufferPool().getPage(tid,pid,Permissions.READ_WRITE);
-            if (currentpage.getNumEmptySlots()>0){
-                currentpage.insertTuple(t);
-                modified.add(currentpage);
-                return modified;
+            boolean held = bufpool.holdsLock(tid, pid);
+            if (recordLocking) {
+                // an intention lock doesn't keep other inserters out
+                currentpage = (HeapPage) bufpool.getPage(tid,pid,Permissions.READ_WRITE);
+                if (insertIntoLockableSlot(tid, currentpage, t)) {
+                    modified.add(currentpage);
+                    return modified;
+                }
+            } else {
+                // look for a free slot under a shared lock, so that inserts
+                // don't hold exclusive locks on every full page they pass
+                currentpage = (HeapPage) bufpool.getPage(tid,pid,Permissions.READ_ONLY);
+                if (currentpage.getNumEmptySlots()>0){
+                    currentpage = (HeapPage) bufpool.getPage(tid,pid,Permissions.READ_WRITE);
+                    if (currentpage.getNumEmptySlots()>0){
+                        currentpage.insertTuple(t);
+                        modified.add(currentpage);
+                        return modified;
+                    }
+                }
             }
+            // nothing was read from the page, so 2PL allows letting go of it
+            if (!held) bufpool.releasePage(tid, pid);
+        }
+        HeapPageId pid;
+        synchronized (this) {
+            // appends are serialized so that two inserts can't both claim
+            // the same new page number
+            pid = new HeapPageId(getId(),numPages());
+            writePage(new HeapPage(pid,HeapPage.createEmptyPageData()));
+        }
+        // the new page goes through the buffer pool so that it is locked
+        currentpage = (HeapPage) bufpool.getPage(tid,pid,Permissions.READ_WRITE);
+        if (recordLocking) {
+            if (!insertIntoLockableSlot(tid, currentpage, t))
+                throw new DbException("no free slot on new page " + pid.pageNumber());
+        } else {
+            currentpage.insertTuple(t);
         }
-        HeapPageId pid = new HeapPageId(getId(),numpages+1);
-        currentpage = new HeapPage(pid,HeapPage.createEmptyPageData());
-        currentpage.insertTuple(t);
         modified.add(currentpage);
-        writePage(currentpage);
         // some code goes here
         return modified;
         // not necessary for lab1
     }
 
+    /** Number of new pages insertTuples builds in memory and appends with one write. */
+    static final int APPEND_BATCH = 32;
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> insertTuples(TransactionId tid, Iterator<Tuple> tuples)
+            throws DbException, IOException, TransactionAbortedException {
+        if (mapped) throw new DbException("HeapFile " + f + " is mapped read-only");
+        ArrayList<Page> modified = new ArrayList<>();
+        BufferPool bufpool = Database.getBufferPool();
+        boolean recordLocking = bufpool.isRecordLocking();
+        Tuple next = tuples.hasNext() ? tuples.next() : null;
+        // fill the free slots of existing pages first, a whole page per lookup
+        int numpages = numPages();
+        for (int i = freeSpace.nextPageWithRoom(0); i<numpages && next != null; i = freeSpace.nextPageWithRoom(i+1)){
+            HeapPageId pid = new HeapPageId(getId(),i);
+            boolean held = bufpool.holdsLock(tid, pid);
+            HeapPage page = (HeapPage) bufpool.getPage(tid,pid,Permissions.READ_WRITE);
+            boolean used = false;
+            while (next != null) {
+                if (recordLocking) {
+                    if (!insertIntoLockableSlot(tid, page, next)) break;
+                } else {
+                    if (page.getNumEmptySlots() == 0) break;
+                    page.insertTuple(next);
+                }
+                used = true;
+                next = tuples.hasNext() ? tuples.next() : null;
+            }
+            if (used) modified.add(page);
+            else if (!held) bufpool.releasePage(tid, pid);
+        }
+        // then build the remaining tuples into new pages, APPEND_BATCH at a time
+        int perPage = new HeapPage(new HeapPageId(getId(), 0),
+                HeapPage.createEmptyPageData()).getNumEmptySlots();
+        ArrayList<Tuple> batch = new ArrayList<Tuple>();
+        while (next != null) {
+            batch.clear();
+            while (next != null && batch.size() < APPEND_BATCH * perPage) {
+                batch.add(next);
+                next = tuples.hasNext() ? tuples.next() : null;
+            }
+            appendPages(tid, batch, perPage);
+        }
+        return modified;
+    }
+
+    /**
+     * Appends the pages holding batch to the end of this file with a single
+     * write, bypassing the buffer pool. The new pages are locked for tid
+     * before they become visible.
+     * <p>
+     * Unlike the buffer pool, which is NO STEAL, this path is STEAL: tid's
+     * uncommitted tuples reach the disk before it commits. So the page
+     * images are always logged, in one go, and the log is forced before the
+     * pages are written. If tid aborts, the buffer pool writes the pages
+     * back empty (see {@link BufferPool#lockAppendedPage}).
+     */
+    private void appendPages(TransactionId tid, List<Tuple> batch, int perPage)
+            throws DbException, IOException, TransactionAbortedException {
+        BufferPool bufpool = Database.getBufferPool();
+        int npages = (batch.size() + perPage - 1) / perPage;
+        ArrayList<Page> befores = new ArrayList<Page>(npages);
+        ArrayList<Page> pages = new ArrayList<Page>(npages);
+        // the table lock may wait for other transactions, which must not
+        // find this file's monitor held meanwhile
+        if (tid != null) bufpool.lockTableForAppend(tid, getId());
+        synchronized (this) {
+            // as in insertTuple, appends are serialized so that page numbers
+            // aren't handed out twice
+            int base = numPages();
+            for (int p = 0; p < npages; p++) {
+                HeapPageId pid = new HeapPageId(getId(), base + p);
+                if (tid != null) bufpool.lockAppendedPage(tid, pid);
+                HeapPage page = new HeapPage(pid, HeapPage.createEmptyPageData());
+                int end = Math.min(batch.size(), (p + 1) * perPage);
+                for (int j = p * perPage; j < end; j++)
+                    page.insertTuple(batch.get(j));
+                befores.add(page.getBeforeImage());
+                pages.add(page);
+            }
+            if (tid != null) {
+                // write-ahead: the undo images must be durable before the pages
+                LogFile log = Database.getLogFile();
+                log.logWrites(tid, befores, pages);
+                log.force();
+            }
+
+            int pagesize = BufferPool.getPageSize();
+            ByteBuffer buf = ByteBuffer.allocate(npages * pagesize);
+            for (Page page : pages)
+                page.getPageData(buf);
+            buf.flip();
+            long offset = (long) base * pagesize;
+            FileChannel fc = getChannel();
+            while (buf.hasRemaining()) {
+                fc.write(buf, offset + buf.position());
+            }
+            ReadAhead ra = bufpool.getReadAhead();
+            for (Page page : pages) {
+                int pgno = page.getId().pageNumber();
+                int free = ((HeapPage) page).getNumEmptySlots();
+                freeSpace.update(pgno, free);
+                freeSpace.persist(pgno, free);
+                if (ra != null) ra.discard(page.getId());
+            }
+        }
+    }
+
+    /**
+     * Inserts t into the first free slot of page whose record lock tid can
+     * take without waiting. A slot freed by a transaction that hasn't
+     * completed is still locked by it, and is skipped so that an abort can
+     * put its tuple back.
+     *
+     * @return false if there is no such slot
+     */
+    private boolean insertIntoLockableSlot(TransactionId tid, HeapPage page, Tuple t)
+            throws DbException {
+        LockManager locks = Database.getBufferPool().getLockManager();
+        synchronized (page) {
+            for (int slot = page.nextEmptySlot(0); slot >= 0; slot = page.nextEmptySlot(slot + 1)) {
+                if (locks.tryAcquire(tid, new RecordId(page.getId(), slot), LockManager.LockMode.X)) {
+                    page.insertTuple(t, slot);
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
     // see DbFile.java for javadocs
     public Page deleteTuple(TransactionId tid, Tuple t) throws DbException,
             TransactionAbortedException {
         // some code goes here
+        if (mapped) throw new DbException("HeapFile " + f + " is mapped read-only");
         RecordId rid = t.getRecordId();
         PageId pid = rid.getPageId();
-        HeapPage page =(HeapPage) Database.getBufferPool().getPage(tid,pid,Permissions.READ_WRITE);
-        if (pid.getTableId() == getId()) throw new DbException("not a same table");
+        if (pid.getTableId() != getId()) throw new DbException("not a same table");
+        BufferPool bufpool = Database.getBufferPool();
+        HeapPage page =(HeapPage) bufpool.getPage(tid,pid,Permissions.READ_WRITE);
+        if (bufpool.isRecordLocking())
+            bufpool.getLockManager().acquire(tid, rid, LockManager.LockMode.X);
         try {
             page.deleteTuple(t);
         } catch (DbException e){
@@ -158,72 +468,80 @@ public class HeapFile implements DbFile {
     // see DbFile.java for javadocs
     public DbFileIterator iterator(TransactionId tid) {
         // some code goes here
-        return new myiterator(tid);
+        return new HeapFileIterator(tid, null);
     }
-    private class myiterator implements DbFileIterator{
 
-        public TransactionId tid;
-        public int tableid;
-        public int endpid;
-        public BufferPool bufpool;
-        public Iterator<Tuple> iterator;
-        public boolean open;
+    /**
+     * Returns an iterator over the tuples of this file that pass all of
+     * predicates. The predicates are evaluated on the serialized tuples in
+     * each page, so tuples that don't pass are never decoded.
+     *
+     * @param predicates the predicates to apply, or null for none
+     * @see HeapPage#iterator(List)
+     */
+    public DbFileIterator iterator(TransactionId tid, List<Predicate> predicates) {
+        return new HeapFileIterator(tid, predicates);
+    }
 
-        public myiterator(TransactionId tid){
-            this.tid = tid;
-            this.tableid = getId();
-            this.endpid = numPages()-1;
-            this.bufpool = null;
-            this.iterator = null;
-            this.open = true;
-        }
-        @Override
-        public void open() throws DbException, TransactionAbortedException {
-            if (this.bufpool == null) this.bufpool=Database.getBufferPool();
-            try{
-                this.bufpool = Database.getBufferPool();
-                ArrayList<Tuple> result = new ArrayList<>();
-                for (int i = 0;i<=endpid;i++){
-                    PageId curpid = new HeapPageId(tableid,i);
-                    HeapPage curpg = (HeapPage) bufpool.getPage(tid,curpid,Permissions.READ_ONLY);
-                    Iterator<Tuple> curiter = curpg.iterator();
-                    while (curiter.hasNext()){
-                        result.add(curiter.next());
-                    }
-                }
-                this.iterator = result.iterator();
+    /**
+     * Streams the tuples of this file one page at a time. Only the page
+     * currently being read is referenced by the iterator; it is fetched
+     * through the buffer pool when the previous page is used up, so time to
+     * first tuple and memory use don't grow with the size of the table.
+     */
+    private class HeapFileIterator extends AbstractDbFileIterator {
 
-            } catch (DbException e){
-                throw new DbException("database error");
-            } catch (TransactionAbortedException e){
-                throw  new TransactionAbortedException();
-            }
+        private final TransactionId tid;
+        private final List<Predicate> predicates;
+        private BufferPool bufpool;
+        // frames this scan recycles, or null if the table is small enough
+        // to go through the main pool
+        private ScanRing ring;
+        private int numPages;
+        private int nextPgno;
+        private Iterator<Tuple> pageTuples;
+
+        public HeapFileIterator(TransactionId tid, List<Predicate> predicates) {
+            this.tid = tid;
+            this.predicates = predicates;
         }
 
         @Override
-        public boolean hasNext() throws DbException, TransactionAbortedException {
-            if (bufpool == null) return false;
-            return this.iterator.hasNext();
+        public void open() throws DbException, TransactionAbortedException {
+            bufpool = Database.getBufferPool();
+            numPages = numPages();
+            // only scans of tables that can't fit in the pool get a ring;
+            // smaller tables are better off cached for the next scan
+            if (ring == null && numPages > bufpool.getNumPages())
+                ring = bufpool.newScanRing();
+            nextPgno = 0;
+            pageTuples = null;
         }
 
         @Override
-        public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
-                if (bufpool == null)  throw  new NoSuchElementException();
-                return this.iterator.next();
+        protected Tuple readNext() throws DbException, TransactionAbortedException {
+            if (bufpool == null) return null;
+            while (pageTuples == null || !pageTuples.hasNext()) {
+                if (nextPgno >= numPages) return null;
+                PageId pid = new HeapPageId(getId(), nextPgno++);
+                HeapPage page = (HeapPage) bufpool.getPage(tid, pid, Permissions.READ_ONLY, ring);
+                pageTuples = page.iterator(predicates);
+            }
+            return pageTuples.next();
         }
 
         @Override
         public void rewind() throws DbException, TransactionAbortedException {
-            if (bufpool == null) throw  new IllegalStateException("bufferpool is null");
+            if (bufpool == null) throw new IllegalStateException("iterator is not open");
+            close();
             open();
         }
 
         @Override
         public void close() {
-            bufpool =null;
-            this.iterator = null;
-            this.open = false;
+            super.close();
+            bufpool = null;
+            pageTuples = null;
         }
     }
 }
-
@@ -1,14 +1,22 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
 
 /**
  * HeapFileEncoder reads a comma delimited text file or accepts
  * an array of tuples and converts it to
  * pages of binary data in the appropriate format for simpledb heap pages
  * Pages are padded out to a specified length, and written consecutive in a
- * data file.
+ * data file. Text files can also be converted to the pages of a PaxFile;
+ * see {@link #convertPax}.
  */
 
 public class HeapFileEncoder {
@@ -26,29 +34,31 @@ public class HeapFileEncoder {
    * @param outFile The output file to write data to
    * @param npagebytes The number of bytes per page in the output file
    * @param numFields the number of fields in each input tuple
-   * @throws IOException if the temporary/output file can't be opened
+   * @throws IOException if the output file can't be opened
    */
   public static void convert(ArrayList<ArrayList<Integer>> tuples, File outFile, int npagebytes, int numFields) throws IOException {
-      File tempInput = File.createTempFile("tempTable", ".txt");
-      tempInput.deleteOnExit();
-      BufferedWriter bw = new BufferedWriter(new FileWriter(tempInput));
-      for (ArrayList<Integer> tuple : tuples) {
-          int writtenFields = 0;
-          for (Integer field : tuple) {
-              writtenFields++;
-              if (writtenFields > numFields) {
-                  throw new RuntimeException("Tuple has more than " + numFields + " fields: (" +
+      Type[] ts = new Type[numFields];
+      for (int i = 0; i < ts.length; i++) {
+          ts[i] = Type.INT_TYPE;
+      }
+      // encode straight into pages; no need for a text round trip
+      PageWriter out = new PageWriter(outFile, npagebytes, ts, false);
+      try {
+          byte[] record = new byte[out.nrecbytes];
+          for (ArrayList<Integer> tuple : tuples) {
+              if (tuple.size() != numFields) {
+                  throw new RuntimeException("Tuple does not have " + numFields + " fields: (" +
                           Utility.listToString(tuple) + ")");
               }
-              bw.write(String.valueOf(field));
-              if (writtenFields < numFields) {
-                  bw.write(',');
+              for (int i = 0; i < numFields; i++) {
+                  putInt(record, i * 4, tuple.get(i));
               }
+              out.add(record, 0, 1);
           }
-          bw.write('\n');
+          out.finish();
+      } finally {
+          out.close();
       }
-      bw.close();
-      convert(tempInput, outFile, npagebytes, numFields);
   }
 
       public static void convert(File inFile, File outFile, int npagebytes,
@@ -90,137 +100,365 @@ public class HeapFileEncoder {
   public static void convert(File inFile, File outFile, int npagebytes,
                  int numFields, Type[] typeAr, char fieldSeparator)
       throws IOException {
+      convert(inFile, outFile, npagebytes, numFields, typeAr, fieldSeparator, 1);
+  }
+
+  /** Size of the pieces the input file is read in. */
+  static final int CHUNK_SIZE = 4 << 20;
+  /** Size below which a piece of input is parsed without splitting it further. */
+  static final int SPLIT_SIZE = 256 << 10;
+
+   /** Convert the specified input text file into a binary page file,
+    * parsing it on the specified number of threads. <br>
+    * The input is read in chunks of about CHUNK_SIZE bytes cut at line
+    * ends. Each chunk is split further and parsed into records on a
+    * fork-join pool, while this thread packs the records of finished
+    * chunks into pages and writes them out in input order. At most two
+    * chunks per thread are in flight, so memory use doesn't grow with the
+    * size of the input. The output is the same for any number of threads.
+    *
+    * @see #convert(File, File, int, int, Type[], char)
+    * @param threads the number of parser threads
+    * @throws IOException if the input/output file can't be opened or a
+    *   malformed input line is encountered
+    */
+  public static void convert(File inFile, File outFile, int npagebytes,
+                 int numFields, Type[] typeAr, char fieldSeparator, int threads)
+      throws IOException {
+      convert(inFile, outFile, npagebytes, numFields, typeAr, fieldSeparator, threads, CHUNK_SIZE);
+  }
+
+  /** Convert the specified input text file into a binary page file in the
+   * format of PaxFile, where each page stores its tuples column by column.
+   * The input is parsed as by {@link #convert(File, File, int, int, Type[], char, int)}.
+   *
+   * @see PaxPage
+   * @see PaxFile
+   * @throws IOException if the input/output file can't be opened or a
+   *   malformed input line is encountered
+   */
+  public static void convertPax(File inFile, File outFile, int npagebytes,
+                 int numFields, Type[] typeAr, char fieldSeparator, int threads)
+      throws IOException {
+      convert(inFile, outFile, npagebytes, numFields, typeAr, fieldSeparator, threads, CHUNK_SIZE, true);
+  }
+
+  static void convert(File inFile, File outFile, int npagebytes, int numFields,
+                 Type[] typeAr, char fieldSeparator, int threads, int chunkSize)
+      throws IOException {
+      convert(inFile, outFile, npagebytes, numFields, typeAr, fieldSeparator, threads, chunkSize, false);
+  }
+
+  static void convert(File inFile, File outFile, int npagebytes, int numFields,
+                 Type[] typeAr, char fieldSeparator, int threads, int chunkSize, boolean pax)
+      throws IOException {
+      Type[] types = new Type[numFields];
+      System.arraycopy(typeAr, 0, types, 0, numFields);
+      PageWriter out = new PageWriter(outFile, npagebytes, types, pax);
+      ForkJoinPool pool = new ForkJoinPool(threads);
+      FileInputStream in = new FileInputStream(inFile);
+      try {
+          ArrayDeque<ForkJoinTask<ArrayList<Records>>> inFlight =
+                  new ArrayDeque<ForkJoinTask<ArrayList<Records>>>();
+          byte[] carry = new byte[0];
+          while (true) {
+              // a chunk is the unfinished line of the last one plus new input
+              // up to the last line end; it only grows if a line doesn't fit
+              byte[] chunk = new byte[Math.max(chunkSize, carry.length * 2)];
+              System.arraycopy(carry, 0, chunk, 0, carry.length);
+              int len = carry.length;
+              int n;
+              while (len < chunk.length && (n = in.read(chunk, len, chunk.length - len)) > 0)
+                  len += n;
+              boolean eof = len < chunk.length;
+              int cut = len;
+              if (!eof) {
+                  while (cut > 0 && chunk[cut - 1] != '\n')
+                      cut--;
+              }
+              if (cut == 0 && !eof) {
+                  carry = Arrays.copyOf(chunk, len);
+                  continue;
+              }
+              carry = Arrays.copyOfRange(chunk, cut, len);
+              if (inFlight.size() >= 2 * threads)
+                  out.addAll(join(inFlight.removeFirst()));
+              inFlight.addLast(pool.submit(new ParseTask(chunk, 0, cut, types, (byte) fieldSeparator)));
+              if (eof) break;
+          }
+          while (!inFlight.isEmpty())
+              out.addAll(join(inFlight.removeFirst()));
+          out.finish();
+      } finally {
+          pool.shutdownNow();
+          in.close();
+          out.close();
+      }
+  }
+
+  private static ArrayList<Records> join(ForkJoinTask<ArrayList<Records>> task) throws IOException {
+      try {
+          return task.join();
+      } catch (UncheckedIOException e) {
+          throw e.getCause();
+      }
+  }
+
+  /** Fixed-size records parsed from a piece of input. */
+  private static class Records {
+      final byte[] data;
+      final int count;
 
+      Records(byte[] data, int count) {
+          this.data = data;
+          this.count = count;
+      }
+  }
+
+  /**
+   * Parses the lines in buf[from, to), which starts at a line start and
+   * ends at a line end or the end of the input, into records. Large
+   * pieces are split at a line end near the middle and parsed in parallel.
+   */
+  private static class ParseTask extends RecursiveTask<ArrayList<Records>> {
+      private static final long serialVersionUID = 1L;
+
+      private final byte[] buf;
+      private final int from, to;
+      private final Type[] types;
+      private final byte sep;
+
+      ParseTask(byte[] buf, int from, int to, Type[] types, byte sep) {
+          this.buf = buf;
+          this.from = from;
+          this.to = to;
+          this.types = types;
+          this.sep = sep;
+      }
+
+      protected ArrayList<Records> compute() {
+          if (to - from > SPLIT_SIZE) {
+              int mid = from + (to - from) / 2;
+              while (mid < to && buf[mid - 1] != '\n')
+                  mid++;
+              if (mid < to) {
+                  ParseTask left = new ParseTask(buf, from, mid, types, sep);
+                  left.fork();
+                  ArrayList<Records> right = new ParseTask(buf, mid, to, types, sep).compute();
+                  ArrayList<Records> result = left.join();
+                  result.addAll(right);
+                  return result;
+              }
+          }
+          try {
+              ArrayList<Records> result = new ArrayList<Records>();
+              result.add(parse());
+              return result;
+          } catch (IOException e) {
+              throw new UncheckedIOException(e);
+          }
+      }
+
+      private Records parse() throws IOException {
+          int nrecbytes = recordSize(types);
+          ByteArrayOutputStream bytes = new ByteArrayOutputStream(Math.max(32, to - from));
+          byte[] record = new byte[nrecbytes];
+          int count = 0;
+          int pos = from;
+          while (pos < to) {
+              int end = pos;
+              while (end < to && buf[end] != '\n')
+                  end++;
+              int lineEnd = end;
+              // ignore Windows/Notepad special line endings
+              while (lineEnd > pos && buf[lineEnd - 1] == '\r')
+                  lineEnd--;
+              if (lineEnd > pos) {
+                  parseLine(pos, lineEnd, record);
+                  bytes.write(record, 0, nrecbytes);
+                  count++;
+              }
+              pos = end + 1;
+          }
+          return new Records(bytes.toByteArray(), count);
+      }
+
+      private void parseLine(int start, int end, byte[] record) throws IOException {
+          int off = 0;
+          int fieldStart = start;
+          for (int f = 0; f < types.length; f++) {
+              int fieldEnd = fieldStart;
+              while (fieldEnd < end && buf[fieldEnd] != sep)
+                  fieldEnd++;
+              boolean last = f == types.length - 1;
+              if (last != (fieldEnd == end))
+                  throw new IOException("malformed line, expected " + types.length + " fields: "
+                          + new String(buf, start, end - start, "ISO-8859-1"));
+              // trim
+              int a = fieldStart, b = fieldEnd;
+              while (a < b && buf[a] <= ' ') a++;
+              while (b > a && buf[b - 1] <= ' ') b--;
+              if (types[f] == Type.INT_TYPE) {
+                  putInt(record, off, parseInt(a, b));
+              } else {
+                  int slen = Math.min(b - a, Type.STRING_LEN);
+                  putInt(record, off, slen);
+                  System.arraycopy(buf, a, record, off + 4, slen);
+                  Arrays.fill(record, off + 4 + slen, off + types[f].getLen(), (byte) 0);
+              }
+              off += types[f].getLen();
+              fieldStart = fieldEnd + 1;
+          }
+      }
+
+      private int parseInt(int a, int b) throws IOException {
+          int i = a;
+          boolean neg = false;
+          if (i < b && (buf[i] == '-' || buf[i] == '+')) {
+              neg = buf[i] == '-';
+              i++;
+          }
+          long v = 0;
+          if (i == b || b - i > 10) return parseSlow(a, b);
+          for (; i < b; i++) {
+              int d = buf[i] - '0';
+              if (d < 0 || d > 9) return parseSlow(a, b);
+              v = v * 10 + d;
+          }
+          if (neg) v = -v;
+          if (v < Integer.MIN_VALUE || v > Integer.MAX_VALUE) return parseSlow(a, b);
+          return (int) v;
+      }
+
+      private int parseSlow(int a, int b) throws IOException {
+          String s = new String(buf, a, b - a, "ISO-8859-1");
+          try {
+              return Integer.parseInt(s);
+          } catch (NumberFormatException e) {
+              throw new IOException("BAD LINE : " + s);
+          }
+      }
+  }
+
+  private static int recordSize(Type[] types) {
       int nrecbytes = 0;
-      for (int i = 0; i < numFields ; i++) {
-          nrecbytes += typeAr[i].getLen();
-      }
-      int nrecords = (npagebytes * 8) /  (nrecbytes * 8 + 1);  //floor comes for free
-      
-    //  per record, we need one bit; there are nrecords per page, so we need
-    // nrecords bits, i.e., ((nrecords/32)+1) integers.
-    int nheaderbytes = (nrecords / 8);
-    if (nheaderbytes * 8 < nrecords)
-        nheaderbytes++;  //ceiling
-    int nheaderbits = nheaderbytes * 8;
-
-    BufferedReader br = new BufferedReader(new FileReader(inFile));
-    FileOutputStream os = new FileOutputStream(outFile);
-
-    // our numbers probably won't be much larger than 1024 digits
-    char buf[] = new char[1024];
-
-    int curpos = 0;
-    int recordcount = 0;
-    int npages = 0;
-    int fieldNo = 0;
-
-    ByteArrayOutputStream headerBAOS = new ByteArrayOutputStream(nheaderbytes);
-    DataOutputStream headerStream = new DataOutputStream(headerBAOS);
-    ByteArrayOutputStream pageBAOS = new ByteArrayOutputStream(npagebytes);
-    DataOutputStream pageStream = new DataOutputStream(pageBAOS);
-
-    boolean done = false;
-    boolean first = true;
-    while (!done) {
-        int c = br.read();
-        
-        // Ignore Windows/Notepad special line endings
-        if (c == '\r')
-            continue;
-
-        if (c == '\n') {
-            if (first)
-                continue;
-            recordcount++;
-            first = true;
-        } else
-            first = false;
-        if (c == fieldSeparator || c == '\n' || c == '\r') {
-            String s = new String(buf, 0, curpos);
-            if (typeAr[fieldNo] == Type.INT_TYPE) {
-                try {
-                    pageStream.writeInt(Integer.parseInt(s.trim()));
-                } catch (NumberFormatException e) {
-                    System.out.println ("BAD LINE : " + s);
-                }
-            }
-            else   if (typeAr[fieldNo] == Type.STRING_TYPE) {
-                s = s.trim();
-                int overflow = Type.STRING_LEN - s.length();
-                if (overflow < 0) {
-                    String news = s.substring(0,Type.STRING_LEN);
-                    s  = news;
-                }
-                pageStream.writeInt(s.length());
-                pageStream.writeBytes(s);
-                while (overflow-- > 0)
-                    pageStream.write((byte)0);
-            }
-            curpos = 0;
-            if (c == '\n')
-                fieldNo = 0;
-            else
-                fieldNo++;
-            
-        } else if (c == -1) {
-            done = true;
-            
-        } else {
-            buf[curpos++] = (char)c;
-            continue;
-        }
-        
-        // if we wrote a full page of records, or if we're done altogether,
-        // write out the header of the page.
-        //
-        // in the header, write a 1 for bits that correspond to records we've
-        // written and 0 for empty slots.
-        //
-        // when we're done, also flush the page to disk, but only if it has
-        // records on it.  however, if this file is empty, do flush an empty
-        // page to disk.
-        if (recordcount >= nrecords
-            || done && recordcount > 0
-            || done && npages == 0) {
-            int i = 0;
-            byte headerbyte = 0;
-            
-            for (i=0; i<nheaderbits; i++) {
-                if (i < recordcount)
-                    headerbyte |= (1 << (i % 8));
-                
-                if (((i+1) % 8) == 0) {
-                    headerStream.writeByte(headerbyte);
-                    headerbyte = 0;
-                }
-            }
-            
-            if (i % 8 > 0)
-                headerStream.writeByte(headerbyte);
-            
-            // pad the rest of the page with zeroes
-            
-            for (i=0; i<(npagebytes - (recordcount * nrecbytes + nheaderbytes)); i++)
-                pageStream.writeByte(0);
-            
-            // write header and body to file
-            headerStream.flush();
-            headerBAOS.writeTo(os);
-            pageStream.flush();
-            pageBAOS.writeTo(os);
-            
-            // reset header and body for next page
-            headerBAOS = new ByteArrayOutputStream(nheaderbytes);
-            headerStream = new DataOutputStream(headerBAOS);
-            pageBAOS = new ByteArrayOutputStream(npagebytes);
-            pageStream = new DataOutputStream(pageBAOS);
-            
-            recordcount = 0;
-            npages++;
-        }
-    }
-    br.close();
-    os.close();
+      for (Type t : types) {
+          nrecbytes += t.getLen();
+      }
+      return nrecbytes;
+  }
+
+  private static void putInt(byte[] b, int off, int v) {
+      b[off] = (byte) (v >>> 24);
+      b[off + 1] = (byte) (v >>> 16);
+      b[off + 2] = (byte) (v >>> 8);
+      b[off + 3] = (byte) v;
+  }
+
+  /**
+   * Packs records into heap pages, or PAX pages, and writes them to a file,
+   * several pages per write. If no record is added, one empty page is
+   * written.
+   */
+  private static class PageWriter {
+      /** Number of pages collected before a write. */
+      private static final int PAGES_PER_WRITE = 64;
+
+      final int nrecbytes;
+      private final int npagebytes;
+      private final int nrecords;
+      private final int nheaderbytes;
+      // for PAX pages, the size of each field and the offset of its minipage;
+      // null for heap pages
+      private final int[] fieldLens;
+      private final int[] columnOffsets;
+      private final FileChannel channel;
+      private final ByteBuffer out;
+      private final byte[] page;
+      private int recordcount = 0;
+      private int npages = 0;
+
+      PageWriter(File outFile, int npagebytes, Type[] types, boolean pax) throws IOException {
+          this.nrecbytes = recordSize(types);
+          this.npagebytes = npagebytes;
+          this.nrecords = (npagebytes * 8) / (nrecbytes * 8 + 1);  //floor comes for free
+          //  per record, we need one bit; there are nrecords per page, so we need
+          // nrecords bits
+          int nheader = nrecords / 8;
+          if (nheader * 8 < nrecords)
+              nheader++;  //ceiling
+          this.nheaderbytes = nheader;
+          if (pax) {
+              fieldLens = new int[types.length];
+              columnOffsets = new int[types.length];
+              int off = nheader;
+              for (int f = 0; f < types.length; f++) {
+                  fieldLens[f] = types[f].getLen();
+                  columnOffsets[f] = off;
+                  off += nrecords * fieldLens[f];
+              }
+          } else {
+              fieldLens = null;
+              columnOffsets = null;
+          }
+          this.page = new byte[npagebytes];
+          this.out = ByteBuffer.allocate(npagebytes * PAGES_PER_WRITE);
+          this.channel = new FileOutputStream(outFile).getChannel();
+          // a free space map left over from an earlier file would be wrong
+          FreeSpaceMap.sidecarFor(outFile).delete();
+      }
+
+      void add(byte[] data, int off, int count) throws IOException {
+          for (int r = 0; r < count; r++) {
+              if (fieldLens == null) {
+                  System.arraycopy(data, off + r * nrecbytes, page,
+                          nheaderbytes + recordcount * nrecbytes, nrecbytes);
+              } else {
+                  // scatter the fields into their minipages
+                  int src = off + r * nrecbytes;
+                  for (int f = 0; f < fieldLens.length; f++) {
+                      System.arraycopy(data, src, page,
+                              columnOffsets[f] + recordcount * fieldLens[f], fieldLens[f]);
+                      src += fieldLens[f];
+                  }
+              }
+              page[recordcount / 8] |= (byte) (1 << (recordcount % 8));
+              recordcount++;
+              if (recordcount == nrecords)
+                  flushPage();
+          }
+      }
+
+      void addAll(ArrayList<Records> records) throws IOException {
+          for (Records r : records)
+              add(r.data, 0, r.count);
+      }
+
+      private void flushPage() throws IOException {
+          out.put(page);
+          Arrays.fill(page, (byte) 0);
+          recordcount = 0;
+          npages++;
+          if (!out.hasRemaining())
+              write();
+      }
+
+      private void write() throws IOException {
+          out.flip();
+          while (out.hasRemaining())
+              channel.write(out);
+          out.clear();
+      }
+
+      /** Writes the last, partly filled page and anything not yet written. */
+      void finish() throws IOException {
+          if (recordcount > 0 || npages == 0)
+              flushPage();
+          write();
+      }
+
+      void close() throws IOException {
+          channel.close();
+      }
   }
 }
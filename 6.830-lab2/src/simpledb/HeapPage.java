@@ -2,10 +2,22 @@ package simpledb;
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and 
  * implements the Page interface that is used by BufferPool.
+ * <p>
+ * Tuples are decoded lazily. The page keeps the bytes it was read from and
+ * creates the Tuple of a slot only when it is first asked for, and that
+ * tuple decodes each field only on its first getField. A scan that looks
+ * at a few columns of a few rows decodes little more than that. A page
+ * built from a read-only buffer, such as a slice of a mapped file, keeps
+ * the slice and decodes from it, so its bytes are never copied.
+ * <p>
+ * The methods that read or change slots synchronize on the page, which
+ * serves as a short-term latch when record-level locking lets several
+ * transactions change one page at the same time.
  *
  * @see HeapFile
  * @see BufferPool
@@ -16,9 +28,21 @@ public class HeapPage implements Page {
     final HeapPageId pid;
     final TupleDesc td;
     final byte header[];
+    // null for slots not decoded yet (and for empty slots)
     final Tuple tuples[];
     final int numSlots;
-
+    private final int tupleSize;
+    // the page as read, from position 0; a used slot without a tuple is
+    // decoded from here. It never changes: it is either read-only or a
+    // copy only this page has.
+    private final ByteBuffer raw;
+
+    // kept in step with header by markSlotUsed
+    private int numEmpty;
+    // the free space map of the file this page was read from, if any
+    private volatile FreeSpaceMap freeSpace;
+
+    // null while the before image is still raw
     byte[] oldData;
     private final Byte oldDataLock=new Byte((byte)0);
     private boolean dirty;
@@ -41,27 +65,50 @@ public class HeapPage implements Page {
      * @see BufferPool#getPageSize()
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Create a HeapPage from a buffer holding one page of data, starting at
+     * the buffer's current position. This lets callers hand in a slice of a
+     * larger (e.g. memory-mapped) region without first copying it into a
+     * byte array. The buffer's position is advanced past the parsed slots.
+     * <p>
+     * A read-only buffer is kept, and tuples are decoded from it as they
+     * are asked for, so its contents must not change while the page is in
+     * use. The contents of a writable buffer are copied, so the caller may
+     * reuse it.
+     *
+     * @see #HeapPage(HeapPageId, byte[])
+     */
+    public HeapPage(HeapPageId id, ByteBuffer data) throws IOException {
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
         this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        this.tupleSize = td.getSize();
 
         // allocate and read the header slots of this page
+        int start = data.position();
         header = new byte[getHeaderSize()];
-        for (int i=0; i<header.length; i++)
-            header[i] = dis.readByte();
-        
-        tuples = new Tuple[numSlots];
-        try{
-            // allocate and read the actual records of this page
-            for (int i=0; i<tuples.length; i++)
-                tuples[i] = readNextTuple(dis,i);
-        }catch(NoSuchElementException e){
-            e.printStackTrace();
+        data.get(header);
+        for (int i = 0; i < numSlots; i++)
+            if (!isSlotUsed(i)) numEmpty++;
+
+        // keep the page to decode tuples from on demand; it is also the
+        // before image, since it never changes
+        ByteBuffer src = data.duplicate();
+        src.position(start);
+        if (data.isReadOnly()) {
+            src.limit(Math.min(src.limit(), start + BufferPool.getPageSize()));
+            raw = src.slice();
+        } else {
+            byte[] copy = new byte[BufferPool.getPageSize()];
+            src.get(copy, 0, Math.min(copy.length, src.remaining()));
+            raw = ByteBuffer.wrap(copy);
         }
-        dis.close();
+        data.position(Math.min(data.limit(), start + header.length + numSlots * tupleSize));
 
-        setBeforeImage();
+        tuples = new Tuple[numSlots];
     }
 
     /** Retrieve the number of tuples on this page.
@@ -94,6 +141,9 @@ public class HeapPage implements Page {
             {
                 oldDataRef = oldData;
             }
+            // raw never changes, so the image can share it
+            if (oldDataRef == null)
+                return new HeapPage(pid, raw.asReadOnlyBuffer());
             return new HeapPage(pid,oldDataRef);
         } catch (IOException e) {
             e.printStackTrace();
@@ -104,9 +154,10 @@ public class HeapPage implements Page {
     }
     
     public void setBeforeImage() {
+        byte[] data = getPageData();
         synchronized(oldDataLock)
         {
-        oldData = getPageData().clone();
+        oldData = data;
         }
     }
 
@@ -119,36 +170,16 @@ public class HeapPage implements Page {
     }
 
     /**
-     * Suck up tuples from the source file.
+     * Returns the tuple in slot i, decoding it from the page data if this is
+     * the first time it's asked for. The caller holds the page's monitor.
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-        if (!isSlotUsed(slotId)) {
-            for (int i=0; i<td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
-            }
-            return null;
-        }
-
-        // read fields in the tuple
-        Tuple t = new Tuple(td);
-        RecordId rid = new RecordId(pid, slotId);
-        t.setRecordId(rid);
-        try {
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
-            }
-        } catch (java.text.ParseException e) {
-            e.printStackTrace();
-            throw new NoSuchElementException("parsing error!");
+    private Tuple tuple(int i) {
+        Tuple t = tuples[i];
+        if (t == null && isSlotUsed(i)) {
+            t = new Tuple(td, raw, header.length + i * tupleSize);
+            t.setRecordId(new RecordId(pid, i));
+            tuples[i] = t;
         }
-
         return t;
     }
 
@@ -164,64 +195,51 @@ public class HeapPage implements Page {
      * @return A byte array correspond to the bytes of this page.
      */
     public byte[] getPageData() {
-        int len = BufferPool.getPageSize();
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-        DataOutputStream dos = new DataOutputStream(baos);
+        byte[] data = new byte[BufferPool.getPageSize()];
+        getPageData(ByteBuffer.wrap(data));
+        return data;
+    }
+
+    // see Page.java for javadocs
+    public synchronized void getPageData(ByteBuffer buf) {
+        int start = buf.position();
 
         // create the header of the page
-        for (int i=0; i<header.length; i++) {
-            try {
-                dos.writeByte(header[i]);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
-            }
-        }
+        buf.put(header);
 
         // create the tuples
         for (int i=0; i<tuples.length; i++) {
 
             // empty slot
             if (!isSlotUsed(i)) {
-                for (int j=0; j<td.getSize(); j++) {
-                    try {
-                        dos.writeByte(0);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
+                putZeroes(buf, tupleSize);
+                continue;
+            }
 
-                }
+            // a slot never decoded still has its bytes in raw
+            if (tuples[i] == null) {
+                ByteBuffer slot = raw.duplicate();
+                slot.position(header.length + i * tupleSize);
+                slot.limit(slot.position() + tupleSize);
+                buf.put(slot);
                 continue;
             }
 
             // non-empty slot
             for (int j=0; j<td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
-                try {
-                    f.serialize(dos);
-                
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
+                tuples[i].getField(j).serialize(buf);
             }
         }
 
         // padding
-        int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
-        byte[] zeroes = new byte[zerolen];
-        try {
-            dos.write(zeroes, 0, zerolen);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        putZeroes(buf, BufferPool.getPageSize() - (buf.position() - start));
+    }
 
-        try {
-            dos.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+    private static final byte[] ZEROES = new byte[BufferPool.getPageSize()];
 
-        return baos.toByteArray();
+    // a reused buffer may hold old bytes, so empty space is always written
+    private static void putZeroes(ByteBuffer buf, int n) {
+        buf.put(ZEROES, 0, n);
     }
 
     /**
@@ -245,7 +263,7 @@ public class HeapPage implements Page {
      *         already empty.
      * @param t The tuple to delete
      */
-    public void deleteTuple(Tuple t) throws DbException {
+    public synchronized void deleteTuple(Tuple t) throws DbException {
         // some code goes here
         // not necessary for lab1
         RecordId rid = t.getRecordId();
@@ -270,7 +288,7 @@ public class HeapPage implements Page {
      *         is mismatch.
      * @param t The tuple to add.
      */
-    public void insertTuple(Tuple t) throws DbException {
+    public synchronized void insertTuple(Tuple t) throws DbException {
         // some code goes here
         // not necessary for lab1
         if (!td.equals(t.getTupleDesc())) throw  new DbException("can't fit tupledesc");
@@ -288,6 +306,29 @@ public class HeapPage implements Page {
         }
     }
 
+    /**
+     * Adds the specified tuple to the page in the given slot, which must be
+     * empty. Used when the slot matters, e.g. to take a record lock on it
+     * first, or to put back a deleted tuple where it was.
+     * @throws DbException if the slot is in use or tupledesc is mismatch.
+     */
+    public synchronized void insertTuple(Tuple t, int slot) throws DbException {
+        if (!td.equals(t.getTupleDesc())) throw  new DbException("can't fit tupledesc");
+        if (slot < 0 || slot >= numSlots || isSlotUsed(slot)) throw new DbException("slot " + slot + " is not free");
+        t.setRecordId(new RecordId(pid,slot));
+        tuples[slot] = t;
+        markSlotUsed(slot,true);
+    }
+
+    /**
+     * @return the first empty slot at or after from, or -1 if there is none
+     */
+    public synchronized int nextEmptySlot(int from) {
+        for (int i = from; i < numSlots; i++)
+            if (!isSlotUsed(i)) return i;
+        return -1;
+    }
+
     /**
      * Marks this page as dirty/not dirty and record that transaction
      * that did the dirtying
@@ -312,13 +353,17 @@ public class HeapPage implements Page {
     /**
      * Returns the number of empty slots on this page.
      */
-    public int getNumEmptySlots() {
+    public synchronized int getNumEmptySlots() {
         // some code goes here
-        int count = 0;
-       for (int i = 0 ;i < numSlots;i++){
-           if (!isSlotUsed(i)) count++;
-       }
-       return count;
+        return numEmpty;
+    }
+
+    /**
+     * Links this page to the free space map of its file, which is then told
+     * about every slot filled or freed on this page.
+     */
+    void setFreeSpaceMap(FreeSpaceMap freeSpace) {
+        this.freeSpace = freeSpace;
     }
 
     /**
@@ -339,6 +384,10 @@ public class HeapPage implements Page {
         // some code goes here
         // not necessary for lab1
         if (i<numSlots){
+            if (isSlotUsed(i) == value) return;
+            numEmpty += value ? -1 : 1;
+            FreeSpaceMap fsm = freeSpace;
+            if (fsm != null) fsm.update(pid.pageNumber(), numEmpty);
             int byteindex = i/8;
             int offset = i % 8;
             if (value){
@@ -357,12 +406,93 @@ public class HeapPage implements Page {
      */
     public Iterator<Tuple> iterator() {
         // some code goes here
-        ArrayList<Tuple> newiterator = new ArrayList<>();
-        for (int i =0 ;i<tuples.length;i++){
-            if (isSlotUsed(i)) newiterator.add(tuples[i]);
+        return iterator(null);
+    }
+
+    /**
+     * Like {@link #iterator()}, but returns only the tuples that pass all
+     * of predicates. Slots that haven't been decoded yet are tested on
+     * their serialized bytes (see {@link Predicate#filter(byte[], int)}),
+     * so rejected tuples are never decoded.
+     *
+     * @param predicates the predicates to apply, or null for none
+     */
+    public Iterator<Tuple> iterator(List<Predicate> predicates) {
+        // like a copy of the page's tuples taken now, but slots are only
+        // decoded as the iterator reaches them
+        final byte[] used;
+        final Tuple[] snapshot;
+        synchronized (this) {
+            used = header.clone();
+            snapshot = tuples.clone();
         }
-        return newiterator.iterator();
+        final Predicate[] preds = predicates == null
+                ? new Predicate[0] : predicates.toArray(new Predicate[0]);
+        // offset of each predicate's field within a slot
+        final int[] offsets = new int[preds.length];
+        for (int p = 0; p < preds.length; p++)
+            for (int j = 0; j < preds[p].getField(); j++)
+                offsets[p] += td.getFieldType(j).getLen();
+
+        return new Iterator<Tuple>() {
+            private int next = -1;
+            private Tuple nextTuple = advance();
+
+            // finds the next tuple that passes, or returns null
+            private Tuple advance() {
+                while (++next < numSlots) {
+                    if ((used[next / 8] & (1 << (next % 8))) == 0) continue;
+                    Tuple t = snapshot[next];
+                    if (t != null) {
+                        if (passes(t)) return t;
+                        continue;
+                    }
+                    int slot = header.length + next * tupleSize;
+                    if (passes(slot)) return decode(next);
+                }
+                return null;
+            }
+
+            private boolean passes(Tuple t) {
+                for (Predicate p : preds)
+                    if (!p.filter(t)) return false;
+                return true;
+            }
+
+            private boolean passes(int slot) {
+                for (int p = 0; p < preds.length; p++)
+                    if (!preds[p].filter(raw, slot + offsets[p])) return false;
+                return true;
+            }
+
+            private Tuple decode(int i) {
+                synchronized (HeapPage.this) {
+                    // still the bytes of the snapshot unless the slot has
+                    // changed since, which sets tuples[i] or clears the slot
+                    if (tuples[i] != null || !isSlotUsed(i)) {
+                        Tuple t = new Tuple(td, raw, header.length + i * tupleSize);
+                        t.setRecordId(new RecordId(pid, i));
+                        return t;
+                    }
+                    return tuple(i);
+                }
+            }
+
+            public boolean hasNext() {
+                return nextTuple != null;
+            }
+
+            public Tuple next() {
+                if (nextTuple == null) throw new NoSuchElementException();
+                Tuple t = nextTuple;
+                nextTuple = advance();
+                return t;
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
     }
 
 }
-
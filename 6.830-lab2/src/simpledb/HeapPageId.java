@@ -42,7 +42,8 @@ public class HeapPageId implements PageId {
      */
     public int hashCode() {
         // some code goes here
-        return toString().hashCode();
+        // computed from the fields: this runs on every buffer pool lookup
+        return tableId * 31 + pgNo;
     }
 
     @Override
@@ -62,7 +63,7 @@ public class HeapPageId implements PageId {
         if (o==null || o.getClass()!=getClass()) return false;
         else {
             HeapPageId other = (HeapPageId) o;
-            return other.toString().equals(toString());
+            return other.tableId == tableId && other.pgNo == pgNo;
         }
     }
 
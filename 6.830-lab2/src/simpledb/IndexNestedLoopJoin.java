@@ -0,0 +1,155 @@
+package simpledb;
+import java.util.*;
+
+/**
+ * IndexNestedLoopJoin joins each tuple of the left (outer) child with the
+ * tuples of a BTreeFile found by an index scan on the join field, instead of
+ * scanning the whole inner table for each block of outer tuples as Join
+ * does. The inner table is given as the SeqScan of it in the plan; the
+ * predicates pushed down into that scan are applied to the tuples the
+ * index scans return.
+ * <p>
+ * The join field of the inner table must be the key of the tree, and the
+ * predicate EQUALS or a range, which the index narrows down to the matching
+ * keys; see {@link BTreeFile#indexIterator}.
+ * <p>
+ * Like Join, the output tuples are the left tuple followed by the right
+ * tuple.
+ *
+ * @see Join
+ */
+public class IndexNestedLoopJoin extends Operator {
+    private final JoinPredicate p;
+    private final DbIterator child1;
+    private final SeqScan child2;
+    private final BTreeFile file;
+    private final Predicate.Op indexOp;
+    private final TupleDesc td;
+
+    private Tuple outerTuple;
+    private DbFileIterator lookup;
+    private int lookups;
+
+    /**
+     * Constructor.
+     *
+     * @param p The predicate to use to join the children; EQUALS,
+     *   LESS_THAN, LESS_THAN_OR_EQ, GREATER_THAN or GREATER_THAN_OR_EQ
+     * @param child1 Iterator for the left(outer) relation to join
+     * @param child2 Scan of the right(inner) relation, a BTreeFile keyed on
+     *   the join field
+     */
+    public IndexNestedLoopJoin(JoinPredicate p, DbIterator child1, SeqScan child2) {
+        DbFile f = Database.getCatalog().getDatabaseFile(
+                Database.getCatalog().getTableId(child2.getTableName()));
+        if (!(f instanceof BTreeFile) || ((BTreeFile) f).keyField() != p.getField2())
+            throw new IllegalArgumentException("the right child must be a B+ tree on the join field");
+        this.indexOp = indexOp(p.getOperator());
+        this.p = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.file = (BTreeFile) f;
+        td = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    /**
+     * @return the operator of the index predicate on the inner key that
+     *   matches an outer value under op: outer &lt; inner is inner &gt; outer
+     */
+    private static Predicate.Op indexOp(Predicate.Op op) {
+        switch (op) {
+        case EQUALS: return Predicate.Op.EQUALS;
+        case LESS_THAN: return Predicate.Op.GREATER_THAN;
+        case LESS_THAN_OR_EQ: return Predicate.Op.GREATER_THAN_OR_EQ;
+        case GREATER_THAN: return Predicate.Op.LESS_THAN;
+        case GREATER_THAN_OR_EQ: return Predicate.Op.LESS_THAN_OR_EQ;
+        default:
+            throw new IllegalArgumentException("an index scan can't narrow down " + op);
+        }
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /** @return the number of index scans made, one per outer tuple */
+    public int getLookups() {
+        return lookups;
+    }
+
+    /**
+     * @return a description of how the join ran, for -explain: the join
+     *   fields and the number of index scans
+     */
+    public String explain() {
+        return "IndexNestedLoopJoin(" + child1.getTupleDesc().getFieldName(p.getField1()) + " "
+                + p.getOperator() + " " + child2.getTupleDesc().getFieldName(p.getField2()) + "): "
+                + lookups + " index lookups";
+    }
+
+    public void open()
+        throws DbException, NoSuchElementException, TransactionAbortedException {
+        child1.open();
+        outerTuple = null;
+        lookup = null;
+    }
+
+    public void close() {
+        super.close();
+        child1.close();
+        if (lookup != null) lookup.close();
+        lookup = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child1.rewind();
+        if (lookup != null) lookup.close();
+        lookup = null;
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples: the next tuple of the index scan for the current outer
+     * tuple that passes the inner scan's predicates, or else the first one
+     * of the next outer tuple that has any.
+     *
+     * @return The next matching tuple.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (lookup != null) {
+                while (lookup.hasNext()) {
+                    Tuple inner = lookup.next();
+                    if (passes(inner))
+                        return merge(outerTuple, inner);
+                }
+                lookup.close();
+                lookup = null;
+            }
+            if (!child1.hasNext())
+                return null;
+            outerTuple = child1.next();
+            lookup = file.indexIterator(child2.getTransactionId(),
+                    new IndexPredicate(indexOp, outerTuple.getField(p.getField1())));
+            lookup.open();
+            lookups++;
+        }
+    }
+
+    private boolean passes(Tuple inner) {
+        for (Predicate pred : child2.getPredicates())
+            if (!pred.filter(inner))
+                return false;
+        return true;
+    }
+
+    private Tuple merge(Tuple t1, Tuple t2) {
+        Tuple t = new Tuple(td);
+        int n1 = t1.getTupleDesc().numFields();
+        for (int i = 0; i < n1; i++)
+            t.setField(i, t1.getField(i));
+        for (int i = 0; i < t2.getTupleDesc().numFields(); i++)
+            t.setField(n1 + i, t2.getField(i));
+        return t;
+    }
+}
@@ -0,0 +1,56 @@
+package simpledb;
+
+import java.io.Serializable;
+
+/**
+ * IndexPredicate compares the key of an index to a value, e.g. for a
+ * lookup or range scan of a {@link BTreeFile}. Unlike a Predicate it names
+ * no field; the index knows which field it is on.
+ */
+public class IndexPredicate implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Predicate.Op op;
+    private final Field fieldvalue;
+
+    /**
+     * Constructor.
+     *
+     * @param op the operation the key is compared with
+     * @param fvalue the value the key is compared to
+     */
+    public IndexPredicate(Predicate.Op op, Field fvalue) {
+        this.op = op;
+        this.fieldvalue = fvalue;
+    }
+
+    /** @return the value the key is compared to */
+    public Field getField() {
+        return fieldvalue;
+    }
+
+    /** @return the operation the key is compared with */
+    public Predicate.Op getOp() {
+        return op;
+    }
+
+    /** @return true if key passes this predicate */
+    public boolean filter(Field key) {
+        return key.compare(op, fieldvalue);
+    }
+
+    public boolean equals(Object o) {
+        if (!(o instanceof IndexPredicate)) return false;
+        IndexPredicate other = (IndexPredicate) o;
+        return op == other.op && fieldvalue.equals(other.fieldvalue);
+    }
+
+    public int hashCode() {
+        return op.hashCode() * 31 + fieldvalue.hashCode();
+    }
+
+    public String toString() {
+        return "key " + op + " " + fieldvalue;
+    }
+}
@@ -1,12 +1,26 @@
 package simpledb;
+import java.io.IOException;
 import java.util.*;
 
 /**
  * Inserts tuples read from the child operator into
  * the tableid specified in the constructor
+ * <p>
+ * A child that produces more than BULK_THRESHOLD tuples is inserted with
+ * {@link BufferPool#insertTuples}, which fills whole pages per lookup and
+ * appends new pages in large writes; smaller inserts go one tuple at a time.
  */
 public class Insert extends Operator {
 
+    /** Number of tuples from which the bulk insert path is used. */
+    static final int BULK_THRESHOLD = 1024;
+
+    private final TransactionId tid;
+    private DbIterator child;
+    private final int tableid;
+    private final TupleDesc td;
+    private boolean done;
+
     /**
      * Constructor.
      * @param t The transaction running the insert.
@@ -17,23 +31,46 @@ public class Insert extends Operator {
     public Insert(TransactionId t, DbIterator child, int tableid)
         throws DbException {
         // some code goes here
+        if (!sameTypes(child.getTupleDesc(), Database.getCatalog().getTupleDesc(tableid)))
+            throw new DbException("TupleDesc of child differs from table " + tableid);
+        this.tid = t;
+        this.child = child;
+        this.tableid = tableid;
+        this.td = new TupleDesc(new Type[] { Type.INT_TYPE });
+    }
+
+    /**
+     * @return true if a and b have the same field types; the names may
+     *   differ, as a SeqScan prefixes them with its alias
+     */
+    private static boolean sameTypes(TupleDesc a, TupleDesc b) {
+        if (a.numFields() != b.numFields()) return false;
+        for (int i = 0; i < a.numFields(); i++)
+            if (a.getFieldType(i) != b.getFieldType(i)) return false;
+        return true;
     }
 
     public TupleDesc getTupleDesc() {
         // some code goes here
-        return null;
+        return td;
     }
 
     public void open() throws DbException, TransactionAbortedException {
         // some code goes here
+        child.open();
+        done = false;
     }
 
     public void close() {
         // some code goes here
+        super.close();
+        child.close();
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
         // some code goes here
+        child.rewind();
+        done = false;
     }
 
     /**
@@ -52,6 +89,88 @@ public class Insert extends Operator {
     protected Tuple fetchNext()
             throws TransactionAbortedException, DbException {
         // some code goes here
-        return null;
+        if (done) return null;
+        done = true;
+        BufferPool bufpool = Database.getBufferPool();
+        int count = 0;
+        try {
+            // look ahead to tell small inserts from large ones
+            ArrayList<Tuple> head = new ArrayList<Tuple>();
+            while (head.size() <= BULK_THRESHOLD && child.hasNext())
+                head.add(child.next());
+            if (head.size() <= BULK_THRESHOLD) {
+                for (Tuple t : head)
+                    bufpool.insertTuple(tid, tableid, t);
+                count = head.size();
+            } else {
+                ChildIterator rest = new ChildIterator(head.iterator(), child);
+                try {
+                    count = bufpool.insertTuples(tid, tableid, rest);
+                } catch (ChildFailure e) {
+                    rest.rethrow();
+                }
+            }
+        } catch (IOException e) {
+            throw new DbException("insert into table " + tableid + " failed: " + e.getMessage());
+        }
+        Tuple result = new Tuple(td);
+        result.setField(0, new IntField(count));
+        return result;
+    }
+
+    /** Thrown out of ChildIterator when the child fails. */
+    private static class ChildFailure extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+    }
+
+    /**
+     * The tuples already read from the child followed by the rest of the
+     * child, as the java.util.Iterator insertTuples takes. The child's
+     * checked exceptions are carried through as ChildFailure and rethrown
+     * by rethrow().
+     */
+    private static class ChildIterator implements Iterator<Tuple> {
+        private final Iterator<Tuple> head;
+        private final DbIterator child;
+        private DbException dbError;
+        private TransactionAbortedException abort;
+
+        ChildIterator(Iterator<Tuple> head, DbIterator child) {
+            this.head = head;
+            this.child = child;
+        }
+
+        public boolean hasNext() {
+            if (head.hasNext()) return true;
+            try {
+                return child.hasNext();
+            } catch (DbException e) {
+                dbError = e;
+            } catch (TransactionAbortedException e) {
+                abort = e;
+            }
+            throw new ChildFailure();
+        }
+
+        public Tuple next() {
+            if (head.hasNext()) return head.next();
+            try {
+                return child.next();
+            } catch (DbException e) {
+                dbError = e;
+            } catch (TransactionAbortedException e) {
+                abort = e;
+            }
+            throw new ChildFailure();
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        void rethrow() throws DbException, TransactionAbortedException {
+            if (abort != null) throw abort;
+            throw dbError;
+        }
     }
 }
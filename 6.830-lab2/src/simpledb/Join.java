@@ -2,16 +2,29 @@ package simpledb;
 import java.util.*;
 
 /**
- * The Join operator implements the relational join operation.
+ * The Join operator implements the relational join operation, as a block
+ * nested loops join: it reads a block of tuples of the left (outer) child,
+ * scans the whole right (inner) child, joining each of its tuples with the
+ * tuples of the block, then rewinds the inner child for the next block.
+ * Only one block is held in memory, and tuples are returned as they are
+ * found.
  */
 public class Join extends Operator {
+    /** Default size of the blocks of the outer child, in pages. */
+    public static final int DEFAULT_BLOCK_PAGES = 16;
+
     DbIterator child1;
     DbIterator child2;
     JoinPredicate p;
     TupleDesc td;
-    ArrayList<Tuple> childtups1 = new ArrayList<>();
-    ArrayList<Tuple> childtups2 = new ArrayList<>();
-    Iterator<Tuple> it;
+    private final int blockTuples;
+    private final ArrayList<Tuple> block = new ArrayList<Tuple>();
+    // the inner tuple being joined with the block, and the next block
+    // tuple to compare it with
+    private Tuple innerTuple;
+    private int nextInBlock;
+    private boolean started;
+
     /**
      * Constructor.  Accepts to children to join and the predicate
      * to join them on
@@ -21,11 +34,27 @@ public class Join extends Operator {
      * @param child2 Iterator for the right(inner) relation to join
      */
     public Join(JoinPredicate p, DbIterator child1, DbIterator child2) {
+        this(p, child1, child2, DEFAULT_BLOCK_PAGES);
+    }
+
+    /**
+     * Constructor, with the number of pages of outer tuples held in memory
+     * at a time.
+     */
+    public Join(JoinPredicate p, DbIterator child1, DbIterator child2, int blockPages) {
         // some code goes here
+        if (blockPages <= 0)
+            throw new IllegalArgumentException("block size must be positive");
         this.p = p;
         this.child1 = child1;
         this.child2 = child2;
         td = TupleDesc.merge(child1.getTupleDesc(),child2.getTupleDesc());
+        blockTuples = blockTuples(child1.getTupleDesc(), blockPages);
+    }
+
+    /** @return the number of tuples of schema td in a block of blockPages pages */
+    static int blockTuples(TupleDesc td, int blockPages) {
+        return Math.max(1, blockPages * BufferPool.getPageSize() / td.getSize());
     }
 
     /**
@@ -39,42 +68,31 @@ public class Join extends Operator {
     public void open()
         throws DbException, NoSuchElementException, TransactionAbortedException {
         // some code goes here
-        ArrayList<Tuple> temp =  new ArrayList<>();
         child1.open();
-        while (child1.hasNext())
-            childtups1.add((Tuple) child1.next());
         child2.open();
-        while (child2.hasNext())
-            childtups2.add((Tuple) child2.next());
-        for (Tuple t1:childtups1){
-            for (Tuple t2:childtups2){
-                if (p.filter(t1,t2))
-                    temp.add(Tuple.merge(t1,t2));
-            }
-        }
-        it = temp.iterator();
+        start();
+    }
+
+    private void start() {
+        block.clear();
+        innerTuple = null;
+        started = false;
     }
 
     public void close() {
         // some code goes here
-        it = null;
-
+        super.close();
+        child1.close();
+        child2.close();
+        block.clear();
+        innerTuple = null;
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
         // some code goes here
-        ArrayList<Tuple> temp =  new ArrayList<>();
-        while (child1.hasNext())
-            childtups1.add((Tuple) child1.next());
-        while (child2.hasNext())
-            childtups2.add((Tuple) child2.next());
-        for (Tuple t1:childtups1){
-            for (Tuple t2:childtups2){
-                if (p.filter(t1,t2))
-                    temp.add(Tuple.merge(t1,t2));
-            }
-        }
-        it = temp.iterator();
+        child1.rewind();
+        child2.rewind();
+        start();
     }
 
     /**
@@ -85,7 +103,7 @@ public class Join extends Operator {
      * <p>
      * Note that the tuples returned from this particular implementation of
      * Join are simply the concatenation of joining tuples from the left and
-     * right relation. Therefore, if an equality predicate is used 
+     * right relation. Therefore, if an equality predicate is used
      * there will be two copies of the join attribute
      * in the results.  (Removing such duplicate columns can be done with an
      * additional projection operator if needed.)
@@ -98,8 +116,39 @@ public class Join extends Operator {
      */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
         // some code goes here
-        if (it != null && it.hasNext()) {
-            return it.next();
-        } else return null;
+        while (true) {
+            if (innerTuple != null) {
+                while (nextInBlock < block.size()) {
+                    Tuple outer = block.get(nextInBlock++);
+                    if (p.filter(outer, innerTuple))
+                        return merge(outer, innerTuple);
+                }
+                innerTuple = null;
+            }
+            if (started && child2.hasNext()) {
+                innerTuple = child2.next();
+                nextInBlock = 0;
+                continue;
+            }
+            // the inner child is done with this block; read the next one
+            block.clear();
+            while (block.size() < blockTuples && child1.hasNext())
+                block.add(child1.next());
+            if (block.isEmpty())
+                return null;
+            if (started)
+                child2.rewind();
+            started = true;
+        }
+    }
+
+    private Tuple merge(Tuple t1, Tuple t2) {
+        Tuple t = new Tuple(td);
+        int n1 = t1.getTupleDesc().numFields();
+        for (int i = 0; i < n1; i++)
+            t.setField(i, t1.getField(i));
+        for (int i = 0; i < t2.getTupleDesc().numFields(); i++)
+            t.setField(n1 + i, t2.getField(i));
+        return t;
     }
 }
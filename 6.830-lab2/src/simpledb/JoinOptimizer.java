@@ -54,8 +54,15 @@ public class JoinOptimizer {
         }
         
         JoinPredicate p = new JoinPredicate(t1id,lj.p,t2id);
-       
-        j = new Join(p,plan1,plan2);
+
+        if (plan2 instanceof SeqScan && indexJoinCheaper(lj, stats))
+            j = new IndexNestedLoopJoin(p,plan1,(SeqScan) plan2);
+        else if (lj.p == Predicate.Op.EQUALS)
+            j = new HashJoin(p,plan1,plan2);
+        else if (sortMergeCheaper(lj, stats))
+            j = new SortMergeJoin(p,plan1,plan2);
+        else
+            j = new Join(p,plan1,plan2);
         
         return j;
 
@@ -71,6 +78,8 @@ public class JoinOptimizer {
      * performed by your join.  Assume that the cost of a single predicate application
      * is roughly 1.
      *
+     * Without table statistics, index joins aren't considered; the plans
+     * orderJoins costs do consider them.
      * 
      * @param j A LogicalJoinNode representing the join operation being performed.
      * @param card1 Estimated cardinality of the left-hand side of the query
@@ -80,18 +89,195 @@ public class JoinOptimizer {
      * @return An estimate of the cost of this query, in terms of cost1 and cost2
      */
     public double estimateJoinCost(LogicalJoinNode j, int card1, int card2, double cost1, double cost2) {
+        return estimateJoinCost(j, card1, card2, cost1, cost2, null);
+    }
+
+    /**
+     * Like {@link #estimateJoinCost(LogicalJoinNode, int, int, double, double)},
+     * but also considers an index join, which needs the statistics of the
+     * inner table to estimate its matches per lookup.
+     */
+    private double estimateJoinCost(LogicalJoinNode j, int card1, int card2, double cost1, double cost2,
+                                    HashMap<String, TableStats> stats) {
         if (j instanceof LogicalSubplanJoinNode) {
         	// A LogicalSubplanJoinNode represents a subquery.
         	// You do not need to implement proper support for these for Lab 4.
         	return card1 + cost1 + cost2;
         } else {
-            // Insert your code here.
-            // HINT:  You may need to use the variable "j" if you implemented a join
-            //        algorithm that's more complicated than a basic nested-loops join.
-            return -1.0;
+            double cost = scanJoinCost(j, card1, card2, cost1, cost2);
+            if (indexJoinApplies(j, stats))
+                cost = Math.min(cost, indexJoinCost(j, card1, card2, cost1, cost2, stats));
+            return cost;
         }
     }
 
+    /**
+     * Cost of j by the join instantiateJoin picks when the inner table
+     * isn't probed through an index: HashJoin for equality, else the
+     * cheaper of Join and SortMergeJoin.
+     */
+    private double scanJoinCost(LogicalJoinNode j, int card1, int card2, double cost1, double cost2) {
+        if (j.p == Predicate.Op.EQUALS)
+            return hashJoinCost(j, card1, card2, cost1, cost2);
+        double nl = nestedLoopCost(j, card1, card2, cost1, cost2);
+        if (!sortMergeApplies(j))
+            return nl;
+        return Math.min(nl, sortMergeCost(j, card1, card2, cost1, cost2));
+    }
+
+    /**
+     * Cost of a join by Join: the inner side is scanned once per block of
+     * outer tuples, and the predicate applied to every pair.
+     */
+    private double nestedLoopCost(LogicalJoinNode j, int card1, int card2, double cost1, double cost2) {
+        int blockTuples = Join.blockTuples(Database.getCatalog().getTupleDesc(p.getTableId(j.t1)), Join.DEFAULT_BLOCK_PAGES);
+        return cost1 + Math.ceil((double) card1 / blockTuples) * cost2 + (double) card1 * card2;
+    }
+
+    /**
+     * Cost of a join by HashJoin: one pass over each side, and a second
+     * one, through spill files, if neither side fits in its memory budget.
+     */
+    private double hashJoinCost(LogicalJoinNode j, int card1, int card2, double cost1, double cost2) {
+        double cost = cost1 + cost2 + card1 + card2;
+        double budget = (double) HashJoin.DEFAULT_MEMORY_PAGES * BufferPool.getPageSize();
+        if (Math.min((double) card1 * tupleSize(j.t1), (double) card2 * tupleSize(j.t2)) > budget)
+            cost += 2 * (cost1 + cost2);
+        return cost;
+    }
+
+    /** @return true if SortMergeJoin can evaluate the predicate of j */
+    private static boolean sortMergeApplies(LogicalJoinNode j) {
+        return !(j instanceof LogicalSubplanJoinNode)
+                && j.p != Predicate.Op.NOT_EQUALS && j.p != Predicate.Op.LIKE;
+    }
+
+    /**
+     * Cost of a join by SortMergeJoin: sorting each side that isn't
+     * already sorted, and merging. An equality join reads each side once;
+     * a band join reads the inner side up to the first tuple that doesn't
+     * match for each outer tuple, about half of it on average.
+     */
+    private double sortMergeCost(LogicalJoinNode j, int card1, int card2, double cost1, double cost2) {
+        double cost = sortCost(j.t1, j.f1, card1, cost1) + sortCost(j.t2, j.f2, card2, cost2);
+        if (j.p == Predicate.Op.EQUALS)
+            return cost + card1 + card2;
+        boolean outerLeft = j.p != Predicate.Op.LESS_THAN && j.p != Predicate.Op.LESS_THAN_OR_EQ;
+        return cost + (outerLeft ? card1 : card2) + (double) card1 * card2 / 2;
+    }
+
+    /**
+     * Cost of reading a side of a sort-merge join in order: one scan if the
+     * table is a BTreeFile keyed on the join field, else an ExternalSort of
+     * it, which writes and reads the tuples once more for each merge pass
+     * when they don't fit in memory.
+     */
+    private double sortCost(String alias, String field, int card, double cost) {
+        if (keyedOn(alias, field))
+            return cost;
+        DbFile f = file(alias);
+        double c = cost + card * (Math.log(Math.max(card, 2)) / Math.log(2));
+        double budget = (double) SortMergeJoin.DEFAULT_MEMORY_PAGES * BufferPool.getPageSize();
+        double runs = Math.ceil((double) card * f.getTupleDesc().getSize() / budget);
+        if (runs > 1) {
+            int fanIn = Math.max(2, SortMergeJoin.DEFAULT_MEMORY_PAGES / 2);
+            double passes = Math.ceil(Math.log(runs) / Math.log(fanIn));
+            c += 2 * cost * Math.max(1, passes);
+        }
+        return c;
+    }
+
+    /**
+     * @return true if IndexNestedLoopJoin can evaluate j: the inner table
+     *   is a BTreeFile keyed on the join field, the predicate is one an
+     *   index scan narrows down, and there are statistics for the inner
+     *   table
+     */
+    private boolean indexJoinApplies(LogicalJoinNode j, HashMap<String, TableStats> stats) {
+        return sortMergeApplies(j) && keyedOn(j.t2, j.f2)
+                && stats != null && stats.get(j.t2) != null;
+    }
+
+    /**
+     * Cost of a join by IndexNestedLoopJoin: a scan of the outer side, and
+     * for each outer tuple a descent of the inner B+ tree plus the leaves
+     * holding its matches. The number of matches is the inner cardinality
+     * times the average selectivity of the predicate on the key.
+     */
+    private double indexJoinCost(LogicalJoinNode j, int card1, int card2, double cost1, double cost2,
+                                 HashMap<String, TableStats> stats) {
+        BTreeFile f = (BTreeFile) file(j.t2);
+        double pageCost = cost2 / Math.max(1, f.numPages());
+        double matches = card2 * stats.get(j.t2).avgSelectivity(f.keyField(), j.p);
+        double leaves = Math.ceil(matches / BTreeLeafPage.capacity(f.getTupleDesc()));
+        return cost1 + card1 * ((f.estimateHeight() + leaves) * pageCost + matches);
+    }
+
+    /** @return the file of the base table with the given alias */
+    private DbFile file(String alias) {
+        return Database.getCatalog().getDatabaseFile(p.getTableId(alias));
+    }
+
+    /**
+     * @return true if the table with the given alias is a BTreeFile keyed
+     *   on field
+     */
+    private boolean keyedOn(String alias, String field) {
+        DbFile f = file(alias);
+        if (!(f instanceof BTreeFile))
+            return false;
+        String name = field.substring(field.indexOf('.') + 1);
+        try {
+            return f.getTupleDesc().fieldNameToIndex(name) == ((BTreeFile) f).keyField();
+        } catch (NoSuchElementException e) {
+            // not a field of the table itself
+            return false;
+        }
+    }
+
+    /** @return the size of a tuple of the base table with the given alias */
+    private int tupleSize(String alias) {
+        return Database.getCatalog().getTupleDesc(p.getTableId(alias)).getSize();
+    }
+
+    /** @return true if there are statistics for both tables of lj */
+    private static boolean haveStats(LogicalJoinNode lj, HashMap<String, TableStats> stats) {
+        return stats != null && stats.get(lj.t1) != null && stats.get(lj.t2) != null;
+    }
+
+    private static int card(String alias, HashMap<String, TableStats> stats) {
+        return stats.get(alias).estimateTableCardinality(1.0);
+    }
+
+    private static double scanCost(String alias, HashMap<String, TableStats> stats) {
+        return stats.get(alias).estimateScanCost();
+    }
+
+    /**
+     * @return true if SortMergeJoin is estimated to be cheaper than Join for
+     *   lj, with the cardinalities of the base tables
+     */
+    private boolean sortMergeCheaper(LogicalJoinNode lj, HashMap<String, TableStats> stats) {
+        if (!sortMergeApplies(lj) || !haveStats(lj, stats))
+            return false;
+        int card1 = card(lj.t1, stats), card2 = card(lj.t2, stats);
+        double cost1 = scanCost(lj.t1, stats), cost2 = scanCost(lj.t2, stats);
+        return sortMergeCost(lj, card1, card2, cost1, cost2) < nestedLoopCost(lj, card1, card2, cost1, cost2);
+    }
+
+    /**
+     * @return true if IndexNestedLoopJoin is estimated to be cheaper than
+     *   the join that scans the inner table, with the cardinalities of the
+     *   base tables
+     */
+    private boolean indexJoinCheaper(LogicalJoinNode lj, HashMap<String, TableStats> stats) {
+        if (!indexJoinApplies(lj, stats) || !haveStats(lj, stats))
+            return false;
+        int card1 = card(lj.t1, stats), card2 = card(lj.t2, stats);
+        double cost1 = scanCost(lj.t1, stats), cost2 = scanCost(lj.t2, stats);
+        return indexJoinCost(lj, card1, card2, cost1, cost2, stats) < scanJoinCost(lj, card1, card2, cost1, cost2);
+    }
+
     /**
      * Estimate the cardinality of a join.  The cardinality of a join
      * is the number of tuples produced by the join.
@@ -267,10 +453,10 @@ public class JoinOptimizer {
         }
                     
         //case where prevbest is left
-        double cost1 = estimateJoinCost(j,t1card,t2card, t1cost,t2cost);
+        double cost1 = estimateJoinCost(j,t1card,t2card, t1cost,t2cost, stats);
 
         LogicalJoinNode j2 = j.swapInnerOuter();
-        double cost2 = estimateJoinCost(j2,t2card,t1card, t2cost,t1cost);
+        double cost2 = estimateJoinCost(j2,t2card,t1card, t2cost,t1cost, stats);
         if (cost2 < cost1) {
             boolean tmp;
             j = j2;
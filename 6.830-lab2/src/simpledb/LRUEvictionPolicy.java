@@ -0,0 +1,72 @@
+package simpledb;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Evicts the least recently used page. Hits are buffered and applied to the
+ * recency order in batches, so {@link #pageAccessed} never blocks.
+ *
+ * @see ReadBuffer
+ */
+public class LRUEvictionPolicy implements EvictionPolicy {
+
+    private final ReentrantLock lock = new ReentrantLock();
+    // access-ordered, so iteration starts at the least recently used page
+    private final LinkedHashMap<PageId, Boolean> pages =
+            new LinkedHashMap<PageId, Boolean>(16, 0.75f, true);
+    private final ReadBuffer reads = new ReadBuffer();
+    private final ReadBuffer.Sink replay = new ReadBuffer.Sink() {
+        public void replay(PageId pid) {
+            pages.get(pid);
+        }
+    };
+
+    public void pageAdded(PageId pid) {
+        lock.lock();
+        try {
+            reads.drain(replay);
+            pages.put(pid, Boolean.TRUE);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void pageAccessed(PageId pid) {
+        if (reads.record(pid) && lock.tryLock()) {
+            try {
+                reads.drain(replay);
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    public void pageRemoved(PageId pid) {
+        lock.lock();
+        try {
+            pages.remove(pid);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public PageId chooseVictim(Evictable evictable) {
+        lock.lock();
+        try {
+            reads.drain(replay);
+            Iterator<PageId> it = pages.keySet().iterator();
+            while (it.hasNext()) {
+                PageId pid = it.next();
+                if (evictable.canEvict(pid)) {
+                    it.remove();
+                    return pid;
+                }
+            }
+            return null;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
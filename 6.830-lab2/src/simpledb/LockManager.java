@@ -0,0 +1,501 @@
+package simpledb;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * LockManager grants locks to transactions for strict two-phase locking:
+ * locks are only released, all at once, when the transaction completes.
+ * <p>
+ * By default BufferPool locks whole pages, shared (S) for READ_ONLY and
+ * exclusive (X) for READ_WRITE. With record locking turned on it locks
+ * hierarchically instead: intention locks (IS, IX) on the table and page,
+ * and S or X locks on individual {@link RecordId}s, so that transactions
+ * writing different slots of one page don't block each other. Any object
+ * with equals and hashCode can be locked; see {@link #tableResource}.
+ * <p>
+ * Each resource has its own lock state guarded by its own mutex, so
+ * requests on different resources never contend; there is no global
+ * monitor. A request that can't be granted parks on its resource's
+ * condition until a holder releases. A holder may strengthen its lock
+ * (e.g. upgrade S to X) once no other holder conflicts. A waiting request
+ * holds back newer, weaker requests it conflicts with, so writers don't
+ * starve.
+ * <p>
+ * Deadlocks are detected, not timed out: every time a request blocks it
+ * records whom it waits for in a {@link WaitsForGraph} and looks for a
+ * cycle through itself. If there is one, a single victim in the cycle is
+ * chosen according to the {@link VictimPolicy}, and only the victim's
+ * request fails with TransactionAbortedException; everyone else keeps
+ * waiting for the victim's locks to be released when it aborts.
+ *
+ * @see BufferPool#getPage
+ */
+public class LockManager {
+
+    /**
+     * Lock modes of multi-granularity locking, ordered from weakest to
+     * strongest.
+     */
+    public enum LockMode {
+        /** intention to take S locks below */
+        IS,
+        /** intention to take X locks below */
+        IX,
+        /** shared */
+        S,
+        /** shared, with intention to take X locks below */
+        SIX,
+        /** exclusive */
+        X;
+
+        private static final boolean[][] COMPATIBLE = {
+            //           IS     IX     S      SIX    X
+            /* IS  */ { true,  true,  true,  true,  false },
+            /* IX  */ { true,  true,  false, false, false },
+            /* S   */ { true,  false, true,  false, false },
+            /* SIX */ { true,  false, false, false, false },
+            /* X   */ { false, false, false, false, false },
+        };
+
+        /** @return true if two transactions may hold this and other at once */
+        public boolean isCompatibleWith(LockMode other) {
+            return COMPATIBLE[ordinal()][other.ordinal()];
+        }
+
+        /** @return true if holding this lock implies holding other */
+        public boolean covers(LockMode other) {
+            if (this == other || this == X || other == IS) return true;
+            if (this == SIX) return other != X;
+            return false;
+        }
+
+        /** @return the weakest mode that covers both this and other */
+        public LockMode join(LockMode other) {
+            if (covers(other)) return this;
+            if (other.covers(this)) return other;
+            // the only incomparable pair that isn't covered by X is S and IX
+            return (this == S && other == IX) || (this == IX && other == S) ? SIX : X;
+        }
+    }
+
+    /** How the victim of a deadlock is chosen among the transactions in the cycle. */
+    public enum VictimPolicy {
+        /** Abort the transaction that started last, i.e. has the largest id. */
+        YOUNGEST,
+        /** Abort the transaction holding the fewest locks; the youngest on a tie. */
+        LEAST_WORK
+    }
+
+    /** The lockable resource standing for a whole table. */
+    private static final class TableResource {
+        final int tableId;
+
+        TableResource(int tableId) {
+            this.tableId = tableId;
+        }
+
+        public boolean equals(Object o) {
+            return o instanceof TableResource && ((TableResource) o).tableId == tableId;
+        }
+
+        public int hashCode() {
+            return tableId;
+        }
+
+        public String toString() {
+            return "table " + tableId;
+        }
+    }
+
+    /** Lock state of one resource. */
+    private static class ResourceLock {
+        final ReentrantLock mutex = new ReentrantLock();
+        final Condition released = mutex.newCondition();
+        final HashMap<TransactionId, LockMode> holders = new HashMap<TransactionId, LockMode>();
+        // the mode each waiting transaction asked for
+        final HashMap<TransactionId, LockMode> waiters = new HashMap<TransactionId, LockMode>();
+        // set once the lock is dropped from the table; requests that still
+        // found it there must look it up again
+        boolean retired;
+
+        /** @return the mode tid holds after being granted mode on top of what it has */
+        LockMode target(TransactionId tid, LockMode mode) {
+            LockMode have = holders.get(tid);
+            return have == null ? mode : have.join(mode);
+        }
+
+        boolean isHeldBy(TransactionId tid, LockMode mode) {
+            LockMode have = holders.get(tid);
+            return have != null && have.covers(mode);
+        }
+
+        boolean canGrant(TransactionId tid, LockMode mode) {
+            return blockers(tid, mode).isEmpty();
+        }
+
+        /**
+         * @return the transactions a request by tid for mode waits for:
+         *   holders it conflicts with and, unless tid already holds the
+         *   resource, stronger conflicting requests that were queued first
+         */
+        Set<TransactionId> blockers(TransactionId tid, LockMode mode) {
+            LockMode target = target(tid, mode);
+            Set<TransactionId> blockers = new HashSet<TransactionId>();
+            for (Map.Entry<TransactionId, LockMode> h : holders.entrySet())
+                if (!h.getKey().equals(tid) && !h.getValue().isCompatibleWith(target))
+                    blockers.add(h.getKey());
+            if (!holders.containsKey(tid)) {
+                // strictly stronger only, so that two waiters never hold
+                // each other back
+                for (Map.Entry<TransactionId, LockMode> w : waiters.entrySet())
+                    if (!w.getKey().equals(tid) && w.getValue().compareTo(target) > 0
+                            && !w.getValue().isCompatibleWith(target))
+                        blockers.add(w.getKey());
+            }
+            return blockers;
+        }
+    }
+
+    private final ConcurrentHashMap<Object, ResourceLock> locks =
+            new ConcurrentHashMap<Object, ResourceLock>();
+    // the locks each transaction holds, with their modes; only that
+    // transaction's own thread(s) change its map, always under the mutex of
+    // the resource concerned, so a hit here can skip the mutex
+    private final ConcurrentHashMap<TransactionId, ConcurrentHashMap<Object, LockMode>> held =
+            new ConcurrentHashMap<TransactionId, ConcurrentHashMap<Object, LockMode>>();
+
+    private final WaitsForGraph graph = new WaitsForGraph();
+    // the lock each blocked transaction waits on, to wake victims
+    private final ConcurrentHashMap<TransactionId, ResourceLock> waitingOn =
+            new ConcurrentHashMap<TransactionId, ResourceLock>();
+    private volatile VictimPolicy victimPolicy = VictimPolicy.YOUNGEST;
+
+    private final AtomicLong deadlocks = new AtomicLong();
+    private final AtomicLong detections = new AtomicLong();
+    private final AtomicLong detectionNanos = new AtomicLong();
+    private final AtomicLong maxDetectionNanos = new AtomicLong();
+
+    /** @return the resource to lock for a whole table */
+    public static Object tableResource(int tableId) {
+        return new TableResource(tableId);
+    }
+
+    /**
+     * Acquires a lock on page pid for tid, waiting as long as it takes.
+     * READ_ONLY asks for a shared lock and READ_WRITE for an exclusive one;
+     * asking for a lock tid already holds (or a weaker one) returns at once.
+     *
+     * @throws TransactionAbortedException if tid was chosen as the victim of
+     *   a deadlock, or the thread is interrupted while waiting
+     */
+    public void acquire(TransactionId tid, PageId pid, Permissions perm)
+            throws TransactionAbortedException {
+        acquire(tid, pid, perm == Permissions.READ_WRITE ? LockMode.X : LockMode.S);
+    }
+
+    /**
+     * Acquires a lock in the given mode on resource for tid, waiting as long
+     * as it takes. If tid already holds a lock on resource, it ends up
+     * holding the weakest mode covering both.
+     *
+     * @throws TransactionAbortedException if tid was chosen as the victim of
+     *   a deadlock, or the thread is interrupted while waiting
+     */
+    public void acquire(TransactionId tid, Object resource, LockMode mode)
+            throws TransactionAbortedException {
+        if (heldMode(tid, resource, mode)) return;
+        boolean blocked = false;
+        try {
+            while (true) {
+                ResourceLock lock = lockFor(resource);
+                ResourceLock wake = null;
+                lock.mutex.lock();
+                try {
+                    if (lock.retired) continue;
+                    if (lock.isHeldBy(tid, mode)) return;
+                    if (!lock.canGrant(tid, mode)) {
+                        blocked = true;
+                        wake = await(lock, tid, mode);
+                    }
+                    if (wake == null) {
+                        grant(lock, tid, resource, mode);
+                        return;
+                    }
+                } finally {
+                    lock.mutex.unlock();
+                }
+                // wake the victim we chose, holding no other mutex so that
+                // two detectors can't deadlock on each other's resources;
+                // then try again from the start
+                wake.mutex.lock();
+                try {
+                    wake.released.signalAll();
+                } finally {
+                    wake.mutex.unlock();
+                }
+            }
+        } finally {
+            if (blocked) {
+                waitingOn.remove(tid);
+                graph.clearWaits(tid);
+            }
+        }
+    }
+
+    /**
+     * Acquires a lock like {@link #acquire(TransactionId, Object, LockMode)}
+     * if it can be granted right away.
+     *
+     * @return true if tid now holds the lock, false if it would have to wait
+     */
+    public boolean tryAcquire(TransactionId tid, Object resource, LockMode mode) {
+        if (heldMode(tid, resource, mode)) return true;
+        while (true) {
+            ResourceLock lock = lockFor(resource);
+            lock.mutex.lock();
+            try {
+                if (lock.retired) continue;
+                if (lock.isHeldBy(tid, mode)) return true;
+                if (!lock.canGrant(tid, mode)) {
+                    retireIfUnused(resource, lock);
+                    return false;
+                }
+                grant(lock, tid, resource, mode);
+                return true;
+            } finally {
+                lock.mutex.unlock();
+            }
+        }
+    }
+
+    private boolean heldMode(TransactionId tid, Object resource, LockMode mode) {
+        Map<Object, LockMode> mine = held.get(tid);
+        if (mine == null) return false;
+        LockMode have = mine.get(resource);
+        return have != null && have.covers(mode);
+    }
+
+    private ResourceLock lockFor(Object resource) {
+        ResourceLock lock = locks.get(resource);
+        if (lock == null) {
+            ResourceLock fresh = new ResourceLock();
+            lock = locks.putIfAbsent(resource, fresh);
+            if (lock == null) lock = fresh;
+        }
+        return lock;
+    }
+
+    /** Called with lock.mutex held. */
+    private void grant(ResourceLock lock, TransactionId tid, Object resource, LockMode mode) {
+        LockMode target = lock.target(tid, mode);
+        lock.holders.put(tid, target);
+        lockMap(tid).put(resource, target);
+    }
+
+    /** Drops lock from the table if nobody holds or waits for it. Called with lock.mutex held. */
+    private boolean retireIfUnused(Object resource, ResourceLock lock) {
+        if (!lock.holders.isEmpty() || !lock.waiters.isEmpty()) return false;
+        lock.retired = true;
+        locks.remove(resource, lock);
+        return true;
+    }
+
+    /**
+     * Parks until lock can be granted to tid, checking for a deadlock each
+     * time the request blocks. Called with lock.mutex held.
+     *
+     * @return null once the lock can be granted, or the lock a victim
+     *   chosen by this request waits on, which the caller must wake
+     */
+    private ResourceLock await(ResourceLock lock, TransactionId tid, LockMode mode)
+            throws TransactionAbortedException {
+        lock.waiters.put(tid, lock.target(tid, mode));
+        try {
+            while (!lock.canGrant(tid, mode)) {
+                if (graph.isVictim(tid)) throw new TransactionAbortedException();
+                waitingOn.put(tid, lock);
+                graph.setWaits(tid, lock.blockers(tid, mode));
+                TransactionId victim = detectDeadlock(tid);
+                if (tid.equals(victim)) throw new TransactionAbortedException();
+                if (victim != null) {
+                    ResourceLock victimLock = waitingOn.get(victim);
+                    if (victimLock != null && victimLock != lock) return victimLock;
+                    lock.released.signalAll();
+                }
+                lock.released.await();
+            }
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TransactionAbortedException();
+        } finally {
+            lock.waiters.remove(tid);
+            // a departing waiter may have been holding back weaker requests
+            if (!lock.waiters.isEmpty()) lock.released.signalAll();
+        }
+    }
+
+    /**
+     * Looks for a cycle through tid in the waits-for graph and, if there is
+     * one, marks a victim in it.
+     *
+     * @return the victim, or null if tid isn't deadlocked
+     */
+    private TransactionId detectDeadlock(TransactionId tid) {
+        long start = System.nanoTime();
+        TransactionId victim = null;
+        synchronized (graph) {
+            List<TransactionId> cycle = graph.findCycle(tid);
+            if (cycle != null) {
+                victim = chooseVictim(cycle);
+                graph.markVictim(victim);
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        detections.incrementAndGet();
+        detectionNanos.addAndGet(elapsed);
+        long max;
+        while (elapsed > (max = maxDetectionNanos.get()) && !maxDetectionNanos.compareAndSet(max, elapsed))
+            ;
+        if (victim != null) deadlocks.incrementAndGet();
+        return victim;
+    }
+
+    private TransactionId chooseVictim(List<TransactionId> cycle) {
+        TransactionId victim = null;
+        int victimLocks = 0;
+        for (TransactionId t : cycle) {
+            int locks = 0;
+            if (victimPolicy == VictimPolicy.LEAST_WORK) {
+                Map<Object, LockMode> mine = held.get(t);
+                locks = mine == null ? 0 : mine.size();
+            }
+            if (victim == null || locks < victimLocks
+                    || (locks == victimLocks && t.getId() > victim.getId())) {
+                victim = t;
+                victimLocks = locks;
+            }
+        }
+        return victim;
+    }
+
+    /** Sets how deadlock victims are chosen. The default is {@link VictimPolicy#YOUNGEST}. */
+    public void setVictimPolicy(VictimPolicy policy) {
+        victimPolicy = policy;
+    }
+
+    /** @return the number of deadlocks found so far */
+    public long getDeadlockCount() {
+        return deadlocks.get();
+    }
+
+    /** @return the number of times a blocked request looked for a deadlock */
+    public long getDetectionCount() {
+        return detections.get();
+    }
+
+    /** @return the mean time one deadlock check took, in nanoseconds, or 0 if there were none */
+    public long getMeanDetectionNanos() {
+        long n = detections.get();
+        return n == 0 ? 0 : detectionNanos.get() / n;
+    }
+
+    /** @return the longest time one deadlock check took, in nanoseconds */
+    public long getMaxDetectionNanos() {
+        return maxDetectionNanos.get();
+    }
+
+    /** Resets the deadlock counters to zero. */
+    public void resetStats() {
+        deadlocks.set(0);
+        detections.set(0);
+        detectionNanos.set(0);
+        maxDetectionNanos.set(0);
+    }
+
+    private ConcurrentHashMap<Object, LockMode> lockMap(TransactionId tid) {
+        ConcurrentHashMap<Object, LockMode> mine = held.get(tid);
+        if (mine == null) {
+            ConcurrentHashMap<Object, LockMode> fresh = new ConcurrentHashMap<Object, LockMode>();
+            mine = held.putIfAbsent(tid, fresh);
+            if (mine == null) mine = fresh;
+        }
+        return mine;
+    }
+
+    /** @return true if tid holds a lock of any mode on resource */
+    public boolean holdsLock(TransactionId tid, Object resource) {
+        return lockMode(tid, resource) != null;
+    }
+
+    /** @return the mode of tid's lock on resource, or null if it has none */
+    public LockMode lockMode(TransactionId tid, Object resource) {
+        Map<Object, LockMode> mine = held.get(tid);
+        return mine == null ? null : mine.get(resource);
+    }
+
+    /** @return true if tid holds an exclusive lock on pid */
+    public boolean holdsExclusive(TransactionId tid, PageId pid) {
+        return lockMode(tid, pid) == LockMode.X;
+    }
+
+    /** @return the pages tid holds locks of any mode on; empty if none */
+    public Set<PageId> lockedPages(TransactionId tid) {
+        Map<Object, LockMode> mine = held.get(tid);
+        if (mine == null) return Collections.emptySet();
+        Set<PageId> pages = new HashSet<PageId>();
+        for (Object resource : mine.keySet())
+            if (resource instanceof PageId) pages.add((PageId) resource);
+        return pages;
+    }
+
+    /**
+     * Releases tid's lock on resource, if it has one, and wakes the
+     * requests waiting for it.
+     */
+    public void release(TransactionId tid, Object resource) {
+        if (releaseLock(tid, resource)) graph.removeHolder(tid);
+    }
+
+    /** @return true if some request was waiting for the lock */
+    private boolean releaseLock(TransactionId tid, Object resource) {
+        ResourceLock lock = locks.get(resource);
+        if (lock == null) return false;
+        lock.mutex.lock();
+        try {
+            lock.holders.remove(tid);
+            Map<Object, LockMode> mine = held.get(tid);
+            if (mine != null) mine.remove(resource);
+            if (retireIfUnused(resource, lock)) return false;
+            if (!lock.waiters.isEmpty()) {
+                lock.released.signalAll();
+                return true;
+            }
+            return false;
+        } finally {
+            lock.mutex.unlock();
+        }
+    }
+
+    /** Releases every lock tid holds. */
+    public void releaseAll(TransactionId tid) {
+        Map<Object, LockMode> mine = held.get(tid);
+        if (mine == null) return;
+        boolean contended = false;
+        for (Object resource : mine.keySet())
+            contended |= releaseLock(tid, resource);
+        held.remove(tid);
+        // waiters recompute their edges when woken, but until then a stale
+        // edge into tid could make a new cycle look like a deadlock
+        if (contended) graph.removeHolder(tid);
+    }
+}
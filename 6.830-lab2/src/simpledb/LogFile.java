@@ -218,7 +218,39 @@ public class LogFile {
         Debug.log("WRITE OFFSET = " + currentOffset);
     }
 
-    void writePageData(RandomAccessFile raf, Page p) throws IOException{
+    /** Write UPDATE records for a batch of pages of the specified tid,
+        building them in memory and appending them with a single write
+        rather than a few small writes per field.
+
+        @param tid The transaction performing the writes
+        @param befores The before images of the pages
+        @param afters The after images of the pages, in the same order
+
+        @see #logWrite
+    */
+    public synchronized void logWrites(TransactionId tid, List<Page> befores,
+                                       List<Page> afters)
+        throws IOException {
+        Debug.log("WRITE " + afters.size() + " PAGES, offset = " + raf.getFilePointer());
+        preAppend();
+        totalRecords += afters.size() - 1;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        long start = currentOffset;
+        for (int i = 0; i < afters.size(); i++) {
+            out.writeInt(UPDATE_RECORD);
+            out.writeLong(tid.getId());
+            writePageData(out, befores.get(i));
+            writePageData(out, afters.get(i));
+            out.writeLong(start);
+            start = currentOffset + out.size();
+        }
+        out.flush();
+        raf.write(bytes.toByteArray());
+        currentOffset = raf.getFilePointer();
+    }
+
+    void writePageData(DataOutput raf, Page p) throws IOException{
         PageId pid = p.getId();
         int pageInfo[] = pid.serialize();
 
@@ -31,6 +31,7 @@ public  class LogicalPlan {
     private Vector<LogicalScanNode> tables;
     private Vector<LogicalFilterNode> filters;
     private HashMap<String,DbIterator> subplanMap;
+    private Vector<DbIterator> joinOperators;
     private HashMap<String,Integer> tableMap;
 
     private Vector<LogicalSelectListNode> selectList;
@@ -48,6 +49,7 @@ public  class LogicalPlan {
         filters = new Vector<LogicalFilterNode>();
         tables = new Vector<LogicalScanNode>();
         subplanMap = new HashMap<String,DbIterator>();
+        joinOperators = new Vector<DbIterator>();
         tableMap = new HashMap<String,Integer>();
 
         selectList = new Vector<LogicalSelectListNode>();
@@ -243,6 +245,55 @@ public  class LogicalPlan {
 
     }
 
+    /**
+     * Returns the fields of the table scanned as alias that operators above
+     * its scan read: those in the select list, joins, GROUP BY and ORDER BY.
+     *
+     * @return the field numbers in increasing order, or null if the plan
+     *   reads all of them (e.g. for SELECT *)
+     */
+    private int[] fieldsUsedAbove(String alias, int tableId) {
+        ArrayList<String> names = new ArrayList<String>();
+        for (LogicalSelectListNode si : selectList)
+            names.add(si.fname);
+        for (LogicalJoinNode lj : joins) {
+            names.add(lj.f1);
+            if (!(lj instanceof LogicalSubplanJoinNode))
+                names.add(lj.f2);
+        }
+        if (groupByField != null) names.add(groupByField);
+        if (aggField != null) names.add(aggField);
+        if (hasOrderBy) names.add(oByField);
+
+        TupleDesc td = Database.getCatalog().getDbFile(tableId).getTupleDesc();
+        boolean[] used = new boolean[td.numFields()];
+        int n = 0;
+        for (String name : names) {
+            String[] parts;
+            try {
+                parts = disambiguateName(name).split("[.]");
+            } catch (ParsingException e) {
+                // reported when the operator using it is built
+                continue;
+            }
+            // "*" on its own is every field of every table
+            if (parts.length == 1 || (parts[0].equals(alias) && parts[1].equals("*")))
+                return null;
+            if (!parts[0].equals(alias)) continue;
+            try {
+                int i = td.fieldNameToIndex(parts[1]);
+                if (!used[i]) n++;
+                used[i] = true;
+            } catch (NoSuchElementException e) {
+                // likewise
+            }
+        }
+        int[] fields = new int[n];
+        for (int i = 0, j = 0; i < used.length; i++)
+            if (used[i]) fields[j++] = i;
+        return fields;
+    }
+
     /** Convert the aggregate operator name s into an Aggregator.op operation.
      *  @throws ParsingException if s is not a valid operator name 
      */
@@ -256,6 +307,13 @@ public  class LogicalPlan {
         throw new ParsingException("Unknown predicate " + s);
     }
 
+    /** Return the join operators of the physical plan made by the last call
+     *  to {@link #physicalPlan}, in the order they were instantiated.
+     */
+    public Vector<DbIterator> getJoinOperators() {
+        return joinOperators;
+    }
+
     /** Convert this LogicalPlan into a physicalPlan represented by a {@link DbIterator}.  Attempts to
      *   find the optimal plan by using {@link JoinOptimizer#orderJoins} to order the joins in the plan.
      *  @param t The transaction that the returned DbIterator will run as a part of
@@ -274,6 +332,7 @@ public  class LogicalPlan {
         HashMap<String,String> equivMap = new HashMap<String,String>();
         HashMap<String,Double> filterSelectivities = new HashMap<String, Double>();
         HashMap<String,TableStats> statsMap = new HashMap<String,TableStats>();
+        joinOperators.clear();
 
         while (tableIt.hasNext()) {
             LogicalScanNode table = tableIt.next();
@@ -284,6 +343,9 @@ public  class LogicalPlan {
                 throw new ParsingException("Unknown table " + table.t);
             }
             
+            // filters are evaluated inside the scan, so only fields used
+            // above it have to be read
+            ss.setColumns(fieldsUsedAbove(table.alias, table.t));
             subplanMap.put(table.alias,ss);
             String baseTableName = Database.getCatalog().getTableName(table.t);
             statsMap.put(table.alias, baseTableStats.get(baseTableName));
@@ -319,7 +381,12 @@ public  class LogicalPlan {
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown field " + lf.f);
             }
-            subplanMap.put(lf.t, new Filter(p, subplan));
+            if (subplan instanceof SeqScan) {
+                // evaluated on the serialized tuples in the pages
+                ((SeqScan) subplan).addPredicate(p);
+            } else {
+                subplanMap.put(lf.t, new Filter(p, subplan));
+            }
 
             TableStats s = statsMap.get(lf.t);
             
@@ -368,6 +435,7 @@ public  class LogicalPlan {
             
             DbIterator j;
             j = jo.instantiateJoin(lj,plan1,plan2, statsMap);
+            joinOperators.add(j);
             subplanMap.put(t1name, j);
 
             if (!isSubqueryJoin) {
@@ -46,6 +46,17 @@ public interface Page {
 
     public byte[] getPageData();
 
+  /**
+   * Writes the bytes getPageData would return into buf, starting at its
+   * current position, and advances the position past them. This lets the
+   * caller serialize into a buffer it reuses, or straight into a larger
+   * buffer holding several pages.
+   *
+   * @throws java.nio.BufferOverflowException if buf has less than a page
+   *   of room left
+   */
+    public void getPageData(java.nio.ByteBuffer buf);
+
     /** Provide a representation of this page before any modifications were made
         to it.  Used by recovery.
     */
@@ -0,0 +1,252 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * PageCodec compresses the data of a HeapPage for a CompressedHeapFile, and
+ * restores it. The slot header is kept as is, and the used slots are
+ * stored column by column, each column in whichever of these encodings is
+ * smallest for it:
+ * <ul>
+ * <li>frame of reference (ints): the smallest value, and each value minus
+ * it bit-packed in as few bits as the largest difference needs;</li>
+ * <li>dictionary (strings): the distinct strings of the page, and the
+ * index of each value bit-packed;</li>
+ * <li>deflate (any type): the serialized values, deflated.</li>
+ * </ul>
+ * Empty slots and string padding aren't stored; they are restored as
+ * zeroes, as HeapPage writes them.
+ */
+class PageCodec {
+
+    private static final int FRAME_OF_REFERENCE = 0;
+    private static final int DICTIONARY = 1;
+    private static final int DEFLATE = 2;
+
+    private final TupleDesc td;
+    private final int numSlots;
+    private final int headerSize;
+    private final int tupleSize;
+    // offset of each field within a slot
+    private final int[] fieldOffsets;
+
+    PageCodec(TupleDesc td) {
+        this.td = td;
+        this.tupleSize = td.getSize();
+        this.numSlots = (BufferPool.getPageSize() * 8) / (tupleSize * 8 + 1);
+        this.headerSize = (numSlots + 7) / 8;
+        this.fieldOffsets = new int[td.numFields()];
+        for (int j = 1; j < fieldOffsets.length; j++)
+            fieldOffsets[j] = fieldOffsets[j - 1] + td.getFieldType(j - 1).getLen();
+    }
+
+    private int[] usedSlots(byte[] header, int off) {
+        int n = 0;
+        int[] slots = new int[numSlots];
+        for (int i = 0; i < numSlots; i++)
+            if ((header[off + i / 8] & (1 << (i % 8))) != 0) slots[n++] = i;
+        return Arrays.copyOf(slots, n);
+    }
+
+    /**
+     * @param page the data of a HeapPage of a table with this codec's schema
+     * @return the compressed page
+     */
+    byte[] compress(byte[] page) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.write(page, 0, headerSize);
+            int[] slots = usedSlots(page, 0);
+            for (int j = 0; j < fieldOffsets.length; j++) {
+                byte[] special = td.getFieldType(j) == Type.INT_TYPE
+                        ? frameOfReference(page, slots, j) : dictionary(page, slots, j);
+                byte[] deflated = deflate(page, slots, j);
+                out.write(deflated.length < special.length ? deflated : special);
+            }
+            out.flush();
+        } catch (IOException e) {
+            // a ByteArrayOutputStream doesn't throw
+            throw new RuntimeException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Restores the page data compressed from len bytes of in at off.
+     *
+     * @return the data of the HeapPage
+     * @throws IOException if the bytes aren't a page compressed by this codec
+     */
+    byte[] decompress(byte[] in, int off, int len) throws IOException {
+        byte[] page = new byte[BufferPool.getPageSize()];
+        ByteBuffer src = ByteBuffer.wrap(in, off, len);
+        ByteBuffer dst = ByteBuffer.wrap(page);
+        try {
+            src.get(page, 0, headerSize);
+            int[] slots = usedSlots(page, 0);
+            for (int j = 0; j < fieldOffsets.length; j++) {
+                int kind = src.get();
+                if (kind == FRAME_OF_REFERENCE) {
+                    int min = src.getInt();
+                    int width = src.get();
+                    long[] values = unpack(src, slots.length, width);
+                    for (int k = 0; k < slots.length; k++)
+                        dst.putInt(slotOffset(slots[k], j), (int) (min + values[k]));
+                } else if (kind == DICTIONARY) {
+                    byte[][] dict = new byte[src.getShort() & 0xffff][];
+                    for (int d = 0; d < dict.length; d++) {
+                        dict[d] = new byte[src.get() & 0xff];
+                        src.get(dict[d]);
+                    }
+                    int width = src.get();
+                    long[] codes = unpack(src, slots.length, width);
+                    for (int k = 0; k < slots.length; k++) {
+                        byte[] s = dict[(int) codes[k]];
+                        int at = slotOffset(slots[k], j);
+                        dst.putInt(at, s.length);
+                        System.arraycopy(s, 0, page, at + 4, s.length);
+                    }
+                } else if (kind == DEFLATE) {
+                    byte[] deflated = new byte[src.getInt()];
+                    src.get(deflated);
+                    int flen = td.getFieldType(j).getLen();
+                    byte[] plain = new byte[slots.length * flen];
+                    Inflater inflater = new Inflater();
+                    inflater.setInput(deflated);
+                    int n = 0;
+                    while (n < plain.length && !inflater.finished())
+                        n += inflater.inflate(plain, n, plain.length - n);
+                    inflater.end();
+                    if (n != plain.length) throw new IOException("truncated column " + j);
+                    for (int k = 0; k < slots.length; k++)
+                        System.arraycopy(plain, k * flen, page, slotOffset(slots[k], j), flen);
+                } else {
+                    throw new IOException("unknown column encoding " + kind);
+                }
+            }
+        } catch (RuntimeException e) {
+            // underflows and bad indexes from corrupt input
+            throw new IOException("corrupt compressed page: " + e);
+        } catch (DataFormatException e) {
+            throw new IOException("corrupt compressed page: " + e);
+        }
+        return page;
+    }
+
+    private int slotOffset(int slot, int field) {
+        return headerSize + slot * tupleSize + fieldOffsets[field];
+    }
+
+    private byte[] frameOfReference(byte[] page, int[] slots, int j) {
+        ByteBuffer buf = ByteBuffer.wrap(page);
+        long[] values = new long[slots.length];
+        int min = Integer.MAX_VALUE;
+        for (int k = 0; k < slots.length; k++) {
+            int v = buf.getInt(slotOffset(slots[k], j));
+            values[k] = v;
+            min = Math.min(min, v);
+        }
+        long range = 0;
+        for (int k = 0; k < slots.length; k++) {
+            values[k] -= min;
+            range = Math.max(range, values[k]);
+        }
+        int width = 64 - Long.numberOfLeadingZeros(range);
+        byte[] packed = pack(values, width);
+        ByteBuffer out = ByteBuffer.allocate(6 + packed.length);
+        out.put((byte) FRAME_OF_REFERENCE).putInt(min).put((byte) width).put(packed);
+        return out.array();
+    }
+
+    private byte[] dictionary(byte[] page, int[] slots, int j) {
+        ByteBuffer buf = ByteBuffer.wrap(page);
+        LinkedHashMap<String, Integer> dict = new LinkedHashMap<String, Integer>();
+        long[] codes = new long[slots.length];
+        int dictBytes = 0;
+        for (int k = 0; k < slots.length; k++) {
+            int at = slotOffset(slots[k], j);
+            int len = Math.max(0, Math.min(buf.getInt(at), Type.STRING_LEN));
+            String s = new String(page, at + 4, len, StandardCharsets.ISO_8859_1);
+            Integer code = dict.get(s);
+            if (code == null) {
+                code = dict.size();
+                dict.put(s, code);
+                dictBytes += 1 + len;
+            }
+            codes[k] = code;
+        }
+        int width = 32 - Integer.numberOfLeadingZeros(Math.max(0, dict.size() - 1));
+        byte[] packed = pack(codes, width);
+        ByteBuffer out = ByteBuffer.allocate(4 + dictBytes + packed.length);
+        out.put((byte) DICTIONARY).putShort((short) dict.size());
+        for (String s : dict.keySet())
+            out.put((byte) s.length()).put(s.getBytes(StandardCharsets.ISO_8859_1));
+        out.put((byte) width).put(packed);
+        return out.array();
+    }
+
+    private byte[] deflate(byte[] page, int[] slots, int j) {
+        int flen = td.getFieldType(j).getLen();
+        byte[] plain = new byte[slots.length * flen];
+        for (int k = 0; k < slots.length; k++)
+            System.arraycopy(page, slotOffset(slots[k], j), plain, k * flen, flen);
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        deflater.setInput(plain);
+        deflater.finish();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(DEFLATE);
+        out.write(0); out.write(0); out.write(0); out.write(0); // length, filled in below
+        byte[] chunk = new byte[1024];
+        while (!deflater.finished()) {
+            int n = deflater.deflate(chunk);
+            out.write(chunk, 0, n);
+        }
+        deflater.end();
+        byte[] result = out.toByteArray();
+        ByteBuffer.wrap(result).putInt(1, result.length - 5);
+        return result;
+    }
+
+    /** Packs the low width (at most 32) bits of each value, most significant bit first. */
+    private static byte[] pack(long[] values, int width) {
+        byte[] out = new byte[(int) (((long) values.length * width + 7) / 8)];
+        long acc = 0;
+        int bits = 0, pos = 0;
+        for (long v : values) {
+            acc = (acc << width) | v;
+            bits += width;
+            while (bits >= 8) {
+                out[pos++] = (byte) (acc >>> (bits - 8));
+                bits -= 8;
+            }
+        }
+        if (bits > 0) out[pos] = (byte) (acc << (8 - bits));
+        return out;
+    }
+
+    /** Reads n values packed by pack from src, advancing it past them. */
+    private static long[] unpack(ByteBuffer src, int n, int width) {
+        byte[] in = new byte[(int) (((long) n * width + 7) / 8)];
+        src.get(in);
+        long[] values = new long[n];
+        long mask = (1L << width) - 1;
+        long acc = 0;
+        int bits = 0, pos = 0;
+        for (int k = 0; k < n; k++) {
+            while (bits < width) {
+                acc = (acc << 8) | (in[pos++] & 0xff);
+                bits += 8;
+            }
+            bits -= width;
+            values[k] = (acc >>> bits) & mask;
+        }
+        return values;
+    }
+}
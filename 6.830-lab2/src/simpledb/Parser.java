@@ -231,7 +231,8 @@ public class Parser {
     public static void handleQueryStatement(ZQuery s) throws TransactionAbortedException, DbException, IOException, simpledb.ParsingException, Zql.ParseException  {
         // and run it
         DbIterator node;
-        node = parseQuery(curtrans.getId(), s);
+        LogicalPlan lp = parseQueryLogicalPlan(curtrans.getId(), s);
+        node = lp.physicalPlan(curtrans.getId(), statsMap, explain);
 
         Query sdbq = new Query(node, curtrans.getId());
         TupleDesc td = node.getTupleDesc();
@@ -254,6 +255,17 @@ public class Parser {
             cnt++;
         }
         System.out.println("\n " + cnt + " rows.");
+        if (explain) {
+            // how the joins ran, known only once they have
+            for (DbIterator j : lp.getJoinOperators()) {
+                if (j instanceof HashJoin)
+                    System.out.println(((HashJoin) j).explain());
+                else if (j instanceof SortMergeJoin)
+                    System.out.println(((SortMergeJoin) j).explain());
+                else if (j instanceof IndexNestedLoopJoin)
+                    System.out.println(((IndexNestedLoopJoin) j).explain());
+            }
+        }
         sdbq.close();
     }
 
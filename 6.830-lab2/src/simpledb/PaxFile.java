@@ -0,0 +1,271 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+/**
+ * PaxFile is a DbFile that stores its tuples in PaxPages, which lay out each
+ * page column by column. It is meant for wide, read-mostly tables that
+ * queries read a few columns of: {@link #iterator(TransactionId, int[], List)}
+ * decodes only the requested columns. Files are usually created with
+ * {@link HeapFileEncoder#convertPax}, and can be listed in a catalog file
+ * with the "pax" table option.
+ * <p>
+ * Inserts and deletes go through the buffer pool as for a HeapFile, under
+ * page-level locks; PaxFile doesn't support record-level locking.
+ *
+ * @see PaxPage
+ * @see HeapFile
+ */
+public class PaxFile implements DbFile {
+
+    private final File f;
+    private final TupleDesc td;
+    // see HeapFile.channel
+    private volatile FileChannel channel;
+
+    /**
+     * Constructs a PAX file backed by the specified file.
+     *
+     * @param f the file that stores the on-disk backing store for this file
+     * @param td the schema of the table
+     */
+    public PaxFile(File f, TupleDesc td) {
+        this.f = f;
+        this.td = td;
+    }
+
+    private FileChannel getChannel() throws IOException {
+        FileChannel fc = channel;
+        if (fc == null) {
+            synchronized (this) {
+                fc = channel;
+                if (fc == null) {
+                    fc = new RandomAccessFile(f, "rw").getChannel();
+                    channel = fc;
+                }
+            }
+        }
+        return fc;
+    }
+
+    /**
+     * Closes the channel backing this PaxFile, if it has been opened. The
+     * channel is reopened on the next read or write.
+     */
+    public synchronized void close() {
+        if (channel == null) return;
+        try {
+            channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        channel = null;
+    }
+
+    /**
+     * Returns the File backing this PaxFile on disk.
+     */
+    public File getFile() {
+        return f;
+    }
+
+    /**
+     * Returns an ID uniquely identifying this PaxFile, the hash code of
+     * the absolute file name, as for a HeapFile.
+     */
+    public int getId() {
+        return f.getAbsoluteFile().hashCode();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        int pgno = pid.pageNumber();
+        long offset = (long) pgno * BufferPool.getPageSize();
+        ByteBuffer buf = ByteBuffer.allocate(BufferPool.getPageSize());
+        try {
+            FileChannel fc = getChannel();
+            while (buf.hasRemaining()) {
+                int n = fc.read(buf, offset + buf.position());
+                if (n < 0) break;
+            }
+            if (buf.position() == 0)
+                throw new IllegalArgumentException("page " + pgno + " does not exist");
+            // a short last page reads as if padded with zeroes
+            buf.clear();
+            return new PaxPage(new HeapPageId(pid.getTableId(), pgno), buf);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("IOException", e);
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        long offset = (long) page.getId().pageNumber() * BufferPool.getPageSize();
+        ByteBuffer buf = ByteBuffer.allocate(BufferPool.getPageSize());
+        page.getPageData(buf);
+        buf.flip();
+        FileChannel fc = getChannel();
+        while (buf.hasRemaining()) {
+            fc.write(buf, offset + buf.position());
+        }
+    }
+
+    /**
+     * Returns the number of pages in this PaxFile.
+     */
+    public int numPages() {
+        return (int) (f.length() / BufferPool.getPageSize());
+    }
+
+    private void checkPageLocking() throws DbException {
+        if (Database.getBufferPool().isRecordLocking())
+            throw new DbException("PaxFile " + f + " doesn't support record-level locking");
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        ArrayList<Page> modified = new ArrayList<Page>();
+        modified.add(insertTuple(tid, t, 0));
+        return modified;
+    }
+
+    /**
+     * Inserts t into the first page at or after page from with a free slot,
+     * appending a page if there is none.
+     *
+     * @return the page t was inserted into
+     */
+    private PaxPage insertTuple(TransactionId tid, Tuple t, int from)
+            throws DbException, IOException, TransactionAbortedException {
+        checkPageLocking();
+        BufferPool bufpool = Database.getBufferPool();
+        int numpages = numPages();
+        for (int i = from; i < numpages; i++) {
+            HeapPageId pid = new HeapPageId(getId(), i);
+            boolean held = bufpool.holdsLock(tid, pid);
+            PaxPage page = (PaxPage) bufpool.getPage(tid, pid, Permissions.READ_ONLY);
+            if (page.getNumEmptySlots() > 0) {
+                page = (PaxPage) bufpool.getPage(tid, pid, Permissions.READ_WRITE);
+                if (page.getNumEmptySlots() > 0) {
+                    page.insertTuple(t);
+                    return page;
+                }
+            }
+            if (!held) bufpool.releasePage(tid, pid);
+        }
+        HeapPageId pid;
+        synchronized (this) {
+            // as in HeapFile, appends are serialized
+            pid = new HeapPageId(getId(), numPages());
+            writePage(new PaxPage(pid, PaxPage.createEmptyPageData()));
+        }
+        PaxPage page = (PaxPage) bufpool.getPage(tid, pid, Permissions.READ_WRITE);
+        page.insertTuple(t);
+        return page;
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> insertTuples(TransactionId tid, Iterator<Tuple> tuples)
+            throws DbException, IOException, TransactionAbortedException {
+        // each tuple goes on the page the last one went on or after it
+        LinkedHashSet<Page> modified = new LinkedHashSet<Page>();
+        int from = 0;
+        while (tuples.hasNext()) {
+            PaxPage page = insertTuple(tid, tuples.next(), from);
+            modified.add(page);
+            from = page.getId().pageNumber();
+        }
+        return new ArrayList<Page>(modified);
+    }
+
+    // see DbFile.java for javadocs
+    public Page deleteTuple(TransactionId tid, Tuple t) throws DbException,
+            TransactionAbortedException {
+        checkPageLocking();
+        PageId pid = t.getRecordId().getPageId();
+        if (pid.getTableId() != getId()) throw new DbException("not a same table");
+        PaxPage page = (PaxPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
+        page.deleteTuple(t);
+        return page;
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid) {
+        return iterator(tid, null, null);
+    }
+
+    /**
+     * Returns an iterator over the tuples of this file that pass all of
+     * predicates, with only the fields in columns filled in.
+     *
+     * @param columns the fields to fill in, or null for all of them
+     * @param predicates the predicates to apply, or null for none
+     * @see PaxPage#iterator(int[], List)
+     */
+    public DbFileIterator iterator(TransactionId tid, int[] columns, List<Predicate> predicates) {
+        return new PaxFileIterator(tid, columns, predicates);
+    }
+
+    /** Streams the tuples of this file one page at a time, like HeapFile's iterator. */
+    private class PaxFileIterator extends AbstractDbFileIterator {
+
+        private final TransactionId tid;
+        private final int[] columns;
+        private final List<Predicate> predicates;
+        private BufferPool bufpool;
+        private ScanRing ring;
+        private int numPages;
+        private int nextPgno;
+        private Iterator<Tuple> pageTuples;
+
+        PaxFileIterator(TransactionId tid, int[] columns, List<Predicate> predicates) {
+            this.tid = tid;
+            this.columns = columns;
+            this.predicates = predicates;
+        }
+
+        @Override
+        public void open() throws DbException, TransactionAbortedException {
+            bufpool = Database.getBufferPool();
+            numPages = numPages();
+            if (ring == null && numPages > bufpool.getNumPages())
+                ring = bufpool.newScanRing();
+            nextPgno = 0;
+            pageTuples = null;
+        }
+
+        @Override
+        protected Tuple readNext() throws DbException, TransactionAbortedException {
+            if (bufpool == null) return null;
+            while (pageTuples == null || !pageTuples.hasNext()) {
+                if (nextPgno >= numPages) return null;
+                PageId pid = new HeapPageId(getId(), nextPgno++);
+                PaxPage page = (PaxPage) bufpool.getPage(tid, pid, Permissions.READ_ONLY, ring);
+                pageTuples = page.iterator(columns, predicates);
+            }
+            return pageTuples.next();
+        }
+
+        @Override
+        public void rewind() throws DbException, TransactionAbortedException {
+            if (bufpool == null) throw new IllegalStateException("iterator is not open");
+            close();
+            open();
+        }
+
+        @Override
+        public void close() {
+            super.close();
+            bufpool = null;
+            pageTuples = null;
+        }
+    }
+}
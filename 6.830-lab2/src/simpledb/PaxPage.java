@@ -0,0 +1,305 @@
+package simpledb;
+
+import java.util.*;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.text.ParseException;
+
+/**
+ * PaxPage stores data for one page of a PaxFile. It holds as many tuples as
+ * a HeapPage, but lays them out column by column (PAX, "partition
+ * attributes across"): after the header come one minipage per field, each
+ * holding the values of that field for all slots. A scan that reads a few
+ * fields of a wide table touches only their minipages.
+ * <p>
+ * Fields are kept in their serialized form and decoded when a tuple is
+ * built by the iterator, so changes write straight into the page bytes.
+ * As in HeapPage, methods that read or change slots synchronize on the
+ * page.
+ *
+ * @see PaxFile
+ * @see HeapPage
+ */
+public class PaxPage implements Page {
+
+    final HeapPageId pid;
+    final TupleDesc td;
+    final byte header[];
+    final int numSlots;
+    // offset of each field's minipage in data
+    private final int[] columnOffsets;
+    // the page, header included; the header itself is kept in header
+    private final byte[] data;
+    private int numEmpty;
+
+    byte[] oldData;
+    private final Object oldDataLock = new Object();
+    private boolean dirty;
+    private TransactionId dirby;
+
+    /**
+     * Create a PaxPage from a set of bytes of data read from disk.
+     * The format of a PaxPage is a set of header bytes indicating the
+     * slots of the page that are in use, followed by one minipage per
+     * field of the table, in field order. The minipage of field j holds
+     * numSlots values of field j, the value of slot i at
+     * <p>
+     *          i * (size of field j)
+     * <p>
+     * from its start. The number of slots and header bytes are the same
+     * as for a HeapPage of the same table.
+     *
+     * @see HeapPage#HeapPage(HeapPageId, byte[])
+     */
+    public PaxPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Create a PaxPage from a buffer holding one page of data, starting at
+     * the buffer's current position, which is advanced past the page.
+     *
+     * @see #PaxPage(HeapPageId, byte[])
+     */
+    public PaxPage(HeapPageId id, ByteBuffer buf) throws IOException {
+        this.pid = id;
+        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.numSlots = (BufferPool.getPageSize() * 8) / (td.getSize() * 8 + 1);
+        this.header = new byte[(numSlots + 7) / 8];
+
+        this.data = new byte[BufferPool.getPageSize()];
+        buf.get(data, 0, Math.min(data.length, buf.remaining()));
+        System.arraycopy(data, 0, header, 0, header.length);
+        for (int i = 0; i < numSlots; i++)
+            if (!isSlotUsed(i)) numEmpty++;
+
+        columnOffsets = new int[td.numFields()];
+        int off = header.length;
+        for (int j = 0; j < columnOffsets.length; j++) {
+            columnOffsets[j] = off;
+            off += numSlots * td.getFieldType(j).getLen();
+        }
+        oldData = data.clone();
+    }
+
+    /** Return a view of this page before it was modified
+        -- used by recovery */
+    public PaxPage getBeforeImage(){
+        try {
+            byte[] oldDataRef = null;
+            synchronized(oldDataLock)
+            {
+                oldDataRef = oldData;
+            }
+            return new PaxPage(pid,oldDataRef);
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        byte[] data = getPageData();
+        synchronized(oldDataLock)
+        {
+        oldData = data;
+        }
+    }
+
+    /**
+     * @return the PageId associated with this page.
+     */
+    public HeapPageId getId() {
+        return pid;
+    }
+
+    /**
+     * Generates a byte array representing the contents of this page.
+     * Passing it to the PaxPage constructor produces an identical page.
+     */
+    public byte[] getPageData() {
+        byte[] page = new byte[BufferPool.getPageSize()];
+        getPageData(ByteBuffer.wrap(page));
+        return page;
+    }
+
+    // see Page.java for javadocs
+    public synchronized void getPageData(ByteBuffer buf) {
+        buf.put(header);
+        buf.put(data, header.length, data.length - header.length);
+    }
+
+    /**
+     * Static method to generate a byte array corresponding to an empty
+     * PaxPage.
+     */
+    public static byte[] createEmptyPageData() {
+        return new byte[BufferPool.getPageSize()]; //all 0
+    }
+
+    /** @return the offset in the page data of the value of field j in slot i */
+    private int offset(int j, int i) {
+        return columnOffsets[j] + i * td.getFieldType(j).getLen();
+    }
+
+    /**
+     * Delete the specified tuple from the page; its values are cleared.
+     * @throws DbException if this tuple is not on this page, or tuple slot is
+     *         already empty.
+     */
+    public synchronized void deleteTuple(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !rid.getPageId().equals(pid)) throw new DbException("tuple not in this page");
+        int i = rid.tupleno();
+        if (i < 0 || i >= numSlots || !isSlotUsed(i)) throw new DbException("tuple has deleted");
+        for (int j = 0; j < columnOffsets.length; j++) {
+            int off = offset(j, i);
+            Arrays.fill(data, off, off + td.getFieldType(j).getLen(), (byte) 0);
+        }
+        markSlotUsed(i, false);
+    }
+
+    /**
+     * Adds the specified tuple to the first empty slot of the page; the
+     * tuple's RecordId is updated to reflect where it is now stored.
+     * @throws DbException if the page is full (no empty slots) or tupledesc
+     *         is mismatch.
+     */
+    public synchronized void insertTuple(Tuple t) throws DbException {
+        if (!td.equals(t.getTupleDesc())) throw new DbException("can't fit tupledesc");
+        for (int i = 0; i < numSlots; i++) {
+            if (!isSlotUsed(i)) {
+                for (int j = 0; j < columnOffsets.length; j++)
+                    t.getField(j).serialize(ByteBuffer.wrap(data, offset(j, i), td.getFieldType(j).getLen()));
+                t.setRecordId(new RecordId(pid, i));
+                markSlotUsed(i, true);
+                return;
+            }
+        }
+        throw new DbException("page has no room");
+    }
+
+    /**
+     * Marks this page as dirty/not dirty and record that transaction
+     * that did the dirtying
+     */
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirty = dirty;
+        this.dirby = tid;
+    }
+
+    /**
+     * Returns the tid of the transaction that last dirtied this page, or null if the page is not dirty
+     */
+    public TransactionId isDirty() {
+        if (dirty) return dirby;
+        else return null;
+    }
+
+    /**
+     * Returns the number of empty slots on this page.
+     */
+    public synchronized int getNumEmptySlots() {
+        return numEmpty;
+    }
+
+    /**
+     * Returns true if associated slot on this page is filled.
+     */
+    public boolean isSlotUsed(int i) {
+        if (i >= numSlots) return false;
+        return (header[i / 8] & (0x1 << (i % 8))) != 0;
+    }
+
+    private void markSlotUsed(int i, boolean value) {
+        if (isSlotUsed(i) == value) return;
+        numEmpty += value ? -1 : 1;
+        if (value)
+            header[i / 8] |= (0x1 << (i % 8));
+        else
+            header[i / 8] &= ~(0x1 << (i % 8));
+    }
+
+    /**
+     * @return an iterator over all tuples on this page, with all fields
+     *   (calling remove on this iterator throws an UnsupportedOperationException)
+     */
+    public Iterator<Tuple> iterator() {
+        return iterator(null, null);
+    }
+
+    /**
+     * Returns an iterator over the tuples on this page that pass all of
+     * predicates, filling in only the fields in columns. The other fields
+     * of the returned tuples are null, and their minipages aren't read.
+     * Predicates are evaluated on the serialized values (see
+     * {@link Predicate#filter(byte[], int)}), so their fields don't need to
+     * be in columns.
+     *
+     * @param columns the fields to fill in, or null for all of them
+     * @param predicates the predicates to apply, or null for none
+     */
+    public Iterator<Tuple> iterator(int[] columns, List<Predicate> predicates) {
+        if (columns == null) {
+            columns = new int[td.numFields()];
+            for (int j = 0; j < columns.length; j++)
+                columns[j] = j;
+        }
+        final int[] cols = columns;
+        final Predicate[] preds = predicates == null
+                ? new Predicate[0] : predicates.toArray(new Predicate[0]);
+
+        return new Iterator<Tuple>() {
+            private int next = -1;
+            private Tuple nextTuple = advance();
+
+            // finds the next tuple that passes, or returns null
+            private Tuple advance() {
+                synchronized (PaxPage.this) {
+                    while (++next < numSlots) {
+                        if (!isSlotUsed(next) || !passes(next)) continue;
+                        return decode(next);
+                    }
+                }
+                return null;
+            }
+
+            private boolean passes(int i) {
+                for (Predicate p : preds)
+                    if (!p.filter(data, offset(p.getField(), i))) return false;
+                return true;
+            }
+
+            private Tuple decode(int i) {
+                Tuple t = new Tuple(td);
+                for (int j : cols) {
+                    Type type = td.getFieldType(j);
+                    try {
+                        t.setField(j, type.parse(ByteBuffer.wrap(data, offset(j, i), type.getLen())));
+                    } catch (ParseException e) {
+                        throw new NoSuchElementException("parsing error!");
+                    }
+                }
+                t.setRecordId(new RecordId(pid, i));
+                return t;
+            }
+
+            public boolean hasNext() {
+                return nextTuple != null;
+            }
+
+            public Tuple next() {
+                if (nextTuple == null) throw new NoSuchElementException();
+                Tuple t = nextTuple;
+                nextTuple = advance();
+                return t;
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+}
@@ -1,11 +1,16 @@
 package simpledb;
 
+import java.nio.ByteBuffer;
+
 /** Predicate compares tuples to a specified Field value.
  */
 public class Predicate {
     private int field;
     private Op op;
     private Field operand;
+    // the operand as stored in a page, for comparing serialized strings;
+    // null if it isn't plain ASCII and so must be compared decoded
+    private byte[] operandBytes;
     /** Constants used for return codes in Field.compare */
     public enum Op {
         EQUALS, GREATER_THAN, LESS_THAN, LESS_THAN_OR_EQ, GREATER_THAN_OR_EQ, LIKE, NOT_EQUALS;
@@ -43,6 +48,39 @@ public class Predicate {
         this.field = field;
         this.op = op;
         this.operand = operand;
+        if (operand instanceof StringField)
+            operandBytes = asciiBytes(((StringField) operand).getValue());
+    }
+
+    private static byte[] asciiBytes(String s) {
+        byte[] b = new byte[s.length()];
+        for (int i = 0; i < b.length; i++) {
+            char c = s.charAt(i);
+            if (c >= 0x80) return null;
+            b[i] = (byte) c;
+        }
+        return b;
+    }
+
+    /**
+     * @return the field number
+     */
+    public int getField() {
+        return field;
+    }
+
+    /**
+     * @return the operator
+     */
+    public Op getOp() {
+        return op;
+    }
+
+    /**
+     * @return the operand
+     */
+    public Field getOperand() {
+        return operand;
     }
 
     /**
@@ -59,6 +97,109 @@ public class Predicate {
         return t.getField(field).compare(op,operand);
     }
 
+    /**
+     * Like {@link #filter(Tuple)}, but compares the field as serialized in a
+     * HeapPage, so that a tuple that doesn't pass never has to be decoded.
+     * An INT_TYPE field is read as an int at offset; a STRING_TYPE field is
+     * compared byte by byte after its length prefix, falling back to
+     * decoding it only if either string isn't plain ASCII.
+     *
+     * @param data the serialized data
+     * @param offset the offset in data at which the field starts
+     * @return true if the comparison is true, false otherwise.
+     */
+    public boolean filter(byte[] data, int offset) {
+        return filter(ByteBuffer.wrap(data), offset);
+    }
+
+    /**
+     * Like {@link #filter(byte[], int)}, on the serialized data in a buffer,
+     * such as a slice of a mapped file. The buffer's position is ignored
+     * and left as it is.
+     *
+     * @param data the serialized data
+     * @param offset the index in data at which the field starts
+     * @return true if the comparison is true, false otherwise.
+     */
+    public boolean filter(ByteBuffer data, int offset) {
+        if (operand.getType() == Type.INT_TYPE) {
+            int value = data.getInt(offset);
+            int other = ((IntField) operand).getValue();
+            switch (op) {
+            case EQUALS:
+            case LIKE:
+                return value == other;
+            case NOT_EQUALS:
+                return value != other;
+            case GREATER_THAN:
+                return value > other;
+            case GREATER_THAN_OR_EQ:
+                return value >= other;
+            case LESS_THAN:
+                return value < other;
+            case LESS_THAN_OR_EQ:
+                return value <= other;
+            }
+            return false;
+        }
+
+        int len = data.getInt(offset);
+        int start = offset + 4;
+        byte[] other = operandBytes;
+        if (other == null || !isAscii(data, start, len))
+            return decoded(data, start, len);
+        switch (op) {
+        case EQUALS:
+            return len == other.length && compare(data, start, len, other) == 0;
+        case NOT_EQUALS:
+            return len != other.length || compare(data, start, len, other) != 0;
+        case GREATER_THAN:
+            return compare(data, start, len, other) > 0;
+        case GREATER_THAN_OR_EQ:
+            return compare(data, start, len, other) >= 0;
+        case LESS_THAN:
+            return compare(data, start, len, other) < 0;
+        case LESS_THAN_OR_EQ:
+            return compare(data, start, len, other) <= 0;
+        case LIKE:
+            return contains(data, start, len, other);
+        }
+        return false;
+    }
+
+    private static boolean isAscii(ByteBuffer data, int start, int len) {
+        for (int i = start; i < start + len; i++)
+            if (data.get(i) < 0) return false;
+        return true;
+    }
+
+    /** Compares like String.compareTo, which for ASCII is the byte order. */
+    private static int compare(ByteBuffer data, int start, int len, byte[] other) {
+        int n = Math.min(len, other.length);
+        for (int i = 0; i < n; i++) {
+            int d = data.get(start + i) - other[i];
+            if (d != 0) return d;
+        }
+        return len - other.length;
+    }
+
+    private static boolean contains(ByteBuffer data, int start, int len, byte[] other) {
+        outer:
+        for (int i = start; i <= start + len - other.length; i++) {
+            for (int j = 0; j < other.length; j++)
+                if (data.get(i + j) != other[j]) continue outer;
+            return true;
+        }
+        return false;
+    }
+
+    private boolean decoded(ByteBuffer data, int start, int len) {
+        byte[] bytes = new byte[len];
+        for (int i = 0; i < len; i++)
+            bytes[i] = data.get(start + i);
+        return new StringField(new String(bytes), Type.STRING_LEN).compare(op, operand);
+    }
+
     /**
      * Returns something useful, like
      * "f = field_id op = op_string operand = operand_string
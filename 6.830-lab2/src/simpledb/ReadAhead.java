@@ -0,0 +1,225 @@
+package simpledb;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ReadAhead notices when buffer pool misses on a HeapFile come in page order
+ * and reads the next few pages on a background I/O thread, so a sequential
+ * scan finds them already read when it gets there. Only misses are tracked,
+ * which keeps it off the buffer pool's hit path; a scan over cached pages
+ * needs no prefetching anyway.
+ * <p>
+ * Prefetched pages are kept in a small staging area outside the buffer pool
+ * until a miss in {@link BufferPool#getPage} claims them; they never take
+ * frames from, or disturb the eviction order of, the pool. The prefetch
+ * window starts at {@link #MIN_WINDOW} pages and doubles, up to
+ * {@link #MAX_WINDOW}, for as long as the access stays sequential. Runs
+ * are tracked per transaction and table, so concurrent scans of one table
+ * don't break each other's runs. Any out-of-order access resets the
+ * window of its run and drops the pages staged for it.
+ * <p>
+ * The buffer pool discards a page's staged copy whenever it writes the page,
+ * so a prefetch never outlives a change to the page on disk.
+ *
+ * @see BufferPool
+ */
+public class ReadAhead {
+
+    static final int MIN_WINDOW = 4;
+    static final int MAX_WINDOW = 64;
+    /** Upper bound on the number of staged pages, across all tables. */
+    static final int MAX_STAGED = 2 * MAX_WINDOW;
+    static final int IO_THREADS = 2;
+
+    private static ExecutorService executor;
+
+    private final BufferPool pool;
+    private final ConcurrentHashMap<PageId, Future<Page>> staged =
+            new ConcurrentHashMap<PageId, Future<Page>>();
+    private final ConcurrentHashMap<StreamKey, Stream> streams =
+            new ConcurrentHashMap<StreamKey, Stream>();
+
+    private final AtomicLong issued = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong wasted = new AtomicLong();
+
+    /** A table as read by one transaction, or outside any if tid is null. */
+    private static class StreamKey {
+        final TransactionId tid;
+        final int tableId;
+
+        StreamKey(TransactionId tid, int tableId) {
+            this.tid = tid;
+            this.tableId = tableId;
+        }
+
+        public boolean equals(Object o) {
+            if (!(o instanceof StreamKey)) return false;
+            StreamKey k = (StreamKey) o;
+            return tableId == k.tableId && (tid == null ? k.tid == null : tid.equals(k.tid));
+        }
+
+        public int hashCode() {
+            return 31 * (tid == null ? 0 : tid.hashCode()) + tableId;
+        }
+    }
+
+    /** Sequential access state of one table, as read by one transaction. */
+    private static class Stream {
+        int last = -2;
+        int window = MIN_WINDOW;
+        // highest page number prefetched so far
+        int prefetchedTo = -1;
+    }
+
+    ReadAhead(BufferPool pool) {
+        this.pool = pool;
+    }
+
+    /** The I/O threads are shared by all buffer pools and don't keep the VM alive. */
+    private static synchronized ExecutorService executor() {
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(IO_THREADS, new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "simpledb-readahead");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return executor;
+    }
+
+    /**
+     * Records a buffer pool miss on pid by tid and, if it continues a
+     * sequential run of tid's, prefetches the pages ahead of it.
+     */
+    void accessed(TransactionId tid, PageId pid) {
+        if (!(pid instanceof HeapPageId)) return;
+        DbFile file;
+        try {
+            file = Database.getCatalog().getDatabaseFile(pid.getTableId());
+        } catch (java.util.NoSuchElementException e) {
+            return;
+        }
+        if (!(file instanceof HeapFile)) return;
+
+        StreamKey key = new StreamKey(tid, pid.getTableId());
+        Stream s = streams.get(key);
+        if (s == null) {
+            streams.putIfAbsent(key, new Stream());
+            s = streams.get(key);
+        }
+        int pgno = pid.pageNumber();
+        int from, to;
+        synchronized (s) {
+            if (pgno == s.last) return;
+            if (pgno != s.last + 1) {
+                // the run is broken; whatever was staged ahead of it is wasted
+                for (int i = Math.max(0, s.last + 1); i <= s.prefetchedTo; i++)
+                    discard(new HeapPageId(pid.getTableId(), i));
+                s.last = pgno;
+                s.window = MIN_WINDOW;
+                s.prefetchedTo = pgno;
+                return;
+            }
+            s.last = pgno;
+            // issue the next batch once half of the current one is used up
+            if (s.prefetchedTo - pgno > s.window / 2) return;
+            from = Math.max(s.prefetchedTo, pgno) + 1;
+            to = Math.min(pgno + s.window, ((HeapFile) file).numPages() - 1);
+            if (to < from) return;
+            s.prefetchedTo = to;
+            s.window = Math.min(MAX_WINDOW, s.window * 2);
+        }
+        for (int i = from; i <= to; i++)
+            issue(file, new HeapPageId(pid.getTableId(), i));
+    }
+
+    private void issue(final DbFile file, final PageId pid) {
+        if (pool.isCached(pid) || staged.size() >= MAX_STAGED) return;
+        FutureTask<Page> task = new FutureTask<Page>(new Callable<Page>() {
+            public Page call() {
+                return file.readPage(pid);
+            }
+        });
+        if (staged.putIfAbsent(pid, task) != null) return;
+        // the page may have been read into the pool since it was checked, and
+        // then be written without the pool knowing about this copy
+        if (pool.isCached(pid)) {
+            staged.remove(pid, task);
+            return;
+        }
+        issued.incrementAndGet();
+        executor().execute(task);
+    }
+
+    /**
+     * Reads pid from file, using the prefetched copy if there is one.
+     */
+    Page readPage(DbFile file, PageId pid) {
+        Future<Page> f = staged.remove(pid);
+        if (f != null) {
+            try {
+                Page page = f.get();
+                hits.incrementAndGet();
+                return page;
+            } catch (ExecutionException e) {
+                // the prefetch failed; fall back to a synchronous read
+                wasted.incrementAndGet();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                wasted.incrementAndGet();
+            }
+        }
+        return file.readPage(pid);
+    }
+
+    /** Drops the staged copy of pid, if any, e.g. because the page changed. */
+    void discard(PageId pid) {
+        Future<Page> f = staged.remove(pid);
+        if (f != null) {
+            f.cancel(false);
+            wasted.incrementAndGet();
+        }
+    }
+
+    /**
+     * Forgets the runs of tid. Pages already staged for them stay until
+     * they are claimed or discarded.
+     */
+    void transactionComplete(TransactionId tid) {
+        for (StreamKey key : streams.keySet()) {
+            if (tid.equals(key.tid))
+                streams.remove(key);
+        }
+    }
+
+    /** @return the number of pages prefetched so far */
+    public long getIssuedCount() {
+        return issued.get();
+    }
+
+    /** @return the number of prefetched pages that were later requested */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /** @return the number of prefetched pages that were dropped unused */
+    public long getWastedCount() {
+        return wasted.get();
+    }
+
+    /** @return the fraction of prefetched pages that were used, or 0 if none were issued */
+    public double getHitRate() {
+        long n = issued.get();
+        return n == 0 ? 0.0 : (double) hits.get() / n;
+    }
+
+    /** @return the fraction of prefetched pages that were dropped unused, or 0 if none were issued */
+    public double getWasteRate() {
+        long n = issued.get();
+        return n == 0 ? 0.0 : (double) wasted.get() / n;
+    }
+}
@@ -0,0 +1,57 @@
+package simpledb;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Records buffer pool hits for an eviction policy without taking the
+ * policy's lock. Hits are appended to one of several queues, picked by
+ * thread, and the policy replays them in batches whenever it holds its lock
+ * anyway, or when a queue has filled up and the lock happens to be free.
+ * Policies that keep an exact recency order (LRU, 2Q) use this so that
+ * buffer pool hits never block on a global lock.
+ */
+class ReadBuffer {
+
+    private static final int STRIPES = 16; // power of two
+    /** Number of pending hits in a queue after which a drain is requested. */
+    static final int DRAIN_THRESHOLD = 64;
+
+    /** Receives the hits replayed by {@link ReadBuffer#drain}. */
+    interface Sink {
+        void replay(PageId pid);
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private final ConcurrentLinkedQueue<PageId>[] queues = new ConcurrentLinkedQueue[STRIPES];
+    private final AtomicInteger[] pending = new AtomicInteger[STRIPES];
+
+    ReadBuffer() {
+        for (int i = 0; i < STRIPES; i++) {
+            queues[i] = new ConcurrentLinkedQueue<PageId>();
+            pending[i] = new AtomicInteger();
+        }
+    }
+
+    /**
+     * Records a hit on pid.
+     *
+     * @return true if the caller should try to drain the buffer
+     */
+    boolean record(PageId pid) {
+        int i = (int) Thread.currentThread().getId() & (STRIPES - 1);
+        queues[i].offer(pid);
+        return pending[i].incrementAndGet() >= DRAIN_THRESHOLD;
+    }
+
+    /** Replays all recorded hits into sink. Callers must hold the policy's lock. */
+    void drain(Sink sink) {
+        for (int i = 0; i < STRIPES; i++) {
+            PageId pid;
+            while ((pid = queues[i].poll()) != null) {
+                pending[i].decrementAndGet();
+                sink.replay(pid);
+            }
+        }
+    }
+}
@@ -67,8 +67,8 @@ public class RecordId implements Serializable {
     @Override
     public int hashCode() {
         // some code goes here
-        return (Integer.toString(getPageId().hashCode()) + Integer.toString(tupleno())).hashCode();
-
+        // RecordIds key the lock table, so no string building here
+        return getPageId().hashCode() * 31 + tupleno();
     }
 
 }
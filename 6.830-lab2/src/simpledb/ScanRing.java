@@ -0,0 +1,45 @@
+package simpledb;
+
+/**
+ * ScanRing is a small, fixed number of buffer pool frames that a large
+ * sequential scan recycles instead of competing for frames with everything
+ * else, much like PostgreSQL's bulk-read buffer access strategy. Pages a
+ * scan brings in through its ring are not handed to the pool's eviction
+ * policy, so one scan over a big table can't flush the hot pages of other
+ * tables; once the scan wraps around the ring it reuses its own frames.
+ * <p>
+ * A page read through a ring that is later requested without one is
+ * promoted into the main pool.
+ *
+ * @see BufferPool#newScanRing()
+ * @see BufferPool#getPage(TransactionId, PageId, Permissions, ScanRing)
+ */
+public class ScanRing {
+
+    private final PageId[] slots;
+    private int next = 0;
+
+    /**
+     * @param size the number of frames in the ring
+     */
+    public ScanRing(int size) {
+        slots = new PageId[size];
+    }
+
+    /** @return the number of frames in this ring */
+    public int size() {
+        return slots.length;
+    }
+
+    /**
+     * Assigns the next frame of the ring to pid.
+     *
+     * @return the page that previously occupied that frame, or null
+     */
+    synchronized PageId replaceNext(PageId pid) {
+        PageId old = slots[next];
+        slots[next] = pid;
+        next = (next + 1) % slots.length;
+        return old;
+    }
+}
@@ -13,8 +13,12 @@ public class SeqScan implements DbIterator {
     private TransactionId tid;
     private int tableid;
     private String tableAlias;
-    private HeapFile hf;
+    private DbFile file;
     private DbFileIterator iterator;
+    // predicates pushed down into the scan, applied to each tuple
+    private final ArrayList<Predicate> predicates = new ArrayList<Predicate>();
+    // the fields the tuples must have, or null for all of them
+    private int[] columns;
 
     /**
      * Creates a sequential scan over the specified table as a part of the
@@ -37,8 +41,94 @@ public class SeqScan implements DbIterator {
         this.tid = tid;
         this.tableid = tableid;
         this.tableAlias = tableAlias;
-        this.hf = (HeapFile) Database.getCatalog().getDatabaseFile(tableid);
-        this.iterator = hf.iterator(tid);
+        this.file = Database.getCatalog().getDatabaseFile(tableid);
+        this.iterator = newIterator();
+    }
+
+    /**
+     * Returns an iterator over file that applies the predicates and reads
+     * the columns of this scan in the cheapest way the file allows.
+     */
+    private DbFileIterator newIterator() {
+        if (file instanceof PaxFile)
+            return ((PaxFile) file).iterator(tid, columns, predicates);
+        // HeapFile tuples decode only the fields that are read anyway
+        if (file instanceof HeapFile)
+            return ((HeapFile) file).iterator(tid, predicates);
+        if (predicates.isEmpty())
+            return file.iterator(tid);
+        // a B+ tree reads only the leaves in range of a predicate on its key
+        IndexPredicate ipred = file instanceof BTreeFile
+                ? ((BTreeFile) file).indexPredicate(predicates) : null;
+        final DbFileIterator all = ipred != null
+                ? ((BTreeFile) file).indexIterator(tid, ipred) : file.iterator(tid);
+        return new AbstractDbFileIterator() {
+            public void open() throws DbException, TransactionAbortedException {
+                all.open();
+            }
+
+            protected Tuple readNext() throws DbException, TransactionAbortedException {
+                next:
+                while (all.hasNext()) {
+                    Tuple t = all.next();
+                    for (Predicate p : predicates)
+                        if (!p.filter(t)) continue next;
+                    return t;
+                }
+                return null;
+            }
+
+            public void rewind() throws DbException, TransactionAbortedException {
+                super.close();
+                all.rewind();
+            }
+
+            public void close() {
+                super.close();
+                all.close();
+            }
+        };
+    }
+
+    /**
+     * Adds a predicate that tuples must pass to be returned by this scan.
+     * It is evaluated inside the pages on the serialized tuples, so unlike
+     * a Filter above the scan, tuples that don't pass are never decoded.
+     * Must be called before the scan is opened.
+     *
+     * @param p the predicate, with a field number of the scanned table
+     */
+    public void addPredicate(Predicate p) {
+        predicates.add(p);
+        iterator = newIterator();
+    }
+
+    /**
+     * Limits the fields this scan has to fill in to columns, e.g. the ones
+     * a Project above it asks for. Other fields of the returned tuples may
+     * be null. A PaxFile then only reads the minipages of those columns.
+     * Must be called before the scan is opened.
+     *
+     * @param columns field numbers of the scanned table, or null for all
+     */
+    public void setColumns(int[] columns) {
+        this.columns = columns;
+        iterator = newIterator();
+    }
+
+    /** @return the fields this scan fills in, or null if it fills in all */
+    public int[] getColumns() {
+        return columns;
+    }
+
+    /** @return the predicates pushed down into this scan */
+    public List<Predicate> getPredicates() {
+        return predicates;
+    }
+
+    /** @return the transaction this scan runs as a part of */
+    public TransactionId getTransactionId() {
+        return tid;
     }
 
     /**
@@ -87,17 +177,17 @@ public class SeqScan implements DbIterator {
     }
 
     /**
-     * Returns the TupleDesc with field names from the underlying HeapFile,
+     * Returns the TupleDesc with field names from the underlying DbFile,
      * prefixed with the tableAlias string from the constructor. This prefix
      * becomes useful when joining tables containing a field(s) with the same
      * name.
      * 
-     * @return the TupleDesc with field names from the underlying HeapFile,
+     * @return the TupleDesc with field names from the underlying DbFile,
      *         prefixed with the tableAlias string from the constructor.
      */
     public TupleDesc getTupleDesc() {
         // some code goes here
-        TupleDesc olddesc =  hf.getTupleDesc();
+        TupleDesc olddesc =  file.getTupleDesc();
         Iterator<TupleDesc.TDItem> iterator = olddesc.iterator();
         ArrayList<TupleDesc.TDItem> arrayList = new ArrayList<>();
         ArrayList<TupleDesc.TDItem> newarrayList = new ArrayList<>();
@@ -105,9 +195,9 @@ public class SeqScan implements DbIterator {
             arrayList.add(iterator.next());
         }
         for (TupleDesc.TDItem  tditem : arrayList){
-            newarrayList.add(new TupleDesc.TDItem(tditem.fieldType,tableAlias + "_"+tditem.fieldName));
+            newarrayList.add(new TupleDesc.TDItem(tditem.fieldType,tableAlias + "."+tditem.fieldName));
         }
-        return new TupleDesc((TupleDesc.TDItem[]) newarrayList.toArray());
+        return new TupleDesc(newarrayList.toArray(new TupleDesc.TDItem[newarrayList.size()]));
 
     }
 
@@ -7,6 +7,31 @@ public class SimpleDb {
         // convert a file
         if(args[0].equals("convert")) {
         try {
+            // --pax, --compress and --threads N may appear anywhere after "convert"
+            boolean pax = false;
+            boolean compress = false;
+            for (int i = 1; i < args.length; i++) {
+                if (args[i].equals("--pax") || args[i].equals("--compress")) {
+                    if (args[i].equals("--pax")) pax = true;
+                    else compress = true;
+                    String[] rest = new String[args.length - 1];
+                    System.arraycopy(args, 0, rest, 0, i);
+                    System.arraycopy(args, i + 1, rest, i, args.length - i - 1);
+                    args = rest;
+                    i--;
+                }
+            }
+            int threads = 1;
+            for (int i = 1; i < args.length - 1; i++) {
+                if (args[i].equals("--threads")) {
+                    threads = Integer.parseInt(args[i + 1]);
+                    String[] rest = new String[args.length - 2];
+                    System.arraycopy(args, 0, rest, 0, i);
+                    System.arraycopy(args, i + 2, rest, i, args.length - i - 2);
+                    args = rest;
+                    break;
+                }
+            }
             if (args.length<3 || args.length>5){
                 System.err.println("Unexpected number of arguments to convert ");
                 return;
@@ -43,8 +68,24 @@ public class SimpleDb {
                     fieldSeparator=args[4].charAt(0);
             }
 
-            HeapFileEncoder.convert(sourceTxtFile,targetDatFile,
-                        BufferPool.getPageSize(),numOfAttributes,ts,fieldSeparator);
+            if (pax && compress) {
+                System.err.println("--pax and --compress can't be combined");
+                return;
+            }
+            if (pax)
+                HeapFileEncoder.convertPax(sourceTxtFile,targetDatFile,
+                        BufferPool.getPageSize(),numOfAttributes,ts,fieldSeparator,threads);
+            else
+                HeapFileEncoder.convert(sourceTxtFile,targetDatFile,
+                        BufferPool.getPageSize(),numOfAttributes,ts,fieldSeparator,threads);
+            if (compress) {
+                // the heap file is written first and then replaced by its compressed copy
+                File heap = new File(targetDatFile.getPath() + ".heap");
+                if (!targetDatFile.renameTo(heap))
+                    throw new IOException("can't rename " + targetDatFile);
+                CompressedHeapFile.compress(heap, new TupleDesc(ts), targetDatFile);
+                heap.delete();
+            }
 
         } catch (IOException e) {
                 throw new RuntimeException(e);
@@ -0,0 +1,349 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * SlottedFile is a DbFile that stores tuples with variable-length strings
+ * in SlottedPages. Tables whose strings are mostly short take a fraction of
+ * the pages of a HeapFile, so scans read that much less. Strings longer
+ * than {@link SlottedPage#INLINE_MAX} are stored in chains of overflow
+ * pages of the same file, which are freed (turned back into empty data
+ * pages) when their tuple is deleted. Tables are listed in a catalog file
+ * with the "slotted" table option.
+ * <p>
+ * Like PaxFile, SlottedFile takes page-level locks only and doesn't
+ * support record-level locking.
+ *
+ * @see SlottedPage
+ * @see HeapFile
+ */
+public class SlottedFile implements DbFile {
+
+    private final File f;
+    private final TupleDesc td;
+    // see HeapFile.channel
+    private volatile FileChannel channel;
+
+    /**
+     * Constructs a slotted file backed by the specified file.
+     *
+     * @param f the file that stores the on-disk backing store for this file
+     * @param td the schema of the table
+     */
+    public SlottedFile(File f, TupleDesc td) {
+        this.f = f;
+        this.td = td;
+    }
+
+    private FileChannel getChannel() throws IOException {
+        FileChannel fc = channel;
+        if (fc == null) {
+            synchronized (this) {
+                fc = channel;
+                if (fc == null) {
+                    fc = new RandomAccessFile(f, "rw").getChannel();
+                    channel = fc;
+                }
+            }
+        }
+        return fc;
+    }
+
+    /**
+     * Closes the channel backing this SlottedFile, if it has been opened.
+     * The channel is reopened on the next read or write.
+     */
+    public synchronized void close() {
+        if (channel == null) return;
+        try {
+            channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        channel = null;
+    }
+
+    /**
+     * Returns the File backing this SlottedFile on disk.
+     */
+    public File getFile() {
+        return f;
+    }
+
+    /**
+     * Returns an ID uniquely identifying this SlottedFile, the hash code of
+     * the absolute file name, as for a HeapFile.
+     */
+    public int getId() {
+        return f.getAbsoluteFile().hashCode();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        int pgno = pid.pageNumber();
+        long offset = (long) pgno * BufferPool.getPageSize();
+        ByteBuffer buf = ByteBuffer.allocate(BufferPool.getPageSize());
+        try {
+            FileChannel fc = getChannel();
+            while (buf.hasRemaining()) {
+                int n = fc.read(buf, offset + buf.position());
+                if (n < 0) break;
+            }
+            if (buf.position() == 0)
+                throw new IllegalArgumentException("page " + pgno + " does not exist");
+            // a short last page reads as if padded with zeroes
+            buf.clear();
+            return new SlottedPage(new HeapPageId(pid.getTableId(), pgno), buf);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("IOException", e);
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        long offset = (long) page.getId().pageNumber() * BufferPool.getPageSize();
+        ByteBuffer buf = ByteBuffer.allocate(BufferPool.getPageSize());
+        page.getPageData(buf);
+        buf.flip();
+        FileChannel fc = getChannel();
+        while (buf.hasRemaining()) {
+            fc.write(buf, offset + buf.position());
+        }
+    }
+
+    /**
+     * Returns the number of pages in this SlottedFile, overflow pages
+     * included.
+     */
+    public int numPages() {
+        return (int) (f.length() / BufferPool.getPageSize());
+    }
+
+    private void checkPageLocking() throws DbException {
+        if (Database.getBufferPool().isRecordLocking())
+            throw new DbException("SlottedFile " + f + " doesn't support record-level locking");
+    }
+
+    /**
+     * Appends an empty data page to the file and returns it, locked for
+     * writing by tid. The page is locked before it is written, so no other
+     * transaction's insert can take it as an empty data page while
+     * writeOverflow is about to turn it into an overflow page.
+     */
+    private SlottedPage appendPage(TransactionId tid)
+            throws DbException, IOException, TransactionAbortedException {
+        HeapPageId pid;
+        synchronized (this) {
+            // as in HeapFile, appends are serialized
+            pid = new HeapPageId(getId(), numPages());
+            // no one else can see pid yet, so this doesn't wait
+            if (tid != null)
+                Database.getBufferPool().getLockManager().acquire(tid, pid, Permissions.READ_WRITE);
+            writePage(new SlottedPage(pid, SlottedPage.createEmptyPageData()));
+        }
+        return (SlottedPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        checkPageLocking();
+        if (!td.equals(t.getTupleDesc())) throw new DbException("can't fit tupledesc");
+        ArrayList<Page> modified = new ArrayList<Page>();
+
+        // long strings go to overflow pages first, so the record can point at them
+        int[] overflow = new int[td.numFields()];
+        for (int j = 0; j < overflow.length; j++) {
+            Field field = t.getField(j);
+            overflow[j] = SlottedPage.needsOverflow(field)
+                    ? writeOverflow(tid, ((StringField) field).getValue(), modified) : -1;
+        }
+        byte[] record = SlottedPage.encode(td, t, overflow);
+        if (record.length > SlottedPage.maxRecordSize())
+            throw new DbException("tuple of " + record.length + " bytes doesn't fit on a page");
+
+        BufferPool bufpool = Database.getBufferPool();
+        int numpages = numPages();
+        SlottedPage page = null;
+        for (int i = 0; i < numpages; i++) {
+            HeapPageId pid = new HeapPageId(getId(), i);
+            boolean held = bufpool.holdsLock(tid, pid);
+            SlottedPage p = (SlottedPage) bufpool.getPage(tid, pid, Permissions.READ_ONLY);
+            if (p.canHold(record.length)) {
+                p = (SlottedPage) bufpool.getPage(tid, pid, Permissions.READ_WRITE);
+                if (p.canHold(record.length)) {
+                    page = p;
+                    break;
+                }
+            }
+            if (!held) bufpool.releasePage(tid, pid);
+        }
+        if (page == null) page = appendPage(tid);
+        int slot = page.insertRecord(record);
+        t.setRecordId(new RecordId(page.getId(), slot));
+        modified.add(page);
+        return modified;
+    }
+
+    /**
+     * Stores value in a chain of new overflow pages, which are added to
+     * modified.
+     *
+     * @return the number of the first page of the chain
+     */
+    private int writeOverflow(TransactionId tid, String value, ArrayList<Page> modified)
+            throws DbException, IOException, TransactionAbortedException {
+        // like StringField.serializeVar, only the low byte of each char is kept
+        byte[] bytes = new byte[value.length()];
+        for (int i = 0; i < bytes.length; i++)
+            bytes[i] = (byte) value.charAt(i);
+        int capacity = SlottedPage.overflowCapacity();
+        // written back to front, so that each page knows the next one
+        int next = -1;
+        for (int end = bytes.length; end > 0; ) {
+            int start = (end - 1) / capacity * capacity;
+            SlottedPage page = appendPage(tid);
+            page.setOverflow(next, bytes, start, end - start);
+            modified.add(page);
+            next = page.getId().pageNumber();
+            end = start;
+        }
+        return next;
+    }
+
+    /**
+     * Reads the string of len bytes stored in the overflow chain starting
+     * at page first.
+     */
+    private StringField readOverflow(TransactionId tid, int len, int first)
+            throws DbException, TransactionAbortedException {
+        byte[] bytes = new byte[len];
+        int off = 0;
+        for (int pgno = first; pgno >= 0 && off < len; ) {
+            SlottedPage page = (SlottedPage) Database.getBufferPool().getPage(tid,
+                    new HeapPageId(getId(), pgno), Permissions.READ_ONLY);
+            off += page.getOverflowBytes(bytes, off);
+            pgno = page.getNextOverflow();
+        }
+        return new StringField(new String(bytes, StandardCharsets.ISO_8859_1), Math.max(Type.STRING_LEN, len));
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> insertTuples(TransactionId tid, Iterator<Tuple> tuples)
+            throws DbException, IOException, TransactionAbortedException {
+        LinkedHashSet<Page> modified = new LinkedHashSet<Page>();
+        while (tuples.hasNext())
+            modified.addAll(insertTuple(tid, tuples.next()));
+        return new ArrayList<Page>(modified);
+    }
+
+    // see DbFile.java for javadocs
+    public Page deleteTuple(final TransactionId tid, Tuple t) throws DbException,
+            TransactionAbortedException {
+        checkPageLocking();
+        RecordId rid = t.getRecordId();
+        PageId pid = rid.getPageId();
+        if (pid.getTableId() != getId()) throw new DbException("not a same table");
+        final BufferPool bufpool = Database.getBufferPool();
+        SlottedPage page = (SlottedPage) bufpool.getPage(tid, pid, Permissions.READ_WRITE);
+        byte[] record = page.deleteRecord(rid.tupleno());
+        // free the overflow chains of the record's long strings
+        SlottedPage.decode(td, record, new SlottedPage.OverflowVisitor() {
+            public void visit(int field, int len, int first)
+                    throws DbException, TransactionAbortedException {
+                for (int pgno = first; pgno >= 0; ) {
+                    SlottedPage overflow = (SlottedPage) bufpool.getPage(tid,
+                            new HeapPageId(getId(), pgno), Permissions.READ_WRITE);
+                    pgno = overflow.getNextOverflow();
+                    overflow.clear();
+                    overflow.markDirty(true, tid);
+                }
+            }
+        });
+        return page;
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid) {
+        return new SlottedFileIterator(tid);
+    }
+
+    /** Streams the tuples of this file one data page at a time, like HeapFile's iterator. */
+    private class SlottedFileIterator extends AbstractDbFileIterator {
+
+        private final TransactionId tid;
+        private BufferPool bufpool;
+        private ScanRing ring;
+        private int numPages;
+        private int nextPgno;
+        private HeapPageId pid;
+        private byte[][] records;
+        private int nextSlot;
+
+        SlottedFileIterator(TransactionId tid) {
+            this.tid = tid;
+        }
+
+        @Override
+        public void open() throws DbException, TransactionAbortedException {
+            bufpool = Database.getBufferPool();
+            numPages = numPages();
+            if (ring == null && numPages > bufpool.getNumPages())
+                ring = bufpool.newScanRing();
+            nextPgno = 0;
+            records = null;
+        }
+
+        @Override
+        protected Tuple readNext() throws DbException, TransactionAbortedException {
+            if (bufpool == null) return null;
+            while (true) {
+                while (records != null && nextSlot < records.length) {
+                    int slot = nextSlot++;
+                    if (records[slot] != null) return decode(slot, records[slot]);
+                }
+                if (nextPgno >= numPages) return null;
+                pid = new HeapPageId(getId(), nextPgno++);
+                // overflow pages have no records
+                records = ((SlottedPage) bufpool.getPage(tid, pid, Permissions.READ_ONLY, ring)).records();
+                nextSlot = 0;
+            }
+        }
+
+        private Tuple decode(int slot, byte[] record) throws DbException, TransactionAbortedException {
+            final Tuple t = new Tuple(td);
+            Field[] fields = SlottedPage.decode(td, record, new SlottedPage.OverflowVisitor() {
+                public void visit(int field, int len, int first)
+                        throws DbException, TransactionAbortedException {
+                    t.setField(field, readOverflow(tid, len, first));
+                }
+            });
+            for (int j = 0; j < fields.length; j++)
+                if (fields[j] != null) t.setField(j, fields[j]);
+            t.setRecordId(new RecordId(pid, slot));
+            return t;
+        }
+
+        @Override
+        public void rewind() throws DbException, TransactionAbortedException {
+            if (bufpool == null) throw new IllegalStateException("iterator is not open");
+            close();
+            open();
+        }
+
+        @Override
+        public void close() {
+            super.close();
+            bufpool = null;
+            records = null;
+        }
+    }
+}
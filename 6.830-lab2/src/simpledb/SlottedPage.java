@@ -0,0 +1,409 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * SlottedPage stores one page of a SlottedFile, whose tuples have
+ * variable-length strings. Unlike a HeapPage, where every string takes
+ * STRING_LEN + 4 bytes, a record here is only as long as its values.
+ * <p>
+ * A data page starts with a short header (the page kind, the number of
+ * entries in the slot directory, and the number of bytes used by records)
+ * followed by the slot directory. Each entry holds the offset and length of
+ * one record; an offset of 0 marks an empty slot. Records are packed from
+ * the end of the page towards the directory. The slot number of a record
+ * doesn't change while it exists, so RecordIds stay valid; the records
+ * themselves may be moved to make room.
+ * <p>
+ * In a record, an int takes 4 bytes and a string a two-byte length and its
+ * characters. A string longer than {@link #INLINE_MAX} is stored in a chain
+ * of overflow pages of the same file instead; its length is then
+ * {@link #OVERFLOW_MARK}, followed by the real length and the number of the
+ * first overflow page. An overflow page holds its kind, the number of the
+ * next page in the chain (or -1), the number of bytes it holds and those
+ * bytes.
+ * <p>
+ * A page of zeroes is an empty data page.
+ *
+ * @see SlottedFile
+ */
+public class SlottedPage implements Page {
+
+    static final int DATA = 0;
+    static final int OVERFLOW = 1;
+
+    /** Size of the header of a data page: kind, directory entries, record bytes. */
+    static final int HEADER_SIZE = 5;
+    /** Size of one slot directory entry: record offset and length. */
+    static final int SLOT_SIZE = 4;
+    /** Size of the header of an overflow page: kind, next page, byte count. */
+    static final int OVERFLOW_HEADER_SIZE = 7;
+    /** String length that marks a string stored in overflow pages. */
+    static final int OVERFLOW_MARK = 0xffff;
+    /** Longest string stored in the record itself. */
+    static final int INLINE_MAX = Type.STRING_LEN;
+
+    final HeapPageId pid;
+    final TupleDesc td;
+    private final byte[] data;
+    private final ByteBuffer buf;
+
+    byte[] oldData;
+    private final Object oldDataLock = new Object();
+    private boolean dirty;
+    private TransactionId dirby;
+
+    /**
+     * Create a SlottedPage from a set of bytes of data read from disk; see
+     * the class comment for the format.
+     */
+    public SlottedPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Create a SlottedPage from a buffer holding one page of data, starting
+     * at the buffer's current position, which is advanced past the page.
+     */
+    public SlottedPage(HeapPageId id, ByteBuffer src) throws IOException {
+        if (BufferPool.getPageSize() > 0xffff)
+            throw new IOException("pages of " + BufferPool.getPageSize() + " bytes are too large for SlottedPage");
+        this.pid = id;
+        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.data = new byte[BufferPool.getPageSize()];
+        src.get(data, 0, Math.min(data.length, src.remaining()));
+        this.buf = ByteBuffer.wrap(data);
+        if (data[0] != DATA && data[0] != OVERFLOW)
+            throw new IOException("page " + id.pageNumber() + " has unknown kind " + data[0]);
+        oldData = data.clone();
+    }
+
+    /** Return a view of this page before it was modified
+        -- used by recovery */
+    public SlottedPage getBeforeImage(){
+        try {
+            byte[] oldDataRef = null;
+            synchronized(oldDataLock)
+            {
+                oldDataRef = oldData;
+            }
+            return new SlottedPage(pid,oldDataRef);
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        byte[] data = getPageData();
+        synchronized(oldDataLock)
+        {
+        oldData = data;
+        }
+    }
+
+    /**
+     * @return the PageId associated with this page.
+     */
+    public HeapPageId getId() {
+        return pid;
+    }
+
+    public byte[] getPageData() {
+        byte[] page = new byte[BufferPool.getPageSize()];
+        getPageData(ByteBuffer.wrap(page));
+        return page;
+    }
+
+    // see Page.java for javadocs
+    public synchronized void getPageData(ByteBuffer out) {
+        out.put(data);
+    }
+
+    /**
+     * Static method to generate a byte array corresponding to an empty
+     * data page.
+     */
+    public static byte[] createEmptyPageData() {
+        return new byte[BufferPool.getPageSize()]; //all 0
+    }
+
+    /**
+     * Marks this page as dirty/not dirty and record that transaction
+     * that did the dirtying
+     */
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirty = dirty;
+        this.dirby = tid;
+    }
+
+    /**
+     * Returns the tid of the transaction that last dirtied this page, or null if the page is not dirty
+     */
+    public TransactionId isDirty() {
+        if (dirty) return dirby;
+        else return null;
+    }
+
+    /** @return true if this is an overflow page rather than a data page */
+    public synchronized boolean isOverflow() {
+        return data[0] == OVERFLOW;
+    }
+
+    // --- data pages ---
+
+    private int numSlots() {
+        return buf.getShort(1) & 0xffff;
+    }
+
+    private int recordBytes() {
+        return buf.getShort(3) & 0xffff;
+    }
+
+    private int slotOffset(int i) {
+        return buf.getShort(HEADER_SIZE + i * SLOT_SIZE) & 0xffff;
+    }
+
+    private int slotLength(int i) {
+        return buf.getShort(HEADER_SIZE + i * SLOT_SIZE + 2) & 0xffff;
+    }
+
+    private void setSlot(int i, int offset, int length) {
+        buf.putShort(HEADER_SIZE + i * SLOT_SIZE, (short) offset);
+        buf.putShort(HEADER_SIZE + i * SLOT_SIZE + 2, (short) length);
+    }
+
+    /** @return the index of the first empty directory entry, or numSlots() if there is none */
+    private int freeSlot() {
+        int n = numSlots();
+        for (int i = 0; i < n; i++)
+            if (slotOffset(i) == 0) return i;
+        return n;
+    }
+
+    /**
+     * @return true if this is a data page with room for a record of len
+     *   bytes, possibly after moving its records together
+     */
+    public synchronized boolean canHold(int len) {
+        if (isOverflow()) return false;
+        int n = numSlots();
+        int directory = HEADER_SIZE + (freeSlot() == n ? n + 1 : n) * SLOT_SIZE;
+        return directory + recordBytes() + len <= data.length;
+    }
+
+    /** @return the largest record an empty data page can hold */
+    static int maxRecordSize() {
+        return BufferPool.getPageSize() - HEADER_SIZE - SLOT_SIZE;
+    }
+
+    /** @return true if slot i of this data page holds a record */
+    public synchronized boolean isSlotUsed(int i) {
+        return !isOverflow() && i >= 0 && i < numSlots() && slotOffset(i) != 0;
+    }
+
+    /**
+     * Stores record in this data page.
+     *
+     * @return the slot of the record
+     * @throws DbException if the page doesn't have room for it
+     */
+    synchronized int insertRecord(byte[] record) throws DbException {
+        if (!canHold(record.length)) throw new DbException("page has no room");
+        int slot = freeSlot();
+        int n = numSlots();
+        int directoryEnd = HEADER_SIZE + Math.max(n, slot + 1) * SLOT_SIZE;
+        if (recordsStart() - record.length < directoryEnd)
+            compact();
+        int offset = recordsStart() - record.length;
+        System.arraycopy(record, 0, data, offset, record.length);
+        if (slot == n) buf.putShort(1, (short) (n + 1));
+        setSlot(slot, offset, record.length);
+        buf.putShort(3, (short) (recordBytes() + record.length));
+        return slot;
+    }
+
+    /**
+     * Removes the record in slot i of this data page.
+     *
+     * @return the removed record
+     * @throws DbException if the slot is empty
+     */
+    synchronized byte[] deleteRecord(int i) throws DbException {
+        if (!isSlotUsed(i)) throw new DbException("tuple has deleted");
+        byte[] record = record(i);
+        Arrays.fill(data, slotOffset(i), slotOffset(i) + record.length, (byte) 0);
+        setSlot(i, 0, 0);
+        buf.putShort(3, (short) (recordBytes() - record.length));
+        // drop empty entries at the end of the directory
+        int n = numSlots();
+        while (n > 0 && slotOffset(n - 1) == 0)
+            n--;
+        buf.putShort(1, (short) n);
+        return record;
+    }
+
+    /** @return the offset of the record nearest the directory, or the page size if there is none */
+    private int recordsStart() {
+        int start = data.length;
+        int n = numSlots();
+        for (int i = 0; i < n; i++) {
+            int off = slotOffset(i);
+            if (off != 0 && off < start) start = off;
+        }
+        return start;
+    }
+
+    /** Moves the records to the end of the page, so that the free space is in one piece. */
+    private void compact() {
+        int n = numSlots();
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++)
+            order[i] = i;
+        // the record nearest the end moves first, so nothing is overwritten
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return slotOffset(b) - slotOffset(a);
+            }
+        });
+        int end = data.length;
+        for (int i : order) {
+            int off = slotOffset(i);
+            if (off == 0) continue;
+            int len = slotLength(i);
+            System.arraycopy(data, off, data, end - len, len);
+            setSlot(i, end - len, len);
+            end -= len;
+        }
+        Arrays.fill(data, HEADER_SIZE + n * SLOT_SIZE, end, (byte) 0);
+    }
+
+    /** @return a copy of the record in slot i, which must be used */
+    private byte[] record(int i) {
+        int off = slotOffset(i);
+        return Arrays.copyOfRange(data, off, off + slotLength(i));
+    }
+
+    /**
+     * @return a copy of each record on this data page, by slot; empty
+     *   slots are null
+     */
+    synchronized byte[][] records() {
+        if (isOverflow()) return new byte[0][];
+        byte[][] records = new byte[numSlots()][];
+        for (int i = 0; i < records.length; i++)
+            if (slotOffset(i) != 0) records[i] = record(i);
+        return records;
+    }
+
+    // --- records ---
+
+    /**
+     * Serializes t as a record. overflow holds, for each field, the first
+     * overflow page of its value, or -1 if it is stored in the record.
+     */
+    static byte[] encode(TupleDesc td, Tuple t, int[] overflow) {
+        int len = 0;
+        for (int j = 0; j < td.numFields(); j++) {
+            Field f = t.getField(j);
+            if (overflow[j] >= 0) len += 10;
+            else len += f instanceof StringField ? ((StringField) f).getVarLen() : f.getType().getLen();
+        }
+        ByteBuffer rec = ByteBuffer.allocate(len);
+        for (int j = 0; j < td.numFields(); j++) {
+            Field f = t.getField(j);
+            if (overflow[j] >= 0) {
+                rec.putShort((short) OVERFLOW_MARK);
+                rec.putInt(((StringField) f).getValue().length());
+                rec.putInt(overflow[j]);
+            } else if (f instanceof StringField) {
+                ((StringField) f).serializeVar(rec);
+            } else {
+                f.serialize(rec);
+            }
+        }
+        return rec.array();
+    }
+
+    /** @return true if the value of f is too long to store in a record */
+    static boolean needsOverflow(Field f) {
+        return f instanceof StringField && ((StringField) f).getValue().length() > INLINE_MAX;
+    }
+
+    /**
+     * Calls visitor for each string of record stored in overflow pages.
+     * Returns the fields of record; those stored in overflow pages are
+     * left null, to be filled in by the visitor.
+     */
+    static Field[] decode(TupleDesc td, byte[] record, OverflowVisitor visitor)
+            throws DbException, TransactionAbortedException {
+        ByteBuffer rec = ByteBuffer.wrap(record);
+        Field[] fields = new Field[td.numFields()];
+        for (int j = 0; j < fields.length; j++) {
+            Type type = td.getFieldType(j);
+            if (type == Type.STRING_TYPE && (rec.getShort(rec.position()) & 0xffff) == OVERFLOW_MARK) {
+                rec.getShort();
+                int len = rec.getInt();
+                int first = rec.getInt();
+                visitor.visit(j, len, first);
+                continue;
+            }
+            try {
+                fields[j] = type.parseVar(rec);
+            } catch (java.text.ParseException e) {
+                throw new DbException("bad record on page: " + e.getMessage());
+            }
+        }
+        return fields;
+    }
+
+    /** Receives the strings of a record that are stored in overflow pages. */
+    interface OverflowVisitor {
+        /**
+         * @param field the field number
+         * @param len the length of the string
+         * @param first the first overflow page holding it
+         */
+        void visit(int field, int len, int first) throws DbException, TransactionAbortedException;
+    }
+
+    // --- overflow pages ---
+
+    /** @return the number of string bytes an overflow page can hold */
+    static int overflowCapacity() {
+        return BufferPool.getPageSize() - OVERFLOW_HEADER_SIZE;
+    }
+
+    /**
+     * Turns this page into an overflow page holding len bytes of value from
+     * off, followed in the chain by page next (-1 for none).
+     */
+    synchronized void setOverflow(int next, byte[] value, int off, int len) {
+        Arrays.fill(data, (byte) 0);
+        data[0] = OVERFLOW;
+        buf.putInt(1, next);
+        buf.putShort(5, (short) len);
+        System.arraycopy(value, off, data, OVERFLOW_HEADER_SIZE, len);
+    }
+
+    /** @return the next page in this overflow page's chain, or -1 */
+    synchronized int getNextOverflow() {
+        return buf.getInt(1);
+    }
+
+    /** Copies the bytes of this overflow page to out at off, and returns their number. */
+    synchronized int getOverflowBytes(byte[] out, int off) {
+        int len = Math.min(buf.getShort(5) & 0xffff, out.length - off);
+        System.arraycopy(data, OVERFLOW_HEADER_SIZE, out, off, len);
+        return len;
+    }
+
+    /** Turns this page back into an empty data page, e.g. when its chain is freed. */
+    synchronized void clear() {
+        Arrays.fill(data, (byte) 0);
+    }
+}
@@ -0,0 +1,211 @@
+package simpledb;
+import java.util.*;
+
+/**
+ * SortMergeJoin joins two children sorted in ascending order of their join
+ * fields. Children that are not already in that order (see
+ * {@link #isSortedOn}) are sorted by an {@link ExternalSort}, so inputs of
+ * any size can be joined within the memory budget.
+ * <p>
+ * For EQUALS, the children are merged, holding the right tuples of one key
+ * in memory at a time. The other predicates are band joins, whose matches
+ * for one tuple are a run at the start of the other child in sorted order:
+ * for GREATER_THAN and GREATER_THAN_OR_EQ, the right tuples up to the first
+ * one that doesn't match each left tuple, and for LESS_THAN and
+ * LESS_THAN_OR_EQ the other way around. Each tuple of the outer child is
+ * joined by rewinding the inner child and reading it until the first tuple
+ * that doesn't match, so the predicate is applied once per result tuple
+ * plus once per outer tuple, rather than to every pair as in Join.
+ * <p>
+ * Like Join, the output tuples are the left tuple followed by the right
+ * tuple.
+ *
+ * @see Join
+ */
+public class SortMergeJoin extends Operator {
+    /** Default memory budget of each sort, in pages. */
+    public static final int DEFAULT_MEMORY_PAGES = 1024;
+
+    private final JoinPredicate p;
+    private final DbIterator child1;
+    private final DbIterator child2;
+    private final DbIterator sorted1;
+    private final DbIterator sorted2;
+    private final TupleDesc td;
+    private final Comparator<Tuple> keys;
+
+    // band joins: the inner child is rewound for each outer tuple
+    private final boolean outerLeft;
+    private DbIterator outer;
+    private DbIterator inner;
+    private Tuple outerTuple;
+
+    // EQUALS: the right tuples of the current key, and where the left
+    // tuple is in them
+    private ArrayList<Tuple> group = new ArrayList<Tuple>();
+    private int nextInGroup;
+    private Tuple left;
+    private Tuple right;
+
+    /**
+     * Constructor, with the default memory budget.
+     *
+     * @param p The predicate to use to join the children; EQUALS,
+     *   LESS_THAN, LESS_THAN_OR_EQ, GREATER_THAN or GREATER_THAN_OR_EQ
+     * @param child1 Iterator for the left relation to join
+     * @param child2 Iterator for the right relation to join
+     */
+    public SortMergeJoin(JoinPredicate p, DbIterator child1, DbIterator child2) {
+        this(p, child1, child2, DEFAULT_MEMORY_PAGES);
+    }
+
+    /**
+     * Constructor, with the number of pages of tuples each sort may hold in
+     * memory.
+     */
+    public SortMergeJoin(JoinPredicate p, DbIterator child1, DbIterator child2, int memoryPages) {
+        Predicate.Op op = p.getOperator();
+        if (op == Predicate.Op.NOT_EQUALS || op == Predicate.Op.LIKE)
+            throw new IllegalArgumentException("sort-merge join can't evaluate " + op);
+        this.p = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.sorted1 = isSortedOn(child1, p.getField1()) ? child1 : new ExternalSort(p.getField1(), child1, memoryPages);
+        this.sorted2 = isSortedOn(child2, p.getField2()) ? child2 : new ExternalSort(p.getField2(), child2, memoryPages);
+        td = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+        outerLeft = op != Predicate.Op.LESS_THAN && op != Predicate.Op.LESS_THAN_OR_EQ;
+        final int f1 = p.getField1(), f2 = p.getField2();
+        keys = new Comparator<Tuple>() {
+            public int compare(Tuple l, Tuple r) {
+                Field a = l.getField(f1), b = r.getField(f2);
+                if (a.compare(Predicate.Op.EQUALS, b)) return 0;
+                return a.compare(Predicate.Op.LESS_THAN, b) ? -1 : 1;
+            }
+        };
+    }
+
+    /**
+     * @return true if it is known that it returns its tuples in ascending
+     *   order of field: it is a sort on the field, or a scan of a BTreeFile
+     *   keyed on it
+     */
+    public static boolean isSortedOn(DbIterator it, int field) {
+        if (it instanceof ExternalSort)
+            return ((ExternalSort) it).getField() == field;
+        if (it instanceof OrderBy)
+            return ((OrderBy) it).orderByField == field && ((OrderBy) it).asc;
+        if (it instanceof SeqScan) {
+            int tableid = Database.getCatalog().getTableId(((SeqScan) it).getTableName());
+            DbFile f = Database.getCatalog().getDatabaseFile(tableid);
+            return f instanceof BTreeFile && ((BTreeFile) f).keyField() == field;
+        }
+        return false;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * @return a description of how the join ran, for -explain: the join
+     *   fields and the runs each sort spilled to disk
+     */
+    public String explain() {
+        return "SortMergeJoin(" + child1.getTupleDesc().getFieldName(p.getField1()) + " "
+                + p.getOperator() + " " + child2.getTupleDesc().getFieldName(p.getField2()) + "): left "
+                + explainSort(sorted1) + ", right " + explainSort(sorted2);
+    }
+
+    private static String explainSort(DbIterator it) {
+        if (!(it instanceof ExternalSort)) return "already sorted";
+        ExternalSort s = (ExternalSort) it;
+        if (s.getInitialRuns() == 0) return "sorted in memory";
+        return "sorted in " + s.getInitialRuns() + " runs and " + (s.getMergePasses() + 1)
+                + " merge passes, " + s.getSpilledTuples() + " tuples (" + (s.getSpilledBytes() / 1024)
+                + " KB) written to disk";
+    }
+
+    public void open()
+        throws DbException, NoSuchElementException, TransactionAbortedException {
+        sorted1.open();
+        sorted2.open();
+        start();
+    }
+
+    private void start() throws DbException, TransactionAbortedException {
+        outer = outerLeft ? sorted1 : sorted2;
+        inner = outerLeft ? sorted2 : sorted1;
+        outerTuple = null;
+        group.clear();
+        nextInGroup = 0;
+        left = null;
+        right = null;
+        if (p.getOperator() == Predicate.Op.EQUALS && sorted2.hasNext())
+            right = sorted2.next();
+    }
+
+    public void close() {
+        super.close();
+        sorted1.close();
+        sorted2.close();
+        group.clear();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        sorted1.rewind();
+        sorted2.rewind();
+        start();
+    }
+
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        if (p.getOperator() == Predicate.Op.EQUALS)
+            return fetchEquals();
+        while (true) {
+            if (outerTuple != null && inner.hasNext()) {
+                Tuple t = inner.next();
+                Tuple l = outerLeft ? outerTuple : t;
+                Tuple r = outerLeft ? t : outerTuple;
+                if (p.filter(l, r))
+                    return merge(l, r);
+            }
+            // no more matches of this outer tuple
+            if (!outer.hasNext()) return null;
+            outerTuple = outer.next();
+            inner.rewind();
+        }
+    }
+
+    /**
+     * Merges the children: group holds the right tuples equal to the
+     * current left tuple, and right is the first right tuple past them.
+     */
+    private Tuple fetchEquals() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (left != null && nextInGroup < group.size())
+                return merge(left, group.get(nextInGroup++));
+            if (!sorted1.hasNext()) return null;
+            left = sorted1.next();
+            nextInGroup = 0;
+            // a left tuple equal to the previous one joins the same group
+            if (!group.isEmpty() && keys.compare(left, group.get(0)) == 0)
+                continue;
+            group.clear();
+            while (right != null && keys.compare(left, right) > 0)
+                right = sorted2.hasNext() ? sorted2.next() : null;
+            while (right != null && keys.compare(left, right) == 0) {
+                group.add(right);
+                right = sorted2.hasNext() ? sorted2.next() : null;
+            }
+        }
+    }
+
+    private Tuple merge(Tuple t1, Tuple t2) {
+        Tuple t = new Tuple(td);
+        int n1 = t1.getTupleDesc().numFields();
+        for (int i = 0; i < n1; i++)
+            t.setField(i, t1.getField(i));
+        for (int i = 0; i < t2.getTupleDesc().numFields(); i++)
+            t.setField(n1 + i, t2.getField(i));
+        return t;
+    }
+}
@@ -0,0 +1,133 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.text.ParseException;
+import java.util.NoSuchElementException;
+
+/**
+ * SpillFile is a temporary file of tuples, written by operators whose
+ * input doesn't fit in the memory they are given. Tuples are appended with
+ * add and read back in the same order through {@link #iterator()}, as many
+ * times as needed. Tuples are stored as in a HeapPage, without headers.
+ */
+class SpillFile {
+    private final TupleDesc td;
+    private final File file;
+    private DataOutputStream out;
+    private int numTuples;
+
+    SpillFile(TupleDesc td) throws DbException {
+        this.td = td;
+        try {
+            file = File.createTempFile("spill", ".dat");
+            file.deleteOnExit();
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        } catch (IOException e) {
+            throw new DbException("can't create spill file: " + e.getMessage());
+        }
+    }
+
+    /** Appends t to the file; the file must not have been read yet. */
+    void add(Tuple t) throws DbException {
+        try {
+            for (int i = 0; i < td.numFields(); i++)
+                t.getField(i).serialize(out);
+        } catch (IOException e) {
+            throw new DbException("writing " + file + " failed: " + e.getMessage());
+        }
+        numTuples++;
+    }
+
+    /** @return the number of tuples in the file */
+    int numTuples() {
+        return numTuples;
+    }
+
+    /**
+     * @return an iterator over the tuples of the file. No more tuples can be
+     *   added once this is called.
+     */
+    DbIterator iterator() throws DbException {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                throw new DbException("writing " + file + " failed: " + e.getMessage());
+            }
+            out = null;
+        }
+        return new Reader();
+    }
+
+    /** Deletes the file. */
+    void delete() {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                // the file goes anyway
+            }
+            out = null;
+        }
+        file.delete();
+    }
+
+    private class Reader implements DbIterator {
+        private static final long serialVersionUID = 1L;
+        private DataInputStream in;
+        private byte[] buf;
+        private int read;
+
+        public void open() throws DbException {
+            try {
+                in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            } catch (IOException e) {
+                throw new DbException("can't read " + file + ": " + e.getMessage());
+            }
+            buf = new byte[td.getSize()];
+            read = 0;
+        }
+
+        public boolean hasNext() {
+            return in != null && read < numTuples;
+        }
+
+        public Tuple next() throws DbException {
+            if (!hasNext()) throw new NoSuchElementException();
+            Tuple t = new Tuple(td);
+            try {
+                in.readFully(buf);
+                ByteBuffer bb = ByteBuffer.wrap(buf);
+                for (int i = 0; i < td.numFields(); i++)
+                    t.setField(i, td.getFieldType(i).parse(bb));
+            } catch (IOException e) {
+                throw new DbException("reading " + file + " failed: " + e.getMessage());
+            } catch (ParseException e) {
+                throw new DbException("reading " + file + " failed: " + e.getMessage());
+            }
+            read++;
+            return t;
+        }
+
+        public void rewind() throws DbException {
+            close();
+            open();
+        }
+
+        public TupleDesc getTupleDesc() {
+            return td;
+        }
+
+        public void close() {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // nothing was written
+                }
+            }
+            in = null;
+        }
+    }
+}
@@ -66,6 +66,37 @@ public class StringField implements Field {
 			dos.write((byte) 0);
 	}
 
+	public void serialize(java.nio.ByteBuffer buf) {
+		int len = Math.min(value.length(), maxSize);
+		buf.putInt(len);
+		// like writeBytes, only the low byte of each char is kept
+		for (int i = 0; i < len; i++)
+			buf.put((byte) value.charAt(i));
+		for (int i = len; i < maxSize; i++)
+			buf.put((byte) 0);
+	}
+
+	/**
+	 * Write this string to buf in the variable-length format of a
+	 * SlottedPage: a two-byte length followed by the string, without
+	 * padding. Unlike serialize, this never truncates to STRING_LEN.
+	 * 
+	 * @see Type#parseVar
+	 */
+	public void serializeVar(java.nio.ByteBuffer buf) {
+		buf.putShort((short) value.length());
+		// like writeBytes, only the low byte of each char is kept
+		for (int i = 0; i < value.length(); i++)
+			buf.put((byte) value.charAt(i));
+	}
+
+	/**
+	 * @return the number of bytes serializeVar writes
+	 */
+	public int getVarLen() {
+		return 2 + value.length();
+	}
+
 	/**
 	 * Compare the specified field to the value of this Field. Return semantics
 	 * are as specified by Field.compare
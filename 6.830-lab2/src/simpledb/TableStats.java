@@ -1,6 +1,13 @@
 package simpledb;
 
-/** TableStats represents statistics (e.g., histograms) about base tables in a query */
+import java.io.IOException;
+
+/**
+ * TableStats represents statistics (e.g., histograms) about base tables in a
+ * query. So far it knows the number of pages and tuples of the table, which
+ * is what the join cost models need; there are no histograms yet, so every
+ * predicate on a constant is taken to select the whole table.
+ */
 public class TableStats {
     
     /**
@@ -10,6 +17,10 @@ public class TableStats {
      */
     static final int NUM_HIST_BINS = 100;
 
+    private final int ioCostPerPage;
+    private final int numPages;
+    private final int numTuples;
+
     /**
      * Create a new TableStats object, that keeps track of statistics on each column of a table
      * 
@@ -23,6 +34,31 @@ public class TableStats {
     	// You should try to do this reasonably efficiently, but you don't necessarily
     	// have to (for example) do everything in a single scan of the table.
     	// some code goes here
+        this.ioCostPerPage = ioCostPerPage;
+        DbFile file = Database.getCatalog().getDatabaseFile(tableid);
+        numPages = file.numPages();
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = file.iterator(tid);
+        int n = 0;
+        try {
+            try {
+                it.open();
+                while (it.hasNext()) {
+                    it.next();
+                    n++;
+                }
+            } finally {
+                it.close();
+                Database.getBufferPool().transactionComplete(tid);
+            }
+        } catch (DbException e) {
+            throw new RuntimeException("can't scan table " + tableid, e);
+        } catch (TransactionAbortedException e) {
+            throw new RuntimeException("can't scan table " + tableid, e);
+        } catch (IOException e) {
+            throw new RuntimeException("can't scan table " + tableid, e);
+        }
+        numTuples = n;
     }
 
     /** 
@@ -40,7 +76,7 @@ public class TableStats {
      */ 
     public double estimateScanCost() {
     	// some code goes here
-        return 0;
+        return (double) numPages * ioCostPerPage;
     }
 
     /** 
@@ -53,7 +89,30 @@ public class TableStats {
      */
     public int estimateTableCardinality(double selectivityFactor) {
     	// some code goes here
-        return 0;
+        return (int) Math.round(numTuples * selectivityFactor);
+    }
+
+    /**
+     * The average selectivity of the field under op, for a value of the
+     * field that is not known in advance, as when the value comes from the
+     * other side of a join.
+     *
+     * @param field The field over which the predicate ranges
+     * @param op The logical operation in the predicate
+     * @return The expected selectivity of op with an unknown value
+     */
+    public double avgSelectivity(int field, Predicate.Op op) {
+        switch (op) {
+        case EQUALS:
+            // as if the field were a key, like those of B+ tree tables
+            return 1.0 / Math.max(1, estimateTableCardinality(1.0));
+        case NOT_EQUALS:
+        case LIKE:
+            return 1.0;
+        default:
+            // a range over a value uniform in the field's range
+            return 0.5;
+        }
     }
 
     /** 
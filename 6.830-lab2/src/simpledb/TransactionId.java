@@ -22,7 +22,8 @@ public class TransactionId implements Serializable {
     }
 
     public boolean equals(Object tid) {
-        return ((TransactionId) tid).myid == myid;
+        // null-safe: callers compare against Page.isDirty() and unset lock holders
+        return tid instanceof TransactionId && ((TransactionId) tid).myid == myid;
     }
 
     public int hashCode() {
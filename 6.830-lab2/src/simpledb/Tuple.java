@@ -1,8 +1,12 @@
 package simpledb;
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.Iterator;
+import java.util.NoSuchElementException;
 
 /**
  * Tuple maintains information about the contents of a tuple. Tuples have a
@@ -15,6 +19,10 @@ public class Tuple implements Serializable {
     private TupleDesc schema;
     private RecordId loaction;
     private Field[] fields;
+    // the serialized tuple that fields not set yet are decoded from, or
+    // null; see HeapPage
+    private transient ByteBuffer source;
+    private transient int sourceOffset;
 
 
     /**
@@ -30,6 +38,21 @@ public class Tuple implements Serializable {
         this.fields = new Field[td.numFields()];
     }
 
+    /**
+     * Create a tuple whose fields are decoded from the bytes of a serialized
+     * tuple, in the format of a HeapPage slot, each the first time it is
+     * asked for. source must not change while the tuple is in use.
+     *
+     * @param td the schema of this tuple
+     * @param source the bytes to decode fields from, from position 0
+     * @param offset the offset of the tuple in source
+     */
+    Tuple(TupleDesc td, ByteBuffer source, int offset) {
+        this(td);
+        this.source = source;
+        this.sourceOffset = offset;
+    }
+
     /**
      * @return The TupleDesc representing the schema of this tuple.
      */
@@ -79,11 +102,42 @@ public class Tuple implements Serializable {
      */
     public Field getField(int i) {
         // some code goes here
-        return fields[i];
+        Field f = fields[i];
+        if (f == null && source != null) {
+            // racing decoders store equal, immutable fields
+            f = decode(i);
+            fields[i] = f;
+        }
+        return f;
+    }
+
+    private Field decode(int i) {
+        int offset = sourceOffset;
+        for (int j = 0; j < i; j++)
+            offset += schema.getFieldType(j).getLen();
+        Type type = schema.getFieldType(i);
+        try {
+            ByteBuffer buf = source.duplicate();
+            buf.position(offset);
+            buf.limit(offset + type.getLen());
+            return type.parse(buf);
+        } catch (java.text.ParseException e) {
+            throw new NoSuchElementException("parsing error!");
+        }
     }
+
     public Field[] getFields(){
+        if (source != null) {
+            for (int i = 0; i < fields.length; i++)
+                getField(i);
+        }
         return fields;
     }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        getFields();
+        out.defaultWriteObject();
+    }
     /**
      * Returns the contents of this Tuple as a string. Note that to pass the
      * system tests, the format needs to be as follows:
@@ -95,7 +149,7 @@ public class Tuple implements Serializable {
     public String toString() {
         // some code goes here
         StringBuilder str = new StringBuilder();
-        for (Field f:fields){
+        for (Field f:getFields()){
             str.append(f.toString());
         }
         return String.join(" ",str) + "\n";
@@ -119,6 +173,7 @@ public class Tuple implements Serializable {
         // some code goes here
         this.schema = td;
         this.fields = new Field[td.numFields()];
+        this.source = null;
 
     }
     public static Tuple merge(Tuple t1,Tuple t2){
@@ -56,7 +56,7 @@ public class TupleDesc implements Serializable {
      * */
     public Iterator<TDItem> iterator() {
         // some code goes here
-        return (Iterator<TDItem>)Arrays.asList(tditems);
+        return Arrays.asList(tditems).iterator();
     }
 
     private static final long serialVersionUID = 1L;
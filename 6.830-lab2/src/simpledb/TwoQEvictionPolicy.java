@@ -0,0 +1,143 @@
+package simpledb;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The 2Q policy of Johnson and Shasha. Pages seen for the first time go into
+ * a small FIFO queue (A1in); pages evicted from it are remembered by id in a
+ * ghost queue (A1out). A page that is read again while its id is in A1out
+ * has been re-referenced over a longer interval and is promoted to the main
+ * LRU queue (Am). One-off scans therefore only cycle through A1in and don't
+ * flush the frequently used pages in Am.
+ * <p>
+ * Hits are buffered and applied to Am in batches, so {@link #pageAccessed}
+ * never blocks.
+ *
+ * @see ReadBuffer
+ */
+public class TwoQEvictionPolicy implements EvictionPolicy {
+
+    private final int kin;
+    private final int kout;
+
+    private final LinkedHashSet<PageId> a1in = new LinkedHashSet<PageId>();
+    private final LinkedHashSet<PageId> a1out = new LinkedHashSet<PageId>();
+    private final LinkedHashMap<PageId, Boolean> am =
+            new LinkedHashMap<PageId, Boolean>(16, 0.75f, true);
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final ReadBuffer reads = new ReadBuffer();
+    private final ReadBuffer.Sink replay = new ReadBuffer.Sink() {
+        public void replay(PageId pid) {
+            // hits in A1in are assumed to be correlated references and ignored
+            am.get(pid);
+        }
+    };
+
+    /**
+     * Creates a 2Q policy for a buffer pool of the given size, using the
+     * queue sizes recommended in the paper: A1in holds a quarter of the
+     * pool and A1out remembers half the pool's worth of page ids.
+     *
+     * @param numPages the number of pages in the buffer pool
+     */
+    public TwoQEvictionPolicy(int numPages) {
+        this(Math.max(1, numPages / 4), Math.max(1, numPages / 2));
+    }
+
+    /**
+     * @param kin target size of the A1in queue, in pages
+     * @param kout number of page ids remembered in the A1out queue
+     */
+    public TwoQEvictionPolicy(int kin, int kout) {
+        this.kin = kin;
+        this.kout = kout;
+    }
+
+    public void pageAdded(PageId pid) {
+        lock.lock();
+        try {
+            reads.drain(replay);
+            if (am.containsKey(pid) || a1in.contains(pid)) {
+                replay.replay(pid);
+            } else if (a1out.remove(pid)) {
+                am.put(pid, Boolean.TRUE);
+            } else {
+                a1in.add(pid);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void pageAccessed(PageId pid) {
+        if (reads.record(pid) && lock.tryLock()) {
+            try {
+                reads.drain(replay);
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    public void pageRemoved(PageId pid) {
+        lock.lock();
+        try {
+            a1in.remove(pid);
+            am.remove(pid);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public PageId chooseVictim(Evictable evictable) {
+        lock.lock();
+        try {
+            reads.drain(replay);
+            PageId victim;
+            if (a1in.size() > kin || am.isEmpty()) {
+                victim = evictFromA1in(evictable);
+                if (victim == null) victim = evictFromAm(evictable);
+            } else {
+                victim = evictFromAm(evictable);
+                if (victim == null) victim = evictFromA1in(evictable);
+            }
+            return victim;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Evicts the oldest evictable page of A1in and remembers it in A1out. */
+    private PageId evictFromA1in(Evictable evictable) {
+        PageId pid = removeFirst(a1in.iterator(), evictable);
+        if (pid != null) {
+            a1out.add(pid);
+            if (a1out.size() > kout) {
+                Iterator<PageId> it = a1out.iterator();
+                it.next();
+                it.remove();
+            }
+        }
+        return pid;
+    }
+
+    /** Evicts the least recently used evictable page of Am. */
+    private PageId evictFromAm(Evictable evictable) {
+        return removeFirst(am.keySet().iterator(), evictable);
+    }
+
+    private static PageId removeFirst(Iterator<PageId> queue, Evictable evictable) {
+        while (queue.hasNext()) {
+            PageId pid = queue.next();
+            if (evictable.canEvict(pid)) {
+                queue.remove();
+                return pid;
+            }
+        }
+        return null;
+    }
+}
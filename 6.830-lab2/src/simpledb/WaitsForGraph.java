@@ -0,0 +1,73 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The waits-for graph of the transactions blocked in a {@link LockManager}:
+ * an edge from t to u means t waits for a lock u holds (or, for a shared
+ * request, one u is waiting to take exclusively). Only blocked requests
+ * touch the graph, so the uncontended lock path never takes its monitor.
+ */
+class WaitsForGraph {
+
+    private final HashMap<TransactionId, Set<TransactionId>> edges =
+            new HashMap<TransactionId, Set<TransactionId>>();
+    // transactions chosen as deadlock victims that haven't given up yet;
+    // they are left out of cycle detection so a cycle is only broken once
+    private final HashSet<TransactionId> victims = new HashSet<TransactionId>();
+
+    /** Replaces the set of transactions tid waits for. */
+    synchronized void setWaits(TransactionId tid, Set<TransactionId> blockers) {
+        edges.put(tid, blockers);
+    }
+
+    /** Forgets everything about tid as a waiter, including a victim mark. */
+    synchronized void clearWaits(TransactionId tid) {
+        edges.remove(tid);
+        victims.remove(tid);
+    }
+
+    /** Removes the edges into tid, e.g. because it released its locks. */
+    synchronized void removeHolder(TransactionId tid) {
+        for (Set<TransactionId> out : edges.values())
+            out.remove(tid);
+    }
+
+    synchronized boolean isVictim(TransactionId tid) {
+        return victims.contains(tid);
+    }
+
+    synchronized void markVictim(TransactionId tid) {
+        victims.add(tid);
+    }
+
+    /**
+     * @return the transactions of a cycle through tid, in waits-for order
+     *   starting with tid, or null if there is none
+     */
+    synchronized List<TransactionId> findCycle(TransactionId tid) {
+        ArrayList<TransactionId> path = new ArrayList<TransactionId>();
+        path.add(tid);
+        if (search(tid, tid, path, new HashSet<TransactionId>())) return path;
+        return null;
+    }
+
+    private boolean search(TransactionId target, TransactionId at, ArrayList<TransactionId> path,
+                           HashSet<TransactionId> visited) {
+        Set<TransactionId> out = edges.get(at);
+        if (out == null) return false;
+        for (TransactionId next : out) {
+            if (victims.contains(next)) continue;
+            if (next.equals(target)) return true;
+            if (!visited.add(next)) continue;
+            path.add(next);
+            if (search(target, next, path, visited)) return true;
+            path.remove(path.size() - 1);
+        }
+        return false;
+    }
+}
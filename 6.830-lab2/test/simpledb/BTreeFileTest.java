@@ -0,0 +1,189 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class BTreeFileTest extends SimpleDbTestBase {
+    // a leaf holds 30 of these and an internal page 30 keys, so a couple
+    // of thousand tuples make a tree of three levels
+    private final TupleDesc td = new TupleDesc(new Type[] { Type.STRING_TYPE, Type.INT_TYPE });
+    private BTreeFile bf;
+    private TransactionId tid;
+    private BufferPool bp;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        File f = File.createTempFile("btree", ".dat");
+        f.deleteOnExit();
+        bf = new BTreeFile(f, 0, td);
+        Database.getCatalog().addTable(bf, "btree");
+        bp = Database.resetBufferPool(1000);
+        tid = new TransactionId();
+    }
+
+    private static String key(int i) {
+        return String.format("k%05d", i);
+    }
+
+    private Tuple tuple(int k, int v) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new StringField(key(k), Type.STRING_LEN));
+        t.setField(1, new IntField(v));
+        return t;
+    }
+
+    private void commit() throws Exception {
+        bp.transactionComplete(tid);
+        tid = new TransactionId();
+    }
+
+    /** Inserts keys 0..n-1 in random order, committing now and then. */
+    private void insertShuffled(int n) throws Exception {
+        List<Integer> keys = new ArrayList<Integer>();
+        for (int i = 0; i < n; i++)
+            keys.add(i);
+        Collections.shuffle(keys, new Random(1));
+        for (int i = 0; i < n; i++) {
+            bp.insertTuple(tid, bf.getId(), tuple(keys.get(i), i));
+            if (i % 200 == 199) commit();
+        }
+        commit();
+    }
+
+    private ArrayList<Tuple> read(DbFileIterator it) throws Exception {
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        it.open();
+        while (it.hasNext())
+            tuples.add(it.next());
+        it.close();
+        return tuples;
+    }
+
+    private ArrayList<Tuple> lookup(Predicate.Op op, int k) throws Exception {
+        return read(bf.indexIterator(tid, new IndexPredicate(op,
+                new StringField(key(k), Type.STRING_LEN))));
+    }
+
+    private int rootCategory() throws Exception {
+        BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) bp.getPage(tid,
+                new BTreePageId(bf.getId(), 0, BTreePageId.ROOT_PTR), Permissions.READ_ONLY);
+        BTreePageId root = rootPtr.getRootId();
+        if (root == null) return -1;
+        if (root.pgcateg() == BTreePageId.LEAF) return BTreePageId.LEAF;
+        BTreeInternalPage page = (BTreeInternalPage) bp.getPage(tid, root, Permissions.READ_ONLY);
+        return page.getChildCategory();
+    }
+
+    /**
+     * A full scan returns the tuples in key order, after splits of both
+     * leaves and internal pages.
+     */
+    @Test public void insertAndScan() throws Exception {
+        insertShuffled(2000);
+        // the root's children are internal pages
+        assertEquals(BTreePageId.INTERNAL, rootCategory());
+        ArrayList<Tuple> tuples = read(bf.iterator(tid));
+        assertEquals(2000, tuples.size());
+        for (int i = 0; i < tuples.size(); i++)
+            assertEquals(key(i), ((StringField) tuples.get(i).getField(0)).getValue());
+    }
+
+    /**
+     * Index scans return exactly the tuples in range, including runs of
+     * equal keys that span several leaves.
+     */
+    @Test public void rangeScans() throws Exception {
+        insertShuffled(1000);
+        for (int i = 0; i < 100; i++)
+            bp.insertTuple(tid, bf.getId(), tuple(500, -i));
+        commit();
+
+        assertEquals(101, lookup(Predicate.Op.EQUALS, 500).size());
+        assertEquals(0, lookup(Predicate.Op.EQUALS, 5000).size());
+        assertEquals(499, lookup(Predicate.Op.GREATER_THAN, 500).size());
+        assertEquals(600, lookup(Predicate.Op.GREATER_THAN_OR_EQ, 500).size());
+        assertEquals(500, lookup(Predicate.Op.LESS_THAN, 500).size());
+        assertEquals(601, lookup(Predicate.Op.LESS_THAN_OR_EQ, 500).size());
+        assertEquals(999, lookup(Predicate.Op.NOT_EQUALS, 500).size());
+        ArrayList<Tuple> gt = lookup(Predicate.Op.GREATER_THAN, 997);
+        assertEquals(key(998), ((StringField) gt.get(0).getField(0)).getValue());
+
+        // a SeqScan turns a predicate on the key into an index scan
+        SeqScan scan = new SeqScan(tid, bf.getId(), "b");
+        scan.addPredicate(new Predicate(0, Predicate.Op.EQUALS,
+                new StringField(key(500), Type.STRING_LEN)));
+        scan.addPredicate(new Predicate(1, Predicate.Op.LESS_THAN, new IntField(-89)));
+        scan.open();
+        int n = 0;
+        for (; scan.hasNext(); scan.next())
+            n++;
+        scan.close();
+        assertEquals(10, n);
+    }
+
+    /**
+     * Deleting every tuple merges the tree back down to an empty leaf, and
+     * the freed pages are reused by later inserts instead of growing the
+     * file.
+     */
+    @Test public void deleteAllAndReuse() throws Exception {
+        insertShuffled(2000);
+        int pages = bf.numPages();
+        ArrayList<Tuple> tuples = read(bf.iterator(tid));
+        Collections.shuffle(tuples, new Random(2));
+        for (int i = 0; i < tuples.size(); i++) {
+            bp.deleteTuple(tid, tuples.get(i));
+            if (i % 200 == 199) {
+                commit();
+                ArrayList<Tuple> left = read(bf.iterator(tid));
+                assertEquals(tuples.size() - i - 1, left.size());
+                for (int j = 1; j < left.size(); j++)
+                    assertTrue(BTreeFile.compareKeys(left.get(j - 1).getField(0), left.get(j).getField(0)) < 0);
+            }
+        }
+        commit();
+        assertEquals(BTreePageId.LEAF, rootCategory());
+        assertEquals(0, read(bf.iterator(tid)).size());
+
+        insertShuffled(2000);
+        assertEquals(pages, bf.numPages());
+        assertEquals(2000, read(bf.iterator(tid)).size());
+    }
+
+    /**
+     * An aborted insert leaves the tree as it was, splits included.
+     */
+    @Test public void abortInsert() throws Exception {
+        insertShuffled(100);
+        for (int i = 100; i < 400; i++)
+            bp.insertTuple(tid, bf.getId(), tuple(i, i));
+        bp.transactionComplete(tid, false);
+        tid = new TransactionId();
+        ArrayList<Tuple> tuples = read(bf.iterator(tid));
+        assertEquals(100, tuples.size());
+        assertEquals(100, lookup(Predicate.Op.LESS_THAN, 1000).size());
+        Tuple gone = tuple(150, 150);
+        gone.setRecordId(new RecordId(new BTreePageId(bf.getId(), 2, BTreePageId.LEAF), 0));
+        try {
+            bp.deleteTuple(tid, gone);
+            fail("expected DbException");
+        } catch (DbException expected) {
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BTreeFileTest.class);
+    }
+}
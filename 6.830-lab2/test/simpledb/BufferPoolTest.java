@@ -0,0 +1,130 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BufferPoolTest extends SimpleDbTestBase {
+
+    private static final int THREADS = 8;
+
+    /**
+     * Threads that miss on the same page at the same time share one read,
+     * and all get the same Page object.
+     */
+    @Test public void singleFlight() throws Exception {
+        File f = SystemTestUtil.createRandomHeapFileUnopened(2, 2000, 100, null,
+                new ArrayList<ArrayList<Integer>>());
+        final AtomicInteger reads = new AtomicInteger();
+        final CountDownLatch readStarted = new CountDownLatch(1);
+        final CountDownLatch allWaiting = new CountDownLatch(1);
+        final HeapFile hf = new HeapFile(f, Utility.getTupleDesc(2)) {
+            public Page readPage(PageId pid) {
+                reads.incrementAndGet();
+                readStarted.countDown();
+                try {
+                    allWaiting.await();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                return super.readPage(pid);
+            }
+        };
+        Database.getCatalog().addTable(hf, "t");
+        final BufferPool bp = Database.resetBufferPool(4, new LRUEvictionPolicy());
+        bp.setReadAheadEnabled(false);
+
+        final Page[] got = new Page[THREADS];
+        final Throwable[] failed = new Throwable[1];
+        Thread[] threads = new Thread[THREADS];
+        for (int i = 0; i < THREADS; i++) {
+            final int n = i;
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        got[n] = bp.getPage(new TransactionId(),
+                                new HeapPageId(hf.getId(), 0), Permissions.READ_ONLY);
+                    } catch (Throwable t) {
+                        failed[0] = t;
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        // hold the one read until everybody else has had time to miss too
+        if (!readStarted.await(10, TimeUnit.SECONDS))
+            fail("no thread got to read the page: " + failed[0]);
+        Thread.sleep(100);
+        allWaiting.countDown();
+        for (Thread t : threads)
+            t.join();
+
+        assertNull(failed[0]);
+        assertEquals(1, reads.get());
+        assertEquals(1, bp.getMissCount());
+        assertEquals(THREADS - 1, bp.getHitCount());
+        for (Page p : got)
+            assertSame(got[0], p);
+    }
+
+    /**
+     * Concurrent misses on different pages leave the pool within numPages,
+     * and every request is counted as exactly one hit or miss.
+     */
+    @Test public void concurrentMissesStayBounded() throws Exception {
+        File f = SystemTestUtil.createRandomHeapFileUnopened(2, 20000, 100, null,
+                new ArrayList<ArrayList<Integer>>());
+        final HeapFile hf = Utility.openHeapFile(2, f);
+        final BufferPool bp = Database.resetBufferPool(4, new ClockEvictionPolicy());
+        bp.setReadAheadEnabled(false);
+        final int pages = hf.numPages();
+        assertTrue(pages > 4);
+
+        final Throwable[] failed = new Throwable[1];
+        Thread[] threads = new Thread[THREADS];
+        for (int i = 0; i < THREADS; i++) {
+            final int n = i;
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        TransactionId tid = new TransactionId();
+                        for (int j = 0; j < 200; j++) {
+                            bp.getPage(tid, new HeapPageId(hf.getId(), (n + j) % pages),
+                                    Permissions.READ_ONLY);
+                        }
+                    } catch (Throwable t) {
+                        failed[0] = t;
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread t : threads)
+            t.join();
+
+        assertNull(failed[0]);
+        int cached = 0;
+        for (int k = 0; k < pages; k++)
+            if (bp.isCached(new HeapPageId(hf.getId(), k))) cached++;
+        assertTrue(cached <= 4);
+        assertEquals(THREADS * 200, bp.getHitCount() + bp.getMissCount());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolTest.class);
+    }
+}
@@ -0,0 +1,141 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class CompressedHeapFileTest extends SimpleDbTestBase {
+    private static final int ROWS = 2100;
+
+    private final Type[] types = new Type[] { Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE };
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tid = new TransactionId();
+    }
+
+    private static File tempFile(String suffix) throws IOException {
+        File f = File.createTempFile("compressed", suffix);
+        f.deleteOnExit();
+        return f;
+    }
+
+    /**
+     * Writes a heap file of ROWS tuples with a key, a string with few
+     * distinct values and an int spanning the whole int range.
+     */
+    private File heapFile() throws IOException {
+        File txt = tempFile(".txt");
+        Writer w = new BufferedWriter(new FileWriter(txt));
+        for (int i = 0; i < ROWS; i++) {
+            int wide = i % 3 == 0 ? Integer.MIN_VALUE + i : Integer.MAX_VALUE - i;
+            w.write(i + ",city" + (i % 7) + "," + wide + "\n");
+        }
+        w.close();
+        File heap = tempFile(".dat");
+        HeapFileEncoder.convert(txt, heap, BufferPool.getPageSize(), 3, types, ',', 1);
+        return heap;
+    }
+
+    private static CompressedHeapFile compress(File heap, TupleDesc td) throws IOException {
+        File out = tempFile(".chf");
+        CompressedHeapFile.compress(heap, td, out);
+        CompressedHeapFile cf = new CompressedHeapFile(out, td);
+        Database.getCatalog().addTable(cf, "compressed");
+        return cf;
+    }
+
+    /** Asserts that every page of cf reads back as the same bytes as in heap. */
+    private static void assertSamePages(File heap, CompressedHeapFile cf) throws IOException {
+        int pagesize = BufferPool.getPageSize();
+        assertEquals(heap.length() / pagesize, cf.numPages());
+        DataInputStream in = new DataInputStream(new FileInputStream(heap));
+        byte[] expected = new byte[pagesize];
+        for (int i = 0; i < cf.numPages(); i++) {
+            in.readFully(expected);
+            Page p = cf.readPage(new HeapPageId(cf.getId(), i));
+            assertArrayEquals("page " + i, expected, p.getPageData());
+        }
+        in.close();
+    }
+
+    /**
+     * Pages with strings and with ints across the whole int range read back
+     * byte for byte, and take fewer bytes on disk.
+     */
+    @Test public void roundTrip() throws Exception {
+        File heap = heapFile();
+        CompressedHeapFile cf = compress(heap, new TupleDesc(types));
+        assertSamePages(heap, cf);
+        assertTrue(cf.getFile().length() < heap.length() / 2);
+    }
+
+    /**
+     * Random ints and a partly filled last page read back byte for byte.
+     */
+    @Test public void randomInts() throws Exception {
+        File heap = SystemTestUtil.createRandomHeapFileUnopened(4, 1500,
+                Integer.MAX_VALUE, null, null);
+        assertSamePages(heap, compress(heap, Utility.getTupleDesc(4)));
+    }
+
+    /**
+     * Scans go through the buffer pool with predicates pushed down, and
+     * writes are rejected.
+     */
+    @Test public void scanAndReadOnly() throws Exception {
+        CompressedHeapFile cf = compress(heapFile(), new TupleDesc(types));
+        SeqScan scan = new SeqScan(tid, cf.getId(), "c");
+        scan.addPredicate(new Predicate(1, Predicate.Op.EQUALS,
+                new StringField("city3", Type.STRING_LEN)));
+        scan.open();
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        while (scan.hasNext())
+            tuples.add(scan.next());
+        scan.close();
+        assertEquals(ROWS / 7, tuples.size());
+        for (Tuple t : tuples)
+            assertEquals(3, ((IntField) t.getField(0)).getValue() % 7);
+
+        try {
+            Database.getBufferPool().deleteTuple(tid, tuples.get(0));
+            fail("expected DbException");
+        } catch (DbException expected) {
+        }
+        try {
+            Database.getBufferPool().insertTuple(tid, cf.getId(), tuples.get(0));
+            fail("expected DbException");
+        } catch (DbException expected) {
+        }
+    }
+
+    /**
+     * A damaged page is reported rather than read as garbage tuples.
+     */
+    @Test(expected = IllegalArgumentException.class) public void truncated() throws Exception {
+        CompressedHeapFile cf = compress(heapFile(), new TupleDesc(types));
+        int last = cf.numPages() - 1;
+        cf.close();
+        RandomAccessFile raf = new RandomAccessFile(cf.getFile(), "rw");
+        raf.setLength(raf.length() - 20);
+        raf.close();
+        cf.readPage(new HeapPageId(cf.getId(), last));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(CompressedHeapFileTest.class);
+    }
+}
@@ -0,0 +1,116 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class DeadlockTest extends SimpleDbTestBase {
+    private static final int TIMEOUT = 200;
+
+    private PageId p0, p1, p2;
+    private TransactionId tid1, tid2;
+    private BufferPool bp;
+
+    @Before public void setUp() throws Exception {
+        HeapFile file = SystemTestUtil.createRandomHeapFile(2, 2048, null, null);
+        p0 = new HeapPageId(file.getId(), 0);
+        p1 = new HeapPageId(file.getId(), 1);
+        p2 = new HeapPageId(file.getId(), 2);
+        tid1 = new TransactionId();
+        tid2 = new TransactionId();
+        bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    }
+
+    private TestUtil.LockGrabber grab(TransactionId tid, PageId pid, Permissions perm)
+            throws InterruptedException {
+        TestUtil.LockGrabber t = new TestUtil.LockGrabber(tid, pid, perm);
+        t.start();
+        Thread.sleep(TIMEOUT);
+        return t;
+    }
+
+    /**
+     * Two transactions each wait for a page the other holds. Only the
+     * younger one is aborted, and the older one then gets its lock.
+     */
+    @Test public void readWriteDeadlock() throws Exception {
+        bp.getPage(tid1, p0, Permissions.READ_ONLY);
+        bp.getPage(tid2, p1, Permissions.READ_ONLY);
+        TestUtil.LockGrabber t1 = grab(tid1, p1, Permissions.READ_WRITE);
+        assertFalse(t1.acquired());
+        TestUtil.LockGrabber t2 = grab(tid2, p0, Permissions.READ_WRITE);
+
+        assertTrue(t2.getError() instanceof TransactionAbortedException);
+        assertNull(t1.getError());
+        assertTrue(t1.acquired());
+        assertEquals(1, bp.getLockManager().getDeadlockCount());
+        assertTrue(bp.getLockManager().getDetectionCount() >= 2);
+    }
+
+    /**
+     * Two readers of a page both try to upgrade.
+     */
+    @Test public void upgradeDeadlock() throws Exception {
+        bp.getPage(tid1, p0, Permissions.READ_ONLY);
+        bp.getPage(tid2, p0, Permissions.READ_ONLY);
+        TestUtil.LockGrabber t1 = grab(tid1, p0, Permissions.READ_WRITE);
+        TestUtil.LockGrabber t2 = grab(tid2, p0, Permissions.READ_WRITE);
+
+        assertTrue(t2.getError() instanceof TransactionAbortedException);
+        assertTrue(t1.acquired());
+        assertEquals(1, bp.getLockManager().getDeadlockCount());
+    }
+
+    /**
+     * With LEAST_WORK the transaction holding fewer locks is aborted, even
+     * if it is the older one.
+     */
+    @Test public void leastWorkVictim() throws Exception {
+        bp.getLockManager().setVictimPolicy(LockManager.VictimPolicy.LEAST_WORK);
+        bp.getPage(tid1, p0, Permissions.READ_ONLY);
+        bp.getPage(tid2, p1, Permissions.READ_ONLY);
+        bp.getPage(tid2, p2, Permissions.READ_ONLY);
+        TestUtil.LockGrabber t1 = grab(tid1, p1, Permissions.READ_WRITE);
+        TestUtil.LockGrabber t2 = grab(tid2, p0, Permissions.READ_WRITE);
+
+        assertTrue(t1.getError() instanceof TransactionAbortedException);
+        assertNull(t2.getError());
+        assertTrue(t2.acquired());
+    }
+
+    /**
+     * A chain of waits that isn't a cycle aborts nobody.
+     */
+    @Test public void noFalseDeadlock() throws Exception {
+        TransactionId tid3 = new TransactionId();
+        bp.getPage(tid1, p0, Permissions.READ_WRITE);
+        bp.getPage(tid2, p1, Permissions.READ_WRITE);
+        TestUtil.LockGrabber t2 = grab(tid2, p0, Permissions.READ_ONLY);
+        TestUtil.LockGrabber t3 = grab(tid3, p1, Permissions.READ_ONLY);
+        assertFalse(t2.acquired());
+        assertFalse(t3.acquired());
+
+        bp.transactionComplete(tid1);
+        t2.join(TIMEOUT);
+        assertTrue(t2.acquired());
+        bp.transactionComplete(tid2);
+        t3.join(TIMEOUT);
+        assertTrue(t3.acquired());
+        assertNull(t2.getError());
+        assertNull(t3.getError());
+        assertEquals(0, bp.getLockManager().getDeadlockCount());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(DeadlockTest.class);
+    }
+}
@@ -0,0 +1,148 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class EvictionPolicyTest extends SimpleDbTestBase {
+
+    private static final EvictionPolicy.Evictable ANY = new EvictionPolicy.Evictable() {
+        public boolean canEvict(PageId pid) {
+            return true;
+        }
+    };
+
+    private HeapPageId[] pids;
+
+    @Before public void createPids() {
+        pids = new HeapPageId[8];
+        for (int i = 0; i < pids.length; i++)
+            pids[i] = new HeapPageId(1, i);
+    }
+
+    /**
+     * LRU evicts the page that was used longest ago.
+     */
+    @Test public void lru() {
+        EvictionPolicy p = new LRUEvictionPolicy();
+        p.pageAdded(pids[0]);
+        p.pageAdded(pids[1]);
+        p.pageAdded(pids[2]);
+        p.pageAccessed(pids[0]);
+        assertEquals(pids[1], p.chooseVictim(ANY));
+        assertEquals(pids[2], p.chooseVictim(ANY));
+        assertEquals(pids[0], p.chooseVictim(ANY));
+        assertNull(p.chooseVictim(ANY));
+    }
+
+    /**
+     * CLOCK gives referenced pages a second chance.
+     */
+    @Test public void clock() {
+        EvictionPolicy p = new ClockEvictionPolicy();
+        p.pageAdded(pids[0]);
+        p.pageAdded(pids[1]);
+        p.pageAdded(pids[2]);
+        // the first sweep clears every reference bit
+        assertEquals(pids[0], p.chooseVictim(ANY));
+        p.pageAccessed(pids[1]);
+        assertEquals(pids[2], p.chooseVictim(ANY));
+        p.pageRemoved(pids[1]);
+        assertNull(p.chooseVictim(ANY));
+    }
+
+    /**
+     * A one-off scan through A1in doesn't push out pages promoted to Am.
+     */
+    @Test public void twoQScanResistance() {
+        EvictionPolicy p = new TwoQEvictionPolicy(1, 4);
+        // pids[0] is seen, evicted to A1out, then seen again and promoted
+        p.pageAdded(pids[0]);
+        assertEquals(pids[0], p.chooseVictim(ANY));
+        p.pageAdded(pids[0]);
+        // a scan over the remaining pages only churns A1in
+        for (int i = 1; i < pids.length; i++) {
+            p.pageAdded(pids[i]);
+            if (i > 1) assertEquals(pids[i - 1], p.chooseVictim(ANY));
+        }
+        p.pageRemoved(pids[pids.length - 1]);
+        assertEquals(pids[0], p.chooseVictim(ANY));
+    }
+
+    /**
+     * Policies skip pages that can't be evicted, and return null when
+     * nothing can be.
+     */
+    @Test public void skipsUnevictable() {
+        EvictionPolicy.Evictable notZero = new EvictionPolicy.Evictable() {
+            public boolean canEvict(PageId pid) {
+                return !pid.equals(pids[0]);
+            }
+        };
+        EvictionPolicy[] policies = { new LRUEvictionPolicy(), new ClockEvictionPolicy(),
+                new TwoQEvictionPolicy(1, 1) };
+        for (EvictionPolicy p : policies) {
+            p.pageAdded(pids[0]);
+            p.pageAdded(pids[1]);
+            assertEquals(pids[1], p.chooseVictim(notZero));
+            assertNull(p.chooseVictim(notZero));
+        }
+    }
+
+    /**
+     * BufferPool holds at most numPages pages and rereads evicted ones.
+     */
+    @Test public void boundedPool() throws Exception {
+        File f = SystemTestUtil.createRandomHeapFileUnopened(2, 2000, 100, null,
+                new ArrayList<ArrayList<Integer>>());
+        final int[] reads = { 0 };
+        HeapFile hf = new HeapFile(f, Utility.getTupleDesc(2)) {
+            public Page readPage(PageId pid) {
+                reads[0]++;
+                return super.readPage(pid);
+            }
+        };
+        Database.getCatalog().addTable(hf, "t");
+        assertTrue(hf.numPages() >= 3);
+
+        BufferPool bp = Database.resetBufferPool(2, new LRUEvictionPolicy());
+        bp.setReadAheadEnabled(false);
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 3; i++)
+            bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY);
+        bp.getPage(tid, new HeapPageId(hf.getId(), 2), Permissions.READ_ONLY);
+        assertEquals(3, reads[0]);
+        bp.getPage(tid, new HeapPageId(hf.getId(), 0), Permissions.READ_ONLY);
+        assertEquals(4, reads[0]);
+    }
+
+    /**
+     * Dirty pages are never evicted (NO STEAL).
+     */
+    @Test(expected = DbException.class) public void noSteal() throws Exception {
+        File f = SystemTestUtil.createRandomHeapFileUnopened(2, 2000, 100, null,
+                new ArrayList<ArrayList<Integer>>());
+        HeapFile hf = Utility.openHeapFile(2, f);
+        BufferPool bp = Database.resetBufferPool(1, new ClockEvictionPolicy());
+        TransactionId tid = new TransactionId();
+        Page p = bp.getPage(tid, new HeapPageId(hf.getId(), 0), Permissions.READ_WRITE);
+        p.markDirty(true, tid);
+        bp.getPage(tid, new HeapPageId(hf.getId(), 1), Permissions.READ_ONLY);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(EvictionPolicyTest.class);
+    }
+}
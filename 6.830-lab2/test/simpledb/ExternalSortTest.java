@@ -0,0 +1,82 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+import java.util.Random;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class ExternalSortTest extends SimpleDbTestBase {
+
+  /** @return a two column relation of n tuples with random keys, and the row number */
+  private DbIterator randomTuples(int n, Random r) {
+    int[] data = new int[2 * n];
+    for (int i = 0; i < n; i++) {
+      data[2 * i] = r.nextInt(1000);
+      data[2 * i + 1] = i;
+    }
+    return TestUtil.createTupleList(2, data);
+  }
+
+  /** Reads op, checking that it is sorted on field 0 and stable. */
+  private int checkSorted(DbIterator op) throws Exception {
+    int n = 0;
+    Tuple prev = null;
+    while (op.hasNext()) {
+      Tuple t = op.next();
+      if (prev != null) {
+        int k1 = ((IntField) prev.getField(0)).getValue();
+        int k2 = ((IntField) t.getField(0)).getValue();
+        assertTrue(k1 <= k2);
+        if (k1 == k2)
+          assertTrue(((IntField) prev.getField(1)).getValue() < ((IntField) t.getField(1)).getValue());
+      }
+      prev = t;
+      n++;
+    }
+    return n;
+  }
+
+  /**
+   * A child that fits in memory is sorted there
+   */
+  @Test public void inMemory() throws Exception {
+    ExternalSort op = new ExternalSort(0, randomTuples(1000, new Random(1)), 4);
+    op.open();
+    assertEquals(1000, checkSorted(op));
+    assertEquals(0, op.getInitialRuns());
+    op.rewind();
+    assertEquals(1000, checkSorted(op));
+    op.close();
+  }
+
+  /**
+   * A bigger child is sorted in runs, which take several merge passes
+   * when there are more of them than the fan-in
+   */
+  @Test public void mergePasses() throws Exception {
+    // 2 pages hold 1024 tuples of two ints, and runs are merged 2 at a time
+    ExternalSort op = new ExternalSort(0, randomTuples(10000, new Random(2)), 2);
+    op.open();
+    assertEquals(10000, checkSorted(op));
+    assertEquals(2, op.fanIn());
+    assertEquals(10, op.getInitialRuns());
+    assertTrue(op.getMergePasses() >= 3);
+    assertTrue(op.getSpilledTuples() > 10000 * op.getMergePasses());
+    op.rewind();
+    assertEquals(10000, checkSorted(op));
+    op.close();
+    op.open();
+    assertEquals(10, op.getInitialRuns());
+    op.close();
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(ExternalSortTest.class);
+  }
+}
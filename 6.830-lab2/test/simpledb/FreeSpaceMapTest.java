@@ -0,0 +1,119 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class FreeSpaceMapTest extends SimpleDbTestBase {
+    private File f;
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        f = File.createTempFile("fsm", ".dat");
+        f.deleteOnExit();
+        FreeSpaceMap.sidecarFor(f).deleteOnExit();
+        Utility.createEmptyHeapFile(f.getAbsolutePath(), 2);
+        // drop the catalog entry, so that open() can register its own file
+        Database.reset();
+        tid = new TransactionId();
+    }
+
+    /** Opens f with a HeapFile that counts the pages it reads. */
+    private HeapFile open(final AtomicInteger reads) {
+        HeapFile hf = new HeapFile(f, Utility.getTupleDesc(2)) {
+            public Page readPage(PageId pid) {
+                reads.incrementAndGet();
+                return super.readPage(pid);
+            }
+        };
+        Database.getCatalog().addTable(hf, "fsm");
+        return hf;
+    }
+
+    private void fill(HeapFile hf, int pages) throws Exception {
+        int perPage = ((HeapPage) Database.getBufferPool().getPage(tid,
+                new HeapPageId(hf.getId(), 0), Permissions.READ_ONLY)).getNumEmptySlots();
+        for (int i = 0; i < pages * perPage; i++)
+            Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(i, 2));
+        Database.getBufferPool().transactionComplete(tid);
+        tid = new TransactionId();
+    }
+
+    /**
+     * Once the full pages have been written, a reopened file goes straight
+     * to the page with room without reading the full ones.
+     */
+    @Test public void insertSkipsFullPages() throws Exception {
+        HeapFile hf = open(new AtomicInteger());
+        fill(hf, 3);
+        assertEquals(3, hf.numPages());
+        assertEquals(0, hf.getFreeSpaceMap().getFreeSlots(1));
+        hf.close();
+
+        Database.reset();
+        AtomicInteger reads = new AtomicInteger();
+        hf = open(reads);
+        assertEquals(0, hf.getFreeSpaceMap().getFreeSlots(0));
+        assertEquals(3, hf.getFreeSpaceMap().nextPageWithRoom(0));
+        Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(1, 2));
+        assertEquals(4, hf.numPages());
+        assertEquals(1, reads.get());
+    }
+
+    /**
+     * A delete makes its page a candidate again, and the next insert lands
+     * there rather than on a new page.
+     */
+    @Test public void deleteReopensPage() throws Exception {
+        HeapFile hf = open(new AtomicInteger());
+        fill(hf, 2);
+        HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid,
+                new HeapPageId(hf.getId(), 0), Permissions.READ_WRITE);
+        Database.getBufferPool().deleteTuple(tid, page.iterator().next());
+        assertEquals(1, hf.getFreeSpaceMap().getFreeSlots(0));
+        assertEquals(0, hf.getFreeSpaceMap().nextPageWithRoom(0));
+
+        Tuple t = Utility.getHeapTuple(7, 2);
+        Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+        assertEquals(0, t.getRecordId().getPageId().pageNumber());
+        assertEquals(2, hf.numPages());
+        assertEquals(0, hf.getFreeSpaceMap().getFreeSlots(0));
+    }
+
+    /**
+     * Entries survive reopening the sidecar; pages never written stay
+     * unknown.
+     */
+    @Test public void persist() throws Exception {
+        File side = File.createTempFile("fsm", ".fsm");
+        side.deleteOnExit();
+        side.delete();
+        FreeSpaceMap fsm = new FreeSpaceMap(side);
+        fsm.persist(0, 0);
+        fsm.persist(3, 1000);
+        fsm.close();
+
+        fsm = new FreeSpaceMap(side);
+        assertEquals(0, fsm.getFreeSlots(0));
+        assertEquals(-1, fsm.getFreeSlots(1));
+        assertEquals(FreeSpaceMap.MAX_COUNT, fsm.getFreeSlots(3));
+        assertEquals(1, fsm.nextPageWithRoom(0));
+        fsm.forget(0);
+        assertEquals(0, fsm.nextPageWithRoom(0));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(FreeSpaceMapTest.class);
+    }
+}
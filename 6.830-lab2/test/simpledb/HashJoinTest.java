@@ -0,0 +1,178 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+import java.util.Random;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class HashJoinTest extends SimpleDbTestBase {
+
+  int width1 = 2;
+  int width2 = 3;
+  DbIterator scan1;
+  DbIterator scan2;
+  DbIterator eqJoin;
+
+  /**
+   * Initialize each unit test
+   */
+  @Before public void createTupleLists() throws Exception {
+    this.scan1 = TestUtil.createTupleList(width1,
+        new int[] { 1, 2,
+                    3, 4,
+                    5, 6,
+                    7, 8 });
+    this.scan2 = TestUtil.createTupleList(width2,
+        new int[] { 1, 2, 3,
+                    2, 3, 4,
+                    3, 4, 5,
+                    4, 5, 6,
+                    5, 6, 7,
+                    3, 9, 9 });
+    this.eqJoin = TestUtil.createTupleList(width1 + width2,
+        new int[] { 1, 2, 1, 2, 3,
+                    3, 4, 3, 4, 5,
+                    3, 4, 3, 9, 9,
+                    5, 6, 5, 6, 7 });
+  }
+
+  private int count(DbIterator it) throws Exception {
+    int n = 0;
+    while (it.hasNext()) {
+      it.next();
+      n++;
+    }
+    return n;
+  }
+
+  /**
+   * Unit test for HashJoin.getNext(), with the hash table on the smaller
+   * left child
+   */
+  @Test public void buildLeft() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    HashJoin op = new HashJoin(pred, scan1, scan2);
+    assertEquals(Utility.getTupleDesc(width1 + width2), op.getTupleDesc());
+    op.open();
+    assertTrue(op.builtOnLeft());
+    assertEquals(4, count(op));
+    eqJoin.open();
+    TestUtil.matchAllTuples(eqJoin, op);
+  }
+
+  /**
+   * Unit test for HashJoin.getNext(), with the hash table on the smaller
+   * right child; the output still has the left fields first
+   */
+  @Test public void buildRight() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    HashJoin op = new HashJoin(pred, scan2, scan1);
+    op.open();
+    assertFalse(op.builtOnLeft());
+    assertEquals(4, count(op));
+    DbIterator expected = TestUtil.createTupleList(width1 + width2,
+        new int[] { 1, 2, 3, 1, 2,
+                    3, 4, 5, 3, 4,
+                    3, 9, 9, 3, 4,
+                    5, 6, 7, 5, 6 });
+    expected.open();
+    TestUtil.matchAllTuples(expected, op);
+  }
+
+  /**
+   * Unit test for HashJoin.rewind()
+   */
+  @Test public void rewind() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    HashJoin op = new HashJoin(pred, scan1, scan2);
+    op.open();
+    assertEquals(4, count(op));
+    assertTrue(TestUtil.checkExhausted(op));
+    op.rewind();
+    assertEquals(4, count(op));
+    op.close();
+  }
+
+  /** @return a two column relation of n tuples, with keys drawn from 0..keys-1 */
+  private DbIterator randomTuples(int n, int keys, Random r) {
+    int[] data = new int[2 * n];
+    for (int i = 0; i < n; i++) {
+      data[2 * i] = r.nextInt(keys);
+      data[2 * i + 1] = i;
+    }
+    return TestUtil.createTupleList(2, data);
+  }
+
+  /** @return the number of tuples a nested loop join of the two produces */
+  private int nestedLoopCount(DbIterator a, DbIterator b) throws Exception {
+    Join join = new Join(new JoinPredicate(0, Predicate.Op.EQUALS, 0), a, b);
+    join.open();
+    return count(join);
+  }
+
+  /**
+   * Inputs bigger than the memory budget are partitioned and partly
+   * spilled to disk, with the same result as in memory
+   */
+  @Test public void spill() throws Exception {
+    Random r = new Random(1);
+    DbIterator a = randomTuples(5000, 3000, r);
+    DbIterator b = randomTuples(4000, 3000, r);
+    // 4 pages hold 2048 tuples of two ints
+    HashJoin op = new HashJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0), a, b, 4);
+    op.open();
+    int n = 0;
+    while (op.hasNext()) {
+      Tuple t = op.next();
+      assertEquals(t.getField(0), t.getField(2));
+      n++;
+    }
+    assertTrue(op.getLevels() >= 1);
+    assertTrue(op.getSpilledPartitions() > 0);
+    assertTrue(op.getSpilledPartitions() < op.getPartitions());
+    assertTrue(op.getSpilledTuples() > 0);
+    assertEquals(op.getSpilledTuples() * 8, op.getSpilledBytes());
+    assertTrue(op.explain().contains("spilled"));
+    String explain = op.explain();
+    op.rewind();
+    assertEquals(n, count(op));
+    // a spilled join starts over, counting what it spills afresh
+    assertEquals(explain, op.explain());
+    op.close();
+    a.rewind();
+    b.rewind();
+    assertEquals(nestedLoopCount(a, b), n);
+  }
+
+  /**
+   * A partition of equal keys can't be split by hashing; it is joined by
+   * a nested loop after the last partitioning pass
+   */
+  @Test public void spillSkewed() throws Exception {
+    Random r = new Random(2);
+    HashJoin op = new HashJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+        randomTuples(700, 1, r), randomTuples(700, 1, r), 1);
+    op.open();
+    assertEquals(700 * 700, count(op));
+    assertEquals(HashJoin.MAX_LEVEL, op.getLevels());
+    op.close();
+  }
+
+  /**
+   * HashJoin only evaluates equality predicates
+   */
+  @Test(expected = IllegalArgumentException.class) public void rejectsRange() {
+    new HashJoin(new JoinPredicate(0, Predicate.Op.GREATER_THAN, 0), scan1, scan2);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(HashJoinTest.class);
+  }
+}
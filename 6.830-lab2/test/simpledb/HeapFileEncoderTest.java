@@ -0,0 +1,120 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class HeapFileEncoderTest extends SimpleDbTestBase {
+
+    private static File tempFile(String suffix) throws IOException {
+        File f = File.createTempFile("encoder", suffix);
+        f.deleteOnExit();
+        return f;
+    }
+
+    private static byte[] read(File f) throws IOException {
+        byte[] b = new byte[(int) f.length()];
+        DataInputStream in = new DataInputStream(new FileInputStream(f));
+        in.readFully(b);
+        in.close();
+        return b;
+    }
+
+    /**
+     * Chunked, parallel conversion gives the same file as a single thread
+     * reading the input in one piece, and the tuples read back as written.
+     */
+    @Test public void parallelMatchesSequential() throws Exception {
+        File txt = tempFile(".txt");
+        Writer w = new BufferedWriter(new FileWriter(txt));
+        int rows = 40000;
+        for (int i = 0; i < rows; i++) {
+            // a few blank and Windows-style lines along the way
+            if (i % 1000 == 0) w.write("\n");
+            w.write((i - rows / 2) + ", name" + i + (i % 7 == 0 ? "\r\n" : "\n"));
+        }
+        w.write(rows + ",last"); // no line end
+        w.close();
+
+        Type[] types = new Type[] { Type.INT_TYPE, Type.STRING_TYPE };
+        File one = tempFile(".dat");
+        File many = tempFile(".dat");
+        HeapFileEncoder.convert(txt, one, BufferPool.getPageSize(), 2, types, ',', 1);
+        HeapFileEncoder.convert(txt, many, BufferPool.getPageSize(), 2, types, ',', 4, 10000);
+        assertTrue(Arrays.equals(read(one), read(many)));
+
+        HeapFile hf = new HeapFile(many, new TupleDesc(types));
+        Database.getCatalog().addTable(hf, "encoded");
+        DbFileIterator it = hf.iterator(null);
+        it.open();
+        int n = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            int i = n < rows ? n : rows;
+            assertEquals(new IntField(n < rows ? i - rows / 2 : rows), t.getField(0));
+            assertEquals(n < rows ? "name" + i : "last", ((StringField) t.getField(1)).getValue());
+            n++;
+        }
+        it.close();
+        assertEquals(rows + 1, n);
+    }
+
+    /**
+     * Converting a list gives the same file as converting the same tuples
+     * as text.
+     */
+    @Test public void listMatchesText() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        File txt = tempFile(".txt");
+        Writer w = new BufferedWriter(new FileWriter(txt));
+        for (int i = 0; i < 3000; i++) {
+            ArrayList<Integer> tuple = new ArrayList<Integer>();
+            tuple.add(i);
+            tuple.add(-i * 31);
+            tuples.add(tuple);
+            w.write(i + "," + (-i * 31) + "\n");
+        }
+        w.close();
+
+        File fromList = tempFile(".dat");
+        File fromText = tempFile(".dat");
+        HeapFileEncoder.convert(tuples, fromList, BufferPool.getPageSize(), 2);
+        HeapFileEncoder.convert(txt, fromText, BufferPool.getPageSize(), 2);
+        assertEquals(6 * BufferPool.getPageSize(), fromList.length());
+        assertTrue(Arrays.equals(read(fromList), read(fromText)));
+
+        // an empty input still makes one empty page
+        HeapFileEncoder.convert(new ArrayList<ArrayList<Integer>>(), fromList,
+                BufferPool.getPageSize(), 2);
+        assertEquals(BufferPool.getPageSize(), fromList.length());
+    }
+
+    /**
+     * A line with the wrong number of fields is an error, wherever it is.
+     */
+    @Test(expected = IOException.class) public void malformedLine() throws Exception {
+        File txt = tempFile(".txt");
+        Writer w = new BufferedWriter(new FileWriter(txt));
+        for (int i = 0; i < 5000; i++)
+            w.write(i + "," + i + "\n");
+        w.write("1,2,3\n");
+        w.close();
+        HeapFileEncoder.convert(txt, tempFile(".dat"), BufferPool.getPageSize(), 2,
+                new Type[] { Type.INT_TYPE, Type.INT_TYPE }, ',', 2, 4096);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HeapFileEncoderTest.class);
+    }
+}
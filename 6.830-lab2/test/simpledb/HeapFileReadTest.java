@@ -121,6 +121,33 @@ public class HeapFileReadTest extends SimpleDbTestBase {
         it.close();
     }
 
+    /**
+     * Unit test for HeapFile.iterator() with pushed down predicates
+     */
+    @Test
+    public void testIteratorPredicates() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile big = SystemTestUtil.createRandomHeapFile(2, 3000, 100, null, tuples);
+        List<Predicate> preds = Arrays.asList(
+                new Predicate(0, Predicate.Op.LESS_THAN, new IntField(30)),
+                new Predicate(1, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(50)));
+        int expected = 0;
+        for (ArrayList<Integer> t : tuples)
+            if (t.get(0) < 30 && t.get(1) >= 50) expected++;
+
+        DbFileIterator it = big.iterator(tid, preds);
+        it.open();
+        int n = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            assertTrue(((IntField) t.getField(0)).getValue() < 30);
+            assertTrue(((IntField) t.getField(1)).getValue() >= 50);
+            n++;
+        }
+        it.close();
+        assertEquals(expected, n);
+    }
+
     /**
      * JUnit suite target
      */
@@ -5,6 +5,9 @@ import org.junit.Before;
 import org.junit.Test;
 
 import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+
 import junit.framework.JUnit4TestAdapter;
 
 public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
@@ -43,6 +46,54 @@ public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
         assertEquals(3, empty.numPages());
     }
 
+    private ArrayList<Tuple> tuples(int n) {
+        ArrayList<Tuple> tups = new ArrayList<Tuple>();
+        for (int i = 0; i < n; ++i)
+            tups.add(Utility.getHeapTuple(i, 2));
+        return tups;
+    }
+
+    private int count(TransactionId tid) throws Exception {
+        DbFileIterator it = empty.iterator(tid);
+        it.open();
+        int n = 0;
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        it.close();
+        return n;
+    }
+
+    /**
+     * Unit test for BufferPool.insertTuples(): the free slots of the first
+     * page are filled, and the rest goes to new pages.
+     */
+    @Test public void addTuples() throws Exception {
+        empty.insertTuple(tid, Utility.getHeapTuple(0, 2));
+        BufferPool bp = Database.getBufferPool();
+        assertEquals(1500, bp.insertTuples(tid, empty.getId(), tuples(1500).iterator()));
+        // 1501 tuples at 504 per page
+        assertEquals(3, empty.numPages());
+        assertEquals(1501, count(tid));
+        assertEquals(0, empty.getFreeSpaceMap().getFreeSlots(0));
+        assertEquals(3 * 504 - 1501, empty.getFreeSpaceMap().getFreeSlots(2));
+    }
+
+    /**
+     * Pages appended by an aborted bulk insert are emptied again.
+     */
+    @Test public void addTuplesAbort() throws Exception {
+        BufferPool bp = Database.getBufferPool();
+        bp.insertTuples(tid, empty.getId(), tuples(2000).iterator());
+        assertEquals(4, empty.numPages());
+        bp.transactionComplete(tid, false);
+
+        tid = new TransactionId();
+        assertEquals(0, count(tid));
+        assertEquals(0, empty.getFreeSpaceMap().nextPageWithRoom(0));
+    }
+
     /**
      * JUnit suite target
      */
@@ -6,6 +6,7 @@ import simpledb.systemtest.SystemTestUtil;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.*;
 
 import org.junit.Before;
@@ -120,6 +121,63 @@ public class HeapPageReadTest extends SimpleDbTestBase {
             assertFalse(page.isSlotUsed(i));
     }
 
+    /**
+     * Tuples are decoded as they are reached, but an iterator still sees
+     * the page as it was when the iterator was created.
+     */
+    @Test public void lazyIterator() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        Iterator<Tuple> before = page.iterator();
+        Tuple first = page.iterator().next();
+        page.deleteTuple(first);
+        page.insertTuple(Utility.getHeapTuple(new int[] { 1, 2 }));
+
+        int row = 0;
+        while (before.hasNext()) {
+            Tuple tup = before.next();
+            assertEquals(new RecordId(pid, row), tup.getRecordId());
+            assertEquals(EXAMPLE_VALUES[row][1], ((IntField) tup.getField(1)).getValue());
+            assertEquals(EXAMPLE_VALUES[row][0], ((IntField) tup.getField(0)).getValue());
+            row++;
+        }
+        assertEquals(EXAMPLE_VALUES.length, row);
+
+        // the new tuple took the freed slot
+        Iterator<Tuple> after = page.iterator();
+        assertEquals(new IntField(1), after.next().getField(0));
+        assertEquals(EXAMPLE_VALUES[1][0], ((IntField) after.next().getField(0)).getValue());
+    }
+
+    /**
+     * Slots that were never decoded are written back as they were read.
+     */
+    @Test public void undecodedPageData() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        assertTrue(Arrays.equals(EXAMPLE_DATA, page.getPageData()));
+        page.iterator().next().getField(1);
+        assertTrue(Arrays.equals(EXAMPLE_DATA, page.getPageData()));
+    }
+
+    /**
+     * A page built from a read-only buffer, as from a mapped file, decodes
+     * its tuples from the buffer rather than from a copy; a writable buffer,
+     * which the caller may reuse, is copied.
+     */
+    @Test public void readOnlyBufferIsShared() throws Exception {
+        byte[] data = EXAMPLE_DATA.clone();
+        HeapPage shared = new HeapPage(pid, ByteBuffer.wrap(data).asReadOnlyBuffer());
+        HeapPage copied = new HeapPage(pid, ByteBuffer.wrap(data));
+        assertTrue(Arrays.equals(EXAMPLE_DATA, shared.getPageData()));
+        assertTrue(Arrays.equals(EXAMPLE_DATA, shared.getBeforeImage().getPageData()));
+
+        // the first field of slot 0, after the 63 header bytes
+        ByteBuffer.wrap(data).putInt(63, 7);
+        assertEquals(new IntField(7), shared.iterator().next().getField(0));
+        assertEquals(new IntField(EXAMPLE_VALUES[0][0]), copied.iterator().next().getField(0));
+        Predicate p = new Predicate(0, Predicate.Op.EQUALS, new IntField(7));
+        assertTrue(shared.iterator(Collections.singletonList(p)).hasNext());
+    }
+
     /**
      * JUnit suite target
      */
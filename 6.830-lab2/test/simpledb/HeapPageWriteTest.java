@@ -4,6 +4,8 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.LinkedList;
 
@@ -126,6 +128,26 @@ public class HeapPageWriteTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Serializing into a reused buffer that holds old bytes gives the same
+     * page as getPageData(), and the before image of a freshly read page is
+     * the data it was read from.
+     */
+    @Test public void pageDataIntoBuffer() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        assertTrue(Arrays.equals(HeapPageReadTest.EXAMPLE_DATA, page.getBeforeImage().getPageData()));
+        page.insertTuple(Utility.getHeapTuple(7, 2));
+
+        byte[] expected = page.getPageData();
+        ByteBuffer buf = ByteBuffer.allocate(BufferPool.getPageSize() + 10);
+        Arrays.fill(buf.array(), (byte) 0x5a);
+        buf.position(10);
+        page.getPageData(buf);
+        assertEquals(10 + BufferPool.getPageSize(), buf.position());
+        assertTrue(Arrays.equals(expected, Arrays.copyOfRange(buf.array(), 10, buf.position())));
+        assertTrue(Arrays.equals(HeapPageReadTest.EXAMPLE_DATA, page.getBeforeImage().getPageData()));
+    }
+
     /**
      * JUnit suite target
      */
@@ -0,0 +1,115 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class IndexNestedLoopJoinTest extends SimpleDbTestBase {
+    private final TupleDesc td = Utility.getTupleDesc(2);
+    private BTreeFile bf;
+    private TransactionId tid;
+
+    /**
+     * Fills a B+ tree, keyed on field 0, with keys 0, 2, .. 1998, each twice.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        File f = File.createTempFile("inner", ".dat");
+        f.deleteOnExit();
+        bf = new BTreeFile(f, 0, td);
+        Database.getCatalog().addTable(bf, "inner");
+        BufferPool bp = Database.resetBufferPool(1000);
+        tid = new TransactionId();
+        for (int i = 0; i < 2000; i++) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new IntField(2 * (i % 1000)));
+            t.setField(1, new IntField(i));
+            bp.insertTuple(tid, bf.getId(), t);
+        }
+        bp.transactionComplete(tid);
+        tid = new TransactionId();
+    }
+
+    private DbIterator outer() {
+        Random r = new Random(1);
+        int[] data = new int[2 * 50];
+        for (int i = 0; i < 50; i++) {
+            data[2 * i] = r.nextInt(2100);
+            data[2 * i + 1] = i;
+        }
+        return TestUtil.createTupleList(2, data);
+    }
+
+    private int count(DbIterator op) throws Exception {
+        int n = 0;
+        for (op.open(); op.hasNext(); op.next())
+            n++;
+        op.close();
+        return n;
+    }
+
+    /**
+     * Each predicate gives the same tuples as a nested loop join, with one
+     * index lookup per outer tuple
+     */
+    @Test public void matchesNestedLoop() throws Exception {
+        Predicate.Op[] ops = { Predicate.Op.EQUALS, Predicate.Op.LESS_THAN, Predicate.Op.LESS_THAN_OR_EQ,
+            Predicate.Op.GREATER_THAN, Predicate.Op.GREATER_THAN_OR_EQ };
+        for (Predicate.Op op : ops) {
+            JoinPredicate pred = new JoinPredicate(0, op, 0);
+            IndexNestedLoopJoin inl = new IndexNestedLoopJoin(pred, outer(), new SeqScan(tid, bf.getId(), "b"));
+            int n = count(inl);
+            assertEquals(50, inl.getLookups());
+            assertEquals(count(new Join(pred, outer(), new SeqScan(tid, bf.getId(), "b"))), n);
+        }
+    }
+
+    /**
+     * Predicates pushed down into the inner scan still apply
+     */
+    @Test public void innerPredicates() throws Exception {
+        JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        SeqScan inner = new SeqScan(tid, bf.getId(), "b");
+        inner.addPredicate(new Predicate(1, Predicate.Op.LESS_THAN, new IntField(1000)));
+        IndexNestedLoopJoin op = new IndexNestedLoopJoin(pred, outer(), inner);
+        op.open();
+        int n = 0;
+        while (op.hasNext()) {
+            Tuple t = op.next();
+            assertEquals(t.getField(0), t.getField(2));
+            assertTrue(((IntField) t.getField(3)).getValue() < 1000);
+            n++;
+        }
+        op.rewind();
+        int again = 0;
+        for (; op.hasNext(); op.next())
+            again++;
+        op.close();
+        assertEquals(n, again);
+        SeqScan all = new SeqScan(tid, bf.getId(), "b");
+        assertEquals(2 * n, count(new IndexNestedLoopJoin(pred, outer(), all)));
+    }
+
+    /**
+     * The inner join field must be the key of the tree
+     */
+    @Test(expected = IllegalArgumentException.class) public void notOnKey() {
+        new IndexNestedLoopJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 1), outer(),
+            new SeqScan(tid, bf.getId(), "b"));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(IndexNestedLoopJoinTest.class);
+    }
+}
@@ -6,6 +6,7 @@ import org.junit.Test;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import junit.framework.JUnit4TestAdapter;
+import simpledb.systemtest.SystemTestUtil;
 
 /**
  * We reserve more heavy-duty insertion testing for HeapFile and HeapPage.
@@ -56,6 +57,25 @@ public class InsertTest extends TestUtil.CreateHeapFile {
     assertEquals(1, empty.numPages());
   }
 
+  /**
+   * Unit test for Insert.getNext(), from a SeqScan, which prefixes the field
+   * names with its alias; only the field types must match the table
+   */
+  @Test public void getNextFromAliasedScan() throws Exception {
+    HeapFile source = SystemTestUtil.createRandomHeapFile(2, 5, null, null);
+    Insert op = new Insert(tid, new SeqScan(tid, source.getId(), "s"), empty.getId());
+    op.open();
+    assertTrue(TestUtil.compareTuples(Utility.getHeapTuple(5, 1), op.next()));
+    op.close();
+  }
+
+  /**
+   * Unit test for the constructor, with a child of the wrong field types
+   */
+  @Test(expected = DbException.class) public void rejectsOtherTypes() throws Exception {
+    new Insert(tid, TestUtil.createTupleList(3, new int[] { 1, 2, 3 }), empty.getId());
+  }
+
   /**
    * JUnit suite target
    */
@@ -0,0 +1,121 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Vector;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class JoinOptimizerTest extends SimpleDbTestBase {
+    private static final int IO_COST = 1000;
+
+    private LogicalPlan lp;
+    private HashMap<String, TableStats> stats;
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        lp = new LogicalPlan();
+        stats = new HashMap<String, TableStats>();
+        tid = new TransactionId();
+    }
+
+    /** Adds a heap file of rows random tuples to the plan as alias. */
+    private void heapTable(String alias, int rows) throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, rows, null, null, "c");
+        lp.addScan(f.getId(), alias);
+        stats.put(alias, new TableStats(f.getId(), IO_COST));
+    }
+
+    /** Adds a B+ tree of rows tuples keyed on c0 to the plan as alias. */
+    private void treeTable(String alias, int rows) throws Exception {
+        File f = File.createTempFile("tree", ".dat");
+        f.deleteOnExit();
+        TupleDesc td = Utility.getTupleDesc(2, "c");
+        BTreeFile bf = new BTreeFile(f, 0, td);
+        Database.getCatalog().addTable(bf, SystemTestUtil.getUUID());
+        // in transactions small enough for the buffer pool
+        for (int i = 0; i < rows; i += 1000) {
+            TransactionId load = new TransactionId();
+            for (int j = i; j < Math.min(rows, i + 1000); j++) {
+                Tuple t = new Tuple(td);
+                t.setField(0, new IntField(j));
+                t.setField(1, new IntField(j));
+                Database.getBufferPool().insertTuple(load, bf.getId(), t);
+            }
+            Database.getBufferPool().transactionComplete(load);
+        }
+        lp.addScan(bf.getId(), alias);
+        stats.put(alias, new TableStats(bf.getId(), IO_COST));
+    }
+
+    private DbIterator instantiate(String t1, String t2, Predicate.Op op) throws Exception {
+        LogicalJoinNode lj = new LogicalJoinNode(t1, t2, t1 + ".c0", t2 + ".c0", op);
+        Vector<LogicalJoinNode> joins = new Vector<LogicalJoinNode>();
+        joins.add(lj);
+        JoinOptimizer jo = new JoinOptimizer(lp, joins);
+        return jo.instantiateJoin(lj, new SeqScan(tid, lp.getTableId(t1), t1),
+                new SeqScan(tid, lp.getTableId(t2), t2), stats);
+    }
+
+    /**
+     * TableStats counts the pages and tuples of the table
+     */
+    @Test public void tableStats() throws Exception {
+        heapTable("a", 1000);
+        HeapFile f = (HeapFile) Database.getCatalog().getDatabaseFile(lp.getTableId("a"));
+        assertEquals(1000, stats.get("a").estimateTableCardinality(1.0));
+        assertEquals(100, stats.get("a").estimateTableCardinality(0.1));
+        assertEquals((double) f.numPages() * IO_COST, stats.get("a").estimateScanCost(), 0.0);
+    }
+
+    /**
+     * A few outer tuples probe a large B+ tree on its key instead of
+     * scanning it
+     */
+    @Test public void indexJoinForFewLookups() throws Exception {
+        heapTable("a", 2);
+        treeTable("b", 20000);
+        assertTrue(instantiate("a", "b", Predicate.Op.EQUALS) instanceof IndexNestedLoopJoin);
+        assertTrue(instantiate("a", "b", Predicate.Op.LESS_THAN) instanceof IndexNestedLoopJoin);
+    }
+
+    /**
+     * Equality joins that have to read both tables anyway are hashed
+     */
+    @Test public void hashJoinForEquality() throws Exception {
+        heapTable("a", 2000);
+        heapTable("b", 2000);
+        assertTrue(instantiate("a", "b", Predicate.Op.EQUALS) instanceof HashJoin);
+        treeTable("c", 100);
+        assertTrue(instantiate("a", "c", Predicate.Op.EQUALS) instanceof HashJoin);
+    }
+
+    /**
+     * Range joins of many tuples are sort-merge joined; tiny ones, where
+     * sorting doesn't pay off, stay nested loop joins
+     */
+    @Test public void sortMergeForLargeRangeJoins() throws Exception {
+        heapTable("a", 1000);
+        heapTable("b", 1000);
+        assertTrue(instantiate("a", "b", Predicate.Op.GREATER_THAN) instanceof SortMergeJoin);
+        heapTable("c", 1);
+        heapTable("d", 1);
+        assertTrue(instantiate("c", "d", Predicate.Op.GREATER_THAN) instanceof Join);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(JoinOptimizerTest.class);
+    }
+}
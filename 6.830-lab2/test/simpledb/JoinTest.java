@@ -105,6 +105,41 @@ public class JoinTest extends SimpleDbTestBase {
     TestUtil.matchAllTuples(eqJoin, op);
   }
 
+  /**
+   * Unit test for Join.getNext() with an outer child of several blocks,
+   * before and after a rewind
+   */
+  @Test public void blocks() throws Exception {
+    // a one page block holds 512 tuples of two ints
+    int[] outer = new int[2 * 2000];
+    for (int i = 0; i < 2000; i++) {
+      outer[2 * i] = i % 100;
+      outer[2 * i + 1] = i;
+    }
+    int[] inner = new int[3 * 50];
+    for (int i = 0; i < 50; i++)
+      inner[3 * i] = 2 * i;
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.GREATER_THAN, 0);
+    Join op = new Join(pred, TestUtil.createTupleList(width1, outer),
+        TestUtil.createTupleList(width2, inner), 1);
+    // key k of the outer is greater than the inner keys 0, 2, .. < k
+    int expected = 0;
+    for (int k = 0; k < 100; k++)
+      expected += 20 * ((k + 1) / 2);
+    op.open();
+    for (int pass = 0; pass < 2; pass++) {
+      int n = 0;
+      while (op.hasNext()) {
+        Tuple t = op.next();
+        assertTrue(t.getField(0).compare(Predicate.Op.GREATER_THAN, t.getField(width1)));
+        n++;
+      }
+      assertEquals(expected, n);
+      op.rewind();
+    }
+    op.close();
+  }
+
   /**
    * JUnit suite target
    */
@@ -0,0 +1,107 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class LockingTest extends SimpleDbTestBase {
+    private static final int TIMEOUT = 100;
+
+    private HeapFile file;
+    private PageId p0, p1;
+    private TransactionId tid1, tid2;
+    private BufferPool bp;
+
+    @Before public void setUp() throws Exception {
+        file = SystemTestUtil.createRandomHeapFile(2, 1024, null, null);
+        p0 = new HeapPageId(file.getId(), 0);
+        p1 = new HeapPageId(file.getId(), 1);
+        tid1 = new TransactionId();
+        tid2 = new TransactionId();
+        bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    }
+
+    /**
+     * Tries to acquire a lock in another thread and reports whether it got
+     * it within TIMEOUT ms. The thread keeps waiting afterwards.
+     */
+    private TestUtil.LockGrabber grab(TransactionId tid, PageId pid, Permissions perm)
+            throws InterruptedException {
+        TestUtil.LockGrabber t = new TestUtil.LockGrabber(tid, pid, perm);
+        t.start();
+        Thread.sleep(TIMEOUT);
+        return t;
+    }
+
+    @Test public void sharedLocksAreCompatible() throws Exception {
+        bp.getPage(tid1, p0, Permissions.READ_ONLY);
+        assertTrue(grab(tid2, p0, Permissions.READ_ONLY).acquired());
+        assertTrue(bp.holdsLock(tid1, p0));
+        assertTrue(bp.holdsLock(tid2, p0));
+    }
+
+    @Test public void exclusiveBlocksShared() throws Exception {
+        bp.getPage(tid1, p0, Permissions.READ_WRITE);
+        TestUtil.LockGrabber t = grab(tid2, p0, Permissions.READ_ONLY);
+        assertFalse(t.acquired());
+        // other pages are unaffected
+        assertTrue(grab(tid2, p1, Permissions.READ_WRITE).acquired());
+
+        bp.transactionComplete(tid1);
+        t.join(TIMEOUT);
+        assertTrue(t.acquired());
+        assertFalse(bp.holdsLock(tid1, p0));
+    }
+
+    @Test public void sharedBlocksExclusive() throws Exception {
+        bp.getPage(tid1, p0, Permissions.READ_ONLY);
+        TestUtil.LockGrabber t = grab(tid2, p0, Permissions.READ_WRITE);
+        assertFalse(t.acquired());
+        bp.releasePage(tid1, p0);
+        t.join(TIMEOUT);
+        assertTrue(t.acquired());
+    }
+
+    @Test public void upgrade() throws Exception {
+        bp.getPage(tid1, p0, Permissions.READ_ONLY);
+        bp.getPage(tid1, p0, Permissions.READ_WRITE);
+        assertTrue(bp.getLockManager().holdsExclusive(tid1, p0));
+        assertFalse(grab(tid2, p0, Permissions.READ_ONLY).acquired());
+    }
+
+    @Test public void upgradeWaitsForOtherReaders() throws Exception {
+        bp.getPage(tid1, p0, Permissions.READ_ONLY);
+        bp.getPage(tid2, p0, Permissions.READ_ONLY);
+        TestUtil.LockGrabber t = grab(tid1, p0, Permissions.READ_WRITE);
+        assertFalse(t.acquired());
+        bp.transactionComplete(tid2);
+        t.join(TIMEOUT);
+        assertTrue(t.acquired());
+    }
+
+    @Test public void abortDiscardsChanges() throws Exception {
+        HeapPage page = (HeapPage) bp.getPage(tid1, p0, Permissions.READ_WRITE);
+        int free = page.getNumEmptySlots();
+        Tuple t = page.iterator().next();
+        bp.deleteTuple(tid1, t);
+        assertEquals(free + 1, ((HeapPage) bp.getPage(tid1, p0, Permissions.READ_ONLY)).getNumEmptySlots());
+
+        bp.transactionComplete(tid1, false);
+        assertFalse(bp.holdsLock(tid1, p0));
+        HeapPage reread = (HeapPage) bp.getPage(tid2, p0, Permissions.READ_ONLY);
+        assertEquals(free, reread.getNumEmptySlots());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LockingTest.class);
+    }
+}
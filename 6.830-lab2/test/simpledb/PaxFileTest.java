@@ -0,0 +1,143 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class PaxFileTest extends SimpleDbTestBase {
+    private static final int ROWS = 1000;
+
+    private final Type[] types = new Type[] { Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE };
+    private File txt;
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        txt = tempFile(".txt");
+        Writer w = new BufferedWriter(new FileWriter(txt));
+        for (int i = 0; i < ROWS; i++)
+            w.write(i + ",name" + i + "," + (i * 3) + "\n");
+        w.close();
+        tid = new TransactionId();
+    }
+
+    private static File tempFile(String suffix) throws IOException {
+        File f = File.createTempFile("pax", suffix);
+        f.deleteOnExit();
+        return f;
+    }
+
+    private PaxFile encode() throws IOException {
+        File dat = tempFile(".dat");
+        HeapFileEncoder.convertPax(txt, dat, BufferPool.getPageSize(), 3, types, ',', 1);
+        PaxFile pf = new PaxFile(dat, new TupleDesc(types));
+        Database.getCatalog().addTable(pf, "pax");
+        return pf;
+    }
+
+    private static ArrayList<Tuple> read(DbFileIterator it) throws Exception {
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        it.open();
+        while (it.hasNext())
+            tuples.add(it.next());
+        it.close();
+        return tuples;
+    }
+
+    /**
+     * An encoded file has the same number of pages as the heap file of the
+     * same data, and reads back the tuples in order.
+     */
+    @Test public void encodeAndScan() throws Exception {
+        PaxFile pf = encode();
+        File heap = tempFile(".dat");
+        HeapFileEncoder.convert(txt, heap, BufferPool.getPageSize(), 3, types, ',', 1);
+        assertEquals(heap.length(), pf.getFile().length());
+
+        ArrayList<Tuple> tuples = read(pf.iterator(tid));
+        assertEquals(ROWS, tuples.size());
+        for (int i = 0; i < ROWS; i++) {
+            Tuple t = tuples.get(i);
+            assertEquals(new IntField(i), t.getField(0));
+            assertEquals("name" + i, ((StringField) t.getField(1)).getValue());
+            assertEquals(new IntField(i * 3), t.getField(2));
+        }
+    }
+
+    /**
+     * Only the requested columns are filled in, and predicates may be on
+     * other columns.
+     */
+    @Test public void projectedColumns() throws Exception {
+        PaxFile pf = encode();
+        ArrayList<Predicate> preds = new ArrayList<Predicate>();
+        preds.add(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(10)));
+        ArrayList<Tuple> tuples = read(pf.iterator(tid, new int[] { 2 }, preds));
+        assertEquals(10, tuples.size());
+        for (int i = 0; i < 10; i++) {
+            Tuple t = tuples.get(i);
+            assertNull(t.getField(0));
+            assertNull(t.getField(1));
+            assertEquals(new IntField(i * 3), t.getField(2));
+        }
+
+        SeqScan scan = new SeqScan(tid, pf.getId(), "pax");
+        scan.addPredicate(new Predicate(1, Predicate.Op.EQUALS,
+                new StringField("name500", Type.STRING_LEN)));
+        scan.setColumns(new int[] { 0 });
+        scan.open();
+        assertTrue(scan.hasNext());
+        Tuple t = scan.next();
+        assertEquals(new IntField(500), t.getField(0));
+        assertNull(t.getField(2));
+        assertFalse(scan.hasNext());
+        scan.close();
+    }
+
+    /**
+     * Inserts and deletes go through the buffer pool and survive a commit.
+     */
+    @Test public void insertDelete() throws Exception {
+        PaxFile pf = encode();
+        int pages = pf.numPages();
+        BufferPool bp = Database.getBufferPool();
+        DbFileIterator it = pf.iterator(tid);
+        it.open();
+        Tuple first = it.next();
+        it.close();
+        bp.deleteTuple(tid, first);
+
+        Tuple t = new Tuple(pf.getTupleDesc());
+        t.setField(0, new IntField(-1));
+        t.setField(1, new StringField("new", Type.STRING_LEN));
+        t.setField(2, new IntField(-3));
+        bp.insertTuple(tid, pf.getId(), t);
+        // the freed slot is reused
+        assertEquals(first.getRecordId(), t.getRecordId());
+        bp.transactionComplete(tid);
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        tid = new TransactionId();
+        assertEquals(pages, pf.numPages());
+        ArrayList<Tuple> tuples = read(pf.iterator(tid));
+        assertEquals(ROWS, tuples.size());
+        assertEquals(new IntField(-1), tuples.get(0).getField(0));
+        assertEquals("new", ((StringField) tuples.get(0).getField(1)).getValue());
+        assertEquals(new IntField(1), tuples.get(1).getField(0));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PaxFileTest.class);
+    }
+}
@@ -1,8 +1,11 @@
 package simpledb;
 
+import java.nio.ByteBuffer;
+
 import org.junit.Test;
 
 import simpledb.systemtest.SimpleDbTestBase;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.assertFalse;
 import junit.framework.JUnit4TestAdapter;
@@ -55,6 +58,38 @@ public class PredicateTest extends SimpleDbTestBase{
     }
   }
 
+  private static boolean filterBytes(Predicate p, Field f) {
+    ByteBuffer buf = ByteBuffer.allocate(3 + f.getType().getLen());
+    buf.position(3);
+    f.serialize(buf);
+    return p.filter(buf.array(), 3);
+  }
+
+  /**
+   * Predicate.filter() on serialized fields agrees with filter() on tuples.
+   */
+  @Test public void filterSerialized() {
+    Field[] ints = new Field[] { new IntField(Integer.MIN_VALUE), new IntField(-1),
+        new IntField(0), new IntField(1), new IntField(300), new IntField(Integer.MAX_VALUE) };
+    Field[] strings = new Field[] { new StringField("", Type.STRING_LEN),
+        new StringField("a", Type.STRING_LEN), new StringField("ab", Type.STRING_LEN),
+        new StringField("abc", Type.STRING_LEN), new StringField("b", Type.STRING_LEN),
+        new StringField("Ab", Type.STRING_LEN) };
+    for (Field[] fields : new Field[][] { ints, strings }) {
+      TupleDesc td = new TupleDesc(new Type[] { fields[0].getType() });
+      for (Predicate.Op op : Predicate.Op.values()) {
+        for (Field operand : fields) {
+          Predicate p = new Predicate(0, op, operand);
+          for (Field f : fields) {
+            Tuple t = new Tuple(td);
+            t.setField(0, f);
+            assertEquals(p + " on " + f, p.filter(t), filterBytes(p, f));
+          }
+        }
+      }
+    }
+  }
+
   /**
    * JUnit suite target
    */
@@ -0,0 +1,85 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class ReadAheadTest extends SimpleDbTestBase {
+
+    private HeapFile hf;
+    private BufferPool bp;
+    private TransactionId tid;
+
+    @Before public void createTable() throws Exception {
+        hf = SystemTestUtil.createRandomHeapFile(2, 504 * 40, null, null);
+        bp = Database.resetBufferPool(100, new LRUEvictionPolicy());
+        bp.setReadAheadEnabled(true);
+        tid = new TransactionId();
+    }
+
+    /**
+     * A sequential scan is served almost entirely from prefetched pages.
+     */
+    @Test public void sequentialScan() throws Exception {
+        for (int i = 0; i < hf.numPages(); i++)
+            bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY);
+        ReadAhead ra = bp.getReadAhead();
+        assertTrue(ra.getIssuedCount() > 0);
+        // pages 0 and 1 are needed to detect the run
+        assertEquals(hf.numPages() - 2, ra.getHitCount());
+        assertEquals(0, ra.getWastedCount());
+        assertEquals(1.0, ra.getHitRate(), 0.0);
+    }
+
+    /**
+     * Scattered reads don't trigger any prefetching.
+     */
+    @Test public void randomAccess() throws Exception {
+        int[] pages = { 7, 3, 30, 12, 0, 25, 9 };
+        for (int p : pages)
+            bp.getPage(tid, new HeapPageId(hf.getId(), p), Permissions.READ_ONLY);
+        assertEquals(0, bp.getReadAhead().getIssuedCount());
+    }
+
+    /**
+     * Pages staged for an abandoned scan are counted as waste.
+     */
+    @Test public void abandonedScan() throws Exception {
+        for (int i = 0; i < 4; i++)
+            bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY);
+        bp.getPage(tid, new HeapPageId(hf.getId(), 30), Permissions.READ_ONLY);
+        ReadAhead ra = bp.getReadAhead();
+        assertTrue(ra.getWastedCount() > 0);
+        assertEquals(ra.getIssuedCount(), ra.getHitCount() + ra.getWastedCount());
+    }
+
+    /**
+     * Two transactions scanning different halves of a table at the same
+     * time both keep their runs.
+     */
+    @Test public void interleavedScans() throws Exception {
+        TransactionId tid2 = new TransactionId();
+        int half = hf.numPages() / 2;
+        for (int i = 0; i < half; i++) {
+            bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY);
+            bp.getPage(tid2, new HeapPageId(hf.getId(), half + i), Permissions.READ_ONLY);
+        }
+        ReadAhead ra = bp.getReadAhead();
+        // the first two pages of each run are needed to detect it
+        assertEquals(hf.numPages() - 4, ra.getHitCount());
+        assertEquals(0, ra.getWastedCount());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReadAheadTest.class);
+    }
+}
@@ -0,0 +1,227 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.LockManager.LockMode;
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class RecordLockingTest extends SimpleDbTestBase {
+    private static final int TIMEOUT = 200;
+
+    private HeapFile empty;
+    private BufferPool bp;
+    private TransactionId tid1, tid2;
+
+    @Before public void setUp() throws Exception {
+        File f = File.createTempFile("records", ".dat");
+        f.deleteOnExit();
+        empty = Utility.createEmptyHeapFile(f.getAbsolutePath(), 2);
+        bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        bp.setRecordLocking(true);
+        tid1 = new TransactionId();
+        tid2 = new TransactionId();
+    }
+
+    /** Runs attempt() in another thread; go() waits up to TIMEOUT ms for it. */
+    private static abstract class Attempt extends Thread {
+        volatile boolean done;
+        volatile Exception error;
+
+        abstract void attempt() throws Exception;
+
+        public void run() {
+            try {
+                attempt();
+                done = true;
+            } catch (Exception e) {
+                error = e;
+            }
+        }
+
+        Attempt go() throws InterruptedException {
+            start();
+            join(TIMEOUT);
+            return this;
+        }
+    }
+
+    private int count(TransactionId tid, HeapFile f) throws Exception {
+        DbFileIterator it = f.iterator(tid);
+        it.open();
+        int n = 0;
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        it.close();
+        return n;
+    }
+
+    @Test public void lockModes() {
+        assertTrue(LockMode.IX.isCompatibleWith(LockMode.IX));
+        assertTrue(LockMode.IS.isCompatibleWith(LockMode.SIX));
+        assertFalse(LockMode.IX.isCompatibleWith(LockMode.S));
+        assertFalse(LockMode.X.isCompatibleWith(LockMode.IS));
+        assertEquals(LockMode.SIX, LockMode.S.join(LockMode.IX));
+        assertEquals(LockMode.X, LockMode.X.join(LockMode.IS));
+        assertTrue(LockMode.SIX.covers(LockMode.S));
+        assertFalse(LockMode.S.covers(LockMode.IX));
+    }
+
+    /**
+     * Two transactions insert into the same page without waiting for each
+     * other.
+     */
+    @Test public void concurrentInsertsShareAPage() throws Exception {
+        bp.insertTuple(tid1, empty.getId(), Utility.getHeapTuple(1, 2));
+        Attempt a = new Attempt() {
+            void attempt() throws Exception {
+                bp.insertTuple(tid2, empty.getId(), Utility.getHeapTuple(2, 2));
+            }
+        }.go();
+        assertTrue(a.done);
+        assertEquals(1, empty.numPages());
+        HeapPageId pid = new HeapPageId(empty.getId(), 0);
+        assertEquals(LockMode.IX, bp.getLockManager().lockMode(tid1, pid));
+        assertEquals(LockMode.IX, bp.getLockManager().lockMode(tid2, pid));
+    }
+
+    /**
+     * Aborting one of two writers of a page only undoes its own change, and
+     * the other's commit makes its change durable.
+     */
+    @Test public void abortUndoesOnlyOwnChanges() throws Exception {
+        bp.insertTuple(tid1, empty.getId(), Utility.getHeapTuple(1, 2));
+        bp.insertTuple(tid2, empty.getId(), Utility.getHeapTuple(2, 2));
+        bp.transactionComplete(tid2, false);
+        bp.transactionComplete(tid1, true);
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = empty.iterator(tid);
+        it.open();
+        assertTrue(it.hasNext());
+        assertEquals(new IntField(1), it.next().getField(0));
+        assertFalse(it.hasNext());
+        it.close();
+    }
+
+    /**
+     * A slot freed by an uncommitted delete isn't reused, so aborting the
+     * delete can put the tuple back where it was.
+     */
+    @Test public void deletedSlotStaysLocked() throws Exception {
+        TransactionId setup = new TransactionId();
+        bp.insertTuple(setup, empty.getId(), Utility.getHeapTuple(1, 2));
+        bp.transactionComplete(setup);
+
+        HeapPage page = (HeapPage) bp.getPage(tid1, new HeapPageId(empty.getId(), 0),
+                Permissions.READ_WRITE);
+        Tuple t = page.iterator().next();
+        RecordId rid = t.getRecordId();
+        bp.deleteTuple(tid1, t);
+
+        Tuple other = Utility.getHeapTuple(2, 2);
+        bp.insertTuple(tid2, empty.getId(), other);
+        assertFalse(rid.equals(other.getRecordId()));
+
+        bp.transactionComplete(tid1, false);
+        assertTrue(page.isSlotUsed(rid.tupleno()));
+        assertEquals(2, count(tid2, empty));
+    }
+
+    /**
+     * Deleting a record another running transaction deleted waits for it,
+     * and a reader of the whole page waits for its writers.
+     */
+    @Test public void conflictsStillBlock() throws Exception {
+        TransactionId setup = new TransactionId();
+        bp.insertTuple(setup, empty.getId(), Utility.getHeapTuple(1, 2));
+        bp.transactionComplete(setup);
+
+        final HeapPageId pid = new HeapPageId(empty.getId(), 0);
+        final Tuple t = ((HeapPage) bp.getPage(tid1, pid, Permissions.READ_WRITE)).iterator().next();
+        bp.deleteTuple(tid1, t);
+
+        Attempt delete = new Attempt() {
+            void attempt() throws Exception {
+                bp.deleteTuple(tid2, t);
+            }
+        }.go();
+        assertFalse(delete.done);
+
+        final TransactionId tid3 = new TransactionId();
+        Attempt read = new Attempt() {
+            void attempt() throws Exception {
+                bp.getPage(tid3, pid, Permissions.READ_ONLY);
+            }
+        }.go();
+        assertFalse(read.done);
+
+        // the tuple is gone by the time tid2 gets its lock
+        bp.transactionComplete(tid1, true);
+        delete.join(TIMEOUT);
+        assertTrue(delete.error instanceof DbException);
+        // tid2 still has its intention lock on the page
+        assertFalse(read.done);
+        bp.transactionComplete(tid2, false);
+        read.join(TIMEOUT);
+        assertTrue(read.done);
+    }
+
+    /**
+     * A bulk insert waiting for its table lock doesn't keep the holder of a
+     * conflicting table lock from inserting into the same file.
+     */
+    @Test public void appendWaitsOutsideTheFile() throws Exception {
+        // fill the file's page, so that both inserts append
+        TransactionId setup = new TransactionId();
+        int perPage = new HeapPage(new HeapPageId(empty.getId(), 0),
+                HeapPage.createEmptyPageData()).getNumEmptySlots();
+        ArrayList<Tuple> full = new ArrayList<Tuple>();
+        for (int i = 0; i < perPage; i++)
+            full.add(Utility.getHeapTuple(i, 2));
+        bp.insertTuples(setup, empty.getId(), full.iterator());
+        bp.transactionComplete(setup);
+
+        bp.getLockManager().acquire(tid2, LockManager.tableResource(empty.getId()), LockMode.S);
+        Attempt append = new Attempt() {
+            void attempt() throws Exception {
+                bp.insertTuples(tid1, empty.getId(),
+                        Arrays.asList(Utility.getHeapTuple(1, 2)).iterator());
+            }
+        }.go();
+        assertFalse(append.done);
+        assertNull(append.error);
+
+        Attempt insert = new Attempt() {
+            void attempt() throws Exception {
+                bp.insertTuple(tid2, empty.getId(), Utility.getHeapTuple(2, 2));
+            }
+        }.go();
+        assertTrue(insert.done);
+        assertFalse(append.done);
+        assertNull(append.error);
+        bp.transactionComplete(tid2, true);
+        append.join(TIMEOUT);
+        assertTrue(append.done);
+        bp.transactionComplete(tid1, true);
+        assertEquals(perPage + 2, count(new TransactionId(), empty));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(RecordLockingTest.class);
+    }
+}
@@ -0,0 +1,152 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class SlottedFileTest extends SimpleDbTestBase {
+    private SlottedFile sf;
+    private TransactionId tid;
+    private BufferPool bp;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        File f = File.createTempFile("slotted", ".dat");
+        f.deleteOnExit();
+        sf = new SlottedFile(f, new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE }));
+        Database.getCatalog().addTable(sf, "slotted");
+        bp = Database.getBufferPool();
+        tid = new TransactionId();
+    }
+
+    private Tuple tuple(int i, String s) {
+        Tuple t = new Tuple(sf.getTupleDesc());
+        t.setField(0, new IntField(i));
+        t.setField(1, new StringField(s, Math.max(Type.STRING_LEN, s.length())));
+        return t;
+    }
+
+    private static String repeat(char c, int n) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < n; i++)
+            sb.append(c);
+        return sb.toString();
+    }
+
+    private ArrayList<Tuple> readAll() throws Exception {
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        DbFileIterator it = sf.iterator(tid);
+        it.open();
+        while (it.hasNext())
+            tuples.add(it.next());
+        it.close();
+        return tuples;
+    }
+
+    private void commit() throws Exception {
+        bp.transactionComplete(tid);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        bp = Database.getBufferPool();
+        tid = new TransactionId();
+    }
+
+    @Test public void varStringFormat() throws Exception {
+        ByteBuffer buf = ByteBuffer.allocate(16);
+        StringField s = new StringField("abc", Type.STRING_LEN);
+        s.serializeVar(buf);
+        assertEquals(s.getVarLen(), buf.position());
+        buf.flip();
+        assertEquals(s, Type.STRING_TYPE.parseVar(buf));
+        assertFalse(buf.hasRemaining());
+    }
+
+    /**
+     * Short strings take only their own length, so many more tuples fit on
+     * a page than in a HeapFile.
+     */
+    @Test public void shortStringsPackTightly() throws Exception {
+        int heapPerPage = (BufferPool.getPageSize() * 8) / (sf.getTupleDesc().getSize() * 8 + 1);
+        int n = heapPerPage * 4;
+        for (int i = 0; i < n; i++)
+            bp.insertTuple(tid, sf.getId(), tuple(i, "s" + i));
+        commit();
+        assertEquals(1, sf.numPages());
+
+        ArrayList<Tuple> tuples = readAll();
+        assertEquals(n, tuples.size());
+        for (int i = 0; i < n; i++) {
+            assertEquals(new IntField(i), tuples.get(i).getField(0));
+            assertEquals("s" + i, ((StringField) tuples.get(i).getField(1)).getValue());
+        }
+    }
+
+    /**
+     * A string longer than a page goes to a chain of overflow pages, which
+     * scans skip and which a delete frees for reuse.
+     */
+    @Test public void overflow() throws Exception {
+        String huge = repeat('x', BufferPool.getPageSize() * 2 + 100);
+        bp.insertTuple(tid, sf.getId(), tuple(1, "short"));
+        Tuple big = tuple(2, huge);
+        bp.insertTuple(tid, sf.getId(), big);
+        commit();
+        assertEquals(4, sf.numPages());
+
+        ArrayList<Tuple> tuples = readAll();
+        assertEquals(2, tuples.size());
+        assertEquals(huge, ((StringField) tuples.get(1).getField(1)).getValue());
+
+        bp.deleteTuple(tid, tuples.get(1));
+        commit();
+        assertEquals(1, readAll().size());
+        // the freed pages take new tuples instead of the file growing
+        for (int i = 0; i < 100; i++)
+            bp.insertTuple(tid, sf.getId(), tuple(i, repeat('y', 100)));
+        commit();
+        assertEquals(4, sf.numPages());
+        assertEquals(101, readAll().size());
+    }
+
+    /**
+     * A slot freed by a delete is reused, and records are moved together
+     * to make room for a longer one.
+     */
+    @Test public void deleteAndCompact() throws Exception {
+        ArrayList<Tuple> inserted = new ArrayList<Tuple>();
+        for (int i = 0; ; i++) {
+            Tuple t = tuple(i, repeat('a', 40));
+            bp.insertTuple(tid, sf.getId(), t);
+            if (sf.numPages() > 1) break;
+            inserted.add(t);
+        }
+        // free two neighbouring records; neither gap alone fits 60 chars
+        bp.deleteTuple(tid, inserted.get(3));
+        bp.deleteTuple(tid, inserted.get(4));
+        Tuple t = tuple(-1, repeat('b', 60));
+        bp.insertTuple(tid, sf.getId(), t);
+        assertEquals(inserted.get(3).getRecordId(), t.getRecordId());
+        commit();
+
+        ArrayList<Tuple> tuples = readAll();
+        assertEquals(inserted.size() + 1 - 2 + 1, tuples.size());
+        assertEquals(new IntField(-1), tuples.get(3).getField(0));
+        assertEquals(repeat('b', 60), ((StringField) tuples.get(3).getField(1)).getValue());
+        assertEquals(new IntField(5), tuples.get(4).getField(0));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SlottedFileTest.class);
+    }
+}
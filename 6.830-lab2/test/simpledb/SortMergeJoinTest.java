@@ -0,0 +1,134 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+import java.util.Random;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class SortMergeJoinTest extends SimpleDbTestBase {
+
+  /** @return a two column relation of n tuples, with keys drawn from 0..keys-1 */
+  private DbIterator randomTuples(int n, int keys, Random r) {
+    int[] data = new int[2 * n];
+    for (int i = 0; i < n; i++) {
+      data[2 * i] = r.nextInt(keys);
+      data[2 * i + 1] = i;
+    }
+    return TestUtil.createTupleList(2, data);
+  }
+
+  /** @return the number of tuples of op, checking each against pred */
+  private int count(DbIterator op, JoinPredicate pred) throws Exception {
+    int n = 0;
+    while (op.hasNext()) {
+      Tuple t = op.next();
+      Tuple l = new Tuple(Utility.getTupleDesc(2));
+      Tuple r = new Tuple(Utility.getTupleDesc(2));
+      for (int i = 0; i < 2; i++) {
+        l.setField(i, t.getField(i));
+        r.setField(i, t.getField(2 + i));
+      }
+      assertTrue(pred.filter(l, r));
+      n++;
+    }
+    return n;
+  }
+
+  /** Joins the two with op and with Join, and compares the results. */
+  private void compare(Predicate.Op op, DbIterator a, DbIterator b, int memoryPages) throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, op, 0);
+    SortMergeJoin smj = new SortMergeJoin(pred, a, b, memoryPages);
+    smj.open();
+    int n = count(smj, pred);
+    smj.rewind();
+    assertEquals(n, count(smj, pred));
+    smj.close();
+
+    Join nl = new Join(pred, a, b);
+    nl.open();
+    int expected = 0;
+    for (; nl.hasNext(); nl.next())
+      expected++;
+    assertEquals(expected, n);
+  }
+
+  /**
+   * Equality joins with runs of equal keys on both sides
+   */
+  @Test public void equals() throws Exception {
+    Random r = new Random(1);
+    compare(Predicate.Op.EQUALS, randomTuples(500, 50, r), randomTuples(400, 50, r), 16);
+  }
+
+  /**
+   * Band joins, for each of the range predicates
+   */
+  @Test public void bands() throws Exception {
+    Random r = new Random(2);
+    Predicate.Op[] ops = { Predicate.Op.LESS_THAN, Predicate.Op.LESS_THAN_OR_EQ,
+        Predicate.Op.GREATER_THAN, Predicate.Op.GREATER_THAN_OR_EQ };
+    for (Predicate.Op op : ops)
+      compare(op, randomTuples(200, 50, r), randomTuples(300, 50, r), 16);
+  }
+
+  /**
+   * Inputs bigger than the memory budget are sorted externally
+   */
+  @Test public void externalSort() throws Exception {
+    Random r = new Random(3);
+    DbIterator a = randomTuples(3000, 2000, r);
+    DbIterator b = randomTuples(3000, 2000, r);
+    compare(Predicate.Op.EQUALS, a, b, 1);
+    SortMergeJoin smj = new SortMergeJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0), a, b, 1);
+    smj.open();
+    while (smj.hasNext())
+      smj.next();
+    assertTrue(smj.explain().contains("written to disk"));
+    smj.close();
+  }
+
+  /**
+   * A child already in order of the join field isn't sorted again
+   */
+  @Test public void alreadySorted() throws Exception {
+    Random r = new Random(4);
+    DbIterator unsorted = randomTuples(100, 20, r);
+    DbIterator a = new OrderBy(0, true, unsorted);
+    DbIterator b = randomTuples(100, 20, r);
+    assertTrue(SortMergeJoin.isSortedOn(a, 0));
+    assertFalse(SortMergeJoin.isSortedOn(a, 1));
+    assertFalse(SortMergeJoin.isSortedOn(b, 0));
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.GREATER_THAN, 0);
+    SortMergeJoin smj = new SortMergeJoin(pred, a, b);
+    assertTrue(smj.explain().contains("left already sorted"));
+    smj.open();
+    int n = count(smj, pred);
+    smj.close();
+
+    Join nl = new Join(pred, unsorted, b);
+    nl.open();
+    int expected = 0;
+    for (; nl.hasNext(); nl.next())
+      expected++;
+    assertEquals(expected, n);
+  }
+
+  /**
+   * SortMergeJoin can't evaluate NOT_EQUALS
+   */
+  @Test(expected = IllegalArgumentException.class) public void rejectsNotEquals() {
+    Random r = new Random(5);
+    new SortMergeJoin(new JoinPredicate(0, Predicate.Op.NOT_EQUALS, 0),
+        randomTuples(10, 5, r), randomTuples(10, 5, r));
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(SortMergeJoinTest.class);
+  }
+}
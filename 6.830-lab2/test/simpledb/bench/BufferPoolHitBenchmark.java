@@ -0,0 +1,103 @@
+package simpledb.bench;
+
+import java.io.File;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import simpledb.*;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Measures BufferPool.getPage hit throughput as the number of threads grows
+ * from 1 to 32. The whole table fits in the pool, so after warm-up every
+ * request is a hit; each thread requests random pages of it in a tight loop.
+ * <p>
+ * For every thread count and eviction policy the benchmark runs a number of
+ * warm-up iterations and then reports the mean and best of the measured
+ * iterations, in the spirit of a JMH throughput benchmark.
+ * <p>
+ * Usage: BufferPoolHitBenchmark [pages] [iteration ms] [iterations]
+ */
+public class BufferPoolHitBenchmark {
+    private static final int[] THREADS = { 1, 2, 4, 8, 16, 32 };
+    private static final String[] POLICIES = { "lru", "clock", "2q" };
+    private static final int WARMUP_ITERATIONS = 3;
+
+    public static void main(String[] args) throws Exception {
+        int pages = args.length > 0 ? Integer.parseInt(args[0]) : 512;
+        long iterationMs = args.length > 1 ? Long.parseLong(args[1]) : 500;
+        int iterations = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+        File data = SystemTestUtil.createRandomHeapFileUnopened(2, pages * 504,
+                Integer.MAX_VALUE, null, null);
+        System.out.printf("%-6s %7s %16s %16s%n", "policy", "threads", "mean hits/s", "best hits/s");
+        for (String name : POLICIES) {
+            Database.reset();
+            HeapFile hf = Utility.openHeapFile(2, data);
+            BufferPool bp = Database.resetBufferPool(pages,
+                    BufferPool.newEvictionPolicy(name, pages));
+            TransactionId tid = new TransactionId();
+            for (int i = 0; i < hf.numPages(); i++)
+                bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY);
+
+            for (int threads : THREADS) {
+                for (int i = 0; i < WARMUP_ITERATIONS; i++)
+                    run(bp, hf, threads, iterationMs);
+                double total = 0, best = 0;
+                for (int i = 0; i < iterations; i++) {
+                    double rate = run(bp, hf, threads, iterationMs);
+                    total += rate;
+                    best = Math.max(best, rate);
+                }
+                System.out.printf("%-6s %7d %16.0f %16.0f%n", name, threads,
+                        total / iterations, best);
+            }
+            hf.close();
+        }
+    }
+
+    /** Runs threads hitting random pages for ms milliseconds and returns hits per second. */
+    private static double run(final BufferPool bp, final HeapFile hf, int threads, long ms)
+            throws InterruptedException {
+        final AtomicBoolean stop = new AtomicBoolean();
+        final CountDownLatch start = new CountDownLatch(1);
+        final long[] counts = new long[threads * 16]; // padded against false sharing
+        Thread[] workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            final int slot = i * 16;
+            final int seed = i;
+            workers[i] = new Thread() {
+                public void run() {
+                    Random rand = new Random(seed);
+                    TransactionId tid = new TransactionId();
+                    int tableId = hf.getId(), n = hf.numPages();
+                    long count = 0;
+                    try {
+                        start.await();
+                        while (!stop.get()) {
+                            bp.getPage(tid, new HeapPageId(tableId, rand.nextInt(n)),
+                                    Permissions.READ_ONLY);
+                            count++;
+                        }
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                    counts[slot] = count;
+                }
+            };
+            workers[i].start();
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        Thread.sleep(ms);
+        stop.set(true);
+        for (Thread t : workers)
+            t.join();
+        double secs = (System.nanoTime() - begin) / 1e9;
+        long total = 0;
+        for (long c : counts)
+            total += c;
+        return total / secs;
+    }
+}
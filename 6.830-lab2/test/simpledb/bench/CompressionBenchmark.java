@@ -0,0 +1,91 @@
+package simpledb.bench;
+
+import java.io.*;
+import java.util.Random;
+
+import simpledb.*;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Reports how well CompressedHeapFile compresses a few tables like those
+ * of the system tests, and how fast its pages are read back compared to
+ * the pages of the plain heap file.
+ * <p>
+ * The tables are random ints over the whole int range, random ints below
+ * 1000 as most system tests use, and ints with a string column drawn from
+ * a hundred values. Every page of each file is read with readPage a number
+ * of times on a warm page cache, so the read rates compare decoding work
+ * against plain page parsing rather than disk bandwidth.
+ * <p>
+ * Usage: CompressionBenchmark [rows] [passes]
+ */
+public class CompressionBenchmark {
+    private static final int COLUMNS = 4;
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 500000;
+        int passes = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        System.out.printf("%-12s %10s %10s %7s %14s %14s %10s%n", "table", "heap KB",
+                "comp KB", "ratio", "heap pages/s", "comp pages/s", "decode MB/s");
+        TupleDesc ints = Utility.getTupleDesc(COLUMNS);
+        run("ints", SystemTestUtil.createRandomHeapFileUnopened(COLUMNS, rows,
+                Integer.MAX_VALUE, null, null), ints, passes);
+        run("ints < 1000", SystemTestUtil.createRandomHeapFileUnopened(COLUMNS, rows,
+                1000, null, null), ints, passes);
+        Type[] types = new Type[] { Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE };
+        run("strings", stringTable(rows, types), new TupleDesc(types), passes);
+    }
+
+    /** Writes a heap file of rows (key, one of a hundred names, small int). */
+    private static File stringTable(int rows, Type[] types) throws IOException {
+        File txt = File.createTempFile("strings", ".txt");
+        txt.deleteOnExit();
+        Random r = new Random();
+        Writer w = new BufferedWriter(new FileWriter(txt));
+        for (int i = 0; i < rows; i++)
+            w.write(i + ",name" + r.nextInt(100) + "," + r.nextInt(1000) + "\n");
+        w.close();
+        File heap = File.createTempFile("strings", ".dat");
+        heap.deleteOnExit();
+        HeapFileEncoder.convert(txt, heap, BufferPool.getPageSize(), types.length, types, ',', 1);
+        return heap;
+    }
+
+    private static void run(String name, File heap, TupleDesc td, int passes) throws IOException {
+        File comp = File.createTempFile("table", ".chf");
+        comp.deleteOnExit();
+        CompressedHeapFile.compress(heap, td, comp);
+
+        Database.reset();
+        HeapFile hf = new HeapFile(heap, td);
+        CompressedHeapFile cf = new CompressedHeapFile(comp, td);
+        Database.getCatalog().addTable(hf, "heap");
+        Database.getCatalog().addTable(cf, "compressed");
+        double heapMs = 0, compMs = 0;
+        // one unmeasured pass of each warms up the page cache and the JIT
+        read(hf);
+        read(cf);
+        for (int i = 0; i < passes; i++) {
+            heapMs += read(hf);
+            compMs += read(cf);
+        }
+        double pages = hf.numPages() * passes;
+        double pageMB = pages * BufferPool.getPageSize() / (1 << 20);
+        System.out.printf("%-12s %10d %10d %7.2f %14.0f %14.0f %10.1f%n", name,
+                heap.length() >> 10, comp.length() >> 10,
+                (double) heap.length() / comp.length(),
+                pages / (heapMs / 1000), pages / (compMs / 1000), pageMB / (compMs / 1000));
+        hf.close();
+        cf.close();
+    }
+
+    /** Reads every page of f, returning the elapsed time in ms. */
+    private static double read(HeapFile f) {
+        long start = System.nanoTime();
+        int tableid = f.getId();
+        for (int i = 0; i < f.numPages(); i++)
+            f.readPage(new HeapPageId(tableid, i));
+        return (System.nanoTime() - start) / 1e6;
+    }
+}
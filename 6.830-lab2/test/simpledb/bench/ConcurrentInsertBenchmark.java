@@ -0,0 +1,88 @@
+package simpledb.bench;
+
+import java.io.File;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import simpledb.*;
+
+/**
+ * Measures committed inserts per second into one table shared by a growing
+ * number of client threads, with page-level and with record-level locking.
+ * <p>
+ * Every client runs transactions of a few inserts each and commits them.
+ * With page locks all clients queue for the exclusive lock on the page
+ * that has free space until its holder commits; with record locks they
+ * only take intention locks on it and insert side by side. Aborted
+ * transactions (deadlock victims) are retried and counted.
+ * <p>
+ * Usage: ConcurrentInsertBenchmark [seconds per run] [inserts per transaction]
+ */
+public class ConcurrentInsertBenchmark {
+    private static final int[] THREADS = { 1, 2, 4, 8, 16 };
+
+    public static void main(String[] args) throws Exception {
+        double seconds = args.length > 0 ? Double.parseDouble(args[0]) : 2;
+        int perTxn = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+
+        System.out.printf("%-7s %7s %14s %8s%n", "locks", "threads", "inserts/s", "aborts");
+        for (boolean records : new boolean[] { false, true }) {
+            for (int threads : THREADS) {
+                Database.reset();
+                File f = File.createTempFile("inserts", ".dat");
+                f.deleteOnExit();
+                HeapFile hf = Utility.createEmptyHeapFile(f.getAbsolutePath(), 2);
+                BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+                bp.setRecordLocking(records);
+                long[] result = run(bp, hf, threads, perTxn, (long) (seconds * 1000));
+                System.out.printf("%-7s %7d %14.0f %8d%n", records ? "record" : "page",
+                        threads, result[0] / seconds, result[1]);
+                hf.close();
+            }
+        }
+    }
+
+    /** @return the number of committed inserts and of aborted transactions */
+    private static long[] run(final BufferPool bp, final HeapFile hf, int threads,
+                              final int perTxn, long ms) throws InterruptedException {
+        final AtomicBoolean stop = new AtomicBoolean();
+        final AtomicLong inserted = new AtomicLong();
+        final AtomicLong aborted = new AtomicLong();
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            final int client = i;
+            workers[i] = new Thread() {
+                public void run() {
+                    try {
+                        start.await();
+                        int n = 0;
+                        while (!stop.get()) {
+                            TransactionId tid = new TransactionId();
+                            try {
+                                for (int j = 0; j < perTxn; j++)
+                                    bp.insertTuple(tid, hf.getId(),
+                                            Utility.getHeapTuple(new int[] { client, n++ }));
+                                bp.transactionComplete(tid, true);
+                                inserted.addAndGet(perTxn);
+                            } catch (TransactionAbortedException e) {
+                                bp.transactionComplete(tid, false);
+                                aborted.incrementAndGet();
+                            }
+                        }
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            };
+            workers[i].start();
+        }
+        start.countDown();
+        Thread.sleep(ms);
+        stop.set(true);
+        for (Thread t : workers)
+            t.join();
+        return new long[] { inserted.get(), aborted.get() };
+    }
+}
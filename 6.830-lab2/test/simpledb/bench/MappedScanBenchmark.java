@@ -0,0 +1,80 @@
+package simpledb.bench;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
+import simpledb.*;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Compares reading every page of a heap file through positioned FileChannel
+ * reads against reading it from a memory-mapped file.
+ * <p>
+ * Each mode is timed once on a cold page cache and then several times on a
+ * warm one. Dropping the OS page cache needs root; if
+ * /proc/sys/vm/drop_caches isn't writable the "cold" pass only measures a
+ * freshly opened file, and the benchmark says so.
+ * <p>
+ * Usage: MappedScanBenchmark [rows] [warm passes]
+ */
+public class MappedScanBenchmark {
+    private static final int COLUMNS = 4;
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 2000000;
+        int passes = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        System.out.println("Creating table with " + rows + " rows");
+        File data = SystemTestUtil.createRandomHeapFileUnopened(COLUMNS, rows,
+                Integer.MAX_VALUE, null, null);
+        TupleDesc td = Utility.getTupleDesc(COLUMNS);
+        System.out.println("Table is " + (data.length() >> 20) + " MB");
+
+        for (boolean mapped : new boolean[] { false, true }) {
+            String mode = mapped ? "mmap   " : "channel";
+            Database.reset();
+            HeapFile hf = new HeapFile(data, td, mapped);
+            Database.getCatalog().addTable(hf, "bench");
+
+            boolean cold = dropCaches();
+            double ms = scan(hf);
+            System.out.printf("%s %s pass: %8.1f ms (%.0f pages/s)%n", mode,
+                    cold ? "cold" : "first", ms, hf.numPages() / (ms / 1000));
+
+            double total = 0;
+            for (int i = 0; i < passes; i++)
+                total += scan(hf);
+            System.out.printf("%s warm pass: %8.1f ms (%.0f pages/s)%n", mode,
+                    total / passes, hf.numPages() / (total / passes / 1000));
+            hf.close();
+        }
+    }
+
+    /** Reads and parses every page of hf, returning the elapsed time in ms. */
+    private static double scan(HeapFile hf) {
+        long start = System.nanoTime();
+        long tuples = 0;
+        for (int i = 0; i < hf.numPages(); i++) {
+            HeapPage p = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), i));
+            for (java.util.Iterator<Tuple> it = p.iterator(); it.hasNext(); it.next())
+                tuples++;
+        }
+        if (tuples < 0) System.out.println(tuples); // keep the loop live
+        return (System.nanoTime() - start) / 1e6;
+    }
+
+    /** Tries to drop the OS page cache. Returns true if it worked. */
+    private static boolean dropCaches() {
+        File f = new File("/proc/sys/vm/drop_caches");
+        if (!f.canWrite()) return false;
+        try {
+            FileWriter w = new FileWriter(f);
+            w.write("3\n");
+            w.close();
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Loads a small "hot" table into the buffer pool, scans a table several
+ * times larger than the pool, and checks that the hot pages are still
+ * cached afterwards because the scan only recycled its own ring of frames.
+ */
+public class ScanResistanceTest extends SimpleDbTestBase {
+    private static final int BUFFER_PAGES = 24;
+
+    private void readAll(HeapFile f, BufferPool bp, TransactionId tid)
+            throws DbException, TransactionAbortedException {
+        for (int i = 0; i < f.numPages(); i++)
+            bp.getPage(tid, new HeapPageId(f.getId(), i), Permissions.READ_ONLY);
+    }
+
+    @Test public void testHotSetSurvivesScan() throws Exception {
+        HeapFile hot = SystemTestUtil.createRandomHeapFile(2, 504 * 4, null, null);
+        HeapFile big = SystemTestUtil.createRandomHeapFile(2, 504 * 100, null, null);
+        BufferPool bp = Database.resetBufferPool(BUFFER_PAGES, new LRUEvictionPolicy());
+        TransactionId tid = new TransactionId();
+
+        readAll(hot, bp, tid);
+        DbFileIterator it = big.iterator(tid);
+        it.open();
+        while (it.hasNext()) it.next();
+        it.close();
+
+        bp.resetStats();
+        readAll(hot, bp, tid);
+        assertEquals(hot.numPages(), bp.getHitCount());
+        assertEquals(0, bp.getMissCount());
+        assertEquals(1.0, bp.getHitRatio(), 0.0);
+    }
+
+    @Test public void testScanWithoutRingFlushesHotSet() throws Exception {
+        HeapFile hot = SystemTestUtil.createRandomHeapFile(2, 504 * 4, null, null);
+        HeapFile big = SystemTestUtil.createRandomHeapFile(2, 504 * 100, null, null);
+        BufferPool bp = Database.resetBufferPool(BUFFER_PAGES, new LRUEvictionPolicy());
+        TransactionId tid = new TransactionId();
+
+        readAll(hot, bp, tid);
+        readAll(big, bp, tid);
+
+        bp.resetStats();
+        readAll(hot, bp, tid);
+        assertEquals(0, bp.getHitCount());
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(ScanResistanceTest.class);
+    }
+}